@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.graphics.PixelFormat;
+import android.graphics.Point;
+import android.graphics.Rect;
+
+/**
+ * The per-frame Java work between the camera callback and qmcore.decode, from QVGA to 1080p
+ * previews, cropped either to the usual centered framing rect or to full-width bands. Run with
+ * -prof gc to see the allocation rate next to the latency; see bench/README.txt.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FramePreparationBenchmark {
+
+	// A typical mid-range handset's answer, with the current screen sizes mixed in.
+	private static final String PREVIEW_SIZE_VALUES =
+	    "1920x1080,1280x960,1280x720,1024x768,960x720,864x480,800x600,800x480,720x480," +
+	    "640x480,640x360,576x432,480x320,384x288,352x288,320x240,240x160,176x144";
+	
+	@Param({"320x240", "640x480", "800x480", "1280x720", "1920x1080"})
+	public String resolution;
+	
+	@Param({"center", "fullWidth"})
+	public String crop;
+	
+	private Point cameraResolution;
+	private Point screenResolution;
+	private Rect framingRect;
+	private Rect framingRectInPreview;
+	private byte[] frame;
+	private byte[] matrixBuffer;
+	private byte[] halfBuffer;
+	
+	@Setup
+	public void setUp() {
+	    int separator = resolution.indexOf('x');
+	    cameraResolution = new Point(Integer.parseInt(resolution.substring(0, separator)),
+	        Integer.parseInt(resolution.substring(separator + 1)));
+	    // Previews are usually picked to match the screen.
+	    screenResolution = new Point(cameraResolution.x, cameraResolution.y);
+	    if ("center".equals(crop)) {
+	      framingRect = CameraManager.calculateFramingRect(screenResolution);
+	    } else {
+	      int height = screenResolution.y / 2;
+	      int top = (screenResolution.y - height) / 2;
+	      framingRect = new Rect(0, top, screenResolution.x, top + height);
+	    }
+	    framingRectInPreview = CameraManager.scaleToPreview(framingRect, cameraResolution, screenResolution);
+	    frame = new byte[cameraResolution.x * cameraResolution.y * 3 / 2];
+	    for (int i = 0; i < frame.length; i++) {
+	      frame[i] = (byte) (i * 31);
+	    }
+	}
+	
+	@Benchmark
+	public DecodeBufferSource constructSource() {
+	    Rect rect = framingRectInPreview;
+	    return new DecodeBufferSource(frame, cameraResolution.x, cameraResolution.y, rect.left,
+	        rect.top, rect.width(), rect.height());
+	}
+	
+	@Benchmark
+	public DecodeBufferSource buildDecodeBuffer() {
+	    return CameraManager.buildDecodeBuffer(frame, cameraResolution.x, cameraResolution.y,
+	        framingRectInPreview, PixelFormat.YCbCr_420_SP, "yuv420sp");
+	}
+	
+	@Benchmark
+	public byte[] getMatrix() {
+	    return constructSource().getMatrix();
+	}
+	
+	@Benchmark
+	public byte[] getMatrixReused() {
+	    DecodeBufferSource source = constructSource();
+	    byte[] matrix = source.getMatrix(matrixBuffer);
+	    if (source.isCropped()) {
+	      matrixBuffer = matrix;
+	    }
+	    return matrix;
+	}
+	
+	@Benchmark
+	public byte[] getDownsampledMatrix() {
+	    byte[] matrix = constructSource().getDownsampledMatrix(halfBuffer);
+	    halfBuffer = matrix;
+	    return matrix;
+	}
+	
+	@Benchmark
+	public Rect framingRectInPreview() {
+	    return CameraManager.scaleToPreview(framingRect, cameraResolution, screenResolution);
+	}
+	
+	@Benchmark
+	public Point findBestPreviewSizeValue() {
+	    return CameraConfigurationManager.findBestPreviewSizeValue(PREVIEW_SIZE_VALUES, screenResolution);
+	}
+}
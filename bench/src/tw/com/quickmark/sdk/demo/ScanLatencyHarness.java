@@ -0,0 +1,702 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import tw.com.quickmark.sdk.BarcodeFormat;
+import tw.com.quickmark.sdk.Result;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+
+/**
+ * End to end scan latency on a desktop JVM: a fake camera delivers synthetic frames at a fixed rate,
+ * and they go through the same steps as on a device, from the capture handoff through the
+ * {@link FrameDecoder} every decode thread shares, with its ROI tracker, prescreen, sharpness
+ * check, format scheduler, classifier and {@link DecodePyramid}, to the result being handled on a
+ * main thread, as {@link CaptureActivityHandler} does. The scene is a series of trials: a few frames without a
+ * code, then a code which comes into focus over several frames, until it decodes or times out.
+ *
+ * Usage: ScanLatencyHarness [-mode oneshot|continuous] [-workers n] [-fps n] [-seconds n]
+ *        [-warmup n] [-size WxH] [-formats mask] [-cost ns] [-decoder class] [-seed n]
+ *        [-out file] [-baseline file] [-threshold x]
+ *
+ * oneshot is the legacy flow, one frame requested at a time through the decode thread's handler;
+ * continuous is the {@link PreviewFrameRing} with n decoding workers. Android's handlers are
+ * modelled with blocking queues between the threads, as there is no Looper here. Unless a real
+ * decoder class is given, decoding is simulated: it costs -cost nanoseconds per pixel and succeeds
+ * when the code in the frame is sharp enough, so the numbers measure the Java pipeline around it.
+ * Nothing is measured during the first -warmup seconds, while the JIT compiles the pipeline.
+ *
+ * The results go to -out as JSON. Given a baseline written by an earlier run, every gated metric is
+ * compared with it, and the exit status is 1 if any got worse by more than the threshold (0.1 is
+ * 10%); latencies must also have grown by more than a millisecond, which keeps sub-millisecond
+ * noise from failing the gate.
+ */
+public final class ScanLatencyHarness {
+
+	// In the order of DecodeFormats.FLAGS
+	private static final BarcodeFormat[] BARCODE_FORMATS = { BarcodeFormat.QR_CODE,
+	    BarcodeFormat.DATA_MATRIX, BarcodeFormat.EAN_13, BarcodeFormat.CODE_39, BarcodeFormat.CODE_128 };
+	// The blur of a code's frames as the lens pulls it into focus, the last one held.
+	private static final float[] FOCUS_BLUR = { 6.0f, 4.0f, 2.5f, 1.6f, 1.0f, 0.0f };
+	// Blurrier than this and the simulated decoder fails.
+	private static final float MAX_READABLE_BLUR = 1.0f;
+	// Nor does it read codes with modules smaller than this, in pixels.
+	private static final float MIN_READABLE_MODULE = 2.0f;
+	private static final int CODES = 8;
+	private static final int EMPTY_FRAMES = 4;
+	private static final int GAP_FRAMES = 10;
+	private static final long TRIAL_TIMEOUT_NANOS = 5000000000L;
+	private static final float MIN_LATENCY_REGRESSION_MS = 1.0f;
+	
+	// The gated metrics: lower is better for these, in milliseconds, higher for the rest. The 99th
+	// percentiles of a run of a few hundred frames, and all but the median of its few dozen results,
+	// are too noisy to gate on.
+	private static final String[] LATENCY_METRICS = { "timeToFirstDecodeP50Ms", "timeToFirstDecodeP95Ms",
+	    "frameLatencyP50Ms", "frameLatencyP95Ms", "resultLatencyP50Ms" };
+	private static final String[] RATE_METRICS = { "framesPerSec", "decodeRate" };
+	private static final Pattern METRIC = Pattern.compile("\"(\\w+)\"\\s*:\\s*(-?[0-9.Ee+-]+)");
+	
+	private static final int TRIAL_OPEN = 0;
+	private static final int TRIAL_DECODED = 1;
+	private static final int TRIAL_TIMED_OUT = 2;
+	
+	/**
+	 * One delivered frame and what is in it.
+	 */
+	private static final class Shot {
+	    final Scene scene;
+	    final int trial;
+	    final long captured;
+	    
+	    Shot(Scene scene, int trial, long captured) {
+	      this.scene = scene;
+	      this.trial = trial;
+	      this.captured = captured;
+	    }
+	}
+	
+	/**
+	 * A pre-rendered frame: nothing, or a code at some blur.
+	 */
+	private static final class Scene {
+	    final byte[] data;
+	    final Result expected;
+	    final int format;
+	    final float blur;
+	    final float moduleSize;
+	    
+	    Scene(byte[] data, Result expected, int format, float blur, float moduleSize) {
+	      this.data = data;
+	      this.expected = expected;
+	      this.format = format;
+	      this.blur = blur;
+	      this.moduleSize = moduleSize;
+	    }
+	}
+	
+	/**
+	 * What a decode thread posts to the main thread.
+	 */
+	private static final class Posted {
+	    final Shot shot;
+	    final Result result;
+	    final long posted;
+	    
+	    Posted(Shot shot, Result result, long posted) {
+	      this.shot = shot;
+	      this.result = result;
+	      this.posted = posted;
+	    }
+	}
+	
+	/**
+	 * Spends a fixed time per pixel, as qmcore would, and finds the code the harness put in the frame
+	 * if it is sharp and large enough at the size it is given.
+	 */
+	static final class SimulatedDecoder implements BarcodeDecoder {
+	    
+	    private static final ThreadLocal<Shot> CURRENT = new ThreadLocal<Shot>();
+	    private static final ThreadLocal<int[]> CROP = new ThreadLocal<int[]>();
+	    static volatile long costNanosPerPixel = 40;
+	    
+	    private int sink;
+	    
+	    /**
+	     * @param crop Where the frame decoder puts the crop it is about to decode, left, top,
+	     *             right, bottom; the decoder compares its image to that to tell the level.
+	     */
+	    static void prepare(Shot shot, int[] crop) {
+	      CURRENT.set(shot);
+	      CROP.set(crop);
+	    }
+	    
+	    public Result decode(byte[] matrix, int width, int height, int decodeFormat) {
+	      long deadline = System.nanoTime() + costNanosPerPixel * width * height;
+	      int pixels = width * height;
+	      int index = 0;
+	      // Read the image while waiting, so the cache sees the traffic a decoder would cause.
+	      while (System.nanoTime() < deadline) {
+	        for (int i = 0; i < 256; i++, index += 61) {
+	          if (index >= pixels) {
+	            index -= pixels;
+	          }
+	          sink += matrix[index];
+	        }
+	      }
+	      
+	      Shot shot = CURRENT.get();
+	      if (shot == null || shot.scene.expected == null ||
+	          (decodeFormat != 0 && (decodeFormat & shot.scene.format) == 0)) {
+	        return null;
+	      }
+	      int[] crop = CROP.get();
+	      float scale = (float) width / Math.max(1, crop[2] - crop[0]);
+	      if (shot.scene.blur > MAX_READABLE_BLUR || shot.scene.moduleSize * scale < MIN_READABLE_MODULE) {
+	        return null;
+	      }
+	      return shot.scene.expected;
+	    }
+	}
+	
+	// Configuration
+	private final boolean continuous;
+	private final int workers;
+	private final int fps;
+	private final int width;
+	private final int height;
+	private final int decodeFormat;
+	private final Class<? extends BarcodeDecoder> decoderClass;
+	private final Rect framingRect;
+	private final FrameDecoder frameDecoder = new FrameDecoder();
+	
+	// The scene
+	private final Scene[] empty;
+	private final Scene[][] codes;
+	private final long[] trialStart;
+	private final AtomicIntegerArray trialState;
+	private volatile int trialCount;
+	
+	// The threads and the queues standing in for their handlers
+	private final BlockingQueue<PreviewFrame> decodeQueue = new LinkedBlockingQueue<PreviewFrame>();
+	private final BlockingQueue<Posted> mainQueue = new LinkedBlockingQueue<Posted>();
+	private final AtomicBoolean frameRequested = new AtomicBoolean(true);
+	// What is in each frame handed to the decode threads and not yet done with.
+	private final Map<PreviewFrame, Shot> shots = new ConcurrentHashMap<PreviewFrame, Shot>();
+	private PreviewFrameRing ring;
+	private volatile boolean running;
+	private long measureFrom;
+	
+	// Measurements
+	private final LatencyHistogram timeToFirstDecode = new LatencyHistogram();
+	private final LatencyHistogram frameLatency = new LatencyHistogram();
+	private final LatencyHistogram resultLatency = new LatencyHistogram();
+	private final AtomicLong cameraFrames = new AtomicLong();
+	private final AtomicLong processedFrames = new AtomicLong();
+	
+	private ScanLatencyHarness(boolean continuous, int workers, int fps, int width, int height,
+	    int decodeFormat, Class<? extends BarcodeDecoder> decoderClass, long seed, int maxTrials) {
+	    this.continuous = continuous;
+	    this.workers = workers;
+	    this.fps = fps;
+	    this.width = width;
+	    this.height = height;
+	    this.decodeFormat = decodeFormat;
+	    this.decoderClass = decoderClass;
+	    this.framingRect = CameraManager.calculateFramingRect(new Point(width, height));
+	    // Set up as CameraManager sets up its own.
+	    frameDecoder.setDecodeConfig(new DecodeConfig(decodeFormat));
+	    frameDecoder.setRoiTracker(new RoiTracker());
+	    frameDecoder.setFramingRect(framingRect.left, framingRect.top, framingRect.right,
+	        framingRect.bottom);
+	    this.trialStart = new long[maxTrials];
+	    this.trialState = new AtomicIntegerArray(maxTrials);
+	    
+	    SyntheticFrameGenerator generator = new SyntheticFrameGenerator(seed);
+	    Random random = generator.getRandom();
+	    empty = new Scene[EMPTY_FRAMES];
+	    boolean[][] nothing = new boolean[1][1];
+	    for (int i = 0; i < EMPTY_FRAMES; i++) {
+	      generator.setBlur(FOCUS_BLUR[i % FOCUS_BLUR.length]);
+	      empty[i] = new Scene(generator.render(nothing, width, height, null), null, 0, 0.0f, 0.0f);
+	    }
+	    codes = new Scene[CODES][FOCUS_BLUR.length];
+	    for (int i = 0; i < CODES; i++) {
+	      int index = i % DecodeFormats.FLAGS.length;
+	      int format = DecodeFormats.FLAGS[index];
+	      String text = generator.randomText(format);
+	      boolean[][] modules = BarcodeEncoder.encode(format, text);
+	      float moduleSize = Math.min(5.0f + random.nextFloat() * 3.0f,
+	          Math.min((float) framingRect.width() / modules[0].length,
+	          (float) framingRect.height() / modules.length));
+	      generator.setModuleSize(moduleSize);
+	      generator.setRotation(random.nextFloat() * 20.0f - 10.0f);
+	      generator.setPerspective(random.nextFloat() * 0.1f);
+	      Result expected = new Result(text, BARCODE_FORMATS[index]);
+	      for (int j = 0; j < FOCUS_BLUR.length; j++) {
+	        generator.setBlur(FOCUS_BLUR[j]);
+	        codes[i][j] = new Scene(generator.render(modules, width, height, null), expected, format,
+	            FOCUS_BLUR[j], moduleSize);
+	      }
+	    }
+	}
+	
+	public static void main(String[] args) throws Exception {
+	    boolean continuous = false;
+	    int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	    int fps = 30;
+	    int seconds = 10;
+	    int warmup = 2;
+	    int width = 640;
+	    int height = 480;
+	    int decodeFormat = 0;
+	    long cost = SimulatedDecoder.costNanosPerPixel;
+	    Class<? extends BarcodeDecoder> decoderClass = SimulatedDecoder.class;
+	    long seed = 1;
+	    File out = null;
+	    File baseline = null;
+	    float threshold = 0.1f;
+	    try {
+	      for (int i = 0; i < args.length; i++) {
+	        String arg = args[i];
+	        if ("-mode".equals(arg) && i + 1 < args.length) {
+	          String mode = args[++i];
+	          if (!"oneshot".equals(mode) && !"continuous".equals(mode)) {
+	            usage();
+	            return;
+	          }
+	          continuous = "continuous".equals(mode);
+	        } else if ("-workers".equals(arg) && i + 1 < args.length) {
+	          workers = Integer.parseInt(args[++i]);
+	        } else if ("-fps".equals(arg) && i + 1 < args.length) {
+	          fps = Integer.parseInt(args[++i]);
+	        } else if ("-seconds".equals(arg) && i + 1 < args.length) {
+	          seconds = Integer.parseInt(args[++i]);
+	        } else if ("-warmup".equals(arg) && i + 1 < args.length) {
+	          warmup = Integer.parseInt(args[++i]);
+	        } else if ("-size".equals(arg) && i + 1 < args.length) {
+	          String size = args[++i];
+	          int separator = size.indexOf('x');
+	          width = Integer.parseInt(size.substring(0, separator));
+	          height = Integer.parseInt(size.substring(separator + 1));
+	        } else if ("-formats".equals(arg) && i + 1 < args.length) {
+	          decodeFormat = Integer.decode(args[++i]);
+	        } else if ("-cost".equals(arg) && i + 1 < args.length) {
+	          cost = Long.parseLong(args[++i]);
+	        } else if ("-decoder".equals(arg) && i + 1 < args.length) {
+	          decoderClass = Class.forName(args[++i]).asSubclass(BarcodeDecoder.class);
+	        } else if ("-seed".equals(arg) && i + 1 < args.length) {
+	          seed = Long.parseLong(args[++i]);
+	        } else if ("-out".equals(arg) && i + 1 < args.length) {
+	          out = new File(args[++i]);
+	        } else if ("-baseline".equals(arg) && i + 1 < args.length) {
+	          baseline = new File(args[++i]);
+	        } else if ("-threshold".equals(arg) && i + 1 < args.length) {
+	          threshold = Float.parseFloat(args[++i]);
+	        } else {
+	          usage();
+	          return;
+	        }
+	      }
+	    } catch (RuntimeException e) {
+	      usage();
+	      return;
+	    }
+	    if (workers < 1 || fps < 1 || seconds < 1 || warmup < 0 || width < 1 || height < 1 || cost < 0 ||
+	        threshold < 0.0f) {
+	      usage();
+	      return;
+	    }
+	    
+	    SimulatedDecoder.costNanosPerPixel = cost;
+	    ScanLatencyHarness harness = new ScanLatencyHarness(continuous, workers, fps, width, height,
+	        decodeFormat, decoderClass, seed, (warmup + seconds) * fps + 1);
+	    harness.run(warmup, seconds);
+	    
+	    Map<String, Object> config = new LinkedHashMap<String, Object>();
+	    config.put("mode", continuous ? "continuous" : "oneshot");
+	    config.put("workers", Integer.valueOf(continuous ? workers : 1));
+	    config.put("fps", Integer.valueOf(fps));
+	    config.put("seconds", Integer.valueOf(seconds));
+	    config.put("warmup", Integer.valueOf(warmup));
+	    config.put("size", width + "x" + height);
+	    config.put("formats", Integer.valueOf(decodeFormat));
+	    config.put("cost", Long.valueOf(cost));
+	    config.put("decoder", decoderClass.getName());
+	    config.put("seed", Long.valueOf(seed));
+	    Map<String, Number> metrics = harness.getMetrics(seconds);
+	    
+	    String json = toJson(config, metrics);
+	    System.out.println(json);
+	    if (out != null) {
+	      Writer writer = new OutputStreamWriter(new FileOutputStream(out), "UTF-8");
+	      try {
+	        writer.write(json);
+	        writer.write('\n');
+	      } finally {
+	        writer.close();
+	      }
+	    }
+	    if (baseline != null) {
+	      boolean regressed = compare(readMetrics(baseline), metrics, threshold, System.err);
+	      System.exit(regressed ? 1 : 0);
+	    }
+	}
+	
+	private static void usage() {
+	    System.err.println("Usage: ScanLatencyHarness [-mode oneshot|continuous] [-workers n] [-fps n] " +
+	        "[-seconds n] [-warmup n] [-size WxH] [-formats mask] [-cost ns] [-decoder class] [-seed n] " +
+	        "[-out file] [-baseline file] [-threshold x]");
+	    System.exit(2);
+	}
+	
+	/**
+	 * Runs the camera, decode and main threads for the given time, measuring after the warm-up; the
+	 * calling thread is the main thread.
+	 */
+	private void run(int warmup, int seconds) throws Exception {
+	    measureFrom = System.nanoTime() + warmup * 1000000000L;
+	    running = true;
+	    List<Thread> threads = new ArrayList<Thread>();
+	    if (continuous) {
+	      ring = new PreviewFrameRing(2, new PreviewFrameRing.Recycler() {
+	        public void recycle(PreviewFrame frame) {
+	          shots.remove(frame);
+	        }
+	      });
+	      for (int i = 0; i < workers; i++) {
+	        threads.add(new DecodeWorker(decoderClass.newInstance(), "DecodeWorker-" + i));
+	      }
+	    } else {
+	      threads.add(new DecodeWorker(decoderClass.newInstance(), "DecodeThread"));
+	    }
+	    threads.add(new Thread("Camera") {
+	      @Override
+	      public void run() {
+	        runCamera();
+	      }
+	    });
+	    for (Thread thread : threads) {
+	      thread.start();
+	    }
+	    
+	    long end = measureFrom + seconds * 1000000000L;
+	    try {
+	      long now;
+	      while ((now = System.nanoTime()) < end) {
+	        Posted posted = mainQueue.poll(end - now, TimeUnit.NANOSECONDS);
+	        if (posted != null) {
+	          handle(posted);
+	        }
+	      }
+	    } finally {
+	      running = false;
+	      for (Thread thread : threads) {
+	        thread.interrupt();
+	      }
+	      for (Thread thread : threads) {
+	        thread.join();
+	      }
+	    }
+	}
+	
+	/**
+	 * The preview callback: delivers a frame every 1/fps seconds, to whoever asked for one or to the
+	 * ring, and moves the scene on.
+	 */
+	private void runCamera() {
+	    long interval = 1000000000L / fps;
+	    long next = System.nanoTime();
+	    int trial = 0;
+	    int frame = 0;
+	    long sequence = 0;
+	    while (running) {
+	      long wait = next - System.nanoTime();
+	      if (wait > 0) {
+	        LockSupport.parkNanos(wait);
+	        continue;
+	      }
+	      long now = System.nanoTime();
+	      next += interval;
+	      if (now >= measureFrom) {
+	        cameraFrames.incrementAndGet();
+	      }
+	      
+	      if (frame > GAP_FRAMES) {
+	        int state = trialState.get(trial);
+	        if (state == TRIAL_OPEN && now - trialStart[trial] > TRIAL_TIMEOUT_NANOS) {
+	          trialState.compareAndSet(trial, TRIAL_OPEN, TRIAL_TIMED_OUT);
+	          state = trialState.get(trial);
+	        }
+	        if (state != TRIAL_OPEN) {
+	          if (trial + 1 >= trialStart.length) {
+	            return;
+	          }
+	          trial++;
+	          frame = 0;
+	        }
+	      }
+	      Scene scene;
+	      if (frame < GAP_FRAMES) {
+	        scene = empty[frame % EMPTY_FRAMES];
+	      } else {
+	        if (frame == GAP_FRAMES) {
+	          trialStart[trial] = now;
+	          trialCount = trial + 1;
+	        }
+	        scene = codes[trial % CODES][Math.min(frame - GAP_FRAMES, FOCUS_BLUR.length - 1)];
+	      }
+	      frame++;
+	      
+	      // The one-shot preview callback only fires for a requested frame.
+	      if (continuous || frameRequested.compareAndSet(true, false)) {
+	        PreviewFrame previewFrame = new PreviewFrame(scene.data);
+	        previewFrame.setSize(width, height);
+	        previewFrame.setSequence(sequence++);
+	        previewFrame.setTimestamp(now);
+	        shots.put(previewFrame, new Shot(scene, trial, now));
+	        if (continuous) {
+	          ring.offer(previewFrame);
+	        } else {
+	          decodeQueue.add(previewFrame);
+	        }
+	      }
+	    }
+	}
+	
+	/**
+	 * Like {@link DecodeThread}: in one-shot mode it reports every frame, decoded or not, and in
+	 * continuous mode only the decoded ones.
+	 */
+	private final class DecodeWorker extends Thread {
+	    private final BarcodeDecoder decoder;
+	    private final FrameDecoder.Buffers buffers = new FrameDecoder.Buffers();
+	    
+	    DecodeWorker(BarcodeDecoder decoder, String name) {
+	      super(name);
+	      this.decoder = decoder;
+	    }
+	    
+	    @Override
+	    public void run() {
+	      try {
+	        while (running) {
+	          if (continuous) {
+	            PreviewFrame frame = ring.take();
+	            Shot shot = shots.get(frame);
+	            Result result;
+	            try {
+	              result = decodeFrame(shot, frame);
+	            } finally {
+	              ring.recycle(frame);
+	            }
+	            if (result != null) {
+	              mainQueue.add(new Posted(shot, result, System.nanoTime()));
+	            }
+	          } else {
+	            PreviewFrame frame = decodeQueue.take();
+	            Shot shot = shots.remove(frame);
+	            Result result = decodeFrame(shot, frame);
+	            mainQueue.add(new Posted(shot, result, System.nanoTime()));
+	          }
+	        }
+	      } catch (InterruptedException e) {
+	        // Asked to quit.
+	      }
+	    }
+	    
+	    private Result decodeFrame(Shot shot, PreviewFrame frame) {
+	      SimulatedDecoder.prepare(shot, buffers.crop);
+	      Result result = frameDecoder.decode(frame, decoder, buffers);
+	      if (shot.captured >= measureFrom) {
+	        frameLatency.record((System.nanoTime() - shot.captured) / 1000);
+	        processedFrames.incrementAndGet();
+	      }
+	      return result;
+	    }
+	}
+	
+	/**
+	 * What {@link CaptureActivityHandler} does with a decode thread's message, and asking for the
+	 * next frame.
+	 */
+	private void handle(Posted posted) {
+	    long now = System.nanoTime();
+	    if (posted.result != null) {
+	      if (posted.shot.captured >= measureFrom) {
+	        resultLatency.record((now - posted.shot.captured) / 1000);
+	      }
+	      int trial = posted.shot.trial;
+	      if (posted.shot.scene.expected != null &&
+	          trialState.compareAndSet(trial, TRIAL_OPEN, TRIAL_DECODED)) {
+	        // The trial's first decode is the one a scan session would pass on.
+	        frameDecoder.getFormatScheduler().learn(posted.result);
+	        if (trialStart[trial] >= measureFrom) {
+	          timeToFirstDecode.record((now - trialStart[trial]) / 1000);
+	        }
+	      }
+	    }
+	    if (!continuous) {
+	      frameRequested.set(true);
+	    }
+	}
+	
+	private Map<String, Number> getMetrics(int seconds) {
+	    int trials = trialCount;
+	    int decoded = 0;
+	    int timedOut = 0;
+	    for (int i = 0; i < trials; i++) {
+	      if (trialStart[i] < measureFrom) {
+	        continue;
+	      }
+	      int state = trialState.get(i);
+	      if (state == TRIAL_DECODED) {
+	        decoded++;
+	      } else if (state == TRIAL_TIMED_OUT) {
+	        timedOut++;
+	      }
+	    }
+	    // A trial still open at the end says nothing either way.
+	    int finished = decoded + timedOut;
+	    
+	    Map<String, Number> metrics = new LinkedHashMap<String, Number>();
+	    metrics.put("trials", Integer.valueOf(finished));
+	    metrics.put("decodedTrials", Integer.valueOf(decoded));
+	    metrics.put("decodeRate", Float.valueOf(finished == 0 ? 0.0f : (float) decoded / finished));
+	    putPercentiles(metrics, "timeToFirstDecode", timeToFirstDecode);
+	    putPercentiles(metrics, "frameLatency", frameLatency);
+	    putPercentiles(metrics, "resultLatency", resultLatency);
+	    metrics.put("cameraFramesPerSec", Float.valueOf((float) cameraFrames.get() / seconds));
+	    metrics.put("framesPerSec", Float.valueOf((float) processedFrames.get() / seconds));
+	    metrics.put("droppedFrames", Long.valueOf(Math.max(0, cameraFrames.get() - processedFrames.get())));
+	    return metrics;
+	}
+	
+	private static void putPercentiles(Map<String, Number> metrics, String name,
+	    LatencyHistogram histogram) {
+	    metrics.put(name + "P50Ms", Float.valueOf(histogram.getPercentile(50.0f) / 1000.0f));
+	    metrics.put(name + "P95Ms", Float.valueOf(histogram.getPercentile(95.0f) / 1000.0f));
+	    metrics.put(name + "P99Ms", Float.valueOf(histogram.getPercentile(99.0f) / 1000.0f));
+	    metrics.put(name + "MaxMs", Float.valueOf(histogram.getMax() / 1000.0f));
+	}
+	
+	private static String toJson(Map<String, Object> config, Map<String, Number> metrics) {
+	    StringBuilder json = new StringBuilder("{\n  \"config\": {");
+	    String separator = "\n    ";
+	    for (Map.Entry<String, Object> entry : config.entrySet()) {
+	      json.append(separator).append(Json.quote(entry.getKey())).append(": ");
+	      Object value = entry.getValue();
+	      json.append(value instanceof Number ? value.toString() : Json.quote(value.toString()));
+	      separator = ",\n    ";
+	    }
+	    json.append("\n  },\n  \"metrics\": {");
+	    separator = "\n    ";
+	    for (Map.Entry<String, Number> entry : metrics.entrySet()) {
+	      json.append(separator).append(Json.quote(entry.getKey())).append(": ")
+	          .append(entry.getValue());
+	      separator = ",\n    ";
+	    }
+	    return json.append("\n  }\n}").toString();
+	}
+	
+	/**
+	 * Reads the metrics back from a results file; the config is skipped.
+	 */
+	static Map<String, Float> readMetrics(File file) throws IOException {
+	    InputStream in = new FileInputStream(file);
+	    StringBuilder text = new StringBuilder();
+	    try {
+	      byte[] buffer = new byte[4096];
+	      int read;
+	      while ((read = in.read(buffer)) > 0) {
+	        text.append(new String(buffer, 0, read, "UTF-8"));
+	      }
+	    } finally {
+	      in.close();
+	    }
+	    int start = text.indexOf("\"metrics\"");
+	    Map<String, Float> metrics = new LinkedHashMap<String, Float>();
+	    if (start >= 0) {
+	      Matcher matcher = METRIC.matcher(text.substring(start));
+	      while (matcher.find()) {
+	        metrics.put(matcher.group(1), Float.valueOf(matcher.group(2)));
+	      }
+	    }
+	    return metrics;
+	}
+	
+	/**
+	 * Compares the gated metrics with the baseline and reports every one which got worse by more
+	 * than the threshold.
+	 *
+	 * @return True if any did.
+	 */
+	static boolean compare(Map<String, Float> baseline, Map<String, Number> metrics, float threshold,
+	    PrintStream log) {
+	    boolean regressed = false;
+	    for (String name : LATENCY_METRICS) {
+	      Float base = baseline.get(name);
+	      Number current = metrics.get(name);
+	      if (base != null && current != null) {
+	        float value = current.floatValue();
+	        if (value > base.floatValue() * (1.0f + threshold) &&
+	            value - base.floatValue() > MIN_LATENCY_REGRESSION_MS) {
+	          log.println("Regression: " + name + " " + base + " -> " + value);
+	          regressed = true;
+	        }
+	      }
+	    }
+	    for (String name : RATE_METRICS) {
+	      Float base = baseline.get(name);
+	      Number current = metrics.get(name);
+	      if (base != null && current != null && current.floatValue() < base.floatValue() * (1.0f - threshold)) {
+	        log.println("Regression: " + name + " " + base + " -> " + current);
+	        regressed = true;
+	      }
+	    }
+	    if (!regressed) {
+	      log.println("No regression beyond " + Math.round(threshold * 100.0f) + "%");
+	    }
+	    return regressed;
+	}
+}
@@ -0,0 +1,18 @@
+/*
+ * Minimal stand-in for the Android class of the same name, just enough to compile and run the
+ * frame preparation code on a desktop JVM. Not shipped.
+ */
+package android.content;
+
+public class Context {
+	public static final String WINDOW_SERVICE = "window";
+	public static final int MODE_PRIVATE = 0;
+
+	public Object getSystemService(String name) {
+	    return null;
+	}
+
+	public SharedPreferences getSharedPreferences(String name, int mode) {
+	    return null;
+	}
+}
@@ -0,0 +1,27 @@
+/*
+ * Minimal stand-in for the Android class of the same name, just enough to compile and run the
+ * frame preparation code on a desktop JVM. Not shipped.
+ */
+package android.content;
+
+public interface SharedPreferences {
+	String getString(String key, String defValue);
+
+	int getInt(String key, int defValue);
+
+	float getFloat(String key, float defValue);
+
+	Editor edit();
+
+	interface Editor {
+	    Editor putString(String key, String value);
+
+	    Editor putInt(String key, int value);
+
+	    Editor putFloat(String key, float value);
+
+	    Editor remove(String key);
+
+	    boolean commit();
+	}
+}
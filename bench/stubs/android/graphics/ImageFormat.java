@@ -0,0 +1,21 @@
+/*
+ * Minimal stand-in for the Android class of the same name, just enough to compile and run the
+ * frame preparation code on a desktop JVM. Not shipped.
+ */
+package android.graphics;
+
+public class ImageFormat {
+	public static final int NV16 = 0x10;
+	public static final int NV21 = 0x11;
+
+	public static int getBitsPerPixel(int format) {
+	    switch (format) {
+	      case NV16:
+	        return 16;
+	      case NV21:
+	        return 12;
+	      default:
+	        return -1;
+	    }
+	}
+}
@@ -0,0 +1,10 @@
+/*
+ * Minimal stand-in for the Android class of the same name, just enough to compile and run the
+ * frame preparation code on a desktop JVM. Not shipped.
+ */
+package android.graphics;
+
+public class PixelFormat {
+	public static final int YCbCr_422_SP = 0x10;
+	public static final int YCbCr_420_SP = 0x11;
+}
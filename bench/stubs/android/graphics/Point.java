@@ -0,0 +1,23 @@
+/*
+ * Minimal stand-in for the Android class of the same name, just enough to compile and run the
+ * frame preparation code on a desktop JVM. Not shipped.
+ */
+package android.graphics;
+
+public class Point {
+	public int x;
+	public int y;
+
+	public Point() {
+	}
+
+	public Point(int x, int y) {
+	    this.x = x;
+	    this.y = y;
+	}
+
+	@Override
+	public String toString() {
+	    return "Point(" + x + ", " + y + ")";
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Minimal stand-in for the Android class of the same name, just enough to compile and run the
+ * frame preparation code on a desktop JVM. Not shipped.
+ */
+package android.graphics;
+
+public final class Rect {
+	public int left;
+	public int top;
+	public int right;
+	public int bottom;
+
+	public Rect() {
+	}
+
+	public Rect(int left, int top, int right, int bottom) {
+	    this.left = left;
+	    this.top = top;
+	    this.right = right;
+	    this.bottom = bottom;
+	}
+
+	public Rect(Rect r) {
+	    this(r.left, r.top, r.right, r.bottom);
+	}
+
+	public int width() {
+	    return right - left;
+	}
+
+	public int height() {
+	    return bottom - top;
+	}
+
+	public void set(int left, int top, int right, int bottom) {
+	    this.left = left;
+	    this.top = top;
+	    this.right = right;
+	    this.bottom = bottom;
+	}
+
+	@Override
+	public String toString() {
+	    return "Rect(" + left + ", " + top + " - " + right + ", " + bottom + ")";
+	}
+}
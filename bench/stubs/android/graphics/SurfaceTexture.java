@@ -0,0 +1,13 @@
+/*
+ * Minimal stand-in for the Android class of the same name, just enough to compile and run the
+ * frame preparation code on a desktop JVM. Not shipped.
+ */
+package android.graphics;
+
+public class SurfaceTexture {
+	public SurfaceTexture(int texName) {
+	}
+
+	public void release() {
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Minimal stand-in for the Android class of the same name, just enough to compile and run the
+ * frame preparation code on a desktop JVM. Not shipped.
+ */
+package android.hardware;
+
+import android.view.SurfaceHolder;
+
+public class Camera {
+	public interface PreviewCallback {
+	    void onPreviewFrame(byte[] data, Camera camera);
+	}
+
+	public interface AutoFocusCallback {
+	    void onAutoFocus(boolean success, Camera camera);
+	}
+
+	public static Camera open() {
+	    throw new UnsupportedOperationException();
+	}
+
+	public void setPreviewDisplay(SurfaceHolder holder) throws java.io.IOException {
+	}
+
+	public void setPreviewTexture(android.graphics.SurfaceTexture surfaceTexture) throws java.io.IOException {
+	}
+
+	public void release() {
+	}
+
+	public void startPreview() {
+	}
+
+	public void stopPreview() {
+	}
+
+	public void setPreviewCallback(PreviewCallback cb) {
+	}
+
+	public void setOneShotPreviewCallback(PreviewCallback cb) {
+	}
+
+	public void setPreviewCallbackWithBuffer(PreviewCallback cb) {
+	}
+
+	public void addCallbackBuffer(byte[] callbackBuffer) {
+	}
+
+	public void autoFocus(AutoFocusCallback cb) {
+	}
+
+	public Parameters getParameters() {
+	    return new Parameters();
+	}
+
+	public void setParameters(Parameters params) {
+	}
+
+	public class Parameters {
+	    private final java.util.HashMap<String, String> map = new java.util.HashMap<String, String>();
+
+	    public String get(String key) {
+	      return map.get(key);
+	    }
+
+	    public void set(String key, String value) {
+	      map.put(key, value);
+	    }
+
+	    public int getPreviewFormat() {
+	      return 0x11;
+	    }
+
+	    public void setPreviewSize(int width, int height) {
+	      set("preview-size", width + "x" + height);
+	    }
+	}
+}
@@ -0,0 +1,19 @@
+/*
+ * Minimal stand-in for the Android class of the same name, just enough to compile and run the
+ * frame preparation code on a desktop JVM. Not shipped.
+ */
+package android.os;
+
+public class Build {
+	public static final String FINGERPRINT = "";
+	public static final String MODEL = "";
+
+	public static class VERSION {
+	    public static final String SDK = "8";
+	}
+
+	public static class VERSION_CODES {
+	    public static final int CUPCAKE = 3;
+	    public static final int FROYO = 8;
+	}
+}
@@ -0,0 +1,22 @@
+/*
+ * Minimal stand-in for the Android class of the same name, just enough to compile and run the
+ * frame preparation code on a desktop JVM. Not shipped.
+ */
+package android.os;
+
+public class Handler {
+	public void handleMessage(Message msg) {
+	}
+
+	public final Message obtainMessage(int what, Object obj) {
+	    return new Message();
+	}
+
+	public final Message obtainMessage(int what, int arg1, int arg2, Object obj) {
+	    return new Message();
+	}
+
+	public final boolean sendMessageDelayed(Message msg, long delayMillis) {
+	    return true;
+	}
+}
@@ -0,0 +1,15 @@
+/*
+ * Minimal stand-in for the Android class of the same name, just enough to compile and run the
+ * frame preparation code on a desktop JVM. Not shipped.
+ */
+package android.os;
+
+public final class Message {
+	public int what;
+	public int arg1;
+	public int arg2;
+	public Object obj;
+
+	public void sendToTarget() {
+	}
+}
@@ -0,0 +1,11 @@
+/*
+ * Minimal stand-in for the Android class of the same name, just enough to compile and run the
+ * frame preparation code on a desktop JVM. Not shipped.
+ */
+package android.os;
+
+public final class SystemClock {
+	public static long uptimeMillis() {
+	    return System.nanoTime() / 1000000L;
+	}
+}
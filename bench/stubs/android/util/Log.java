@@ -0,0 +1,23 @@
+/*
+ * Minimal stand-in for the Android class of the same name, just enough to compile and run the
+ * frame preparation code on a desktop JVM. Not shipped.
+ */
+package android.util;
+
+public final class Log {
+	public static int d(String tag, String msg) {
+	    return 0;
+	}
+
+	public static int i(String tag, String msg) {
+	    return 0;
+	}
+
+	public static int w(String tag, String msg) {
+	    return 0;
+	}
+
+	public static int w(String tag, String msg, Throwable tr) {
+	    return 0;
+	}
+}
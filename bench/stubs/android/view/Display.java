@@ -0,0 +1,15 @@
+/*
+ * Minimal stand-in for the Android class of the same name, just enough to compile and run the
+ * frame preparation code on a desktop JVM. Not shipped.
+ */
+package android.view;
+
+public class Display {
+	public int getWidth() {
+	    return 0;
+	}
+
+	public int getHeight() {
+	    return 0;
+	}
+}
@@ -0,0 +1,8 @@
+/*
+ * Minimal stand-in for the Android class of the same name, just enough to compile and run the
+ * frame preparation code on a desktop JVM. Not shipped.
+ */
+package android.view;
+
+public interface SurfaceHolder {
+}
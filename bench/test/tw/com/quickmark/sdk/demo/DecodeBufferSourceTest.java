@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that the reusable crop buffer and the strided view give byte for byte what getMatrix()
+ * gave before they were added, for every kind of crop.
+ */
+public class DecodeBufferSourceTest {
+
+	// dataWidth, dataHeight, left, top, width, height
+	private static final int[][] GEOMETRIES = {
+	    { 640, 480, 0, 0, 640, 480 },     // full frame
+	    { 640, 480, 0, 0, 320, 240 },     // zero offsets
+	    { 640, 480, 160, 120, 320, 240 }, // centered
+	    { 640, 480, 0, 100, 640, 200 },   // full width band
+	    { 640, 480, 100, 0, 200, 480 },   // full height band
+	    { 640, 480, 439, 279, 201, 201 }, // touching the right and bottom edges, odd size
+	    { 641, 481, 1, 1, 639, 479 },     // odd data size
+	    { 641, 481, 0, 0, 641, 1 },       // one full row
+	    { 641, 481, 640, 0, 1, 481 },     // last column
+	    { 641, 481, 333, 222, 1, 1 },     // one pixel
+	    { 175, 143, 3, 7, 171, 135 },     // odd everything
+	};
+	
+	@Test
+	public void getMatrixMatchesLegacy() {
+	    for (int[] g : GEOMETRIES) {
+	      DecodeBufferSource source = newSource(g);
+	      assertArrayEquals(describe(g), legacyGetMatrix(source, g), trim(source.getMatrix(), g));
+	    }
+	}
+	
+	@Test
+	public void reusedBufferMatchesLegacy() {
+	    for (int[] g : GEOMETRIES) {
+	      DecodeBufferSource source = newSource(g);
+	      byte[] expected = legacyGetMatrix(source, g);
+	      // Too small, exactly large enough, larger and dirty.
+	      byte[][] reuses = { new byte[1], new byte[g[4] * g[5]], filled(g[4] * g[5] + 17, (byte) 0x5a) };
+	      for (byte[] reuse : reuses) {
+	        byte[] matrix = source.getMatrix(reuse);
+	        assertArrayEquals(describe(g), expected, trim(matrix, g));
+	        if (source.isCropped() && reuse.length >= g[4] * g[5]) {
+	          assertSame(describe(g), reuse, matrix);
+	        }
+	      }
+	    }
+	}
+	
+	@Test
+	public void stridedViewMatchesLegacy() {
+	    for (int[] g : GEOMETRIES) {
+	      DecodeBufferSource source = newSource(g);
+	      byte[] expected = legacyGetMatrix(source, g);
+	      byte[] data = source.getData();
+	      int width = source.getWidth();
+	      int height = source.getHeight();
+	      byte[] viewed = new byte[width * height];
+	      for (int y = 0; y < height; y++) {
+	        for (int x = 0; x < width; x++) {
+	          viewed[y * width + x] = data[source.getDataOffset() + y * source.getRowStride() + x];
+	        }
+	      }
+	      assertArrayEquals(describe(g), expected, viewed);
+	    }
+	}
+	
+	@Test
+	public void cropOfCropMatchesLegacy() {
+	    int[] outer = { 640, 480, 100, 50, 400, 300 };
+	    DecodeBufferSource source = newSource(outer).crop(11, 13, 201, 99);
+	    int[] inner = { 640, 480, 111, 63, 201, 99 };
+	    assertEquals(111, source.getLeft());
+	    assertEquals(63, source.getTop());
+	    assertArrayEquals(legacyGetMatrix(source, inner), trim(source.getMatrix(null), inner));
+	}
+	
+	private static DecodeBufferSource newSource(int[] g) {
+	    // NV21: the Y plane, then half as much chroma which must never leak into the crop.
+	    byte[] data = new byte[g[0] * g[1] * 3 / 2];
+	    new Random(g[0] * 31 + g[2]).nextBytes(data);
+	    return new DecodeBufferSource(data, g[0], g[1], g[2], g[3], g[4], g[5]);
+	}
+	
+	/**
+	 * getMatrix() as it was before the buffer could be reused, kept here as the reference.
+	 */
+	private static byte[] legacyGetMatrix(DecodeBufferSource source, int[] g) {
+	    byte[] yuvData = source.getData();
+	    int dataWidth = g[0];
+	    int width = g[4];
+	    int height = g[5];
+	    if (width == dataWidth && height == g[1]) {
+	      return Arrays.copyOf(yuvData, width * height);
+	    }
+	    byte[] matrix = new byte[width * height];
+	    int inputOffset = g[3] * dataWidth + g[2];
+	    for (int y = 0; y < height; y++) {
+	      System.arraycopy(yuvData, inputOffset, matrix, y * width, width);
+	      inputOffset += dataWidth;
+	    }
+	    return matrix;
+	}
+	
+	/**
+	 * The first width * height bytes; the result may be longer, as getMatrix() documents.
+	 */
+	private static byte[] trim(byte[] matrix, int[] g) {
+	    return Arrays.copyOf(matrix, g[4] * g[5]);
+	}
+	
+	private static byte[] filled(int length, byte value) {
+	    byte[] array = new byte[length];
+	    Arrays.fill(array, value);
+	    return array;
+	}
+	
+	private static String describe(int[] g) {
+	    return g[0] + "x" + g[1] + " crop " + g[2] + ',' + g[3] + ' ' + g[4] + 'x' + g[5];
+	}
+}
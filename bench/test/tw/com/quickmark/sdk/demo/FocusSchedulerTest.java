@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Replays sharpness and decode timelines through a FocusScheduler, the way DecodeThread and the
+ * capture handler drive it, and checks when it focuses.
+ */
+public class FocusSchedulerTest {
+
+	private static final long FRAME_MS = 33L;
+	private static final long CHECK_MS = 100L;
+	private static final long FOCUS_MS = 400L;
+	
+	private FocusScheduler scheduler;
+	
+	/** What the decoder made of the frame at a given time. */
+	private interface Timeline {
+	    int sharpness(long now);
+	    int outcome(long now);
+	}
+	
+	@Before
+	public void setUp() {
+	    scheduler = new FocusScheduler();
+	}
+	
+	@Test
+	public void nothingDecodingKeepsRefocusing() {
+	    // A code far out of focus which the pre-screen never even calls a candidate.
+	    replay(60000L, new Timeline() {
+	      public int sharpness(long now) { return -1; }
+	      public int outcome(long now) { return FocusScheduler.FRAME_EMPTY; }
+	    });
+	    // One initial focus, then one every max interval plus the time focus takes.
+	    assertTrue("timeouts: " + scheduler.getTimeoutTriggerCount(),
+	        scheduler.getTimeoutTriggerCount() >= 10);
+	    assertEquals(0, scheduler.getBlurTriggerCount());
+	    assertEquals(0, scheduler.getFailureTriggerCount());
+	}
+	
+	@Test
+	public void resetStillTimesOut() {
+	    replay(10000L, decodingSharply());
+	    scheduler.reset();
+	    int before = scheduler.getTimeoutTriggerCount();
+	    replay(60000L, new Timeline() {
+	      public int sharpness(long now) { return 800; }
+	      public int outcome(long now) { return FocusScheduler.FRAME_EMPTY; }
+	    });
+	    assertTrue(scheduler.getTimeoutTriggerCount() - before >= 10);
+	}
+	
+	@Test
+	public void sharpDecodingFramesLeaveTheLensAlone() {
+	    replay(60000L, decodingSharply());
+	    // Only the focus run when the preview starts.
+	    assertEquals(1, scheduler.getFocusCount());
+	}
+	
+	@Test
+	public void blurTriggersFocus() {
+	    replay(20000L, new Timeline() {
+	      public int sharpness(long now) { return now < 10000L ? 1000 : 200; }
+	      public int outcome(long now) { return FocusScheduler.FRAME_EMPTY; }
+	    });
+	    assertTrue(scheduler.getBlurTriggerCount() >= 1);
+	}
+	
+	@Test
+	public void failuresTriggerFocus() {
+	    replay(20000L, new Timeline() {
+	      public int sharpness(long now) { return 1000; }
+	      public int outcome(long now) {
+	        return now < 10000L ? FocusScheduler.FRAME_DECODED : FocusScheduler.FRAME_FAILED;
+	      }
+	    });
+	    assertTrue(scheduler.getFailureTriggerCount() >= 1);
+	    assertEquals(0, scheduler.getBlurTriggerCount());
+	}
+	
+	private static Timeline decodingSharply() {
+	    return new Timeline() {
+	      public int sharpness(long now) { return 1000; }
+	      public int outcome(long now) { return FocusScheduler.FRAME_DECODED; }
+	    };
+	}
+	
+	/**
+	 * Feeds a frame every FRAME_MS, asks whether to focus every CHECK_MS and completes each focus
+	 * run FOCUS_MS after it starts.
+	 */
+	private void replay(long duration, Timeline timeline) {
+	    long focusDone = -1L;
+	    for (long now = 0; now < duration; now++) {
+	      if (focusDone >= 0 && now >= focusDone) {
+	        scheduler.onFocusCompleted(now, true);
+	        focusDone = -1L;
+	      }
+	      if (now % FRAME_MS == 0) {
+	        scheduler.onFrame(now, timeline.sharpness(now), timeline.outcome(now));
+	      }
+	      if (now % CHECK_MS == 0 && scheduler.shouldFocus(now)) {
+	        scheduler.onFocusStarted(now);
+	        focusDone = now + FOCUS_MS;
+	      }
+	    }
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+ 
+package tw.com.quickmark.sdk.demo;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import tw.com.quickmark.sdk.BarcodeFormat;
+import tw.com.quickmark.sdk.Result;
+import tw.com.quickmark.sdk.qmcore;
+
+/**
+ * Checks that a FormatScheduler learns from distinct codes only, and keeps its stats per mode.
+ */
+public class FormatSchedulerTest {
+
+	private FormatScheduler scheduler;
+	private ScanSession session;
+	
+	@Before
+	public void setUp() {
+	    scheduler = new FormatScheduler();
+	    session = new ScanSession();
+	    session.addListener(scheduler);
+	}
+	
+	@Test
+	public void oneCodeInViewIsLearnedOnce() {
+	    Result code = new Result("held", BarcodeFormat.QR_CODE);
+	    for (int i = 0; i < 10 * FormatScheduler.WINDOW; i++) {
+	      scheduler.record(FormatScheduler.MODE_FULL, code, 1000L);
+	      session.onDecoded(code, i * 33L);
+	    }
+	    // Still learning: one code is far short of the hits needed to narrow.
+	    assertEquals(0, scheduler.getDominantFormats());
+	    assertEquals(10 * FormatScheduler.WINDOW, scheduler.getHitCount(FormatScheduler.MODE_FULL));
+	}
+	
+	@Test
+	public void distinctCodesNarrow() {
+	    for (int i = 0; i < FormatScheduler.MIN_WINDOW_HITS; i++) {
+	      Result code = new Result("code " + i, BarcodeFormat.QR_CODE);
+	      // Each held in view for a few frames.
+	      for (int j = 0; j < 5; j++) {
+	        session.onDecoded(code, i * 1000L + j * 33L);
+	      }
+	    }
+	    assertEquals(qmcore.TWOD_QRCODE, scheduler.getDominantFormats());
+	    scheduler.setFullFraction(0.0f);
+	    assertEquals(qmcore.TWOD_QRCODE, scheduler.select(DecodeFormats.ALL));
+	}
+	
+	@Test
+	public void modesAreCountedApart() {
+	    Result code = new Result("code", BarcodeFormat.EAN_13);
+	    scheduler.record(FormatScheduler.MODE_CLASSIFIED, code, 2000000L);
+	    scheduler.record(FormatScheduler.MODE_CLASSIFIED, null, 2000000L);
+	    scheduler.record(FormatScheduler.MODE_FULL, null, 4000000L);
+	    assertEquals(2, scheduler.getFrameCount(FormatScheduler.MODE_CLASSIFIED));
+	    assertEquals(1, scheduler.getHitCount(FormatScheduler.MODE_CLASSIFIED));
+	    assertEquals(1, scheduler.getFrameCount(FormatScheduler.MODE_FULL));
+	    assertEquals(0, scheduler.getHitCount(FormatScheduler.MODE_FULL));
+	    assertEquals(0, scheduler.getFrameCount(FormatScheduler.MODE_NARROW));
+	    assertEquals(4.0f, scheduler.getAverageFrameMillis(FormatScheduler.MODE_FULL), 1.0e-6f);
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+ 
+package tw.com.quickmark.sdk.demo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import tw.com.quickmark.sdk.qmcore;
+
+/**
+ * Records frames with a FrameRecorder, reads them back with FrameRecording and replays them
+ * through a RecordedFrameSource.
+ */
+public class FrameRecordingTest {
+
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 48;
+	private static final int FORMAT = 17;
+	private static final long FRAME_NANOS = 2000000L;
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void roundTrip() throws IOException {
+	    FrameRecording recording = record(6, 8);
+	    assertEquals(6, recording.getFrameCount());
+	    int[] rect = new int[4];
+	    byte[] data = new byte[WIDTH * HEIGHT];
+	    for (int i = 0; i < 6; i++) {
+	      assertEquals(i * FRAME_NANOS, recording.getTimestamp(i));
+	      assertEquals(WIDTH, recording.getWidth(i));
+	      assertEquals(HEIGHT, recording.getHeight(i));
+	      assertEquals(FORMAT, recording.getPreviewFormat(i));
+	      recording.getFramingRect(i, rect);
+	      assertArrayEquals(new int[] { 8 + i, 6, 56, 42 }, rect);
+	      recording.readFrame(i, data);
+	      assertArrayEquals(frame(i, WIDTH * HEIGHT), data);
+	    }
+	    // Outcomes as record() set them below.
+	    assertEquals(FrameRecording.OUTCOME_DECODED, recording.getOutcome(0));
+	    assertEquals(qmcore.TWOD_QRCODE, recording.getDecodedFormat(0));
+	    assertEquals(FrameRecording.OUTCOME_FAILED, recording.getOutcome(1));
+	    assertEquals(0, recording.getDecodedFormat(1));
+	    assertEquals(FrameRecording.OUTCOME_SKIPPED, recording.getOutcome(2));
+	    assertEquals(FrameRecording.OUTCOME_UNKNOWN, recording.getOutcome(3));
+	    assertEquals(1, recording.countOutcomes(FrameRecording.OUTCOME_DECODED));
+	    assertEquals(3, recording.countOutcomes(FrameRecording.OUTCOME_UNKNOWN));
+	}
+	
+	@Test
+	public void fullRecorderDropsFrames() throws IOException {
+	    File file = folder.newFile();
+	    FrameRecorder recorder = new FrameRecorder(file, 2, 1024 * 1024);
+	    for (int i = 0; i < 3; i++) {
+	      int index = recorder.record(frame(i, WIDTH * HEIGHT * 3 / 2), WIDTH, HEIGHT, FORMAT, 0, 0,
+	          WIDTH, HEIGHT, i);
+	      assertEquals(i < 2 ? i : -1, index);
+	    }
+	    assertEquals(1, recorder.getDroppedFrameCount());
+	    recorder.close();
+	    assertEquals(2, FrameRecording.open(file).getFrameCount());
+	    assertEquals(file.length(), FrameRecording.HEADER_SIZE + 2 * FrameRecording.ENTRY_SIZE +
+	        2 * WIDTH * HEIGHT);
+	}
+	
+	@Test
+	public void outcomesFollowTheNewestUseOfABuffer() throws IOException {
+	    File file = folder.newFile();
+	    FrameRecorder recorder = new FrameRecorder(file, 8, 1024 * 1024);
+	    byte[] buffer = frame(0, WIDTH * HEIGHT);
+	    recorder.record(buffer, WIDTH, HEIGHT, FORMAT, 0, 0, WIDTH, HEIGHT, 0L);
+	    recorder.record(buffer, WIDTH, HEIGHT, FORMAT, 0, 0, WIDTH, HEIGHT, 1L);
+	    recorder.setOutcome(buffer, FrameRecording.OUTCOME_FAILED, 0);
+	    recorder.setOutcome(new byte[WIDTH * HEIGHT], FrameRecording.OUTCOME_DECODED, 0);
+	    recorder.close();
+	    FrameRecording recording = FrameRecording.open(file);
+	    assertEquals(FrameRecording.OUTCOME_UNKNOWN, recording.getOutcome(0));
+	    assertEquals(FrameRecording.OUTCOME_FAILED, recording.getOutcome(1));
+	}
+	
+	@Test
+	public void replaysEveryFrameInOrder() throws Exception {
+	    FrameRecording recording = record(6, 8);
+	    RecordedFrameSource source = new RecordedFrameSource(recording, 1, 0.0f);
+	    for (int i = 0; i < 6; i++) {
+	      PreviewFrame frame = source.take();
+	      assertEquals(i, frame.getSequence());
+	      assertEquals(i * FRAME_NANOS, frame.getTimestamp());
+	      assertEquals(WIDTH, frame.getWidth());
+	      assertEquals(HEIGHT, frame.getHeight());
+	      byte[] y = new byte[WIDTH * HEIGHT];
+	      System.arraycopy(frame.getData(), 0, y, 0, y.length);
+	      assertArrayEquals(frame(i, y.length), y);
+	      source.recycle(frame);
+	    }
+	    source.awaitEnd();
+	    assertEquals(0, source.getDroppedFrameCount());
+	}
+	
+	@Test
+	public void consumersRacingOnTheClockNeverOverrun() throws Exception {
+	    FrameRecording recording = record(4, 8);
+	    for (int run = 0; run < 50; run++) {
+	      final RecordedFrameSource source = new RecordedFrameSource(recording, 4, 1.0f);
+	      final AtomicInteger taken = new AtomicInteger();
+	      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	      Thread[] consumers = new Thread[3];
+	      for (int i = 0; i < consumers.length; i++) {
+	        consumers[i] = new Thread() {
+	          @Override
+	          public void run() {
+	            try {
+	              while (true) {
+	                PreviewFrame frame = source.take();
+	                taken.incrementAndGet();
+	                source.recycle(frame);
+	              }
+	            } catch (InterruptedException e) {
+	              // Done.
+	            } catch (Throwable t) {
+	              failure.set(t);
+	            }
+	          }
+	        };
+	        consumers[i].start();
+	      }
+	      source.awaitEnd();
+	      for (Thread consumer : consumers) {
+	        consumer.interrupt();
+	        consumer.join();
+	      }
+	      assertNull(String.valueOf(failure.get()), failure.get());
+	      assertEquals(4, taken.get() + source.getDroppedFrameCount());
+	    }
+	}
+	
+	/**
+	 * Records frames with a distinct fill each, the first few with an outcome.
+	 */
+	private FrameRecording record(int frames, int maxFrames) throws IOException {
+	    File file = folder.newFile();
+	    FrameRecorder recorder = new FrameRecorder(file, maxFrames, 1024 * 1024);
+	    for (int i = 0; i < frames; i++) {
+	      byte[] data = frame(i, WIDTH * HEIGHT * 3 / 2);
+	      assertEquals(i, recorder.record(data, WIDTH, HEIGHT, FORMAT, 8 + i, 6, 56, 42,
+	          i * FRAME_NANOS));
+	      if (i == 0) {
+	        recorder.setOutcome(data, FrameRecording.OUTCOME_DECODED, qmcore.TWOD_QRCODE);
+	      } else if (i == 1) {
+	        recorder.setOutcome(data, FrameRecording.OUTCOME_FAILED, 0);
+	      } else if (i == 2) {
+	        recorder.setOutcome(data, FrameRecording.OUTCOME_SKIPPED, 0);
+	      }
+	    }
+	    recorder.close();
+	    return FrameRecording.open(file);
+	}
+	
+	private static byte[] frame(int index, int size) {
+	    byte[] data = new byte[size];
+	    for (int i = 0; i < size; i++) {
+	      data[i] = (byte) (index * 31 + i);
+	    }
+	    return data;
+	}
+}
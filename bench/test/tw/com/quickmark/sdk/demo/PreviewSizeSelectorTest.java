@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+ 
+package tw.com.quickmark.sdk.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the preview size scoring on its own, and that the assumed module size only shrinks as
+ * far as the decodes seen justify.
+ */
+public class PreviewSizeSelectorTest {
+
+	private static final int SCREEN_WIDTH = 1280;
+	private static final int SCREEN_HEIGHT = 720;
+	private static final float FRAMING = 0.6f;
+	private static final float COST = PreviewSizeSelector.DEFAULT_COST_NANOS_PER_PIXEL;
+	private static final int[][] SIZES = { { 640, 360 }, { 1280, 720 }, { 1920, 1080 } };
+	
+	@Test
+	public void tooFewPixelsPerModuleScoresZero() {
+	    assertEquals(0.0f, score(1280, 720, 1.5f, COST), 0.0f);
+	    assertEquals(0.0f, score(1280, 720, 1.0f, COST), 0.0f);
+	    assertTrue(score(1280, 720, 1.6f, COST) > 0.0f);
+	}
+	
+	@Test
+	public void morePixelsPerModuleReadBetterUpToGood() {
+	    float previous = 0.0f;
+	    for (float pixelsPerModule = 1.6f; pixelsPerModule <= 2.5f; pixelsPerModule += 0.1f) {
+	      float score = score(1280, 720, pixelsPerModule, COST);
+	      assertTrue(pixelsPerModule + ": " + score, score > previous);
+	      previous = score;
+	    }
+	    // Past good, more pixels per module buy nothing.
+	    assertEquals(score(1280, 720, 2.5f, COST), score(1280, 720, 5.0f, COST), 1.0e-6f);
+	}
+	
+	@Test
+	public void largerPreviewsCostMoreForTheSameRead() {
+	    assertTrue(score(1280, 720, 3.0f, COST) > score(1920, 1080, 3.0f, COST));
+	    assertTrue(score(1280, 720, 3.0f, COST) > score(1280, 720, 3.0f, COST * 4.0f));
+	}
+	
+	@Test
+	public void aspectMismatchScoresLower() {
+	    assertTrue(score(1280, 720, 3.0f, COST) > score(960, 720, 3.0f, COST));
+	}
+	
+	@Test
+	public void shrinkStopsWhereTheCurrentSizeTurnsMarginal() {
+	    // 4 pixels per module now: marginal, 2 of them, at half the assumed size.
+	    float scale = 1.0f;
+	    for (int i = 0; i < 20; i++) {
+	      scale = PreviewSizeSelector.shrinkModuleScale(scale, 4.0f);
+	    }
+	    assertEquals(0.5f, scale, 1.0e-6f);
+	    // Already below it: stay put rather than jump back.
+	    assertEquals(0.3f, PreviewSizeSelector.shrinkModuleScale(0.3f, 4.0f), 1.0e-6f);
+	}
+	
+	@Test
+	public void poorReadsDontRatchetTheModuleSizeDown() {
+	    PreviewSizeSelector selector = newSelector();
+	    int[] current = { 1280, 720 };
+	    for (int i = 0; i < 20; i++) {
+	      evaluate(selector, current, 0.1f, false);
+	    }
+	    float pixelsPerModule = PreviewSizeSelector.getPixelsPerModule(current[0],
+	        PreviewSizeSelector.DEFAULT_MODULE_MM * selector.getModuleScale(),
+	        PreviewSizeSelector.DEFAULT_DISTANCE_MM, PreviewSizeSelector.DEFAULT_VIEW_ANGLE);
+	    assertTrue("pixels per module: " + pixelsPerModule, pixelsPerModule >= 1.99f);
+	    assertTrue(selector.getModuleScale() > 0.25f);
+	}
+	
+	@Test
+	public void halfResolutionReadsGrowTheModuleSizeBack() {
+	    PreviewSizeSelector selector = newSelector();
+	    int[] current = { 1280, 720 };
+	    evaluate(selector, current, 0.1f, false);
+	    float shrunk = selector.getModuleScale();
+	    assertTrue(shrunk < 1.0f);
+	    evaluate(selector, current, 0.1f, true);
+	    assertTrue(selector.getModuleScale() > shrunk);
+	}
+	
+	@Test
+	public void noReadsLeaveTheModuleSizeAlone() {
+	    PreviewSizeSelector selector = newSelector();
+	    evaluate(selector, new int[] { 1280, 720 }, 0.0f, false);
+	    assertEquals(1.0f, selector.getModuleScale(), 0.0f);
+	}
+	
+	private static float score(int width, int height, float pixelsPerModule, float cost) {
+	    return PreviewSizeSelector.score(width, height, SCREEN_WIDTH, SCREEN_HEIGHT, FRAMING, FRAMING,
+	        pixelsPerModule, cost);
+	}
+	
+	private static PreviewSizeSelector newSelector() {
+	    return new PreviewSizeSelector(SIZES, SCREEN_WIDTH, SCREEN_HEIGHT,
+	        (int) (SCREEN_WIDTH * FRAMING), (int) (SCREEN_HEIGHT * FRAMING),
+	        PreviewSizeSelector.DEFAULT_VIEW_ANGLE, PreviewSizeSelector.DEFAULT_DISTANCE_MM);
+	}
+	
+	/**
+	 * Feeds decodes at the given success rate until the selector asks to be re-evaluated.
+	 */
+	private static void evaluate(PreviewSizeSelector selector, int[] current, float successRate,
+	    boolean downsampled) {
+	    int pixels = current[0] * current[1];
+	    int decodes = 0;
+	    boolean due = false;
+	    for (int i = 0; !due; i++) {
+	      boolean decoded = decodes < (i + 1) * successRate;
+	      if (decoded) {
+	        decodes++;
+	      }
+	      due = selector.observe(pixels, (long) (pixels * COST), decoded, decoded && downsampled);
+	    }
+	    selector.reevaluate(current);
+	}
+}
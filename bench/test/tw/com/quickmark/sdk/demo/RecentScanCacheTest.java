@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+ 
+package tw.com.quickmark.sdk.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks when a RecentScanCache lets a code count as new again, with the time passed in.
+ */
+public class RecentScanCacheTest {
+
+	private static final long TTL = 1000L;
+	
+	@Test
+	public void codeIsNewAgainAfterTheTtl() {
+	    RecentScanCache cache = new RecentScanCache(4, TTL);
+	    assertTrue(cache.add("a", 0L));
+	    assertTrue(cache.contains("a", TTL - 1));
+	    assertFalse(cache.contains("a", TTL));
+	    assertEquals(0, cache.size());
+	    assertTrue(cache.add("a", TTL));
+	}
+	
+	@Test
+	public void repeatSightingsRestartTheTtl() {
+	    RecentScanCache cache = new RecentScanCache(4, TTL);
+	    assertTrue(cache.add("a", 0L));
+	    // Held in view for much longer than the TTL, seen every half of it
+	    for (long now = TTL / 2; now <= TTL * 5; now += TTL / 2) {
+	      assertFalse("at " + now, cache.add("a", now));
+	    }
+	    // A contains() is not a sighting.
+	    assertTrue(cache.contains("a", TTL * 6 - 1));
+	    assertTrue(cache.add("a", TTL * 6));
+	}
+	
+	@Test
+	public void expiryKeepsCodesSeenSince() {
+	    RecentScanCache cache = new RecentScanCache(4, TTL);
+	    cache.add("a", 0L);
+	    cache.add("b", 500L);
+	    cache.add("a", 600L);
+	    // b is now the oldest sighting, and the only one due.
+	    assertFalse(cache.contains("b", 1500L));
+	    assertTrue(cache.contains("a", 1500L));
+	    assertEquals(1, cache.size());
+	}
+	
+	@Test
+	public void leastRecentlySeenIsEvictedAtMaxSize() {
+	    RecentScanCache cache = new RecentScanCache(3, TTL);
+	    cache.add("a", 0L);
+	    cache.add("b", 1L);
+	    cache.add("c", 2L);
+	    // Seeing a again makes b the least recently seen.
+	    assertFalse(cache.add("a", 3L));
+	    assertTrue(cache.add("d", 4L));
+	    assertEquals(3, cache.size());
+	    assertFalse(cache.contains("b", 5L));
+	    assertTrue(cache.contains("a", 5L));
+	    assertTrue(cache.contains("c", 5L));
+	    assertTrue(cache.contains("d", 5L));
+	    assertTrue(cache.add("b", 6L));
+	}
+	
+	@Test
+	public void clearForgetsEverything() {
+	    RecentScanCache cache = new RecentScanCache(3, TTL);
+	    cache.add("a", 0L);
+	    cache.clear();
+	    assertTrue(cache.add("a", 1L));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void emptyCacheIsRejected() {
+	    new RecentScanCache(0, TTL);
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+ 
+package tw.com.quickmark.sdk.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import tw.com.quickmark.sdk.BarcodeFormat;
+import tw.com.quickmark.sdk.Result;
+
+/**
+ * Feeds a ResultBatcher codes at set times, the way ScanService does for each client, and checks
+ * when batches come out, what is in them and what is dropped while the client is behind.
+ */
+public class ResultBatcherTest {
+
+	private static final int MAX_BATCH_SIZE = 3;
+	private static final long MAX_DELAY = 100L;
+	private static final int MAX_UNACKED = 2;
+	private static final int CAPACITY = 5;
+	
+	private final ResultBatcher batcher = new ResultBatcher(MAX_BATCH_SIZE, MAX_DELAY, MAX_UNACKED, CAPACITY);
+	
+	@Test
+	public void fullBatchGoesAtOnce() {
+	    Result[] codes = codes(4);
+	    for (Result code : codes) {
+	      batcher.add(code, 0L);
+	    }
+	    ResultBatcher.Batch batch = batcher.poll(0L);
+	    assertEquals(MAX_BATCH_SIZE, batch.getResults().length);
+	    for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+	      assertSame(codes[i], batch.getResults()[i]);
+	    }
+	    assertEquals(0, batch.getDroppedCount());
+	    // The one left over waits for company.
+	    assertEquals(1, batcher.getPendingCount());
+	    assertNull(batcher.poll(0L));
+	}
+	
+	@Test
+	public void partialBatchWaitsForTheDelay() {
+	    Result[] codes = codes(2);
+	    batcher.add(codes[0], 1000L);
+	    batcher.add(codes[1], 1050L);
+	    assertEquals(1000L + MAX_DELAY, batcher.getNextDeadline());
+	    assertNull(batcher.poll(1000L + MAX_DELAY - 1));
+	    ResultBatcher.Batch batch = batcher.poll(1000L + MAX_DELAY);
+	    assertEquals(2, batch.getResults().length);
+	    assertSame(codes[0], batch.getResults()[0]);
+	    assertSame(codes[1], batch.getResults()[1]);
+	    assertEquals(Long.MAX_VALUE, batcher.getNextDeadline());
+	    assertNull(batcher.poll(Long.MAX_VALUE / 2));
+	}
+	
+	@Test
+	public void unackedBatchesHoldBackTheNext() {
+	    for (Result code : codes(MAX_BATCH_SIZE * 3)) {
+	      batcher.add(code, 0L);
+	      if (batcher.getPendingCount() == MAX_BATCH_SIZE) {
+	        batcher.poll(0L);
+	      }
+	    }
+	    // Two batches in hand, the third held back until one is acknowledged.
+	    assertTrue(batcher.isBehind());
+	    assertEquals(MAX_BATCH_SIZE, batcher.getPendingCount());
+	    assertNull(batcher.poll(MAX_DELAY));
+	    
+	    batcher.acknowledge();
+	    assertFalse(batcher.isBehind());
+	    assertEquals(MAX_BATCH_SIZE, batcher.poll(MAX_DELAY).getResults().length);
+	    assertTrue(batcher.isBehind());
+	    assertEquals(3L, batcher.getBatchCount());
+	    assertEquals(MAX_BATCH_SIZE * 3L, batcher.getDeliveredCount());
+	}
+	
+	@Test
+	public void extraAcknowledgementsAreIgnored() {
+	    batcher.acknowledge();
+	    batcher.acknowledge();
+	    for (Result code : codes(CAPACITY)) {
+	      batcher.add(code, 0L);
+	    }
+	    assertEquals(MAX_BATCH_SIZE, batcher.poll(MAX_DELAY).getResults().length);
+	    assertEquals(CAPACITY - MAX_BATCH_SIZE, batcher.poll(MAX_DELAY).getResults().length);
+	    // Only MAX_UNACKED batches out, however often the client acknowledged before.
+	    assertTrue(batcher.isBehind());
+	    batcher.add(codes(1)[0], 0L);
+	    assertNull(batcher.poll(MAX_DELAY));
+	}
+	
+	@Test
+	public void oldestAreDroppedAtCapacity() {
+	    // One batch out, one held up by the delay, then the client falls behind.
+	    batcher.add(codes(1)[0], 0L);
+	    batcher.poll(MAX_DELAY);
+	    batcher.add(codes(1)[0], 0L);
+	    batcher.poll(MAX_DELAY);
+	    assertTrue(batcher.isBehind());
+	    
+	    Result[] codes = codes(CAPACITY + 2);
+	    for (int i = 0; i < codes.length; i++) {
+	      batcher.add(codes[i], MAX_DELAY + i);
+	    }
+	    assertEquals(CAPACITY, batcher.getPendingCount());
+	    assertEquals(2L, batcher.getDroppedCount());
+	    // The deadline follows the oldest code still held.
+	    assertEquals(MAX_DELAY + 2 + MAX_DELAY, batcher.getNextDeadline());
+	    
+	    batcher.acknowledge();
+	    ResultBatcher.Batch batch = batcher.poll(MAX_DELAY);
+	    assertSame(codes[2], batch.getResults()[0]);
+	    assertEquals(2, batch.getDroppedCount());
+	    batcher.acknowledge();
+	    batch = batcher.poll(1000L);
+	    assertSame(codes[2 + MAX_BATCH_SIZE], batch.getResults()[0]);
+	    assertSame(codes[codes.length - 1], batch.getResults()[batch.getResults().length - 1]);
+	    // Each drop is reported once.
+	    assertEquals(0, batch.getDroppedCount());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void capacityBelowBatchSizeIsRejected() {
+	    new ResultBatcher(4, MAX_DELAY, MAX_UNACKED, 3);
+	}
+	
+	private static Result[] codes(int count) {
+	    Result[] codes = new Result[count];
+	    for (int i = 0; i < count; i++) {
+	      codes[i] = new Result("code" + i, BarcodeFormat.QR_CODE);
+	    }
+	    return codes;
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+ 
+package tw.com.quickmark.sdk.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import tw.com.quickmark.sdk.BarcodeFormat;
+import tw.com.quickmark.sdk.Result;
+import tw.com.quickmark.sdk.qmcore;
+
+/**
+ * Runs a ScanPipeline over a fixed list of frames, the way ScanService runs it over the camera's,
+ * and checks what reaches the decoder, the frame listener and the session.
+ */
+public class ScanPipelineTest {
+
+	private static final int WIDTH = 320;
+	private static final int HEIGHT = 240;
+	private static final String TEXT = "QuickMark";
+	
+	/** Hands out the frames once each, then blocks until the pipeline stops. */
+	private static final class ListFrameSource implements FrameSource {
+	    private final List<PreviewFrame> frames;
+	    private final CountDownLatch recycled;
+	    private int next;
+	    
+	    ListFrameSource(List<PreviewFrame> frames) {
+	      this.frames = frames;
+	      this.recycled = new CountDownLatch(frames.size());
+	    }
+	    
+	    public PreviewFrame take() throws InterruptedException {
+	      synchronized (this) {
+	        if (next < frames.size()) {
+	          return frames.get(next++);
+	        }
+	      }
+	      new CountDownLatch(1).await();
+	      throw new InterruptedException();
+	    }
+	    
+	    public void recycle(PreviewFrame frame) {
+	      recycled.countDown();
+	    }
+	    
+	    void awaitRecycled() throws InterruptedException {
+	      assertTrue("frames not all decoded", recycled.await(10L, TimeUnit.SECONDS));
+	    }
+	}
+	
+	/** Finds the same QR code in anything it is given, and remembers the formats asked for. */
+	private static final class FixedDecoder implements BarcodeDecoder {
+	    final List<Integer> formats = new ArrayList<Integer>();
+	    
+	    public synchronized Result decode(byte[] matrix, int width, int height, int decodeFormat) {
+	      formats.add(decodeFormat);
+	      return new Result(TEXT, BarcodeFormat.QR_CODE);
+	    }
+	}
+	
+	private static final class CountingListener implements FrameDecoder.Listener {
+	    final int[] outcomes = new int[4];
+	    int timed;
+	    
+	    public synchronized void onFrameDecoded(byte[] data, int sharpness, int outcome, Result result) {
+	      outcomes[outcome]++;
+	    }
+	    
+	    public synchronized void onDecodeTimed(int pixels, long nanos, boolean decoded,
+	        boolean downsampled) {
+	      timed++;
+	    }
+	}
+	
+	private FrameDecoder frameDecoder;
+	private FixedDecoder decoder;
+	private CountingListener listener;
+	private ScanSession session;
+	
+	@Before
+	public void setUp() {
+	    frameDecoder = new FrameDecoder();
+	    frameDecoder.setRoiTracker(new RoiTracker());
+	    listener = new CountingListener();
+	    frameDecoder.setListener(listener);
+	    decoder = new FixedDecoder();
+	    session = new ScanSession();
+	}
+	
+	@Test
+	public void repeatsReachTheSessionOnce() throws InterruptedException {
+	    ScanPipeline pipeline = run(codeFrames(5));
+	    assertEquals(5, pipeline.getFrameCount());
+	    assertEquals(5, pipeline.getDecodedFrameCount());
+	    assertEquals(1, session.getScanCount());
+	    assertEquals(4, session.getDuplicateCount());
+	    assertEquals(5, listener.outcomes[FrameRecording.OUTCOME_DECODED]);
+	    assertEquals(5, listener.timed);
+	}
+	
+	@Test
+	public void blankFramesNeverReachTheDecoder() throws InterruptedException {
+	    List<PreviewFrame> frames = new ArrayList<PreviewFrame>();
+	    for (int i = 0; i < 3; i++) {
+	      byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+	      Arrays.fill(data, (byte) 128);
+	      frames.add(frame(data, i));
+	    }
+	    ScanPipeline pipeline = run(frames);
+	    assertEquals(3, pipeline.getFrameCount());
+	    assertEquals(0, decoder.formats.size());
+	    assertEquals(0, session.getScanCount());
+	    assertEquals(3, listener.outcomes[FrameRecording.OUTCOME_SKIPPED]);
+	}
+	
+	@Test
+	public void decodeConfigReachesTheDecoder() throws InterruptedException {
+	    frameDecoder.setDecodeConfig(new DecodeConfig(qmcore.TWOD_QRCODE));
+	    run(codeFrames(3));
+	    assertEquals(3, decoder.formats.size());
+	    for (int format : decoder.formats) {
+	      assertEquals(qmcore.TWOD_QRCODE, format);
+	    }
+	}
+	
+	@Test
+	public void classifiedFramesAreNotCountedAsFull() throws InterruptedException {
+	    FormatScheduler scheduler = frameDecoder.getFormatScheduler();
+	    scheduler.setFullFraction(1.0f);
+	    run(codeFrames(8));
+	    int full = 0;
+	    for (int format : decoder.formats) {
+	      if (format == DecodeFormats.ALL) {
+	        full++;
+	      }
+	    }
+	    assertEquals(full, scheduler.getFrameCount(FormatScheduler.MODE_FULL));
+	    assertEquals(8 - full, scheduler.getFrameCount(FormatScheduler.MODE_CLASSIFIED));
+	    assertEquals(0, scheduler.getFrameCount(FormatScheduler.MODE_NARROW));
+	    assertTrue("classified " + (8 - full), 8 - full > 0);
+	}
+	
+	private ScanPipeline run(List<PreviewFrame> frames) throws InterruptedException {
+	    ListFrameSource source = new ListFrameSource(frames);
+	    ScanPipeline pipeline = new ScanPipeline(source, new BarcodeDecoder[] { decoder }, session,
+	        frameDecoder);
+	    pipeline.start();
+	    try {
+	      source.awaitRecycled();
+	    } finally {
+	      pipeline.stop();
+	    }
+	    return pipeline;
+	}
+	
+	private static List<PreviewFrame> codeFrames(int count) {
+	    SyntheticFrameGenerator generator = new SyntheticFrameGenerator(1);
+	    List<PreviewFrame> frames = new ArrayList<PreviewFrame>();
+	    for (int i = 0; i < count; i++) {
+	      frames.add(frame(generator.generate(qmcore.TWOD_QRCODE, TEXT, WIDTH, HEIGHT), i));
+	    }
+	    return frames;
+	}
+	
+	private static PreviewFrame frame(byte[] data, long sequence) {
+	    PreviewFrame frame = new PreviewFrame(data);
+	    frame.setSize(WIDTH, HEIGHT);
+	    frame.setSequence(sequence);
+	    frame.setTimestamp(System.nanoTime());
+	    return frame;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+ 
+package tw.com.quickmark.sdk.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import tw.com.quickmark.sdk.BarcodeFormat;
+import tw.com.quickmark.sdk.Result;
+
+/**
+ * Reports codes to a ScanSession at set times and checks what it passes on, what its queue
+ * drops and the scan rate it measures.
+ */
+public class ScanSessionTest {
+
+	private static final long TTL = 1000L;
+	private static final float DELTA = 0.001f;
+	
+	@Test
+	public void repeatsAreDropped() {
+	    ScanSession session = new ScanSession(8, TTL, 8);
+	    final List<Result> heard = new ArrayList<Result>();
+	    session.addListener(new ScanSession.Listener() {
+	      public void onScan(Result result, long timestamp) {
+	        heard.add(result);
+	      }
+	    });
+	    assertTrue(session.onDecoded(code("a"), 0L));
+	    assertFalse(session.onDecoded(code("a"), 100L));
+	    // Same text, other format: another code
+	    assertTrue(session.onDecoded(new Result("a", BarcodeFormat.DATA_MATRIX), 200L));
+	    assertTrue(session.onDecoded(code("a"), 100L + TTL));
+	    assertEquals(3, session.getScanCount());
+	    assertEquals(1, session.getDuplicateCount());
+	    assertEquals(3, heard.size());
+	    assertEquals(3, session.getResults().size());
+	}
+	
+	@Test
+	public void fullQueueDropsTheOldest() {
+	    ScanSession session = new ScanSession(8, TTL, 3);
+	    Result[] codes = new Result[5];
+	    for (int i = 0; i < codes.length; i++) {
+	      codes[i] = code("code" + i);
+	      assertTrue(session.onDecoded(codes[i], i));
+	    }
+	    assertEquals(2, session.getDroppedResultCount());
+	    assertEquals(3, session.getResults().size());
+	    assertSame(codes[2], session.getResults().poll());
+	    assertSame(codes[3], session.getResults().poll());
+	    assertSame(codes[4], session.getResults().poll());
+	    assertEquals(5, session.getScanCount());
+	}
+	
+	@Test
+	public void rateIsOverTheLastMinute() {
+	    ScanSession session = new ScanSession(256, TTL, 256);
+	    assertEquals(0.0f, session.getScansPerMinute(0L), DELTA);
+	    // One new code a second for two minutes
+	    for (int i = 0; i < 120; i++) {
+	      session.onDecoded(code("code" + i), i * 1000L);
+	      if (i == 30) {
+	        // Younger than a minute: the 31 codes so far over the 30 seconds so far
+	        assertEquals(62.0f, session.getScansPerMinute(30000L), DELTA);
+	      }
+	    }
+	    // The codes at 59 to 119 seconds fall in the last minute.
+	    assertEquals(61.0f, session.getScansPerMinute(119000L), DELTA);
+	    // A minute after the last code, only it is left.
+	    assertEquals(1.0f, session.getScansPerMinute(179000L), DELTA);
+	    assertEquals(0.0f, session.getScansPerMinute(179001L), DELTA);
+	}
+	
+	@Test
+	public void firstSecondIsNotExtrapolated() {
+	    ScanSession session = new ScanSession();
+	    session.onDecoded(code("a"), 5000L);
+	    session.onDecoded(code("b"), 5100L);
+	    assertEquals(120.0f, session.getScansPerMinute(5100L), DELTA);
+	}
+	
+	@Test
+	public void resetStartsOver() {
+	    ScanSession session = new ScanSession(8, TTL, 8);
+	    session.onDecoded(code("a"), 0L);
+	    session.onDecoded(code("a"), 1L);
+	    session.reset();
+	    assertEquals(0, session.getScanCount());
+	    assertEquals(0, session.getDuplicateCount());
+	    assertEquals(0, session.getResults().size());
+	    assertEquals(0.0f, session.getScansPerMinute(2L), DELTA);
+	    assertTrue(session.onDecoded(code("a"), 2L));
+	}
+	
+	private static Result code(String text) {
+	    return new Result(text, BarcodeFormat.QR_CODE);
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+ 
+package tw.com.quickmark.sdk.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import tw.com.quickmark.sdk.qmcore;
+
+/**
+ * Classifies synthetic frames of each kind of code, and blank and noisy ones, then checks the
+ * decision and the finder pattern test at their edges.
+ */
+public class SymbologyClassifierTest {
+
+	private static final int WIDTH = 640;
+	private static final int HEIGHT = 480;
+	private static final int[] LINEAR_FORMATS = { qmcore.ONED_EAN, qmcore.ONED_CODE39, qmcore.ONED_CODE128 };
+	private static final int[] MATRIX_FORMATS = { qmcore.TWOD_QRCODE, qmcore.TWOD_DATAMATRIX };
+	private static final float[] TILTS = { 0.0f, 10.0f, 20.0f, 90.0f };
+	
+	private final SymbologyClassifier classifier = new SymbologyClassifier();
+	
+	@Test
+	public void linearCodesAtATiltAreLinear() {
+	    SyntheticFrameGenerator generator = new SyntheticFrameGenerator(1);
+	    generator.setModuleSize(3.0f);
+	    for (int format : LINEAR_FORMATS) {
+	      for (float tilt : TILTS) {
+	        generator.setRotation(tilt);
+	        byte[] frame = generator.generate(format, generator.randomText(format), WIDTH, HEIGHT);
+	        assertEquals(DecodeFormats.NAMES[DecodeFormats.indexOf(format)] + " at " + tilt,
+	            SymbologyClassifier.LINEAR, classify(frame));
+	      }
+	    }
+	}
+	
+	@Test
+	public void matrixCodesAreMatrix() {
+	    SyntheticFrameGenerator generator = new SyntheticFrameGenerator(1);
+	    generator.setModuleSize(6.0f);
+	    for (int format : MATRIX_FORMATS) {
+	      for (float tilt : TILTS) {
+	        generator.setRotation(tilt);
+	        byte[] frame = generator.generate(format, generator.randomText(format), WIDTH, HEIGHT);
+	        assertEquals(DecodeFormats.NAMES[DecodeFormats.indexOf(format)] + " at " + tilt,
+	            SymbologyClassifier.MATRIX, classify(frame));
+	      }
+	    }
+	}
+	
+	@Test
+	public void flatAndNoisyFramesAreUnknown() {
+	    byte[] flat = new byte[WIDTH * HEIGHT * 3 / 2];
+	    Arrays.fill(flat, (byte) 128);
+	    assertEquals("flat", SymbologyClassifier.UNKNOWN, classify(flat));
+	    
+	    // Sensor noise around mid gray, too little contrast to binarize
+	    Random random = new Random(1);
+	    byte[] grain = new byte[flat.length];
+	    for (int i = 0; i < grain.length; i++) {
+	      grain[i] = (byte) (128 + Math.round(random.nextGaussian() * 4.0));
+	    }
+	    assertEquals("grain", SymbologyClassifier.UNKNOWN, classify(grain));
+	    
+	    // A blank surface under uneven light, and noise enough to binarize
+	    byte[] shaded = new byte[flat.length];
+	    for (int y = 0; y < HEIGHT; y++) {
+	      for (int x = 0; x < WIDTH; x++) {
+	        shaded[y * WIDTH + x] = (byte) (60 + x * 140 / WIDTH + Math.round(random.nextGaussian() * 6.0));
+	      }
+	    }
+	    assertEquals("shaded", SymbologyClassifier.UNKNOWN, classify(shaded));
+	}
+	
+	@Test
+	public void disabledClassifiesNothing() {
+	    SyntheticFrameGenerator generator = new SyntheticFrameGenerator(1);
+	    byte[] frame = generator.generate(qmcore.TWOD_QRCODE, "QuickMark", WIDTH, HEIGHT);
+	    classifier.setEnabled(false);
+	    assertEquals(SymbologyClassifier.UNKNOWN, classify(frame));
+	}
+	
+	@Test
+	public void decision() {
+	    // Too few transitions either way to say
+	    assertEquals(SymbologyClassifier.UNKNOWN, SymbologyClassifier.classify(7.9f, 0.0f, 1.0f, false));
+	    // Busy one way only, or the same bars on parallel lines
+	    assertEquals(SymbologyClassifier.LINEAR, SymbologyClassifier.classify(30.0f, 10.0f, -1.0f, false));
+	    assertEquals(SymbologyClassifier.LINEAR, SymbologyClassifier.classify(10.0f, 30.0f, -1.0f, false));
+	    assertEquals(SymbologyClassifier.LINEAR, SymbologyClassifier.classify(20.0f, 20.0f, 0.8f, true));
+	    // Busy both ways
+	    assertEquals(SymbologyClassifier.MATRIX, SymbologyClassifier.classify(20.0f, 14.0f, 0.2f, false));
+	    // In between, which only finder patterns and little recurrence settle
+	    assertEquals(SymbologyClassifier.UNKNOWN, SymbologyClassifier.classify(20.0f, 11.0f, 0.3f, false));
+	    assertEquals(SymbologyClassifier.MATRIX, SymbologyClassifier.classify(20.0f, 11.0f, 0.3f, true));
+	    assertEquals(SymbologyClassifier.UNKNOWN, SymbologyClassifier.classify(20.0f, 11.0f, 0.6f, true));
+	    assertEquals(SymbologyClassifier.UNKNOWN, SymbologyClassifier.classify(20.0f, 9.0f, 0.3f, true));
+	}
+	
+	@Test
+	public void finderRatios() {
+	    assertTrue(SymbologyClassifier.isFinderPattern(new int[] { 1, 1, 3, 1, 1 }));
+	    assertTrue(SymbologyClassifier.isFinderPattern(new int[] { 4, 4, 12, 4, 4 }));
+	    // Each run off by less than half a module
+	    assertTrue(SymbologyClassifier.isFinderPattern(new int[] { 5, 3, 13, 4, 4 }));
+	    // A run off by half a module or more
+	    assertFalse(SymbologyClassifier.isFinderPattern(new int[] { 7, 4, 12, 4, 4 }));
+	    // A center so wide the others fall short of a module
+	    assertFalse(SymbologyClassifier.isFinderPattern(new int[] { 2, 2, 20, 2, 2 }));
+	    // Even runs, as bars give
+	    assertFalse(SymbologyClassifier.isFinderPattern(new int[] { 4, 4, 4, 4, 4 }));
+	    // Not five runs yet, or too short to be seven modules
+	    assertFalse(SymbologyClassifier.isFinderPattern(new int[] { 0, 1, 3, 1, 1 }));
+	    assertFalse(SymbologyClassifier.isFinderPattern(new int[] { 1, 1, 2, 1, 1 }));
+	}
+	
+	private int classify(byte[] frame) {
+	    return classifier.classify(new DecodeBufferSource(frame, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT));
+	}
+}
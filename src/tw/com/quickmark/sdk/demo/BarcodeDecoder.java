@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import tw.com.quickmark.sdk.Result;
+
+/**
+ * Decodes one 8 bit luminance image. Implementations are not expected to be thread safe; give
+ * every decoding thread its own instance.
+ */
+public interface BarcodeDecoder {
+
+	/**
+	 * @param matrix A row-major array of luminance values, at least width * height long.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param decodeFormat The qmcore format flags to look for.
+	 * @return The decoded barcode, or null if none was found.
+	 */
+	Result decode(byte[] matrix, int width, int height, int decodeFormat);
+}
@@ -0,0 +1,743 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import tw.com.quickmark.sdk.qmcore;
+
+/**
+ * Encodes text as the module pattern of a barcode, quiet zone included, for
+ * {@link SyntheticFrameGenerator} to draw. Covers what the scanner decodes, each in one common
+ * variant: QR Code versions 1-6 at error correction level M in byte mode, square single region
+ * Data Matrix ECC 200 in ASCII mode, EAN-13, Code 39 and Code 128 code set B.
+ *
+ * Patterns are indexed [row][column]; true is dark. 1D codes get a single row, to be stretched.
+ */
+public final class BarcodeEncoder {
+
+	private static final int QR_QUIET_ZONE = 4;
+	private static final int DATA_MATRIX_QUIET_ZONE = 2;
+	private static final int LINEAR_QUIET_ZONE = 10;
+	
+	// QR Code, level M: total and error correction codewords and blocks per version 1-6
+	private static final int[] QR_TOTAL_CODEWORDS = { 26, 44, 70, 100, 134, 172 };
+	private static final int[] QR_EC_CODEWORDS_PER_BLOCK = { 10, 16, 26, 18, 24, 16 };
+	private static final int[] QR_BLOCKS = { 1, 1, 1, 2, 2, 4 };
+	
+	// Data Matrix, square single region symbols: size, data and error correction codewords
+	private static final int[] DATA_MATRIX_SIZES = { 10, 12, 14, 16, 18, 20, 22, 24, 26 };
+	private static final int[] DATA_MATRIX_DATA_CODEWORDS = { 3, 5, 8, 12, 18, 22, 30, 36, 44 };
+	private static final int[] DATA_MATRIX_EC_CODEWORDS = { 5, 7, 10, 12, 14, 18, 20, 24, 28 };
+	
+	// EAN-13 left hand odd (L) digit patterns; even (G) and right hand (R) ones derive from these
+	private static final int[] EAN_L_PATTERNS = {
+	    0x0d, 0x19, 0x13, 0x3d, 0x23, 0x31, 0x2f, 0x3b, 0x37, 0x0b
+	};
+	// Which of the six left hand digits use G, by first digit; bit 5 is the second digit
+	private static final int[] EAN_FIRST_DIGIT_PARITIES = {
+	    0x00, 0x0b, 0x0d, 0x0e, 0x13, 0x19, 0x1c, 0x15, 0x16, 0x1a
+	};
+	
+	private static final String CODE39_ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ-. *$/+%";
+	// Nine elements per character, bar first, most significant bit first; set bits are wide
+	private static final int[] CODE39_PATTERNS = {
+	    0x034, 0x121, 0x061, 0x160, 0x031, 0x130, 0x070, 0x025, 0x124, 0x064,
+	    0x109, 0x049, 0x148, 0x019, 0x118, 0x058, 0x00d, 0x10c, 0x04c, 0x01c,
+	    0x103, 0x043, 0x142, 0x013, 0x112, 0x052, 0x007, 0x106, 0x046, 0x016,
+	    0x181, 0x0c1, 0x1c0, 0x091, 0x190, 0x0d0, 0x085, 0x184, 0x0c4, 0x094,
+	    0x0a8, 0x0a2, 0x08a, 0x02a
+	};
+	private static final int CODE39_WIDE = 3;
+	
+	private static final int CODE128_START_B = 104;
+	private static final int CODE128_STOP = 106;
+	// Element widths per symbol value, bar first; the stop pattern has a seventh element
+	private static final String[] CODE128_PATTERNS = {
+	    "212222", "222122", "222221", "121223", "121322", "131222", "122213", "122312", "132212", "221213",
+	    "221312", "231212", "112232", "122132", "122231", "113222", "123122", "123221", "223211", "221132",
+	    "221231", "213212", "223112", "312131", "311222", "321122", "321221", "312212", "322112", "322211",
+	    "212123", "212321", "232121", "111323", "131123", "131321", "112313", "132113", "132311", "211313",
+	    "231113", "231311", "112133", "112331", "132131", "113123", "113321", "133121", "313121", "211331",
+	    "231131", "213113", "213311", "213131", "311123", "311321", "331121", "312113", "312311", "332111",
+	    "314111", "221411", "431111", "111224", "111422", "121124", "121421", "141122", "141221", "112214",
+	    "112412", "122114", "122411", "142112", "142211", "241211", "221114", "413111", "241112", "134111",
+	    "111242", "121142", "121241", "114212", "124112", "124211", "411212", "421112", "421211", "212141",
+	    "214121", "412121", "111143", "111341", "131141", "114113", "114311", "411113", "411311", "113141",
+	    "114131", "311141", "411131", "211412", "211214", "211232", "2331112"
+	};
+	
+	private static final GaloisField QR_FIELD = new GaloisField(0x11d);
+	private static final GaloisField DATA_MATRIX_FIELD = new GaloisField(0x12d);
+	
+	private BarcodeEncoder() {
+	}
+	
+	/**
+	 * @param format A single qmcore format flag.
+	 * @throws IllegalArgumentException If the text can't be encoded in the format.
+	 */
+	public static boolean[][] encode(int format, String text) {
+	    switch (format) {
+	      case qmcore.TWOD_QRCODE:
+	        return encodeQrCode(text);
+	      case qmcore.TWOD_DATAMATRIX:
+	        return encodeDataMatrix(text);
+	      case qmcore.ONED_EAN:
+	        return encodeEan13(text);
+	      case qmcore.ONED_CODE39:
+	        return encodeCode39(text);
+	      case qmcore.ONED_CODE128:
+	        return encodeCode128(text);
+	      default:
+	        throw new IllegalArgumentException("Unsupported format " + format);
+	    }
+	}
+	
+	/**
+	 * @return True for QR Code and Data Matrix, false for the 1D formats.
+	 */
+	public static boolean isMatrix(int format) {
+	    return format == qmcore.TWOD_QRCODE || format == qmcore.TWOD_DATAMATRIX;
+	}
+	
+	// QR Code
+	
+	public static boolean[][] encodeQrCode(String text) {
+	    byte[] bytes = getLatin1(text);
+	    int version = 1;
+	    while (version <= QR_TOTAL_CODEWORDS.length &&
+	        4 + 8 + bytes.length * 8 > getQrDataCodewords(version) * 8) {
+	      version++;
+	    }
+	    if (version > QR_TOTAL_CODEWORDS.length || bytes.length > 255) {
+	      throw new IllegalArgumentException("Too long for QR Code version 6-M: " + text);
+	    }
+	    int dataCodewords = getQrDataCodewords(version);
+	    
+	    // Byte mode, 8 bit count, data, terminator, then pad bytes
+	    BitWriter bits = new BitWriter(dataCodewords);
+	    bits.append(0x4, 4);
+	    bits.append(bytes.length, 8);
+	    for (byte b : bytes) {
+	      bits.append(b & 0xff, 8);
+	    }
+	    bits.append(0, Math.min(4, dataCodewords * 8 - bits.size()));
+	    bits.append(0, (8 - bits.size() % 8) % 8);
+	    for (int pad = 0xec; bits.size() < dataCodewords * 8; pad ^= 0xec ^ 0x11) {
+	      bits.append(pad, 8);
+	    }
+	    byte[] data = bits.toBytes();
+	    
+	    // Error correction per block, then interleave
+	    int blocks = QR_BLOCKS[version - 1];
+	    int ecPerBlock = QR_EC_CODEWORDS_PER_BLOCK[version - 1];
+	    int dataPerBlock = dataCodewords / blocks;
+	    int[] codewords = new int[QR_TOTAL_CODEWORDS[version - 1]];
+	    int[] generator = QR_FIELD.generator(ecPerBlock, 0);
+	    for (int block = 0; block < blocks; block++) {
+	      int[] blockData = new int[dataPerBlock];
+	      for (int i = 0; i < dataPerBlock; i++) {
+	        blockData[i] = data[block * dataPerBlock + i] & 0xff;
+	        codewords[i * blocks + block] = blockData[i];
+	      }
+	      int[] ec = QR_FIELD.remainder(blockData, generator);
+	      for (int i = 0; i < ecPerBlock; i++) {
+	        codewords[dataCodewords + i * blocks + block] = ec[i];
+	      }
+	    }
+	    
+	    int size = 17 + version * 4;
+	    // -1 for modules not yet set
+	    int[][] matrix = new int[size][size];
+	    for (int[] row : matrix) {
+	      java.util.Arrays.fill(row, -1);
+	    }
+	    placeFinder(matrix, 0, 0);
+	    placeFinder(matrix, size - 7, 0);
+	    placeFinder(matrix, 0, size - 7);
+	    for (int i = 8; i < size - 8; i++) {
+	      matrix[6][i] = (i + 1) % 2;
+	      matrix[i][6] = (i + 1) % 2;
+	    }
+	    if (version > 1) {
+	      placeAlignment(matrix, size - 7, size - 7);
+	    }
+	    matrix[size - 8][8] = 1;
+	    placeFormatInfo(matrix, 0);
+	    
+	    // Zigzag up and down two column wide strips from the bottom right, skipping column 6
+	    int bitIndex = 0;
+	    int direction = -1;
+	    int y = size - 1;
+	    for (int x = size - 1; x > 0; x -= 2) {
+	      if (x == 6) {
+	        x--;
+	      }
+	      for (; y >= 0 && y < size; y += direction) {
+	        for (int i = 0; i < 2; i++) {
+	          int xx = x - i;
+	          if (matrix[y][xx] != -1) {
+	            continue;
+	          }
+	          int bit = 0;
+	          if (bitIndex < codewords.length * 8) {
+	            bit = (codewords[bitIndex / 8] >> (7 - bitIndex % 8)) & 1;
+	            bitIndex++;
+	          }
+	          // Mask pattern 0
+	          if ((xx + y) % 2 == 0) {
+	            bit ^= 1;
+	          }
+	          matrix[y][xx] = bit;
+	        }
+	      }
+	      direction = -direction;
+	      y += direction;
+	    }
+	    return withQuietZone(matrix, QR_QUIET_ZONE);
+	}
+	
+	private static int getQrDataCodewords(int version) {
+	    return QR_TOTAL_CODEWORDS[version - 1] - QR_BLOCKS[version - 1] * QR_EC_CODEWORDS_PER_BLOCK[version - 1];
+	}
+	
+	/**
+	 * A finder pattern with its separator, at the top left corner (x, y) of the 7x7 pattern.
+	 */
+	private static void placeFinder(int[][] matrix, int x, int y) {
+	    int size = matrix.length;
+	    for (int dy = -1; dy <= 7; dy++) {
+	      for (int dx = -1; dx <= 7; dx++) {
+	        int row = y + dy;
+	        int column = x + dx;
+	        if (row < 0 || row >= size || column < 0 || column >= size) {
+	          continue;
+	        }
+	        int ring = Math.max(Math.abs(dx - 3), Math.abs(dy - 3));
+	        matrix[row][column] = ring == 4 || ring == 2 ? 0 : 1;
+	      }
+	    }
+	}
+	
+	private static void placeAlignment(int[][] matrix, int centerX, int centerY) {
+	    for (int dy = -2; dy <= 2; dy++) {
+	      for (int dx = -2; dx <= 2; dx++) {
+	        matrix[centerY + dy][centerX + dx] = Math.max(Math.abs(dx), Math.abs(dy)) == 1 ? 0 : 1;
+	      }
+	    }
+	}
+	
+	/**
+	 * Both copies of the format information for level M, least significant bit first.
+	 */
+	private static void placeFormatInfo(int[][] matrix, int maskPattern) {
+	    int size = matrix.length;
+	    int data = maskPattern; // level M is 00
+	    int remainder = data << 10;
+	    for (int bit = 14; bit >= 10; bit--) {
+	      if ((remainder & (1 << bit)) != 0) {
+	        remainder ^= 0x537 << (bit - 10);
+	      }
+	    }
+	    int info = ((data << 10) | remainder) ^ 0x5412;
+	    int[][] firstCopy = {
+	        {8, 0}, {8, 1}, {8, 2}, {8, 3}, {8, 4}, {8, 5}, {8, 7}, {8, 8},
+	        {7, 8}, {5, 8}, {4, 8}, {3, 8}, {2, 8}, {1, 8}, {0, 8}
+	    };
+	    for (int i = 0; i < 15; i++) {
+	      int bit = (info >> i) & 1;
+	      matrix[firstCopy[i][1]][firstCopy[i][0]] = bit;
+	      if (i < 8) {
+	        matrix[8][size - 1 - i] = bit;
+	      } else {
+	        matrix[size - 7 + i - 8][8] = bit;
+	      }
+	    }
+	}
+	
+	// Data Matrix
+	
+	public static boolean[][] encodeDataMatrix(String text) {
+	    byte[] bytes = getLatin1(text);
+	    int[] encoded = new int[bytes.length * 2];
+	    int length = 0;
+	    for (int i = 0; i < bytes.length; i++) {
+	      int c = bytes[i] & 0xff;
+	      if (isDigit(c) && i + 1 < bytes.length && isDigit(bytes[i + 1] & 0xff)) {
+	        encoded[length++] = 130 + (c - '0') * 10 + (bytes[++i] - '0');
+	      } else if (c < 128) {
+	        encoded[length++] = c + 1;
+	      } else {
+	        // Upper shift
+	        encoded[length++] = 235;
+	        encoded[length++] = c - 127;
+	      }
+	    }
+	    int symbol = 0;
+	    while (symbol < DATA_MATRIX_SIZES.length && DATA_MATRIX_DATA_CODEWORDS[symbol] < length) {
+	      symbol++;
+	    }
+	    if (symbol == DATA_MATRIX_SIZES.length) {
+	      throw new IllegalArgumentException("Too long for a 26x26 Data Matrix: " + text);
+	    }
+	    int dataCodewords = DATA_MATRIX_DATA_CODEWORDS[symbol];
+	    int[] data = new int[dataCodewords];
+	    System.arraycopy(encoded, 0, data, 0, length);
+	    if (length < dataCodewords) {
+	      data[length] = 129;
+	      // Further pads are scrambled by position
+	      for (int position = length + 2; position <= dataCodewords; position++) {
+	        int pad = 129 + (149 * position) % 253 + 1;
+	        data[position - 1] = pad <= 254 ? pad : pad - 254;
+	      }
+	    }
+	    int[] ec = DATA_MATRIX_FIELD.remainder(data,
+	        DATA_MATRIX_FIELD.generator(DATA_MATRIX_EC_CODEWORDS[symbol], 1));
+	    int[] codewords = new int[dataCodewords + ec.length];
+	    System.arraycopy(data, 0, codewords, 0, dataCodewords);
+	    System.arraycopy(ec, 0, codewords, dataCodewords, ec.length);
+	    
+	    int size = DATA_MATRIX_SIZES[symbol];
+	    DataMatrixPlacement placement = new DataMatrixPlacement(codewords, size - 2);
+	    int[][] matrix = new int[size][size];
+	    for (int y = 0; y < size; y++) {
+	      for (int x = 0; x < size; x++) {
+	        int module;
+	        if (x == 0 || y == size - 1) {
+	          module = 1;
+	        } else if (y == 0) {
+	          module = (x + 1) % 2;
+	        } else if (x == size - 1) {
+	          module = y % 2;
+	        } else {
+	          module = placement.get(x - 1, y - 1) ? 1 : 0;
+	        }
+	        matrix[y][x] = module;
+	      }
+	    }
+	    return withQuietZone(matrix, DATA_MATRIX_QUIET_ZONE);
+	}
+	
+	/**
+	 * The ECC 200 module placement of the codewords in a square data region.
+	 */
+	private static final class DataMatrixPlacement {
+	    private final int[] codewords;
+	    private final int size;
+	    // -1 unset, 0 light, 1 dark; [row][column]
+	    private final int[][] bits;
+	    
+	    DataMatrixPlacement(int[] codewords, int size) {
+	      this.codewords = codewords;
+	      this.size = size;
+	      bits = new int[size][size];
+	      for (int[] row : bits) {
+	        java.util.Arrays.fill(row, -1);
+	      }
+	      place();
+	    }
+	    
+	    boolean get(int column, int row) {
+	      return bits[row][column] == 1;
+	    }
+	    
+	    private void place() {
+	      int position = 0;
+	      int row = 4;
+	      int column = 0;
+	      do {
+	        if (row == size && column == 0) {
+	          corner1(position++);
+	        }
+	        if (row == size - 2 && column == 0 && size % 4 != 0) {
+	          corner2(position++);
+	        }
+	        if (row == size - 2 && column == 0 && size % 8 == 4) {
+	          corner3(position++);
+	        }
+	        if (row == size + 4 && column == 2 && size % 8 == 0) {
+	          corner4(position++);
+	        }
+	        // Sweep up and to the right
+	        do {
+	          if (row < size && column >= 0 && bits[row][column] == -1) {
+	            utah(row, column, position++);
+	          }
+	          row -= 2;
+	          column += 2;
+	        } while (row >= 0 && column < size);
+	        row++;
+	        column += 3;
+	        // Then down and to the left
+	        do {
+	          if (row >= 0 && column < size && bits[row][column] == -1) {
+	            utah(row, column, position++);
+	          }
+	          row += 2;
+	          column -= 2;
+	        } while (row < size && column >= 0);
+	        row += 3;
+	        column++;
+	      } while (row < size || column < size);
+	      // Fill an untouched bottom right corner
+	      if (bits[size - 1][size - 1] == -1) {
+	        bits[size - 1][size - 1] = 1;
+	        bits[size - 2][size - 2] = 1;
+	      }
+	      for (int[] line : bits) {
+	        for (int i = 0; i < line.length; i++) {
+	          if (line[i] == -1) {
+	            line[i] = 0;
+	          }
+	        }
+	      }
+	    }
+	    
+	    private void module(int row, int column, int position, int bit) {
+	      if (row < 0) {
+	        row += size;
+	        column += 4 - ((size + 4) % 8);
+	      }
+	      if (column < 0) {
+	        column += size;
+	        row += 4 - ((size + 4) % 8);
+	      }
+	      bits[row][column] = (codewords[position] & (1 << (8 - bit))) != 0 ? 1 : 0;
+	    }
+	    
+	    private void utah(int row, int column, int position) {
+	      module(row - 2, column - 2, position, 1);
+	      module(row - 2, column - 1, position, 2);
+	      module(row - 1, column - 2, position, 3);
+	      module(row - 1, column - 1, position, 4);
+	      module(row - 1, column, position, 5);
+	      module(row, column - 2, position, 6);
+	      module(row, column - 1, position, 7);
+	      module(row, column, position, 8);
+	    }
+	    
+	    private void corner1(int position) {
+	      module(size - 1, 0, position, 1);
+	      module(size - 1, 1, position, 2);
+	      module(size - 1, 2, position, 3);
+	      module(0, size - 2, position, 4);
+	      module(0, size - 1, position, 5);
+	      module(1, size - 1, position, 6);
+	      module(2, size - 1, position, 7);
+	      module(3, size - 1, position, 8);
+	    }
+	    
+	    private void corner2(int position) {
+	      module(size - 3, 0, position, 1);
+	      module(size - 2, 0, position, 2);
+	      module(size - 1, 0, position, 3);
+	      module(0, size - 4, position, 4);
+	      module(0, size - 3, position, 5);
+	      module(0, size - 2, position, 6);
+	      module(0, size - 1, position, 7);
+	      module(1, size - 1, position, 8);
+	    }
+	    
+	    private void corner3(int position) {
+	      module(size - 3, 0, position, 1);
+	      module(size - 2, 0, position, 2);
+	      module(size - 1, 0, position, 3);
+	      module(0, size - 2, position, 4);
+	      module(0, size - 1, position, 5);
+	      module(1, size - 1, position, 6);
+	      module(2, size - 1, position, 7);
+	      module(3, size - 1, position, 8);
+	    }
+	    
+	    private void corner4(int position) {
+	      module(size - 1, 0, position, 1);
+	      module(size - 1, size - 1, position, 2);
+	      module(0, size - 3, position, 3);
+	      module(0, size - 2, position, 4);
+	      module(0, size - 1, position, 5);
+	      module(1, size - 3, position, 6);
+	      module(1, size - 2, position, 7);
+	      module(1, size - 1, position, 8);
+	    }
+	}
+	
+	// 1D codes
+	
+	/**
+	 * @param text 12 digits, or 13 with a correct check digit.
+	 */
+	public static boolean[][] encodeEan13(String text) {
+	    if (!text.matches("\\d{12,13}")) {
+	      throw new IllegalArgumentException("EAN-13 takes 12 or 13 digits: " + text);
+	    }
+	    int[] digits = new int[13];
+	    for (int i = 0; i < text.length(); i++) {
+	      digits[i] = text.charAt(i) - '0';
+	    }
+	    int check = getEanCheckDigit(text.substring(0, 12));
+	    if (text.length() == 13 && digits[12] != check) {
+	      throw new IllegalArgumentException("Bad EAN-13 check digit: " + text);
+	    }
+	    digits[12] = check;
+	    
+	    ModuleWriter modules = new ModuleWriter(95 + LINEAR_QUIET_ZONE * 2);
+	    modules.space(LINEAR_QUIET_ZONE);
+	    modules.pattern(0x5, 3);
+	    int parities = EAN_FIRST_DIGIT_PARITIES[digits[0]];
+	    for (int i = 1; i <= 6; i++) {
+	      int pattern = EAN_L_PATTERNS[digits[i]];
+	      if ((parities & (1 << (6 - i))) != 0) {
+	        // G: the R pattern reversed
+	        pattern = Integer.reverse(~pattern & 0x7f) >>> 25;
+	      }
+	      modules.pattern(pattern, 7);
+	    }
+	    modules.pattern(0xa, 5);
+	    for (int i = 7; i <= 12; i++) {
+	      modules.pattern(~EAN_L_PATTERNS[digits[i]] & 0x7f, 7);
+	    }
+	    modules.pattern(0x5, 3);
+	    modules.space(LINEAR_QUIET_ZONE);
+	    return modules.toRow();
+	}
+	
+	/**
+	 * @return The check digit for the first 12 digits of an EAN-13.
+	 */
+	public static int getEanCheckDigit(String digits) {
+	    int sum = 0;
+	    for (int i = 0; i < digits.length(); i++) {
+	      sum += (digits.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+	    }
+	    return (10 - sum % 10) % 10;
+	}
+	
+	/**
+	 * @param text Digits, capital letters, space and -.$/+%; the * start and stop are added.
+	 */
+	public static boolean[][] encodeCode39(String text) {
+	    String full = '*' + text + '*';
+	    ModuleWriter modules = new ModuleWriter(full.length() * (6 + 3 * CODE39_WIDE + 1) +
+	        LINEAR_QUIET_ZONE * 2);
+	    modules.space(LINEAR_QUIET_ZONE);
+	    for (int i = 0; i < full.length(); i++) {
+	      int index = CODE39_ALPHABET.indexOf(full.charAt(i));
+	      if (index < 0 || (full.charAt(i) == '*' && i > 0 && i < full.length() - 1)) {
+	        throw new IllegalArgumentException("Not in Code 39: " + full.charAt(i));
+	      }
+	      int pattern = CODE39_PATTERNS[index];
+	      for (int element = 0; element < 9; element++) {
+	        int width = (pattern & (1 << (8 - element))) != 0 ? CODE39_WIDE : 1;
+	        if (element % 2 == 0) {
+	          modules.bar(width);
+	        } else {
+	          modules.space(width);
+	        }
+	      }
+	      // Gap between characters
+	      modules.space(1);
+	    }
+	    modules.space(LINEAR_QUIET_ZONE - 1);
+	    return modules.toRow();
+	}
+	
+	/**
+	 * @param text Printable ASCII, encoded in code set B.
+	 */
+	public static boolean[][] encodeCode128(String text) {
+	    int[] values = new int[text.length() + 3];
+	    values[0] = CODE128_START_B;
+	    int checksum = CODE128_START_B;
+	    for (int i = 0; i < text.length(); i++) {
+	      char c = text.charAt(i);
+	      if (c < ' ' || c > 127) {
+	        throw new IllegalArgumentException("Not in Code 128 set B: " + (int) c);
+	      }
+	      values[i + 1] = c - ' ';
+	      checksum += (i + 1) * values[i + 1];
+	    }
+	    values[text.length() + 1] = checksum % 103;
+	    values[text.length() + 2] = CODE128_STOP;
+	    
+	    ModuleWriter modules = new ModuleWriter(values.length * 11 + 2 + LINEAR_QUIET_ZONE * 2);
+	    modules.space(LINEAR_QUIET_ZONE);
+	    for (int value : values) {
+	      String pattern = CODE128_PATTERNS[value];
+	      for (int element = 0; element < pattern.length(); element++) {
+	        int width = pattern.charAt(element) - '0';
+	        if (element % 2 == 0) {
+	          modules.bar(width);
+	        } else {
+	          modules.space(width);
+	        }
+	      }
+	    }
+	    modules.space(LINEAR_QUIET_ZONE);
+	    return modules.toRow();
+	}
+	
+	// Helpers
+	
+	private static boolean isDigit(int c) {
+	    return c >= '0' && c <= '9';
+	}
+	
+	private static byte[] getLatin1(String text) {
+	    try {
+	      return text.getBytes("ISO-8859-1");
+	    } catch (java.io.UnsupportedEncodingException uee) {
+	      throw new IllegalStateException(uee);
+	    }
+	}
+	
+	private static boolean[][] withQuietZone(int[][] matrix, int quietZone) {
+	    int size = matrix.length;
+	    boolean[][] modules = new boolean[size + quietZone * 2][size + quietZone * 2];
+	    for (int y = 0; y < size; y++) {
+	      for (int x = 0; x < size; x++) {
+	        modules[y + quietZone][x + quietZone] = matrix[y][x] == 1;
+	      }
+	    }
+	    return modules;
+	}
+	
+	/** Appends bits most significant first. */
+	private static final class BitWriter {
+	    private final byte[] bytes;
+	    private int size;
+	    
+	    BitWriter(int capacity) {
+	      bytes = new byte[capacity];
+	    }
+	    
+	    void append(int value, int bits) {
+	      for (int i = bits - 1; i >= 0; i--) {
+	        if (((value >> i) & 1) != 0) {
+	          bytes[size / 8] |= 0x80 >> (size % 8);
+	        }
+	        size++;
+	      }
+	    }
+	    
+	    int size() {
+	      return size;
+	    }
+	    
+	    byte[] toBytes() {
+	      return bytes;
+	    }
+	}
+	
+	/** Lays out the modules of a 1D code, left to right. */
+	private static final class ModuleWriter {
+	    private final boolean[] modules;
+	    private int position;
+	    
+	    ModuleWriter(int capacity) {
+	      modules = new boolean[capacity];
+	    }
+	    
+	    void bar(int width) {
+	      for (int i = 0; i < width; i++) {
+	        modules[position++] = true;
+	      }
+	    }
+	    
+	    void space(int width) {
+	      position += width;
+	    }
+	    
+	    /** Modules from a bit pattern, most significant first; set bits are dark. */
+	    void pattern(int pattern, int width) {
+	      for (int i = width - 1; i >= 0; i--) {
+	        modules[position++] = ((pattern >> i) & 1) != 0;
+	      }
+	    }
+	    
+	    boolean[][] toRow() {
+	      boolean[] row = new boolean[position];
+	      System.arraycopy(modules, 0, row, 0, position);
+	      return new boolean[][] { row };
+	    }
+	}
+	
+	/**
+	 * Arithmetic in GF(256) and Reed-Solomon error correction over it.
+	 */
+	private static final class GaloisField {
+	    private final int[] exp = new int[512];
+	    private final int[] log = new int[256];
+	    
+	    GaloisField(int primitive) {
+	      int x = 1;
+	      for (int i = 0; i < 255; i++) {
+	        exp[i] = x;
+	        log[x] = i;
+	        x <<= 1;
+	        if (x >= 256) {
+	          x ^= primitive;
+	        }
+	      }
+	      for (int i = 255; i < 512; i++) {
+	        exp[i] = exp[i - 255];
+	      }
+	    }
+	    
+	    int multiply(int a, int b) {
+	      return a == 0 || b == 0 ? 0 : exp[log[a] + log[b]];
+	    }
+	    
+	    /**
+	     * @return The coefficients, highest degree first, of the product of (x - a^i) for the
+	     *         degree consecutive powers of a from firstPower on.
+	     */
+	    int[] generator(int degree, int firstPower) {
+	      int[] generator = { 1 };
+	      for (int i = 0; i < degree; i++) {
+	        int root = exp[firstPower + i];
+	        int[] product = new int[generator.length + 1];
+	        for (int j = 0; j < product.length; j++) {
+	          int term = j < generator.length ? generator[j] : 0;
+	          if (j > 0) {
+	            term ^= multiply(generator[j - 1], root);
+	          }
+	          product[j] = term;
+	        }
+	        generator = product;
+	      }
+	      return generator;
+	    }
+	    
+	    /**
+	     * @return The error correction codewords: data times x^n modulo the generator.
+	     */
+	    int[] remainder(int[] data, int[] generator) {
+	      int degree = generator.length - 1;
+	      int[] remainder = new int[degree];
+	      for (int value : data) {
+	        int factor = value ^ remainder[0];
+	        System.arraycopy(remainder, 1, remainder, 0, degree - 1);
+	        remainder[degree - 1] = 0;
+	        for (int i = 0; i < degree; i++) {
+	          remainder[i] ^= multiply(generator[i + 1], factor);
+	        }
+	      }
+	      return remainder;
+	    }
+	}
+}
@@ -0,0 +1,497 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import tw.com.quickmark.sdk.Result;
+
+/**
+ * Decodes a directory of captured frames on a plain JVM, without a device.
+ *
+ * Frames are raw NV21 (or any layout with the Y plane first) in *.nv21 or *.yuv files, or 8 bit
+ * binary PGM (P5) in *.pgm files. Every frame may have a sidecar properties file with the same
+ * base name holding width and height (required for raw frames) and optionally left, top,
+ * cropWidth and cropHeight. Results are written as one JSON object per line, in file order.
+ *
+ * Usage: BatchDecodeTool [-threads n] [-decoder class] [-formats mask] [-tiles] [-classify] [-out file]
+ *        directory
+ *
+ * With -tiles every frame is searched for several codes with a {@link TiledDecoder}, one frame
+ * at a time with its tiles spread over the threads, and each line lists all of them.
+ *
+ * With -classify every frame is also run through a {@link SymbologyClassifier} and decoded a
+ * second time with the formats it narrows to. Each line adds the class guessed and the narrowed
+ * decode's time and text, and the summary tells how the guesses compare with the format in the
+ * sidecar, as SyntheticFrameGenerator writes it, what narrowing saved and how many codes it lost.
+ *
+ * The decoder class needs a public no-argument constructor and implements {@link BarcodeDecoder};
+ * one instance is created per thread. It defaults to {@link StubBarcodeDecoder}, as the native
+ * QuickMark library only loads on Android.
+ */
+public final class BatchDecodeTool {
+
+	private static final int ALL_FORMATS = 0;
+	
+	private final File directory;
+	private final int threads;
+	private final Class<? extends BarcodeDecoder> decoderClass;
+	private final int decodeFormat;
+	private final boolean tiles;
+	private final SymbologyClassifier classifier;
+	
+	// Classifier stats: frames per sidecar class (unknown without one) and guessed class
+	private final AtomicLongArray confusion = new AtomicLongArray(3 * 3);
+	private final AtomicLong fullDecodeTime = new AtomicLong();
+	private final AtomicLong narrowedDecodeTime = new AtomicLong();
+	private final AtomicLong lostDecodes = new AtomicLong();
+	
+	BatchDecodeTool(File directory, int threads, Class<? extends BarcodeDecoder> decoderClass,
+	    int decodeFormat, boolean tiles, boolean classify) {
+	    this.directory = directory;
+	    this.threads = threads;
+	    this.decoderClass = decoderClass;
+	    this.decodeFormat = decodeFormat;
+	    this.tiles = tiles;
+	    if (classify) {
+	      classifier = new SymbologyClassifier();
+	      // Every frame is decoded with every format here anyway.
+	      classifier.setAuditInterval(0);
+	    } else {
+	      classifier = null;
+	    }
+	}
+	
+	public static void main(String[] args) throws Exception {
+	    int threads = Runtime.getRuntime().availableProcessors();
+	    Class<? extends BarcodeDecoder> decoderClass = StubBarcodeDecoder.class;
+	    int decodeFormat = ALL_FORMATS;
+	    boolean tiles = false;
+	    boolean classify = false;
+	    String out = null;
+	    File directory = null;
+	    for (int i = 0; i < args.length; i++) {
+	      String arg = args[i];
+	      if ("-threads".equals(arg) && i + 1 < args.length) {
+	        threads = Integer.parseInt(args[++i]);
+	      } else if ("-decoder".equals(arg) && i + 1 < args.length) {
+	        decoderClass = Class.forName(args[++i]).asSubclass(BarcodeDecoder.class);
+	      } else if ("-formats".equals(arg) && i + 1 < args.length) {
+	        decodeFormat = Integer.decode(args[++i]);
+	      } else if ("-tiles".equals(arg)) {
+	        tiles = true;
+	      } else if ("-classify".equals(arg)) {
+	        classify = true;
+	      } else if ("-out".equals(arg) && i + 1 < args.length) {
+	        out = args[++i];
+	      } else if (directory == null && !arg.startsWith("-")) {
+	        directory = new File(arg);
+	      } else {
+	        usage();
+	        return;
+	      }
+	    }
+	    if (directory == null || !directory.isDirectory() || threads < 1) {
+	      usage();
+	      return;
+	    }
+	    
+	    BatchDecodeTool tool = new BatchDecodeTool(directory, threads, decoderClass, decodeFormat, tiles,
+	        classify);
+	    Writer writer = new OutputStreamWriter(out == null ? System.out : new FileOutputStream(out), "UTF-8");
+	    try {
+	      tool.run(writer, System.err);
+	    } finally {
+	      writer.close();
+	    }
+	}
+	
+	private static void usage() {
+	    System.err.println("Usage: BatchDecodeTool [-threads n] [-decoder class] [-formats mask] " +
+	        "[-tiles] [-classify] [-out file] directory");
+	}
+	
+	/**
+	 * Decodes every frame in the directory, writing one JSON line per frame to out and a summary
+	 * to log.
+	 *
+	 * @return The number of frames which decoded.
+	 */
+	int run(Writer out, PrintStream log) throws IOException, InterruptedException {
+	    File[] files = directory.listFiles();
+	    List<File> frames = new ArrayList<File>();
+	    if (files != null) {
+	      Arrays.sort(files);
+	      for (File file : files) {
+	        if (isFrameFile(file.getName())) {
+	          frames.add(file);
+	        }
+	      }
+	    }
+	    
+	    if (tiles) {
+	      return runTiled(frames, out, log);
+	    }
+	    
+	    final ThreadLocal<BarcodeDecoder> decoders = new ThreadLocal<BarcodeDecoder>() {
+	      @Override
+	      protected BarcodeDecoder initialValue() {
+	        return newDecoder();
+	      }
+	    };
+	    final ThreadLocal<byte[]> matrixBuffers = new ThreadLocal<byte[]>();
+	    
+	    ExecutorService executor = Executors.newFixedThreadPool(threads);
+	    long start = System.nanoTime();
+	    int decoded = 0;
+	    int failed = 0;
+	    try {
+	      List<Future<String>> lines = new ArrayList<Future<String>>(frames.size());
+	      for (final File frame : frames) {
+	        lines.add(executor.submit(new Callable<String>() {
+	          public String call() throws IOException {
+	            return decodeFile(frame, decoders.get(), matrixBuffers);
+	          }
+	        }));
+	      }
+	      for (int i = 0; i < lines.size(); i++) {
+	        String line;
+	        try {
+	          line = lines.get(i).get();
+	        } catch (ExecutionException e) {
+	          failed++;
+	          line = "{\"file\":" + Json.quote(frames.get(i).getName()) + ",\"error\":" +
+	              Json.quote(String.valueOf(e.getCause())) + '}';
+	        }
+	        if (line.indexOf("\"text\":") >= 0) {
+	          decoded++;
+	        }
+	        out.write(line);
+	        out.write('\n');
+	      }
+	      out.flush();
+	    } finally {
+	      executor.shutdownNow();
+	    }
+	    
+	    double seconds = (System.nanoTime() - start) / 1.0e9;
+	    log.println(frames.size() + " frames, " + decoded + " decoded, " + failed + " unreadable, " +
+	        threads + " threads, " + String.format("%.1f", frames.size() / seconds) + " frames/sec");
+	    if (classifier != null) {
+	      logClassification(log);
+	    }
+	    return decoded;
+	}
+	
+	private void logClassification(PrintStream log) {
+	    for (int expected = 0; expected < 3; expected++) {
+	      long total = 0;
+	      for (int guessed = 0; guessed < 3; guessed++) {
+	        total += confusion.get(expected * 3 + guessed);
+	      }
+	      if (total == 0) {
+	        continue;
+	      }
+	      log.print(expected == SymbologyClassifier.UNKNOWN ? "no sidecar format" :
+	          SymbologyClassifier.getClassName(expected) + " codes");
+	      log.print(": " + total + " frames, classified");
+	      for (int guessed = 0; guessed < 3; guessed++) {
+	        log.print((guessed == 0 ? " " : ", ") + SymbologyClassifier.getClassName(guessed) + ' ' +
+	            confusion.get(expected * 3 + guessed));
+	      }
+	      log.println();
+	    }
+	    long full = fullDecodeTime.get();
+	    long narrowed = narrowedDecodeTime.get();
+	    log.println("decode time " + String.format("%.1f", full / 1.0e6) + " ms with every format, " +
+	        String.format("%.1f", narrowed / 1.0e6) + " ms narrowed (" +
+	        String.format("%.1f", full == 0 ? 0.0 : (full - narrowed) * 100.0 / full) + "% saved), " +
+	        String.format("%.1f", classifier.getAverageClassifyMicros()) + " us/frame classifying, " +
+	        lostDecodes.get() + " codes lost");
+	}
+	
+	/**
+	 * Like {@link #run}, but finds every code in a frame, decoding the frames one at a time.
+	 *
+	 * @return The number of frames in which at least one code decoded.
+	 */
+	private int runTiled(List<File> frames, Writer out, PrintStream log)
+	    throws IOException, InterruptedException {
+	    TiledDecoder tiledDecoder = new TiledDecoder(threads, new TiledDecoder.DecoderFactory() {
+	      public BarcodeDecoder newDecoder() {
+	        return BatchDecodeTool.this.newDecoder();
+	      }
+	    });
+	    long start = System.nanoTime();
+	    int decoded = 0;
+	    int failed = 0;
+	    try {
+	      for (File frame : frames) {
+	        StringBuilder line = new StringBuilder(256);
+	        line.append("{\"file\":").append(Json.quote(frame.getName()));
+	        try {
+	          DecodeBufferSource source = readFrame(frame);
+	          long decodeStart = System.nanoTime();
+	          List<TiledDecoder.Decoded> results = tiledDecoder.decode(source, decodeFormat);
+	          long decodeTime = System.nanoTime() - decodeStart;
+	          line.append(",\"results\":[");
+	          for (int i = 0; i < results.size(); i++) {
+	            TiledDecoder.Decoded result = results.get(i);
+	            line.append(i == 0 ? "{" : ",{");
+	            line.append("\"text\":").append(Json.quote(result.getResult().getText()));
+	            line.append(",\"format\":").append(Json.quote(result.getResult().getBarcodeFormat().getName()));
+	            line.append(",\"left\":").append(result.getLeft());
+	            line.append(",\"top\":").append(result.getTop());
+	            line.append(",\"right\":").append(result.getRight());
+	            line.append(",\"bottom\":").append(result.getBottom());
+	            line.append('}');
+	          }
+	          line.append(']');
+	          line.append(",\"decodeMillis\":").append(millis(decodeTime));
+	          if (!results.isEmpty()) {
+	            decoded++;
+	          }
+	        } catch (IOException e) {
+	          failed++;
+	          line.append(",\"error\":").append(Json.quote(String.valueOf(e)));
+	        } catch (RuntimeException e) {
+	          // A bad sidecar, say; as with the threaded path, only this frame is lost.
+	          failed++;
+	          line.append(",\"error\":").append(Json.quote(String.valueOf(e)));
+	        }
+	        line.append('}');
+	        out.write(line.toString());
+	        out.write('\n');
+	      }
+	      out.flush();
+	    } finally {
+	      tiledDecoder.shutdown();
+	    }
+	    
+	    double seconds = (System.nanoTime() - start) / 1.0e9;
+	    log.println(frames.size() + " frames, " + decoded + " decoded, " + failed + " unreadable, " +
+	        tiledDecoder.getCodeCount() + " codes, " + threads + " threads, " +
+	        String.format("%.1f", frames.size() / seconds) + " frames/sec, " +
+	        String.format("%.1f", tiledDecoder.getCodeCount() / seconds) + " codes/sec");
+	    return decoded;
+	}
+	
+	private BarcodeDecoder newDecoder() {
+	    try {
+	      return decoderClass.newInstance();
+	    } catch (Exception e) {
+	      throw new IllegalStateException("Can't create " + decoderClass.getName(), e);
+	    }
+	}
+	
+	private String decodeFile(File file, BarcodeDecoder decoder, ThreadLocal<byte[]> matrixBuffers)
+	    throws IOException {
+	    DecodeBufferSource source = readFrame(file);
+	    
+	    long decodeStart = System.nanoTime();
+	    byte[] matrix = source.getMatrix(matrixBuffers.get());
+	    if (source.isCropped()) {
+	      matrixBuffers.set(matrix);
+	    }
+	    long fullStart = System.nanoTime();
+	    Result result = decoder.decode(matrix, source.getWidth(), source.getHeight(), decodeFormat);
+	    long decodeEnd = System.nanoTime();
+	    long decodeTime = decodeEnd - decodeStart;
+	    
+	    StringBuilder line = new StringBuilder(128);
+	    line.append("{\"file\":").append(Json.quote(file.getName()));
+	    if (result != null) {
+	      line.append(",\"text\":").append(Json.quote(result.getText()));
+	      line.append(",\"format\":").append(Json.quote(result.getBarcodeFormat().getName()));
+	    }
+	    line.append(",\"decodeMillis\":").append(millis(decodeTime));
+	    if (classifier != null) {
+	      classifyFile(file, source, matrix, decoder, result, decodeEnd - fullStart, line);
+	    }
+	    line.append('}');
+	    return line.toString();
+	}
+	
+	/**
+	 * Classifies the frame, decodes it again with the formats narrowed to the class, and adds
+	 * both to the line and the stats. The narrowed time includes classifying.
+	 *
+	 * @param decodeTime How long the decoder took with every format.
+	 */
+	private void classifyFile(File file, DecodeBufferSource source, byte[] matrix,
+	    BarcodeDecoder decoder, Result result, long decodeTime, StringBuilder line) throws IOException {
+	    long classifyStart = System.nanoTime();
+	    int symbology = classifier.classify(source);
+	    int narrowedFormat = classifier.narrow(decodeFormat, symbology);
+	    Result narrowedResult = result;
+	    long narrowedTime;
+	    if (narrowedFormat != decodeFormat) {
+	      narrowedResult = decoder.decode(matrix, source.getWidth(), source.getHeight(), narrowedFormat);
+	      narrowedTime = System.nanoTime() - classifyStart;
+	    } else {
+	      // Unsure, so the decoder gets every format as before, after the classifier had its look.
+	      narrowedTime = System.nanoTime() - classifyStart + decodeTime;
+	    }
+	    
+	    int expected = SymbologyClassifier.UNKNOWN;
+	    int expectedFormat = getInt(readMetadata(file), "format", 0);
+	    if (expectedFormat != 0) {
+	      expected = SymbologyClassifier.classOf(expectedFormat);
+	    }
+	    confusion.incrementAndGet(expected * 3 + symbology);
+	    fullDecodeTime.addAndGet(decodeTime);
+	    narrowedDecodeTime.addAndGet(narrowedTime);
+	    if (result != null && narrowedResult == null) {
+	      lostDecodes.incrementAndGet();
+	    }
+	    
+	    line.append(",\"class\":").append(Json.quote(SymbologyClassifier.getClassName(symbology)));
+	    if (narrowedResult != null) {
+	      line.append(",\"narrowedText\":").append(Json.quote(narrowedResult.getText()));
+	    }
+	    line.append(",\"narrowedMillis\":").append(millis(narrowedTime));
+	}
+	
+	/**
+	 * @return The time in milliseconds, formatted for JSON whatever the default locale.
+	 */
+	private static String millis(long nanos) {
+	    return String.format(Locale.US, "%.3f", nanos / 1.0e6);
+	}
+	
+	/**
+	 * Reads a frame and its sidecar, cropped as the sidecar says.
+	 */
+	private static DecodeBufferSource readFrame(File file) throws IOException {
+	    Properties metadata = readMetadata(file);
+	    byte[] data;
+	    int width;
+	    int height;
+	    if (file.getName().endsWith(".pgm")) {
+	      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+	      try {
+	        if (!"P5".equals(readPgmToken(in))) {
+	          throw new IOException("Not a binary PGM: " + file);
+	        }
+	        width = Integer.parseInt(readPgmToken(in));
+	        height = Integer.parseInt(readPgmToken(in));
+	        if (Integer.parseInt(readPgmToken(in)) > 255) {
+	          throw new IOException("Only 8 bit PGM is supported: " + file);
+	        }
+	        data = new byte[width * height];
+	        in.readFully(data);
+	      } finally {
+	        in.close();
+	      }
+	    } else {
+	      width = getInt(metadata, "width", -1);
+	      height = getInt(metadata, "height", -1);
+	      if (width <= 0 || height <= 0) {
+	        throw new IOException("Missing width/height for " + file);
+	      }
+	      data = readFully(file);
+	      if (data.length < width * height) {
+	        throw new IOException("Frame is smaller than " + width + 'x' + height + ": " + file);
+	      }
+	    }
+	    
+	    int left = getInt(metadata, "left", 0);
+	    int top = getInt(metadata, "top", 0);
+	    return new DecodeBufferSource(data, width, height, left, top,
+	        getInt(metadata, "cropWidth", width - left), getInt(metadata, "cropHeight", height - top));
+	}
+	
+	private static boolean isFrameFile(String name) {
+	    return name.endsWith(".nv21") || name.endsWith(".yuv") || name.endsWith(".pgm");
+	}
+	
+	private static Properties readMetadata(File frame) throws IOException {
+	    String name = frame.getName();
+	    File sidecar = new File(frame.getParentFile(), name.substring(0, name.lastIndexOf('.')) + ".properties");
+	    Properties metadata = new Properties();
+	    if (sidecar.isFile()) {
+	      InputStream in = new FileInputStream(sidecar);
+	      try {
+	        metadata.load(in);
+	      } finally {
+	        in.close();
+	      }
+	    }
+	    return metadata;
+	}
+	
+	private static int getInt(Properties metadata, String key, int defaultValue) {
+	    String value = metadata.getProperty(key);
+	    return value == null ? defaultValue : Integer.parseInt(value.trim());
+	}
+	
+	private static byte[] readFully(File file) throws IOException {
+	    byte[] data = new byte[(int) file.length()];
+	    DataInputStream in = new DataInputStream(new FileInputStream(file));
+	    try {
+	      in.readFully(data);
+	    } finally {
+	      in.close();
+	    }
+	    return data;
+	}
+	
+	/**
+	 * Reads one whitespace separated header token, skipping # comments.
+	 */
+	private static String readPgmToken(InputStream in) throws IOException {
+	    StringBuilder token = new StringBuilder();
+	    int c;
+	    while ((c = in.read()) != -1) {
+	      if (c == '#' && token.length() == 0) {
+	        while (c != -1 && c != '\n') {
+	          c = in.read();
+	        }
+	      } else if (Character.isWhitespace(c)) {
+	        if (token.length() > 0) {
+	          break;
+	        }
+	      } else {
+	        token.append((char) c);
+	      }
+	    }
+	    return token.toString();
+	}
+}
@@ -18,10 +18,13 @@
  
 package tw.com.quickmark.sdk.demo;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 
 import android.content.Context;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.hardware.Camera;
 import android.util.Log;
 import android.view.Display;
@@ -31,33 +34,66 @@ public class CameraConfigurationManager {
 
 	private static final String TAG = CameraConfigurationManager.class.getSimpleName();
 	private static final Pattern COMMA_PATTERN = Pattern.compile(",");
+	// Camera.open() opens the first back-facing camera, which is camera 0 wherever there is one.
+	private static final int CAMERA_ID = 0;
+	// How far the measured decode cost has to move from the saved one to be worth saving
+	private static final float MATERIAL_COST_CHANGE = 0.2f;
 	
 	private final Context context;
 	private Point screenResolution;
 	private Point cameraResolution;
 	private int previewFormat;
 	private String previewFormatString;
+	private CameraProfile profile;
+	private boolean profileUsed;
+	private String previewSizeValues;
+	private float viewAngle;
+	private float scanDistance = PreviewSizeSelector.DEFAULT_DISTANCE_MM;
+	private PreviewSizeSelector sizeSelector;
+	// A better preview size found while scanning, for the next open
+	private volatile Point nextCameraResolution;
+	// Cost in the saved profile, and whether what was measured since is worth saving at close
+	private volatile float savedCostNanosPerPixel = PreviewSizeSelector.DEFAULT_COST_NANOS_PER_PIXEL;
+	private volatile boolean profileChanged;
+	// What was last set, to set again on the next open without reading it back first
+	private Camera.Parameters parameters;
 	  
 	CameraConfigurationManager(Context context) {
 	    this.context = context;
 	}  
 	
 	/**
-	   * Reads, one time, values from the camera that are needed by the app.
+	   * Reads, one time, values from the camera that are needed by the app, or takes them from the
+	   * profile saved for this device, camera and screen if there is one.
 	   */
 	void initFromCameraParameters(Camera camera) {
+	    WindowManager manager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+	    Display display = manager.getDefaultDisplay();
+	    screenResolution = new Point(display.getWidth(), display.getHeight());
+	    Log.d(TAG, "Screen resolution: " + screenResolution);
+	    
+	    profile = CameraProfile.load(context, CameraProfile.buildKey(CAMERA_ID, screenResolution, scanDistance));
+	    profileUsed = profile != null;
+	    if (profile != null) {
+	      savedCostNanosPerPixel = profile.getCostNanosPerPixel();
+	      previewFormat = profile.getPreviewFormat();
+	      previewFormatString = profile.getPreviewFormatString();
+	      cameraResolution = profile.getPreviewSize();
+	      previewSizeValues = profile.getPreviewSizeValues();
+	      viewAngle = profile.getViewAngle();
+	      sizeSelector = createSizeSelector(profile.getCostNanosPerPixel());
+	      Log.d(TAG, "Camera profile: " + profile);
+	      return;
+	    }
+	    
 	    Camera.Parameters parameters = camera.getParameters();
 	    
 	    previewFormat = parameters.getPreviewFormat();
 	    previewFormatString = parameters.get("preview-format");
 	    Log.d(TAG, "Default preview format: " + previewFormat + '/' + previewFormatString);
 	    
-	    WindowManager manager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
-	    Display display = manager.getDefaultDisplay();
-	    screenResolution = new Point(display.getWidth(), display.getHeight());
-	    Log.d(TAG, "Screen resolution: " + screenResolution);
-	    
-	    cameraResolution = getCameraResolution(parameters, screenResolution);
+	    viewAngle = getViewAngle(parameters);
+	    cameraResolution = getCameraResolution(parameters);
 	    Log.d(TAG, "Camera resolution: " + screenResolution);
 	}
 	
@@ -68,7 +104,14 @@ public class CameraConfigurationManager {
 	   * and the planar Y can be used for barcode scanning without a copy in some cases.
 	   */
 	void setDesiredCameraParameters(Camera camera) {
-	    Camera.Parameters parameters = camera.getParameters();
+	    // Parameters are plain values, so the last open's serve another camera object as well.
+	    boolean reused = this.parameters != null;
+	    Camera.Parameters parameters = reused ? this.parameters : camera.getParameters();
+	    Point next = nextCameraResolution;
+	    if (next != null) {
+	      cameraResolution = next;
+	      nextCameraResolution = null;
+	    }
 	    Log.d(TAG, "Setting preview size: " + cameraResolution);
 	    parameters.setPreviewSize(cameraResolution.x, cameraResolution.y);
 	    
@@ -82,7 +125,89 @@ public class CameraConfigurationManager {
 	    // (I think) This means 2.0x
 	    parameters.set("taking-picture-zoom", "20");
 	    
-	    camera.setParameters(parameters);
+	    try {
+	      camera.setParameters(parameters);
+	    } catch (RuntimeException e) {
+	      if (!profileUsed && !reused) {
+	        throw e;
+	      }
+	      // What was saved doesn't suit the camera any more; forget it and ask the camera again.
+	      Log.w(TAG, "Camera rejected the saved parameters", e);
+	      if (profileUsed) {
+	        CameraProfile.clear(context);
+	        initFromCameraParameters(camera);
+	      }
+	      this.parameters = null;
+	      setDesiredCameraParameters(camera);
+	      return;
+	    }
+	    this.parameters = parameters;
+	    
+	    if (profile == null || next != null) {
+	      saveProfile(cameraResolution);
+	    }
+	}
+	
+	private void saveProfile(Point previewSize) {
+	    float cost = sizeSelector != null
+	        ? sizeSelector.getCostNanosPerPixel() : PreviewSizeSelector.DEFAULT_COST_NANOS_PER_PIXEL;
+	    profile = new CameraProfile(CameraProfile.buildKey(CAMERA_ID, screenResolution, scanDistance),
+	        previewSize, previewFormat, previewFormatString,
+	        CameraManager.calculateFramingRect(screenResolution), previewSizeValues, viewAngle, cost);
+	    profile.save(context);
+	    savedCostNanosPerPixel = cost;
+	}
+	
+	/**
+	 * Saves the profile if scanning found a better preview size or moved the measured cost
+	 * materially since it was last saved. Called when the camera is closed, off the decode path.
+	 */
+	void saveProfileIfChanged() {
+	    if (!profileChanged) {
+	      return;
+	    }
+	    profileChanged = false;
+	    Point next = nextCameraResolution;
+	    saveProfile(next != null ? next : cameraResolution);
+	}
+	
+	/**
+	 * Feeds one timed decode to the preview size selection. Every so often the sizes are scored
+	 * again; a clearly better size is used from the next open on. Nothing is written here, as this
+	 * runs on a decoder; {@link #saveProfileIfChanged} saves at close.
+	 *
+	 * @param pixels How many pixels the decoder went through.
+	 * @param nanos How long the decode took.
+	 * @param decoded Whether it found a code.
+	 * @param downsampled Whether it found it at half resolution.
+	 */
+	void onDecodeTimed(int pixels, long nanos, boolean decoded, boolean downsampled) {
+	    PreviewSizeSelector selector = sizeSelector;
+	    if (selector == null || !selector.observe(pixels, nanos, decoded, downsampled)) {
+	      return;
+	    }
+	    Point current = cameraResolution;
+	    int[] better = selector.reevaluate(new int[] { current.x, current.y });
+	    if (better != null) {
+	      Point next = new Point(better[0], better[1]);
+	      Log.i(TAG, "Preview size " + next + " now scores better than " + current + ", at " +
+	          selector.getCostNanosPerPixel() + " ns per pixel; switching on the next open");
+	      nextCameraResolution = next;
+	      profileChanged = true;
+	    } else {
+	      float saved = savedCostNanosPerPixel;
+	      if (Math.abs(selector.getCostNanosPerPixel() - saved) > saved * MATERIAL_COST_CHANGE) {
+	        profileChanged = true;
+	      }
+	    }
+	}
+	
+	/**
+	 * @param scanDistance How far away codes usually are, in millimetres. Takes effect when the
+	 *                     camera is first opened.
+	 */
+	void setScanDistance(float scanDistance) {
+	    this.scanDistance = scanDistance;
 	}
 	
 	Point getCameraResolution() {
@@ -92,6 +217,20 @@ public class CameraConfigurationManager {
 	Point getScreenResolution() {
 	    return screenResolution;
 	}
+	
+	/**
+	 * @return The framing rect saved in the profile, or null.
+	 */
+	Rect getFramingRect() {
+	    return profile != null ? profile.getFramingRect() : null;
+	}
+	
+	/**
+	 * @return True if the camera was set up from a saved profile rather than its own parameters.
+	 */
+	boolean isProfileUsed() {
+	    return profileUsed;
+	}
 
 	int getPreviewFormat() {
 	    return previewFormat;
@@ -101,7 +240,7 @@ public class CameraConfigurationManager {
 	    return previewFormatString;
 	}
 	
-	private static Point getCameraResolution(Camera.Parameters parameters, Point screenResolution) {
+	private Point getCameraResolution(Camera.Parameters parameters) {
 		String previewSizeValueString = parameters.get("preview-size-values");
 	    
 		// saw this on Xperia
@@ -113,7 +252,12 @@ public class CameraConfigurationManager {
 
 	    if (previewSizeValueString != null) {
 	      Log.d(TAG, "preview-size-values parameter: " + previewSizeValueString);
-	      cameraResolution = findBestPreviewSizeValue(previewSizeValueString, screenResolution);
+	      previewSizeValues = previewSizeValueString;
+	      sizeSelector = createSizeSelector(PreviewSizeSelector.DEFAULT_COST_NANOS_PER_PIXEL);
+	      int[] best = sizeSelector.select();
+	      if (best != null) {
+	        cameraResolution = new Point(best[0], best[1]);
+	      }
 	    }
 
 	    if (cameraResolution == null) {
@@ -126,29 +270,68 @@ public class CameraConfigurationManager {
 	    return cameraResolution;
 	}
 	
-	private static Point findBestPreviewSizeValue(String previewSizeValueString,
+	private PreviewSizeSelector createSizeSelector(float costNanosPerPixel) {
+	    if (previewSizeValues == null) {
+	      return null;
+	    }
+	    Rect framingRect = CameraManager.calculateFramingRect(screenResolution);
+	    PreviewSizeSelector selector = new PreviewSizeSelector(parsePreviewSizes(previewSizeValues),
+	        screenResolution.x, screenResolution.y, framingRect.width(), framingRect.height(),
+	        viewAngle, scanDistance);
+	    selector.setCostNanosPerPixel(costNanosPerPixel);
+	    return selector;
+	}
+	
+	private static float getViewAngle(Camera.Parameters parameters) {
+	    String value = parameters.get("horizontal-view-angle");
+	    if (value != null) {
+	      try {
+	        float angle = Float.parseFloat(value);
+	        // Some drivers report nonsense such as 360.
+	        if (angle > 10.0f && angle < 150.0f) {
+	          return angle;
+	        }
+	      } catch (NumberFormatException nfe) {
+	        Log.w(TAG, "Bad horizontal-view-angle: " + value);
+	      }
+	    }
+	    return PreviewSizeSelector.DEFAULT_VIEW_ANGLE;
+	}
+	
+	/**
+	 * @return The sizes in a preview-size-values string as {width, height}, skipping bad ones.
+	 */
+	static int[][] parsePreviewSizes(String previewSizeValueString) {
+	    List<int[]> sizes = new ArrayList<int[]>();
+	    for (String previewSize : COMMA_PATTERN.split(previewSizeValueString)) {
+	      previewSize = previewSize.trim();
+	      int dimPosition = previewSize.indexOf('x');
+	      if (dimPosition < 0) {
+	        Log.w(TAG, "Bad preview-size: " + previewSize);
+	        continue;
+	      }
+	      try {
+	        sizes.add(new int[] { Integer.parseInt(previewSize.substring(0, dimPosition)),
+	            Integer.parseInt(previewSize.substring(dimPosition + 1)) });
+	      } catch (NumberFormatException nfe) {
+	        Log.w(TAG, "Bad preview-size: " + previewSize);
+	      }
+	    }
+	    return sizes.toArray(new int[sizes.size()][]);
+	}
+	
+	/**
+	 * The size closest to the screen's, which is what was used before {@link PreviewSizeSelector};
+	 * kept for comparison.
+	 */
+	static Point findBestPreviewSizeValue(String previewSizeValueString,
 		      Point screenResolution) {
 		    int bestX = 0;
 		    int bestY = 0;
 		    int diff = Integer.MAX_VALUE;
-		    for (String previewSize : COMMA_PATTERN.split(previewSizeValueString)) {
-
-		      previewSize = previewSize.trim();
-		      int dimPosition = previewSize.indexOf('x');
-		      if (dimPosition < 0) {
-		        Log.w(TAG, "Bad preview-size: " + previewSize);
-		        continue;
-		      }
-
-		      int newX;
-		      int newY;
-		      try {
-		        newX = Integer.parseInt(previewSize.substring(0, dimPosition));
-		        newY = Integer.parseInt(previewSize.substring(dimPosition + 1));
-		      } catch (NumberFormatException nfe) {
-		        Log.w(TAG, "Bad preview-size: " + previewSize);
-		        continue;
-		      }
+		    for (int[] size : parsePreviewSizes(previewSizeValueString)) {
+		      int newX = size[0];
+		      int newY = size[1];
 
 		      int newDiff = Math.abs(newX - screenResolution.x) + Math.abs(newY - screenResolution.y);
 		      if (newDiff == 0) {
@@ -19,14 +19,19 @@
 package tw.com.quickmark.sdk.demo;
 
 import java.io.IOException;
+
+import tw.com.quickmark.sdk.Result;
 import android.content.Context;
+import android.graphics.ImageFormat;
 import android.graphics.PixelFormat;
 import android.graphics.Point;
 import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
@@ -59,12 +64,36 @@ public class CameraManager {
 	private int previewMessage;
 	private Handler autoFocusHandler;
 	private int autoFocusMessage;
-	private static final long AUTOFOCUS_INTERVAL_MS = 1500L;
+	private final FocusScheduler focusScheduler;
+	private final RoiTracker roiTracker;
+	private final PipelineLatency pipelineLatency;
+	private final FrameDecoder frameDecoder;
+	private final EventTracer eventTracer;
+	private volatile FrameRecorder frameRecorder;
+	// When the last preview frame arrived, in System.nanoTime() units
+	private volatile long lastPreviewFrameTime;
+	static final long AUTOFOCUS_CHECK_INTERVAL_MS = 250L;
+	
+	// Preview buffer pool
+	private static final int DEFAULT_PREVIEW_BUFFER_COUNT = 3;
+	private int previewBufferCount;
+	private byte[][] previewBuffers;
+	private boolean[] previewBufferInFlight;
+	private int previewBuffersInFlight;
+	private int previewBufferStarvationCount;
+	
+	// Continuous capture
+	private static final int PREVIEW_FRAME_RING_CAPACITY = 2;
+	private final PreviewFrameRing previewFrameRing;
+	private PreviewFrame[] previewFrames;
+	private boolean continuousCapture;
+	private long requestedFrameSequence;
 	
 	// Control flags
 	private boolean initialized;
 	private boolean previewing;
 	private final boolean useOneShotPreviewCallback;
+	private final boolean useBufferedPreviewCallback;
 	
 	private final Context context;
 	
@@ -75,35 +104,92 @@ public class CameraManager {
 	
 	/**
 	 * Preview frames are delivered here, which we pass on to the registered handler. Make sure to
-	 * clear the handler so it will only receive one message.
+	 * clear the handler so it will only receive one message. When preview buffers are pooled, a
+	 * frame nobody asked for goes straight back to the camera. During continuous capture every
+	 * frame is published to the frame ring instead.
 	 */
 	private final Camera.PreviewCallback previewCallback = new Camera.PreviewCallback() {
 		public void onPreviewFrame(byte[] data, Camera camera) {
-		      if (!useOneShotPreviewCallback) {
+		      eventTracer.begin(EventTracer.PREVIEW_FRAME);
+		      try {
+		        handlePreviewFrame(data, camera);
+		      } finally {
+		        eventTracer.end(EventTracer.PREVIEW_FRAME);
+		      }
+		}
+		
+		private void handlePreviewFrame(byte[] data, Camera camera) {
+		      long now = System.nanoTime();
+		      if (lastPreviewFrameTime != 0) {
+		        pipelineLatency.record(PipelineLatency.FRAME_INTERVAL, now - lastPreviewFrameTime);
+		      }
+		      lastPreviewFrameTime = now;
+		      FrameRecorder recorder = frameRecorder;
+		      if (recorder != null) {
+		        Point cameraResolution = configManager.getCameraResolution();
+		        Rect rect = getFramingRectInPreview();
+		        recorder.record(data, cameraResolution.x, cameraResolution.y,
+		            configManager.getPreviewFormat(), rect.left, rect.top, rect.right, rect.bottom, now);
+		      }
+		      if (!useOneShotPreviewCallback && !useBufferedPreviewCallback) {
 		        camera.setPreviewCallback(null);
 		      }
+		      PreviewFrame frame = claimContinuousFrame(data);
+		      if (frame != null) {
+		    	previewFrameRing.offer(frame);
+		    	return;
+		      }
 		      if (previewHandler != null) {
-		    	Point cameraResolution = configManager.getCameraResolution();
-		        Message message = previewHandler.obtainMessage(previewMessage, cameraResolution.x,
-		            cameraResolution.y, data);
+		        Message message = previewHandler.obtainMessage(previewMessage, claimRequestedFrame(data, now));
 		        message.sendToTarget();
 		        previewHandler = null;
-		      }else {
+		      } else if (useBufferedPreviewCallback) {
+		    	camera.addCallbackBuffer(data);
+		      } else {
 			      Log.d(TAG, "Got preview callback, but no handler for it");
 			  }
 		}
 	};
 	
+	/** What the decoders make of each frame feeds autofocus, the recording and the preview size. */
+	private final FrameDecoder.Listener frameListener = new FrameDecoder.Listener() {
+		public void onFrameDecoded(byte[] data, int sharpness, int outcome, Result result) {
+			FrameRecorder recorder = frameRecorder;
+			if (recorder != null) {
+				recorder.setOutcome(data, outcome,
+						result == null ? 0 : DecodeFormats.flagFor(result.getBarcodeFormat()));
+			}
+			// Skipped without a sharpness score means nothing barcode-like; with one, too blurred.
+			int focusOutcome = outcome == FrameRecording.OUTCOME_DECODED ? FocusScheduler.FRAME_DECODED :
+					sharpness < 0 ? FocusScheduler.FRAME_EMPTY : FocusScheduler.FRAME_FAILED;
+			focusScheduler.onFrame(SystemClock.uptimeMillis(), sharpness, focusOutcome);
+		}
+		
+		public void onDecodeTimed(int pixels, long nanos, boolean decoded, boolean downsampled) {
+			configManager.onDecodeTimed(pixels, nanos, decoded, downsampled);
+		}
+	};
+	
+	/** Frames leaving the ring, decoded or not, go back to the buffer pool. */
+	private final PreviewFrameRing.Recycler previewFrameRecycler = new PreviewFrameRing.Recycler() {
+		public void recycle(PreviewFrame frame) {
+			releasePreviewBuffer(frame.getData());
+		}
+	};
+	
 	/** Autofocus callbacks arrive here, and are dispatched to the Handler which requested them. */
 	private final Camera.AutoFocusCallback autoFocusCallback = new Camera.AutoFocusCallback() {
 		 public void onAutoFocus(boolean success, Camera camera) {
+		      eventTracer.begin(EventTracer.AUTO_FOCUS, success ? 1 : 0);
+		      focusScheduler.onFocusCompleted(SystemClock.uptimeMillis(), success);
 		      if (autoFocusHandler != null) {
 		        Message message = autoFocusHandler.obtainMessage(autoFocusMessage, success);
-		        // Simulate continuous autofocus by sending a focus request every
-			    // AUTOFOCUS_INTERVAL_MS milliseconds.
-		        autoFocusHandler.sendMessageDelayed(message, AUTOFOCUS_INTERVAL_MS);   
+		        // The handler asks the FocusScheduler every AUTOFOCUS_CHECK_INTERVAL_MS milliseconds
+		        // whether the image calls for another focus.
+		        autoFocusHandler.sendMessageDelayed(message, AUTOFOCUS_CHECK_INTERVAL_MS);   
 		        autoFocusHandler = null;
 		      }
+		      eventTracer.end(EventTracer.AUTO_FOCUS);
 		 }
 	};
 	
@@ -130,6 +216,14 @@ public class CameraManager {
 	private CameraManager(Context context) {
 		this.context = context;
 		this.configManager = new CameraConfigurationManager(context);
+		this.focusScheduler = new FocusScheduler();
+		this.roiTracker = new RoiTracker();
+		this.pipelineLatency = new PipelineLatency();
+		this.frameDecoder = new FrameDecoder();
+		frameDecoder.setRoiTracker(roiTracker);
+		frameDecoder.setLatency(pipelineLatency);
+		frameDecoder.setListener(frameListener);
+		this.eventTracer = new EventTracer();
 	    camera = null;
 		initialized = false;
 		previewing = false;
@@ -139,6 +233,13 @@ public class CameraManager {
 	    // the more efficient one shot callback, as the older one can swamp the system and cause it
 	    // to run out of memory. We can't use SDK_INT because it was introduced in the Donut SDK.
 	    useOneShotPreviewCallback = SDK_INT > Build.VERSION_CODES.CUPCAKE;
+	    
+	    // Froyo and later can deliver frames into buffers we supply, so the steady state allocates
+	    // nothing instead of handing us a fresh byte[] for every frame.
+	    useBufferedPreviewCallback = SDK_INT >= Build.VERSION_CODES.FROYO;
+	    previewBufferCount = DEFAULT_PREVIEW_BUFFER_COUNT;
+	    previewFrameRing = useBufferedPreviewCallback ?
+	        new PreviewFrameRing(PREVIEW_FRAME_RING_CAPACITY, previewFrameRecycler) : null;
 	}
 	
 	/**
@@ -147,27 +248,97 @@ public class CameraManager {
 	 * @param holder The surface object which the camera will draw preview frames into.
 	 * @throws IOException Indicates the camera driver failed to open.
 	 */
-	public void openDriver(SurfaceHolder holder) throws IOException {
+	public synchronized void openDriver(SurfaceHolder holder) throws IOException {
+	    if (camera == null) {
+	      openCamera();
+	      configureCamera();
+	    }
+	    camera.setPreviewDisplay(holder);
+	}
+	
+	/**
+	 * Like {@link #openDriver(SurfaceHolder)}, but previews into a texture nobody needs to show,
+	 * so frames can be decoded without a window. Honeycomb and later only.
+	 *
+	 * @param texture The texture which the camera will draw preview frames into.
+	 * @throws IOException Indicates the camera driver failed to open.
+	 */
+	public synchronized void openDriver(SurfaceTexture texture) throws IOException {
+	    if (camera == null) {
+	      openCamera();
+	      configureCamera();
+	    }
+	    camera.setPreviewTexture(texture);
+	}
+	
+	/**
+	 * Opens the camera driver without a surface to preview into yet, which is the slow part of
+	 * {@link #openDriver(SurfaceHolder)}, so it can be done off the UI thread while the surface is
+	 * still being created. Camera callbacks go to the main thread unless the calling thread has a
+	 * Looper of its own. Does nothing if the camera is already open.
+	 *
+	 * @throws IOException Indicates the camera driver failed to open.
+	 */
+	public synchronized void openCamera() throws IOException {
 	    if (camera == null) {
 	      camera = Camera.open();
 	      if (camera == null) {
 	        throw new IOException();
 	      }
-	      camera.setPreviewDisplay(holder);
-
-	      if (!initialized) {
-	        initialized = true;
-	        configManager.initFromCameraParameters(camera);
-	      }
-	      configManager.setDesiredCameraParameters(camera);
 	    }
 	}
 	
+	/**
+	 * Sets the hardware parameters of the camera opened by {@link #openCamera}.
+	 *
+	 * @throws IOException If the camera isn't open, e.g. because it was closed meanwhile.
+	 */
+	public synchronized void configureCamera() throws IOException {
+	    if (camera == null) {
+	      throw new IOException("Camera closed");
+	    }
+	    if (!initialized) {
+	      initialized = true;
+	      configManager.initFromCameraParameters(camera);
+	    }
+	    configManager.setDesiredCameraParameters(camera);
+	    // The preview size may have changed since the last open.
+	    framingRectInPreview = null;
+	}
+	
+	/**
+	 * @param scanDistance How far away codes usually are, in millimetres, for choosing the preview
+	 *                     size when the camera is first opened.
+	 */
+	public void setScanDistance(float scanDistance) {
+	    configManager.setScanDistance(scanDistance);
+	}
+	
+	/**
+	 * @return True if the camera was set up from the profile saved on an earlier start.
+	 */
+	public boolean isCameraProfileUsed() {
+	    return configManager.isProfileUsed();
+	}
+	
+	/**
+	 * Gives the camera opened by {@link #openCamera} the surface to draw preview frames into.
+	 *
+	 * @throws IOException If the camera isn't open, or the surface is unusable.
+	 */
+	public synchronized void setPreviewDisplay(SurfaceHolder holder) throws IOException {
+	    if (camera == null) {
+	      throw new IOException("Camera closed");
+	    }
+	    camera.setPreviewDisplay(holder);
+	}
+	
 	/**
 	 * Closes the camera driver if still in use.
 	 */
-	 public void closeDriver() {
+	 public synchronized void closeDriver() {
 	    if (camera != null) {
+	      configManager.saveProfileIfChanged();
 	      camera.release();
 	      camera = null;
 	    }
@@ -176,8 +347,14 @@ public class CameraManager {
 	 /**
 	  * Asks the camera hardware to begin drawing preview frames to the screen.
 	  */
-	 public void startPreview() {
+	 public synchronized void startPreview() {
 	    if (camera != null && !previewing) {
+	      checkPreviewFormat(configManager.getPreviewFormat(), configManager.getPreviewFormatString());
+	      Rect rect = getFramingRectInPreview();
+	      frameDecoder.setFramingRect(rect.left, rect.top, rect.right, rect.bottom);
+	      if (useBufferedPreviewCallback) {
+	        queuePreviewBuffers();
+	      }
 	      camera.startPreview();
 	      previewing = true;
 	    }
@@ -186,31 +363,45 @@ public class CameraManager {
 	 /**
 	  * Tells the camera to stop drawing preview frames.
 	  */
-	  public void stopPreview() {
+	  public synchronized void stopPreview() {
 	    if (camera != null && previewing) {
-	      if (!useOneShotPreviewCallback) {
+	      if (useBufferedPreviewCallback) {
+	        // Also clears the buffer queue; buffers still being decoded are simply not returned.
+	        camera.setPreviewCallbackWithBuffer(null);
+	      } else if (!useOneShotPreviewCallback) {
 	        camera.setPreviewCallback(null);
 	      }
 	      camera.stopPreview();
 	      previewHandler = null;
 	      autoFocusHandler = null;
 	      previewing = false;
+	      continuousCapture = false;
+	      focusScheduler.reset();
+	      roiTracker.reset();
+	      // Don't count the pause as one long frame interval.
+	      lastPreviewFrameTime = 0;
+	      if (previewFrameRing != null) {
+	        previewFrameRing.clear();
+	      }
 	    }
 	  }
 	  
 	  /**
-	   * A single preview frame will be returned to the handler supplied. The data will arrive as byte[]
-	   * in the message.obj field, with width and height encoded as message.arg1 and message.arg2,
-	   * respectively.
+	   * A single preview frame will be returned to the handler supplied. It will arrive as a
+	   * {@link PreviewFrame} in the message.obj field, stamped with its own arrival time. When buffers
+	   * are pooled the receiver must hand its data back through {@link #releasePreviewBuffer} once it
+	   * is done with it.
 	   *
 	   * @param handler The handler to send the message to.
 	   * @param message The what field of the message to be sent.
 	   */
-	  public void requestPreviewFrame(Handler handler, int message) {
+	  public synchronized void requestPreviewFrame(Handler handler, int message) {
 	    if (camera != null && previewing) {
 	    	  previewHandler = handler;
 		      previewMessage = message;
-	      if (useOneShotPreviewCallback) {
+	      if (useBufferedPreviewCallback) {
+	        // The buffered callback stays armed, nothing to do.
+	      } else if (useOneShotPreviewCallback) {
 	        camera.setOneShotPreviewCallback(previewCallback);
 	      } else {
 	        camera.setPreviewCallback(previewCallback);
@@ -218,6 +409,279 @@ public class CameraManager {
 	    }
 	  }
 	  
+	  /**
+	   * @return The ring continuous capture publishes frames to, or null if this device can't
+	   *         capture continuously.
+	   */
+	  public PreviewFrameRing getPreviewFrameRing() {
+	    return previewFrameRing;
+	  }
+	  
+	  /**
+	   * Starts publishing every preview frame to {@link #getPreviewFrameRing()}, where decoders pull
+	   * them directly, rather than waiting for {@link #requestPreviewFrame} between frames.
+	   *
+	   * @return False if continuous capture isn't supported on this device.
+	   */
+	  public synchronized boolean startContinuousCapture() {
+	    if (previewFrameRing == null) {
+	      return false;
+	    }
+	    continuousCapture = true;
+	    return true;
+	  }
+	  
+	  /**
+	   * Stops publishing preview frames and gives back the ones nobody took yet.
+	   */
+	  public void stopContinuousCapture() {
+	    synchronized (this) {
+	      continuousCapture = false;
+	    }
+	    if (previewFrameRing != null) {
+	      previewFrameRing.clear();
+	    }
+	  }
+	  
+	  /**
+	   * Returns a preview frame obtained through {@link #requestPreviewFrame} to the buffer pool so
+	   * the camera can fill it again. Safe to call from any thread, and a no-op for buffers which
+	   * did not come from the pool.
+	   *
+	   * @param data The preview frame which is no longer needed.
+	   */
+	  public synchronized void releasePreviewBuffer(byte[] data) {
+	    int index = indexOfPreviewBuffer(data);
+	    if (index < 0 || !previewBufferInFlight[index]) {
+	      return;
+	    }
+	    previewBufferInFlight[index] = false;
+	    previewBuffersInFlight--;
+	    if (camera != null && previewing) {
+	      camera.addCallbackBuffer(data);
+	    }
+	  }
+	  
+	  /**
+	   * Sets how many preview buffers are handed to the camera. Takes effect the next time the
+	   * preview is started.
+	   *
+	   * @param count The number of buffers, at least one.
+	   */
+	  public synchronized void setPreviewBufferCount(int count) {
+	    if (count < 1) {
+	      throw new IllegalArgumentException("Need at least one preview buffer: " + count);
+	    }
+	    previewBufferCount = count;
+	  }
+	  
+	  public synchronized int getPreviewBufferCount() {
+	    return previewBufferCount;
+	  }
+	  
+	  /**
+	   * @return How many times the last queued buffer was handed out, i.e. the camera had nothing
+	   *         to write the next frame into until a decoder gave a buffer back.
+	   */
+	  public synchronized int getPreviewBufferStarvationCount() {
+	    return previewBufferStarvationCount;
+	  }
+	  
+	  public synchronized int getPreviewBuffersInFlight() {
+	    return previewBuffersInFlight;
+	  }
+	  
+	  /**
+	   * (Re)allocates the buffer pool if the frame size or count changed, then queues every buffer
+	   * which is not currently out being decoded.
+	   */
+	  private void queuePreviewBuffers() {
+	    Point cameraResolution = configManager.getCameraResolution();
+	    int bitsPerPixel = ImageFormat.getBitsPerPixel(configManager.getPreviewFormat());
+	    if (bitsPerPixel <= 0) {
+	      // Unknown format; 16 bits covers every YUV layout we can decode.
+	      bitsPerPixel = 16;
+	    }
+	    int bufferSize = cameraResolution.x * cameraResolution.y * bitsPerPixel / 8;
+	    if (previewBuffers == null || previewBuffers.length != previewBufferCount ||
+	        previewBuffers[0].length != bufferSize) {
+	      Log.d(TAG, "Allocating " + previewBufferCount + " preview buffers of " + bufferSize + " bytes");
+	      previewBuffers = new byte[previewBufferCount][bufferSize];
+	      previewBufferInFlight = new boolean[previewBufferCount];
+	      previewBuffersInFlight = 0;
+	      previewFrames = new PreviewFrame[previewBufferCount];
+	      for (int i = 0; i < previewBufferCount; i++) {
+	        previewFrames[i] = new PreviewFrame(previewBuffers[i]);
+	      }
+	    }
+	    camera.setPreviewCallbackWithBuffer(previewCallback);
+	    for (int i = 0; i < previewBuffers.length; i++) {
+	      if (!previewBufferInFlight[i]) {
+	        camera.addCallbackBuffer(previewBuffers[i]);
+	      }
+	    }
+	  }
+	  
+	  private synchronized int markPreviewBufferInFlight(byte[] data) {
+	    int index = indexOfPreviewBuffer(data);
+	    if (index >= 0 && !previewBufferInFlight[index]) {
+	      previewBufferInFlight[index] = true;
+	      previewBuffersInFlight++;
+	      if (previewBuffersInFlight == previewBuffers.length) {
+	        previewBufferStarvationCount++;
+	      }
+	    }
+	    return index;
+	  }
+	  
+	  /**
+	   * @return The pooled frame wrapping data if continuous capture is on, otherwise null.
+	   */
+	  private synchronized PreviewFrame claimContinuousFrame(byte[] data) {
+	    if (!continuousCapture) {
+	      return null;
+	    }
+	    int index = markPreviewBufferInFlight(data);
+	    if (index < 0) {
+	      return null;
+	    }
+	    Point cameraResolution = configManager.getCameraResolution();
+	    PreviewFrame frame = previewFrames[index];
+	    frame.setSize(cameraResolution.x, cameraResolution.y);
+	    return frame;
+	  }
+	  
+	  /**
+	   * @return The frame wrapping data for a {@link #requestPreviewFrame} handler: the pooled one if
+	   *         data is a pool buffer, otherwise a new one.
+	   */
+	  private synchronized PreviewFrame claimRequestedFrame(byte[] data, long arrival) {
+	    int index = markPreviewBufferInFlight(data);
+	    PreviewFrame frame = index >= 0 ? previewFrames[index] : new PreviewFrame(data);
+	    Point cameraResolution = configManager.getCameraResolution();
+	    frame.setSize(cameraResolution.x, cameraResolution.y);
+	    frame.setSequence(requestedFrameSequence++);
+	    frame.setTimestamp(arrival);
+	    return frame;
+	  }
+	  
+	  private int indexOfPreviewBuffer(byte[] data) {
+	    if (previewBuffers != null) {
+	      for (int i = 0; i < previewBuffers.length; i++) {
+	        if (previewBuffers[i] == data) {
+	          return i;
+	        }
+	      }
+	    }
+	    return -1;
+	  }
+	  
+	  /**
+	   * @return The scheduler which decides when autofocus should run, fed by the decoders.
+	   */
+	  public FocusScheduler getFocusScheduler() {
+	    return focusScheduler;
+	  }
+	  
+	  /**
+	   * @return The tracker which narrows the decode crop around the last barcode, fed by the decoders.
+	   */
+	  public RoiTracker getRoiTracker() {
+	    return roiTracker;
+	  }
+	  
+	  /**
+	   * @return The decode pipeline every preview frame goes through, shared by all decode threads.
+	   */
+	  public FrameDecoder getFrameDecoder() {
+	    return frameDecoder;
+	  }
+	  
+	  /**
+	   * @return The scheduler which narrows the formats looked for to those turning up. The decoders
+	   *         feed it their timings; whoever drops repeated codes feeds it the new ones.
+	   */
+	  public FormatScheduler getFormatScheduler() {
+	    return frameDecoder.getFormatScheduler();
+	  }
+	  
+	  /**
+	   * @return The classifier which narrows the formats to the kind of code in the frame.
+	   */
+	  public SymbologyClassifier getSymbologyClassifier() {
+	    return frameDecoder.getClassifier();
+	  }
+	  
+	  /**
+	   * @return What the decoders look for; read it afresh for every frame.
+	   */
+	  public DecodeConfig getDecodeConfig() {
+	    return frameDecoder.getDecodeConfig();
+	  }
+	  
+	  /**
+	   * Changes what the decoders look for, from the next frame on, without restarting them.
+	   */
+	  public void setDecodeConfig(DecodeConfig decodeConfig) {
+	    if (decodeConfig != null && !decodeConfig.equals(frameDecoder.getDecodeConfig())) {
+	      Log.d(TAG, "Decoding with " + decodeConfig);
+	    }
+	    frameDecoder.setDecodeConfig(decodeConfig);
+	  }
+	  
+	  /**
+	   * Shorthand for {@link #setDecodeConfig} with the qmcore format flags to look for.
+	   */
+	  public void setDecodeFormats(int formats) {
+	    setDecodeConfig(frameDecoder.getDecodeConfig().withFormats(formats));
+	  }
+	  
+	  /**
+	   * @return Per-stage latencies of the scan pipeline, from preview frame to handled result.
+	   */
+	  public PipelineLatency getPipelineLatency() {
+	    return pipelineLatency;
+	  }
+	  
+	  /**
+	   * @return The tracer the camera callbacks, decoders and handler record begin and end events into.
+	   */
+	  public EventTracer getEventTracer() {
+	    return eventTracer;
+	  }
+	  
+	  /**
+	   * Records every preview frame from now on, replacing any recorder already running.
+	   */
+	  public synchronized void startRecording(FrameRecorder recorder) {
+	    stopRecording();
+	    frameRecorder = recorder;
+	  }
+	  
+	  /**
+	   * Stops recording preview frames and closes the recording, if any.
+	   */
+	  public synchronized void stopRecording() {
+	    FrameRecorder recorder = frameRecorder;
+	    frameRecorder = null;
+	    if (recorder != null) {
+	      try {
+	        recorder.close();
+	        Log.i(TAG, "Recorded " + recorder.getFrameCount() + " frames, dropped " +
+	            recorder.getDroppedFrameCount());
+	      } catch (IOException ioe) {
+	        Log.w(TAG, "Can't close frame recording", ioe);
+	      }
+	    }
+	  }
+	  
+	  /**
+	   * @return The recorder decoders report frame outcomes to, or null when not recording.
+	   */
+	  public FrameRecorder getFrameRecorder() {
+	    return frameRecorder;
+	  }
+	  
 	  /**
 	   * Asks the camera hardware to perform an autofocus.
 	   *
@@ -228,6 +692,7 @@ public class CameraManager {
 	    if (camera != null && previewing) {
 	      autoFocusHandler = handler;
 		  autoFocusMessage = message;
+		  focusScheduler.onFocusStarted(SystemClock.uptimeMillis());
 	      camera.autoFocus(autoFocusCallback);
 	    }
 	  }
@@ -240,12 +705,36 @@ public class CameraManager {
 	   * @return The rectangle to draw on screen in window coordinates.
 	   */
 	  public Rect getFramingRect() {
-	    Point screenResolution = configManager.getScreenResolution();
 	    if (framingRect == null) {
 	      if (camera == null) {
 	        return null;
 	      }
-	      
+	      framingRect = configManager.getFramingRect();
+	      if (framingRect == null) {
+	        framingRect = calculateFramingRect(configManager.getScreenResolution());
+	      }
+	      Log.d(TAG, "Calculated framing rect: " + framingRect);
+	    }
+	    return framingRect;
+	  }
+	  
+	  /**
+	   * Like {@link #getFramingRect} but coordinates are in terms of the preview frame,
+	   * not UI / screen.
+	   */
+	  public Rect getFramingRectInPreview() {
+	    if (framingRectInPreview == null) {
+	      framingRectInPreview = scaleToPreview(getFramingRect(), configManager.getCameraResolution(),
+	          configManager.getScreenResolution());
+	    }
+	    return framingRectInPreview;
+	  }
+	  
+	  /**
+	   * The framing rect for a screen: 3/4 of it in each direction within the frame size limits,
+	   * centered.
+	   */
+	  static Rect calculateFramingRect(Point screenResolution) {
 	      int width = screenResolution.x * 3 / 4;
 	      if (width < MIN_FRAME_WIDTH) {
 	        width = MIN_FRAME_WIDTH;
@@ -260,28 +749,19 @@ public class CameraManager {
 	      }
 	      int leftOffset = (screenResolution.x - width) / 2;
 	      int topOffset = (screenResolution.y - height) / 2;
-	      framingRect = new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
-	      Log.d(TAG, "Calculated framing rect: " + framingRect);
-	    }
-	    return framingRect;
+	      return new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
 	  }
 	  
 	  /**
-	   * Like {@link #getFramingRect} but coordinates are in terms of the preview frame,
-	   * not UI / screen.
+	   * Maps a rectangle in screen coordinates to preview frame coordinates.
 	   */
-	  public Rect getFramingRectInPreview() {
-	    if (framingRectInPreview == null) {
-	      Rect rect = new Rect(getFramingRect());
-	      Point cameraResolution = configManager.getCameraResolution();
-	      Point screenResolution = configManager.getScreenResolution();
+	  static Rect scaleToPreview(Rect screenRect, Point cameraResolution, Point screenResolution) {
+	      Rect rect = new Rect(screenRect);
 	      rect.left = rect.left * cameraResolution.x / screenResolution.x;
 	      rect.right = rect.right * cameraResolution.x / screenResolution.x;
 	      rect.top = rect.top * cameraResolution.y / screenResolution.y;
 	      rect.bottom = rect.bottom * cameraResolution.y / screenResolution.y;
-	      framingRectInPreview = rect;
-	    }
-	    return framingRectInPreview;
+	      return rect;
 	  }
 	  
 	  /**
@@ -291,12 +771,22 @@ public class CameraManager {
 	   * @param data A preview frame.
 	   * @param width The width of the image.
 	   * @param height The height of the image.
+	   * @param rect The crop of the preview frame.
 	   * @return A DecodeBufferSource instance.
 	   */
-	  public DecodeBufferSource buildDecodeBuffer(byte[] data, int width, int height) {
-		    Rect rect = getFramingRectInPreview();
-		    int previewFormat = configManager.getPreviewFormat();
-		    String previewFormatString = configManager.getPreviewFormatString();
+	  static DecodeBufferSource buildDecodeBuffer(byte[] data, int width, int height, Rect rect,
+	      int previewFormat, String previewFormatString) {
+		    checkPreviewFormat(previewFormat, previewFormatString);
+		    return new DecodeBufferSource(data, width, height, rect.left, rect.top,
+		        rect.width(), rect.height());
+	  }
+	  
+	  /**
+	   * The decoders read the Y plane straight from the start of the frame.
+	   *
+	   * @throws IllegalArgumentException If the preview format doesn't start with one.
+	   */
+	  static void checkPreviewFormat(int previewFormat, String previewFormatString) {
 		    switch (previewFormat) {
 		      // This is the standard Android format which all devices are REQUIRED to support.
 		      // In theory, it's the only one we should ever care about.
@@ -304,19 +794,17 @@ public class CameraManager {
 		      // This format has never been seen in the wild, but is compatible as we only care
 		      // about the Y channel, so allow it.
 		      case PixelFormat.YCbCr_422_SP:
-		        return new DecodeBufferSource(data, width, height, rect.left, rect.top,
-		            rect.width(), rect.height());
+		        return;
 		      default:
 		        // The Samsung Moment incorrectly uses this variant instead of the 'sp' version.
 		        // Fortunately, it too has all the Y data up front, so we can read it.
 		        if ("yuv420p".equals(previewFormatString)) {
-		          return new DecodeBufferSource(data, width, height, rect.left, rect.top,
-		            rect.width(), rect.height());
+		          return;
 		        }
 		    }
 		    throw new IllegalArgumentException("Unsupported picture format: " +
 		        previewFormat + '/' + previewFormatString);
-		  }
+	  }
 	  
 	
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.os.Build;
+
+/**
+ * What {@link CameraConfigurationManager} worked out for one device, camera, screen and scan
+ * distance: the preview size and format and the framing rect, with what the preview size was chosen
+ * from, the sizes offered, the view angle and the decode cost measured. It is kept in its own shared preferences file so that later
+ * starts can apply it without reading and parsing the camera's parameters first. A profile is only
+ * loaded under the key it was saved with. The key includes the build fingerprint, so a firmware
+ * update starts over, and {@link #VERSION}, to be bumped whenever the way these are chosen changes.
+ */
+final class CameraProfile {
+
+	private static final String PREFERENCES_NAME = "camera_profile";
+	private static final int VERSION = 2;
+	
+	private static final String KEY = "key";
+	private static final String PREVIEW_WIDTH = "preview_width";
+	private static final String PREVIEW_HEIGHT = "preview_height";
+	private static final String PREVIEW_FORMAT = "preview_format";
+	private static final String PREVIEW_FORMAT_STRING = "preview_format_string";
+	private static final String FRAMING_LEFT = "framing_left";
+	private static final String FRAMING_TOP = "framing_top";
+	private static final String FRAMING_RIGHT = "framing_right";
+	private static final String FRAMING_BOTTOM = "framing_bottom";
+	private static final String PREVIEW_SIZE_VALUES = "preview_size_values";
+	private static final String VIEW_ANGLE = "view_angle";
+	private static final String COST_NANOS_PER_PIXEL = "cost_nanos_per_pixel";
+	
+	private final String key;
+	private final Point previewSize;
+	private final int previewFormat;
+	private final String previewFormatString;
+	private final Rect framingRect;
+	private final String previewSizeValues;
+	private final float viewAngle;
+	private final float costNanosPerPixel;
+	
+	CameraProfile(String key, Point previewSize, int previewFormat, String previewFormatString,
+	    Rect framingRect, String previewSizeValues, float viewAngle, float costNanosPerPixel) {
+	    this.key = key;
+	    this.previewSize = previewSize;
+	    this.previewFormat = previewFormat;
+	    this.previewFormatString = previewFormatString;
+	    this.framingRect = framingRect;
+	    this.previewSizeValues = previewSizeValues;
+	    this.viewAngle = viewAngle;
+	    this.costNanosPerPixel = costNanosPerPixel;
+	}
+	
+	/**
+	 * @param cameraId The camera the profile is for.
+	 * @param screenResolution The screen the preview is shown on.
+	 * @param scanDistance The scan distance set, in millimetres.
+	 * @return The key the profile for them is saved under on this build.
+	 */
+	static String buildKey(int cameraId, Point screenResolution, float scanDistance) {
+	    return VERSION + "|" + Build.FINGERPRINT + '|' + Build.MODEL + '|' + cameraId + '|' +
+	        screenResolution.x + 'x' + screenResolution.y + '|' + Math.round(scanDistance);
+	}
+	
+	/**
+	 * @return The saved profile, or null if there is none for this key.
+	 */
+	static CameraProfile load(Context context, String key) {
+	    SharedPreferences preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+	    if (!key.equals(preferences.getString(KEY, null))) {
+	      return null;
+	    }
+	    int width = preferences.getInt(PREVIEW_WIDTH, 0);
+	    int height = preferences.getInt(PREVIEW_HEIGHT, 0);
+	    if (width <= 0 || height <= 0) {
+	      return null;
+	    }
+	    Rect framingRect = new Rect(preferences.getInt(FRAMING_LEFT, 0), preferences.getInt(FRAMING_TOP, 0),
+	        preferences.getInt(FRAMING_RIGHT, 0), preferences.getInt(FRAMING_BOTTOM, 0));
+	    return new CameraProfile(key, new Point(width, height), preferences.getInt(PREVIEW_FORMAT, 0),
+	        preferences.getString(PREVIEW_FORMAT_STRING, null),
+	        framingRect.width() > 0 && framingRect.height() > 0 ? framingRect : null,
+	        preferences.getString(PREVIEW_SIZE_VALUES, null),
+	        preferences.getFloat(VIEW_ANGLE, PreviewSizeSelector.DEFAULT_VIEW_ANGLE),
+	        preferences.getFloat(COST_NANOS_PER_PIXEL, PreviewSizeSelector.DEFAULT_COST_NANOS_PER_PIXEL));
+	}
+	
+	/**
+	 * Replaces whatever profile was saved before.
+	 */
+	void save(Context context) {
+	    SharedPreferences.Editor editor =
+	        context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit();
+	    editor.putString(KEY, key);
+	    editor.putInt(PREVIEW_WIDTH, previewSize.x);
+	    editor.putInt(PREVIEW_HEIGHT, previewSize.y);
+	    editor.putInt(PREVIEW_FORMAT, previewFormat);
+	    editor.putString(PREVIEW_FORMAT_STRING, previewFormatString);
+	    if (framingRect != null) {
+	      editor.putInt(FRAMING_LEFT, framingRect.left);
+	      editor.putInt(FRAMING_TOP, framingRect.top);
+	      editor.putInt(FRAMING_RIGHT, framingRect.right);
+	      editor.putInt(FRAMING_BOTTOM, framingRect.bottom);
+	    }
+	    editor.putString(PREVIEW_SIZE_VALUES, previewSizeValues);
+	    editor.putFloat(VIEW_ANGLE, viewAngle);
+	    editor.putFloat(COST_NANOS_PER_PIXEL, costNanosPerPixel);
+	    editor.commit();
+	}
+	
+	/**
+	 * Forgets the saved profile, e.g. after the camera rejected it.
+	 */
+	static void clear(Context context) {
+	    context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit().remove(KEY).commit();
+	}
+	
+	String getKey() {
+	    return key;
+	}
+	
+	Point getPreviewSize() {
+	    return previewSize;
+	}
+	
+	int getPreviewFormat() {
+	    return previewFormat;
+	}
+	
+	String getPreviewFormatString() {
+	    return previewFormatString;
+	}
+	
+	/**
+	 * @return The framing rect on the screen, or null if none was saved.
+	 */
+	Rect getFramingRect() {
+	    return framingRect;
+	}
+	
+	/**
+	 * @return The camera's preview-size-values, or null if it had none.
+	 */
+	String getPreviewSizeValues() {
+	    return previewSizeValues;
+	}
+	
+	float getViewAngle() {
+	    return viewAngle;
+	}
+	
+	float getCostNanosPerPixel() {
+	    return costNanosPerPixel;
+	}
+	
+	@Override
+	public String toString() {
+	    return "preview " + previewSize.x + 'x' + previewSize.y + ", format " + previewFormat + '/' +
+	        previewFormatString + ", framing " + framingRect + ", " + costNanosPerPixel + " ns per pixel";
+	}
+}
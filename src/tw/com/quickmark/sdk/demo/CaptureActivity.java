@@ -18,7 +18,12 @@
  
 package tw.com.quickmark.sdk.demo;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 
 import tw.com.quickmark.sdk.Result;
 import tw.com.quickmark.sdk.qmcore;
@@ -31,7 +36,9 @@ import android.content.res.Configuration;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.os.Vibrator;
+import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.Menu;
@@ -51,10 +58,17 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 	private boolean hasSurface;
 	private TextView fmtText;
 	private String result = "";
+	private String[] results;
+	
+	// Continuous scanning
+	private boolean continuousScan;
+	private ScanSession scanSession;
+	private final ArrayList<String> scannedCodes = new ArrayList<String>();
 	
 	// Decoder
 	private CaptureActivityHandler handler;
 	protected qmcore QuickMarkDecoder;
+	private ScannerStartup startup;
 	
 	// vibrate
 	private static final long VIBRATE_DURATION = 200L;
@@ -62,6 +76,10 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 	// Menu Items
 	private static final int SETTINGS_ID = Menu.FIRST;
 	private static final int ABOUT_ID = Menu.FIRST + 1;
+	private static final int LATENCY_ID = Menu.FIRST + 2;
+	private static final int TRACE_ID = Menu.FIRST + 3;
+	private static final String TRACE_FILE = "trace.json";
+	private static final String RECORDING_FILE = "frames.qmr";
 		
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -78,11 +96,34 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 	    	fmtText = new TextView(this);
 	    handler = null;
 	    hasSurface = false;
+	    scanSession = new ScanSession();
+	    scanSession.addListener(CameraManager.get().getFormatScheduler());
 	    
 	    /**
-	     *  QuickMarkSDK 
+	     *  QuickMarkSDK, loaded in the background while the camera opens
 	     */
-	    QuickMarkDecoder = new qmcore(this);
+	    startup = new ScannerStartup(this, startupListener);
+	    startup.loadDecoder();
+	}
+	
+	private final ScannerStartup.Listener startupListener = new ScannerStartup.Listener() {
+		public void onDecoderLoaded(qmcore decoder) {
+			showDecoder(decoder);
+		}
+		
+		public void onScannerReady() {
+			if (handler == null) {
+				handler = new CaptureActivityHandler(CaptureActivity.this);
+			}
+		}
+		
+		public void onCameraFailed(Exception e) {
+			Log.w(TAG, "Unexpected error initializating camera", e);
+		}
+	};
+	
+	private void showDecoder(qmcore decoder) {
+	    QuickMarkDecoder = decoder;
 	    if (!QuickMarkDecoder.mSdkLoaded)
 	    {
 	    	AlertDialog.Builder builder = new AlertDialog.Builder(this);
@@ -115,7 +156,7 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 	public void surfaceCreated(SurfaceHolder arg0) {
 		if (!hasSurface) {
 		      hasSurface = true;
-		      initCamera(arg0);
+		      startup.setSurface(arg0);
 		 }
 	}
 
@@ -128,12 +169,35 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 	protected void onResume() {
 		super.onResume();
 		
+		continuousScan = PreferenceManager.getDefaultSharedPreferences(this)
+				.getBoolean(PreferencesActivity.PREFERENCE_CONTINUOUS_SCAN, false);
+		viewfinderView.setLatencyOverlay(PreferenceManager.getDefaultSharedPreferences(this)
+				.getBoolean(PreferencesActivity.PREFERENCE_LATENCY_OVERLAY, false));
+		CameraManager.get().getEventTracer().setEnabled(PreferenceManager.getDefaultSharedPreferences(this)
+				.getBoolean(PreferencesActivity.PREFERENCE_TRACE, false));
+		// Settings changed while away; the preferences screen also updates this as they change.
+		CameraManager.get().setDecodeConfig(
+				PreferencesActivity.readDecodeConfig(PreferenceManager.getDefaultSharedPreferences(this)));
+		
+		String scanDistance = PreferenceManager.getDefaultSharedPreferences(this)
+				.getString(PreferencesActivity.PREFERENCE_SCAN_DISTANCE, null);
+		if (scanDistance != null) {
+			CameraManager.get().setScanDistance(Float.parseFloat(scanDistance));
+		}
+		
+		// The camera opens in the background while the surface is created.
+		startup.openCamera();
+		if (PreferenceManager.getDefaultSharedPreferences(this)
+				.getBoolean(PreferencesActivity.PREFERENCE_RECORD_FRAMES, false)) {
+			// Private to the app; see README.txt for copying it off a debug build.
+			startup.startRecording(new File(getFilesDir(), RECORDING_FILE));
+		}
 		SurfaceView surfaceView = (SurfaceView) findViewById(R.id.preview_view);
 	    SurfaceHolder surfaceHolder = surfaceView.getHolder();
 	    if (hasSurface) {
 	      // The activity was paused but not stopped, so the surface still exists. Therefore
-	      // surfaceCreated() won't be called, so init the camera here.
-	      initCamera(surfaceHolder);
+	      // surfaceCreated() won't be called, so hand it over here.
+	      startup.setSurface(surfaceHolder);
 	    } else {
 	      // Install the callback and wait for surfaceCreated() to init the camera.
 	      surfaceHolder.addCallback(this);
@@ -148,17 +212,41 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 		      handler.quitSynchronously();
 		      handler = null;
 		}
+		// Before stopping the recording, so a recorder still being created is dropped.
+		startup.cancelCamera();
+		// After the decoders quit, so the outcome of every frame made it in.
+		CameraManager.get().stopRecording();
 		CameraManager.get().closeDriver();
 	}
 
+	@Override
+	protected void onDestroy() {
+		startup.shutdown();
+		super.onDestroy();
+	}
+
 	@Override
 	public boolean onKeyDown(int keyCode, KeyEvent event) {
+		// Back ends a continuous scan and hands over everything scanned.
+		if (keyCode == KeyEvent.KEYCODE_BACK && continuousScan && !scannedCodes.isEmpty()) {
+			result = scannedCodes.get(0);
+			results = scannedCodes.toArray(new String[scannedCodes.size()]);
+			returnResult();
+			return true;
+		}
 		return super.onKeyDown(keyCode, event);
 	}
 
 	public Handler getHandler() {
 	    return handler;
 	  }
+	
+	/**
+	 * @return The codes of the current continuous scan, for listeners and stats.
+	 */
+	public ScanSession getScanSession() {
+		return scanSession;
+	}
 
 	@Override
 	public void onConfigurationChanged(Configuration newConfig) {
@@ -166,26 +254,14 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 		super.onConfigurationChanged(newConfig);
 	}
 	
-	private void initCamera(SurfaceHolder surfaceHolder) {
-	    try {
-	      CameraManager.get().openDriver(surfaceHolder);
-	    } catch (IOException ioe) {
-	      Log.w(TAG, ioe);
-	      return;
-	    } catch (RuntimeException e) {
-	      Log.w(TAG, "Unexpected error initializating camera", e);
-	      return;
-	    }
-	    if (handler == null) {
-	      handler = new CaptureActivityHandler(this);
-	    }
-	}
-	
 	public void drawViewfinder() {
 	    viewfinderView.drawViewfinder();
 	  }
 	
 	public void handleDecode(Result rawResult){
+		if (startup.mark(ScannerStartup.FIRST_DECODE)) {
+			Log.i(TAG, "Startup:\n" + startup.dump());
+		}
 		/**
 		 * Result :Encapsulates the result of decoding a barcode within an image.
 		 * 
@@ -206,8 +282,19 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 		 * CODE_128
 		 */
 		
+		// In continuous mode, pass the result on and keep scanning.
+		if(continuousScan){
+			if(rawResult.getText().indexOf('*') == -1)
+				reportScan(rawResult);
+			if (handler != null) {
+	            handler.sendEmptyMessage(R.id.restart_preview);
+	        }
+			return;
+		}
+		
 		// Display the result
         if(rawResult.getText().indexOf('*') == -1){
+        	CameraManager.get().getFormatScheduler().learn(rawResult);
         	playVibrate();
 			AlertDialog.Builder builder = new AlertDialog.Builder(this);
 			builder.setTitle(getString(R.string.app_name));
@@ -226,6 +313,65 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 		
 	}
 	
+	/**
+	 * Shows every barcode found in one frame, in reading order.
+	 */
+	public void handleDecode(List<TiledDecoder.Decoded> decoded){
+		if (startup.mark(ScannerStartup.FIRST_DECODE)) {
+			Log.i(TAG, "Startup:\n" + startup.dump());
+		}
+		if(continuousScan){
+			for (TiledDecoder.Decoded code : decoded)
+				reportScan(code.getResult());
+			if (handler != null) {
+	            handler.sendEmptyMessage(R.id.restart_preview);
+	        }
+			return;
+		}
+		
+		playVibrate();
+		StringBuilder message = new StringBuilder();
+		results = new String[decoded.size()];
+		for (int i = 0; i < results.length; i++) {
+			Result rawResult = decoded.get(i).getResult();
+			CameraManager.get().getFormatScheduler().learn(rawResult);
+			if (i > 0)
+				message.append('\n');
+			message.append(rawResult.getBarcodeFormat().getName()).append("---").append(rawResult.getText());
+			results[i] = rawResult.getText();
+		}
+		result = results[0];
+		AlertDialog.Builder builder = new AlertDialog.Builder(this);
+		builder.setTitle(getString(R.string.app_name));
+		builder.setMessage(message.toString());
+		builder.setNegativeButton("ok", okListener);
+		builder.show();
+	}
+	
+	/**
+	 * Adds a code to the continuous scan unless it is a repeat of one still in view.
+	 */
+	private void reportScan(Result rawResult){
+		long now = SystemClock.uptimeMillis();
+		if (scanSession.onDecoded(rawResult, now)) {
+			playVibrate();
+			scannedCodes.add(rawResult.getText());
+			fmtText.setText(getString(R.string.msg_continuous_status, scanSession.getScanCount(),
+					scanSession.getScansPerMinute(now),
+					rawResult.getBarcodeFormat().getName() + "---" + rawResult.getText()));
+		}
+	}
+	
+	private void returnResult(){
+		//go back to main class
+		Intent resultIntent = new Intent();
+		resultIntent.putExtra("code", result);
+		if (results != null)
+			resultIntent.putExtra("codes", results);
+		setResult(Activity.RESULT_OK, resultIntent);
+		finish();
+	}
+	
 	private final DialogInterface.OnClickListener okListener =
 	      new DialogInterface.OnClickListener() {
 	    public void onClick(DialogInterface dialogInterface, int i) {
@@ -234,11 +380,7 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 //	        }
 
 
-	    	//go back to main class
-	    	Intent resultIntent = new Intent();
-	    	resultIntent.putExtra("code", result);
-	    	setResult(Activity.RESULT_OK, resultIntent);
-	    	finish();
+	    	returnResult();
 	    }
 	  };
 	  
@@ -256,6 +398,8 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 		super.onCreateOptionsMenu(menu);
 		menu.add(0, SETTINGS_ID, 0, "Preferences").setIcon(android.R.drawable.ic_menu_preferences);
 		menu.add(0, ABOUT_ID, 0, "About").setIcon(android.R.drawable.ic_menu_info_details);
+		menu.add(0, LATENCY_ID, 0, "Latency").setIcon(android.R.drawable.ic_menu_info_details);
+		menu.add(0, TRACE_ID, 0, "Save trace").setIcon(android.R.drawable.ic_menu_save);
 		return true;
 	}
 
@@ -281,11 +425,60 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 		        builder.show();
 			}
 			break;
+			case LATENCY_ID:
+			{
+				String dump = CameraManager.get().getPipelineLatency().dump() + "\n\n" + startup.dump() +
+						"\n\n" + CameraManager.get().getFormatScheduler().dump() +
+						"\n\n" + CameraManager.get().getSymbologyClassifier().dump();
+				Log.i(TAG, "Pipeline latency:\n" + dump);
+				AlertDialog.Builder builder = new AlertDialog.Builder(this);
+		        builder.setTitle("Latency");
+		        builder.setMessage(dump);
+		        builder.setNegativeButton("ok", null);
+		        builder.show();
+			}
+			break;
+			case TRACE_ID:
+			{
+				AlertDialog.Builder builder = new AlertDialog.Builder(this);
+		        builder.setTitle("Trace");
+		        builder.setMessage(saveTrace());
+		        builder.setNegativeButton("ok", null);
+		        builder.show();
+			}
+			break;
 		}
 		
 		return super.onOptionsItemSelected(item);
 	}
 	
+	/**
+	 * Writes the events the tracer holds to files/trace.json. The file is private; see README.txt
+	 * for copying it off a debug build.
+	 *
+	 * @return What happened, to show.
+	 */
+	private String saveTrace() {
+		EventTracer tracer = CameraManager.get().getEventTracer();
+		if (!tracer.isEnabled() && tracer.getEventCount() == 0) {
+			return "Turn on " + getString(R.string.settings_trace_title) + " in the preferences first.";
+		}
+		File file = new File(getFilesDir(), TRACE_FILE);
+		try {
+			Writer writer = new OutputStreamWriter(openFileOutput(TRACE_FILE, MODE_PRIVATE), "UTF-8");
+			try {
+				int events = tracer.writeJson(writer);
+				Log.i(TAG, "Wrote " + events + " trace events to " + file);
+				return events + " events written to " + file;
+			} finally {
+				writer.close();
+			}
+		} catch (IOException ioe) {
+			Log.w(TAG, ioe);
+			return "Can't write " + file + ": " + ioe;
+		}
+	}
+	
 	private void playVibrate() {
 	    Vibrator vibrator = (Vibrator) getSystemService(VIBRATOR_SERVICE);
 	    vibrator.vibrate(VIBRATE_DURATION);
@@ -18,10 +18,14 @@
  
 package tw.com.quickmark.sdk.demo;
 
+import java.util.List;
+
 import tw.com.quickmark.sdk.Result;
 import tw.com.quickmark.sdk.demo.R;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 
 public class CaptureActivityHandler extends Handler {
 
@@ -29,6 +33,8 @@ public class CaptureActivityHandler extends Handler {
 	
 	private final CaptureActivity activity;
 	private final DecodeThread decodeThread;
+	private final DecodeWorkerPool workerPool;
+	private final TiledDecoder tiledDecoder;
 	private State state;
 
 	  private enum State {
@@ -37,10 +43,37 @@ public class CaptureActivityHandler extends Handler {
 	    DONE
 	  }
 	  
-	CaptureActivityHandler(CaptureActivity activity){
+	CaptureActivityHandler(final CaptureActivity activity){
 		this.activity = activity;
-		decodeThread = new DecodeThread(activity);
-		decodeThread.start();
+		
+		// Looking for several codes per frame spreads the tiles of one frame over the cores instead.
+		boolean multiCode = PreferenceManager.getDefaultSharedPreferences(activity)
+				.getBoolean(PreferencesActivity.PREFERENCE_MULTI_CODE, false);
+		if (multiCode) {
+			tiledDecoder = new TiledDecoder(Runtime.getRuntime().availableProcessors(),
+					new TiledDecoder.DecoderFactory() {
+				public BarcodeDecoder newDecoder() {
+					return new QuickMarkBarcodeDecoder(ScannerStartup.loadQmcore(activity));
+				}
+			});
+		} else {
+			tiledDecoder = null;
+		}
+		
+		// Decode straight from the camera's frame ring where the device supports it, so the camera
+		// keeps capturing during a decode and failed frames never come back through here. Every
+		// worker holds one buffer, one more waits in the ring and one is being filled.
+		PreviewFrameRing frameRing = CameraManager.get().getPreviewFrameRing();
+		if (frameRing != null && !multiCode) {
+			decodeThread = null;
+			workerPool = new DecodeWorkerPool(activity, frameRing, DecodeWorkerPool.getDefaultWorkerCount());
+			CameraManager.get().setPreviewBufferCount(workerPool.getWorkerCount() + 2);
+			workerPool.start();
+		} else {
+			decodeThread = new DecodeThread(activity, tiledDecoder);
+			workerPool = null;
+			decodeThread.start();
+		}
 		state = State.SUCCESS;
 		
 		// Start ourselves capturing previews and decoding.
@@ -50,15 +83,47 @@ public class CaptureActivityHandler extends Handler {
 
 	@Override
 	public void handleMessage(Message msg) {
+		EventTracer tracer = CameraManager.get().getEventTracer();
+		tracer.begin(EventTracer.HANDLE_MESSAGE, msg.what);
+		try {
+			handle(msg);
+		} finally {
+			tracer.end(EventTracer.HANDLE_MESSAGE);
+		}
+	}
+	
+	private void handle(Message msg) {
 		if (msg.what == R.id.auto_focus)
 			if (state == State.PREVIEW) {
+				// Only focus when what the decoders see calls for it; otherwise look again shortly.
+				if (CameraManager.get().getFocusScheduler().shouldFocus(SystemClock.uptimeMillis())) {
 		          CameraManager.get().requestAutoFocus(this, R.id.auto_focus);
+				} else {
+				  // A restart may have started a second check loop; keep just one.
+				  removeMessages(R.id.auto_focus);
+				  sendEmptyMessageDelayed(R.id.auto_focus, CameraManager.AUTOFOCUS_CHECK_INTERVAL_MS);
+				}
 		    }
 		if (msg.what == R.id.restart_preview)
 			restartPreviewAndDecode();
-		if (msg.what == R.id.decode_succeeded){
+		if (msg.what == R.id.decode_succeeded && state == State.PREVIEW){
 			state = State.SUCCESS;
+			if (workerPool != null) {
+				CameraManager.get().stopContinuousCapture();
+			}
+			PipelineLatency latency = CameraManager.get().getPipelineLatency();
+			long start = latency.recordDispatch(DecodeThread.getPostedAt(msg));
 			activity.handleDecode((Result) msg.obj);
+			latency.recordSince(PipelineLatency.HANDLE, start);
+		}
+		if (msg.what == R.id.decode_multiple_succeeded && state == State.PREVIEW){
+			state = State.SUCCESS;
+			@SuppressWarnings("unchecked")
+			List<TiledDecoder.Decoded> results = (List<TiledDecoder.Decoded>) msg.obj;
+			PipelineLatency latency = CameraManager.get().getPipelineLatency();
+			long start = latency.recordDispatch(DecodeThread.getPostedAt(msg));
+			activity.handleDecode(results);
+			latency.recordSince(PipelineLatency.HANDLE, start);
 		}
 		if (msg.what == R.id.decode_failed){
 			state = State.PREVIEW;
@@ -69,23 +134,38 @@ public class CaptureActivityHandler extends Handler {
 	public void quitSynchronously() {
 		state = State.DONE;
 	    CameraManager.get().stopPreview();
-	    Message quit = Message.obtain(decodeThread.getHandler(), R.id.quit);
-	    quit.sendToTarget();
-	    try {
-	      decodeThread.join();
-	    } catch (InterruptedException e) {
+	    if (workerPool != null) {
+	      workerPool.quitSynchronously();
+	    } else {
+	      decodeThread.quit();
+	      try {
+	        decodeThread.join();
+	      } catch (InterruptedException e) {
+	      }
+	    }
+	    if (tiledDecoder != null) {
+	      tiledDecoder.shutdown();
 	    }
 
 	    // Be absolutely sure we don't send any queued up messages
 	    removeMessages(R.id.decode_succeeded);
+	    removeMessages(R.id.decode_multiple_succeeded);
 	    removeMessages(R.id.decode_failed);
+	    removeMessages(R.id.auto_focus);
 	}
 	
 	private void restartPreviewAndDecode() {
 	    if (state == State.SUCCESS) {
 	      state = State.PREVIEW;
-	      CameraManager.get().requestPreviewFrame(decodeThread.getHandler(), R.id.decode);
-	      CameraManager.get().requestAutoFocus(this, R.id.auto_focus);
+	      if (workerPool != null) {
+	        CameraManager.get().startContinuousCapture();
+	      } else {
+	        CameraManager.get().requestPreviewFrame(decodeThread.getHandler(), R.id.decode);
+	      }
+	      // Let the scheduler decide whether the lens needs to move; right after a scan in
+	      // continuous mode it usually doesn't.
+	      removeMessages(R.id.auto_focus);
+	      sendEmptyMessage(R.id.auto_focus);
 	      activity.drawViewfinder();
 	    }
 	}
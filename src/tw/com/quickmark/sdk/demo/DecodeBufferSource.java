@@ -60,16 +60,28 @@ public class DecodeBufferSource {
 	   *         of the result.
 	   */
 	public byte[] getMatrix() {
+	    return getMatrix(null);
+	}
+	
+	/**
+	   * Like {@link #getMatrix()}, but crops into the supplied array when it is large enough, so a
+	   * caller which keeps the returned array around never allocates after the first frame.
+	   *
+	   * @param reuse An array from a previous call, or null.
+	   * @return Either the underlying data, reuse, or a newly allocated array. Only the latter two
+	   *         are safe to pass back in as reuse, see {@link #isCropped()}.
+	   */
+	public byte[] getMatrix(byte[] reuse) {
 
 	    // If the caller asks for the entire underlying image, save the copy and give them the
 	    // original data. The docs specifically warn that result.length must be ignored.
-	    if (width == dataWidth && height == dataHeight) {
+	    if (!isCropped()) {
 	      return yuvData;
 	    }
 
 	    int area = width * height;
-	    byte[] matrix = new byte[area];
-	    int inputOffset = top * dataWidth + left;
+	    byte[] matrix = reuse != null && reuse.length >= area ? reuse : new byte[area];
+	    int inputOffset = getDataOffset();
 
 	    // If the width matches the full width of the underlying data, perform a single copy.
 	    if (width == dataWidth) {
@@ -87,6 +99,90 @@ public class DecodeBufferSource {
 	    return matrix;
 	  }
 	
+	  /**
+	   * Like {@link #getMatrix(byte[])}, but downsampled by two in each direction, every output
+	   * pixel being the mean of a 2x2 block. The result is (width / 2) x (height / 2).
+	   *
+	   * @param reuse An array from a previous call, or null.
+	   * @return Either reuse or a newly allocated array.
+	   */
+	  public byte[] getDownsampledMatrix(byte[] reuse) {
+	    int halfWidth = width >> 1;
+	    int halfHeight = height >> 1;
+	    int area = halfWidth * halfHeight;
+	    byte[] matrix = reuse != null && reuse.length >= area ? reuse : new byte[area];
+	    byte[] yuv = yuvData;
+	    int outputOffset = 0;
+	    for (int y = 0; y < halfHeight; y++) {
+	      int inputOffset = getDataOffset() + 2 * y * dataWidth;
+	      int nextRowOffset = inputOffset + dataWidth;
+	      for (int x = 0; x < halfWidth; x++) {
+	        int sum = (yuv[inputOffset] & 0xff) + (yuv[inputOffset + 1] & 0xff) +
+	            (yuv[nextRowOffset] & 0xff) + (yuv[nextRowOffset + 1] & 0xff);
+	        matrix[outputOffset++] = (byte) ((sum + 2) >> 2);
+	        inputOffset += 2;
+	        nextRowOffset += 2;
+	      }
+	    }
+	    return matrix;
+	  }
+	
+	  /**
+	   * @return A crop of this crop, the coordinates being relative to its top left pixel.
+	   */
+	  public DecodeBufferSource crop(int left, int top, int width, int height) {
+	    if (left < 0 || top < 0 || left + width > this.width || top + height > this.height) {
+	      throw new IllegalArgumentException("Crop rectangle does not fit within the crop.");
+	    }
+	    return new DecodeBufferSource(yuvData, dataWidth, dataHeight, this.left + left, this.top + top,
+	        width, height);
+	  }
+	
+	  /**
+	   * @return The left edge of the crop within the underlying image.
+	   */
+	  public final int getLeft() {
+	    return left;
+	  }
+	
+	  /**
+	   * @return The top edge of the crop within the underlying image.
+	   */
+	  public final int getTop() {
+	    return top;
+	  }
+	
+	  /**
+	   * @return Whether {@link #getMatrix()} has to copy, i.e. the crop is smaller than the data.
+	   */
+	  public final boolean isCropped() {
+	    return width != dataWidth || height != dataHeight;
+	  }
+	
+	  /**
+	   * Gives strided access to the crop without copying. Values should be fetched using:
+	   * int luminance = data[getDataOffset() + y * getRowStride() + x] & 0xff;
+	   *
+	   * @return The underlying YUV data. Do not modify the contents of the result.
+	   */
+	  public final byte[] getData() {
+	    return yuvData;
+	  }
+	
+	  /**
+	   * @return The index of the top left pixel of the crop within {@link #getData()}.
+	   */
+	  public final int getDataOffset() {
+	    return top * dataWidth + left;
+	  }
+	
+	  /**
+	   * @return The distance between the starts of two consecutive rows in {@link #getData()}.
+	   */
+	  public final int getRowStride() {
+	    return dataWidth;
+	  }
+	
 	  /**
 	   * @return The width of the bitmap.
 	   */
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+/**
+ * What the decoders look for. A config never changes once built; a new one is swapped in whole,
+ * with {@link CameraManager#setDecodeConfig}, and every decoder, on the capture screen or in
+ * {@link ScanService}, picks it up from its next frame. There is no other copy of the formats.
+ */
+public final class DecodeConfig {
+
+	/** Every format the decoder knows. */
+	public static final DecodeConfig ALL = new DecodeConfig(DecodeFormats.ALL);
+	
+	private final int formats;
+	
+	/**
+	 * @param formats The qmcore format flags to look for.
+	 */
+	public DecodeConfig(int formats) {
+	    if ((formats & ~DecodeFormats.ALL) != 0) {
+	      throw new IllegalArgumentException("Unknown format flags: 0x" + Integer.toHexString(formats));
+	    }
+	    this.formats = formats;
+	}
+	
+	/**
+	 * @return The qmcore format flags to look for.
+	 */
+	public int getFormats() {
+	    return formats;
+	}
+	
+	/**
+	 * @return A config like this one, looking for formats instead.
+	 */
+	public DecodeConfig withFormats(int formats) {
+	    return formats == this.formats ? this : new DecodeConfig(formats);
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+	    return o instanceof DecodeConfig && ((DecodeConfig) o).formats == formats;
+	}
+	
+	@Override
+	public int hashCode() {
+	    return formats;
+	}
+	
+	@Override
+	public String toString() {
+	    return "DecodeConfig[formats=0x" + Integer.toHexString(formats) + ']';
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import tw.com.quickmark.sdk.BarcodeFormat;
+import tw.com.quickmark.sdk.qmcore;
+
+/**
+ * Maps between the qmcore format flags passed to the decoder and the {@link BarcodeFormat}s it
+ * reports.
+ */
+public final class DecodeFormats {
+
+	/** The individual qmcore flags, in a fixed order used to index per-format arrays. */
+	static final int[] FLAGS = {
+	    qmcore.TWOD_QRCODE,
+	    qmcore.TWOD_DATAMATRIX,
+	    qmcore.ONED_EAN,
+	    qmcore.ONED_CODE39,
+	    qmcore.ONED_CODE128,
+	};
+	
+	/** Short names for {@link #FLAGS}, in the same order. */
+	static final String[] NAMES = { "QR", "DataMatrix", "EAN", "Code39", "Code128" };
+	
+	public static final int ALL = qmcore.TWOD_QRCODE | qmcore.TWOD_DATAMATRIX | qmcore.ONED_EAN |
+	    qmcore.ONED_CODE39 | qmcore.ONED_CODE128;
+	
+	/** The matrix (2D) formats. */
+	public static final int MATRIX = qmcore.TWOD_QRCODE | qmcore.TWOD_DATAMATRIX;
+	
+	/** The linear (1D) formats. */
+	public static final int LINEAR = qmcore.ONED_EAN | qmcore.ONED_CODE39 | qmcore.ONED_CODE128;
+	
+	private DecodeFormats() {
+	}
+	
+	/**
+	 * @return The qmcore flag which finds this format, or 0 if there is none.
+	 */
+	public static int flagFor(BarcodeFormat format) {
+	    if (format == BarcodeFormat.QR_CODE) {
+	      return qmcore.TWOD_QRCODE;
+	    }
+	    if (format == BarcodeFormat.DATA_MATRIX) {
+	      return qmcore.TWOD_DATAMATRIX;
+	    }
+	    if (format == BarcodeFormat.EAN_8 || format == BarcodeFormat.EAN_13 ||
+	        format == BarcodeFormat.UPC_A || format == BarcodeFormat.UPC_E) {
+	      return qmcore.ONED_EAN;
+	    }
+	    if (format == BarcodeFormat.CODE_39) {
+	      return qmcore.ONED_CODE39;
+	    }
+	    if (format == BarcodeFormat.CODE_128) {
+	      return qmcore.ONED_CODE128;
+	    }
+	    return 0;
+	}
+	
+	/**
+	 * @return The position of flag in {@link #FLAGS}, or -1.
+	 */
+	static int indexOf(int flag) {
+	    for (int i = 0; i < FLAGS.length; i++) {
+	      if (FLAGS[i] == flag) {
+	        return i;
+	      }
+	    }
+	    return -1;
+	}
+}
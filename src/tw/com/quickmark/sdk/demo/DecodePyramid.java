@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import tw.com.quickmark.sdk.Result;
+
+/**
+ * Coarse-to-fine decoding. Large, close codes decode just as well from a crop downsampled by two
+ * in each direction, at about a quarter of the cost, so that level is tried first and the full
+ * resolution crop only if it fails.
+ *
+ * Which level each format decodes at is remembered: when the formats being looked for have
+ * hardly ever decoded at half resolution, the half level is skipped, except on an occasional
+ * exploration frame so a change in scanning distance is noticed. One instance can be shared by
+ * several decode threads, each passing in its own {@link Buffers}.
+ */
+public final class DecodePyramid {
+
+	/** No level found a code. */
+	public static final int LEVEL_NONE = -1;
+	public static final int LEVEL_FULL = 0;
+	public static final int LEVEL_HALF = 1;
+	private static final int LEVELS = 2;
+	
+	// Below this the half level has too few pixels per module to be worth a try.
+	private static final int MIN_HALF_DIMENSION = 100;
+	// The half level costs about a quarter of the full one, so it pays off once it wins more
+	// than a quarter of the time.
+	private static final float MIN_HALF_WIN_SHARE = 0.25f;
+	private static final int EXPLORATION_INTERVAL = 16;
+	
+	/**
+	 * Reusable crop buffers; keep one per decoding thread.
+	 */
+	public static final class Buffers {
+	    private byte[] full;
+	    private byte[] half;
+	    private int pixels;
+	    private int level = LEVEL_NONE;
+	    
+	    /**
+	     * @return How many pixels the last decode went through, over every level it tried.
+	     */
+	    public int getPixels() {
+	      return pixels;
+	    }
+	    
+	    /**
+	     * @return The level the last decode found its code at, or {@link #LEVEL_NONE}.
+	     */
+	    public int getLevel() {
+	      return level;
+	    }
+	}
+	
+	private volatile boolean enabled = true;
+	private volatile PipelineLatency latency;
+	
+	// Learned: wins per level for every format in DecodeFormats.FLAGS
+	private final AtomicLongArray formatWins = new AtomicLongArray(DecodeFormats.FLAGS.length * LEVELS);
+	
+	// Stats
+	private final AtomicLong frames = new AtomicLong();
+	private final AtomicLongArray levelWins = new AtomicLongArray(LEVELS);
+	private final AtomicLong halfAttempts = new AtomicLong();
+	private final AtomicLong savedTime = new AtomicLong();
+	private volatile long fullLevelCost;
+	
+	/**
+	 * Decodes the crop, cheapest level first when that is likely to pay off.
+	 *
+	 * @return The result, or null if neither level decoded.
+	 */
+	public Result decode(DecodeBufferSource source, BarcodeDecoder decoder, int decodeFormat,
+	    Buffers buffers) {
+	    long frame = frames.incrementAndGet();
+	    long start = System.nanoTime();
+	    
+	    boolean tryHalf = enabled && source.getWidth() / 2 >= MIN_HALF_DIMENSION &&
+	        source.getHeight() / 2 >= MIN_HALF_DIMENSION &&
+	        (frame % EXPLORATION_INTERVAL == 0 || getHalfWinShare(decodeFormat) >= MIN_HALF_WIN_SHARE);
+	    buffers.pixels = 0;
+	    buffers.level = LEVEL_NONE;
+	    if (tryHalf) {
+	      halfAttempts.incrementAndGet();
+	      byte[] half = source.getDownsampledMatrix(buffers.half);
+	      buffers.half = half;
+	      recordCrop(start);
+	      int halfWidth = source.getWidth() / 2;
+	      int halfHeight = source.getHeight() / 2;
+	      buffers.pixels = halfWidth * halfHeight;
+	      Result result = decoder.decode(half, halfWidth, halfHeight, decodeFormat);
+	      if (result != null) {
+	        buffers.level = LEVEL_HALF;
+	        recordWin(LEVEL_HALF, result);
+	        long cost = System.nanoTime() - start;
+	        if (fullLevelCost > 0) {
+	          savedTime.addAndGet(fullLevelCost - cost);
+	        }
+	        return result;
+	      }
+	    }
+	    
+	    long fullStart = System.nanoTime();
+	    byte[] matrix = source.getMatrix(buffers.full);
+	    recordCrop(fullStart);
+	    if (source.isCropped()) {
+	      // Keep the crop buffer for the next frame; never hold on to the camera's own buffer.
+	      buffers.full = matrix;
+	    }
+	    buffers.pixels += source.getWidth() * source.getHeight();
+	    Result result = decoder.decode(matrix, source.getWidth(), source.getHeight(), decodeFormat);
+	    long end = System.nanoTime();
+	    long cost = end - fullStart;
+	    // A rough running mean is all the savings estimate needs.
+	    fullLevelCost = fullLevelCost == 0 ? cost : fullLevelCost + (cost - fullLevelCost) / 8;
+	    if (tryHalf) {
+	      // The failed half level attempt was pure overhead.
+	      savedTime.addAndGet(cost - (end - start));
+	    }
+	    if (result != null) {
+	      buffers.level = LEVEL_FULL;
+	      recordWin(LEVEL_FULL, result);
+	    }
+	    return result;
+	}
+	
+	/**
+	 * @return The share of past decodes of the given formats which succeeded at half resolution,
+	 *         starting from even odds.
+	 */
+	float getHalfWinShare(int decodeFormat) {
+	    long half = 1;
+	    long total = 2;
+	    for (int i = 0; i < DecodeFormats.FLAGS.length; i++) {
+	      if ((decodeFormat & DecodeFormats.FLAGS[i]) != 0) {
+	        long halfWins = formatWins.get(i * LEVELS + LEVEL_HALF);
+	        half += halfWins;
+	        total += halfWins + formatWins.get(i * LEVELS + LEVEL_FULL);
+	      }
+	    }
+	    return (float) half / total;
+	}
+	
+	private void recordCrop(long start) {
+	    PipelineLatency latency = this.latency;
+	    if (latency != null) {
+	      latency.recordSince(PipelineLatency.CROP, start);
+	    }
+	}
+	
+	private void recordWin(int level, Result result) {
+	    levelWins.incrementAndGet(level);
+	    int index = DecodeFormats.indexOf(DecodeFormats.flagFor(result.getBarcodeFormat()));
+	    if (index >= 0) {
+	      formatWins.incrementAndGet(index * LEVELS + level);
+	    }
+	}
+	
+	/**
+	 * @param latency Where to record how long copying the crop takes, or null to not record it.
+	 */
+	public void setLatency(PipelineLatency latency) {
+	    this.latency = latency;
+	}
+	
+	/**
+	 * @param enabled False to always decode at full resolution only.
+	 */
+	public void setEnabled(boolean enabled) {
+	    this.enabled = enabled;
+	}
+	
+	/**
+	 * @return How many frames decoded at the given level.
+	 */
+	public long getLevelWinCount(int level) {
+	    return levelWins.get(level);
+	}
+	
+	public long getHalfLevelAttemptCount() {
+	    return halfAttempts.get();
+	}
+	
+	/**
+	 * @return The mean decode time saved per frame compared to decoding at full resolution only,
+	 *         in microseconds. Negative if the half level costs more than it saves.
+	 */
+	public float getAverageSavedMicros() {
+	    long count = frames.get();
+	    return count == 0 ? 0.0f : savedTime.get() / (count * 1000.0f);
+	}
+}
@@ -18,49 +18,74 @@
  
 package tw.com.quickmark.sdk.demo;
 
+import java.util.List;
+
 import tw.com.quickmark.sdk.Result;
-import tw.com.quickmark.sdk.qmcore;
 import tw.com.quickmark.sdk.demo.R;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
-import android.preference.PreferenceManager;
 
 public class DecodeThread extends Thread{
 	private final CaptureActivity activity;
+	private final DecodeWorkerPool workerPool;
 	private Handler handler;
-	private qmcore QuickMarkDecoder;
-	private int decodeFormat;
+	private BarcodeDecoder decoder;
+	private final FrameDecoder frameDecoder;
+	private final TiledDecoder tiledDecoder;
+	private final FrameDecoder.Buffers buffers = new FrameDecoder.Buffers();
 	
 	DecodeThread(CaptureActivity activity){
+		this(activity, null);
+	}
+	
+	/**
+	 * @param tiledDecoder If not null, look for every barcode in the frame with it and report
+	 *                     them all with {@link R.id#decode_multiple_succeeded}.
+	 */
+	DecodeThread(CaptureActivity activity, TiledDecoder tiledDecoder){
+		this(activity, null, new QuickMarkBarcodeDecoder(activity.QuickMarkDecoder), tiledDecoder);
+	}
+	
+	/**
+	 * @param workerPool If not null, decode continuously from the pool's frame ring instead of
+	 *                   waiting for {@link R.id#decode} messages.
+	 * @param decoder The decoder this thread uses exclusively, or null to load a new one when the
+	 *                thread starts.
+	 * @param tiledDecoder Finds several barcodes per frame, or null to stop at the first.
+	 */
+	DecodeThread(CaptureActivity activity, DecodeWorkerPool workerPool, BarcodeDecoder decoder,
+			TiledDecoder tiledDecoder){
 		this.activity = activity;
+		this.workerPool = workerPool;
 		
-		this.QuickMarkDecoder= activity.QuickMarkDecoder;
-		
-		
-		if(PreferenceManager.getDefaultSharedPreferences(activity).getBoolean(PreferencesActivity.PREFERENCE_QRCODE, true))
-			decodeFormat |= qmcore.TWOD_QRCODE;
-		if(PreferenceManager.getDefaultSharedPreferences(activity).getBoolean(PreferencesActivity.PREFERENCE_DATAMATRIX, true))	
-			decodeFormat |= qmcore.TWOD_DATAMATRIX;
-		if(PreferenceManager.getDefaultSharedPreferences(activity).getBoolean(PreferencesActivity.PREFERENCE_1D_EAN, true))		
-			decodeFormat |= qmcore.ONED_EAN;
-		if(PreferenceManager.getDefaultSharedPreferences(activity).getBoolean(PreferencesActivity.PREFERENCE_1D_CODE39, true))
-			decodeFormat |= qmcore.ONED_CODE39;
-		if(PreferenceManager.getDefaultSharedPreferences(activity).getBoolean(PreferencesActivity.PREFERENCE_1D_CODE128, true))
-			decodeFormat |= qmcore.ONED_CODE128;
-		
+		this.decoder = decoder;
+		this.frameDecoder = CameraManager.get().getFrameDecoder();
+		this.tiledDecoder = tiledDecoder;
 	}
 
 	@Override
 	public void run() {
 		super.run();
 		
+		if (workerPool != null) {
+			runContinuous();
+			return;
+		}
+		
 		Looper.prepare();
 		handler = new Handler() {
 			@Override
 		    public void handleMessage(Message message) {
-				if (message.what == R.id.decode)
-					decode((byte[]) message.obj, message.arg1, message.arg2);
+				if (message.what == R.id.decode) {
+					EventTracer tracer = CameraManager.get().getEventTracer();
+					tracer.begin(EventTracer.DECODE);
+					try {
+						decode((PreviewFrame) message.obj);
+					} finally {
+						tracer.end(EventTracer.DECODE);
+					}
+				}
 				if (message.what == R.id.quit)
 					Looper.myLooper().quit();
 			}
@@ -68,41 +93,124 @@ public class DecodeThread extends Thread{
 		Looper.loop();
 	}
 	
+	/**
+	 * Pulls the newest frame from the ring whenever the previous decode is done, until interrupted.
+	 * Failures stay on this thread; only a successful result goes to the main looper, and only if
+	 * no other worker got there first with a newer frame.
+	 */
+	private void runContinuous() {
+		if (decoder == null) {
+			decoder = new QuickMarkBarcodeDecoder(ScannerStartup.loadQmcore(activity));
+		}
+		PreviewFrameRing frameRing = workerPool.getFrameRing();
+		EventTracer tracer = CameraManager.get().getEventTracer();
+		try {
+			while (!isInterrupted()) {
+				PreviewFrame frame = frameRing.take();
+				// The frame is reused once recycled, so remember which one this was.
+				long sequence = frame.getSequence();
+				Result rawResult = null;
+				tracer.begin(EventTracer.DECODE);
+				try {
+					if (!workerPool.isCancelled(sequence)) {
+						rawResult = frameDecoder.decode(frame, decoder, buffers);
+					}
+				} finally {
+					tracer.end(EventTracer.DECODE);
+					frameRing.recycle(frame);
+				}
+				if (rawResult != null && workerPool.claimResult(sequence)) {
+					postResult(activity.getHandler(), R.id.decode_succeeded, rawResult);
+				}
+			}
+		} catch (InterruptedException e) {
+			// Asked to quit.
+		}
+	}
+	
+	/**
+	 * @return The handler decode requests go to, or null when decoding continuously.
+	 */
 	Handler getHandler() {
 	    return handler;
 	}
 	
+	/**
+	 * Stops the thread in either mode.
+	 */
+	void quit() {
+		if (workerPool != null) {
+			interrupt();
+		} else {
+			Message.obtain(handler, R.id.quit).sendToTarget();
+		}
+	}
+	
 	/**
 	   * Decode the data within the viewfinder rectangle, and time how long it took. For efficiency,
-	   * reuse the same reader objects from one decode to the next.
+	   * reuse the same reader objects from one decode to the next. The frame goes back to the
+	   * camera's buffer pool as soon as the decoder is done with it.
 	   *
-	   * @param data   The YUV preview frame.
-	   * @param width  The width of the preview frame.
-	   * @param height The height of the preview frame.
+	   * @param frame The YUV preview frame, as sent by {@link CameraManager#requestPreviewFrame}.
 	   */
-	private void decode(byte[] data, int width, int height) {
-		
-		DecodeBufferSource source = CameraManager.get().buildDecodeBuffer(data, width, height);
+	private void decode(PreviewFrame frame) {
+		if (tiledDecoder != null) {
+			decodeTiles(frame);
+			return;
+		}
 		
-		/**
-	     *  QuickMarkSDK Decoder
-	     *  Param : 
-	     *  	byte[] imageBuffer    	: The data of the bitmap.
-	     *  	int    imageWidth   	: The width of the bitmap.
-	     *  	int    imageHeight  	: The height of the bitmap.
-	     *  	int    imageBitDepth   	: The number of bits used to represent the color of a single pixel.
-	     *  	int    decodeFormat 	: Scan formats requested in parameters.(all formats if none specified)
-	     *  Output:
-	     *  	String					: result.
-	     */
-		Result rawResult = QuickMarkDecoder.decode(source.getMatrix(), source.getWidth(), source.getHeight(), 8, decodeFormat);
+		Result rawResult;
+		try {
+			rawResult = frameDecoder.decode(frame, decoder, buffers);
+		} finally {
+			CameraManager.get().releasePreviewBuffer(frame.getData());
+		}
 		
 		if (rawResult != null) {
-			Message message = Message.obtain(activity.getHandler(), R.id.decode_succeeded, rawResult);
-			message.sendToTarget();
+			postResult(activity.getHandler(), R.id.decode_succeeded, rawResult);
 		}else{
 			Message message = Message.obtain(activity.getHandler(), R.id.decode_failed);
 		    message.sendToTarget();
 		}
 	}
+	
+	/**
+	 * Like {@link #decode}, but reports every barcode in the viewfinder rectangle.
+	 */
+	private void decodeTiles(PreviewFrame frame) {
+		
+		List<TiledDecoder.Decoded> results;
+		try {
+			results = frameDecoder.decodeAll(frame, tiledDecoder, buffers);
+		} catch (InterruptedException e) {
+			// Quitting; whatever was found is of no use any more.
+			results = null;
+		} finally {
+			CameraManager.get().releasePreviewBuffer(frame.getData());
+		}
+		
+		if (results != null && !results.isEmpty()) {
+			postResult(activity.getHandler(), R.id.decode_multiple_succeeded, results);
+		}else{
+			Message message = Message.obtain(activity.getHandler(), R.id.decode_failed);
+		    message.sendToTarget();
+		}
+	}
+	
+	/**
+	 * Posts a result with the time it was posted split over arg1 and arg2, so each message
+	 * carries its own start for {@link PipelineLatency#DISPATCH}.
+	 */
+	private static void postResult(Handler target, int what, Object result) {
+		long now = System.nanoTime();
+		Message message = Message.obtain(target, what, (int) (now >>> 32), (int) now, result);
+		message.sendToTarget();
+	}
+	
+	/**
+	 * @return When the result in a message from {@link #postResult} was posted.
+	 */
+	static long getPostedAt(Message message) {
+		return ((long) message.arg1 << 32) | (message.arg2 & 0xFFFFFFFFL);
+	}
 }
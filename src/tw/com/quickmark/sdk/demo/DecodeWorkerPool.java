@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of {@link DecodeThread} workers which decode frames from one {@link PreviewFrameRing}
+ * concurrently, each with its own decoder and buffers. The first successful result wins: once a
+ * frame has decoded, results from older frames still in flight are discarded and older frames
+ * which have not been started yet are skipped.
+ */
+public final class DecodeWorkerPool {
+
+	private static final String TAG = DecodeWorkerPool.class.getSimpleName();
+	
+	private final PreviewFrameRing frameRing;
+	private final DecodeThread[] workers;
+	private final AtomicLong winningSequence = new AtomicLong(-1L);
+	private final AtomicLong cancelledFrames = new AtomicLong();
+	
+	/**
+	 * @param activity The activity results are posted to.
+	 * @param frameRing The ring the workers take frames from.
+	 * @param workerCount The number of decode threads.
+	 */
+	DecodeWorkerPool(CaptureActivity activity, PreviewFrameRing frameRing, int workerCount) {
+	    if (workerCount < 1) {
+	      throw new IllegalArgumentException("Need at least one decode worker: " + workerCount);
+	    }
+	    this.frameRing = frameRing;
+	    this.workers = new DecodeThread[workerCount];
+	    for (int i = 0; i < workerCount; i++) {
+	      // The first worker reuses the decoder the activity already loaded.
+	      BarcodeDecoder decoder = i == 0 ? new QuickMarkBarcodeDecoder(activity.QuickMarkDecoder) : null;
+	      workers[i] = new DecodeThread(activity, this, decoder, null);
+	    }
+	}
+	
+	/**
+	 * @return One worker per core, leaving a core for the camera and UI, but at least one.
+	 */
+	static int getDefaultWorkerCount() {
+	    return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	}
+	
+	void start() {
+	    for (DecodeThread worker : workers) {
+	      worker.start();
+	    }
+	}
+	
+	/**
+	 * Stops every worker and waits for the decodes in progress to finish.
+	 */
+	void quitSynchronously() {
+	    for (DecodeThread worker : workers) {
+	      worker.quit();
+	    }
+	    for (DecodeThread worker : workers) {
+	      try {
+	        worker.join();
+	      } catch (InterruptedException e) {
+	      }
+	    }
+	}
+	
+	PreviewFrameRing getFrameRing() {
+	    return frameRing;
+	}
+	
+	int getWorkerCount() {
+	    return workers.length;
+	}
+	
+	/**
+	 * @param sequence The {@link PreviewFrame#getSequence()} of the frame about to be decoded.
+	 * @return True if a newer or the same frame already produced a result, so decoding this one
+	 *         is wasted work.
+	 */
+	boolean isCancelled(long sequence) {
+	    if (sequence <= winningSequence.get()) {
+	      cancelledFrames.incrementAndGet();
+	      return true;
+	    }
+	    return false;
+	}
+	
+	/**
+	 * Called by a worker whose frame decoded. Only the first result for the newest frame is
+	 * reported; anything from an older frame lost the race.
+	 *
+	 * @param sequence The {@link PreviewFrame#getSequence()} of the frame which decoded.
+	 * @return True if the worker should report its result.
+	 */
+	boolean claimResult(long sequence) {
+	    while (true) {
+	      long winner = winningSequence.get();
+	      if (sequence <= winner) {
+	        cancelledFrames.incrementAndGet();
+	        return false;
+	      }
+	      if (winningSequence.compareAndSet(winner, sequence)) {
+	        return true;
+	      }
+	    }
+	}
+	
+	/**
+	 * @return How many frames were skipped or had their result discarded because a newer frame
+	 *         decoded first.
+	 */
+	public long getCancelledFrameCount() {
+	    return cancelledFrames.get();
+	}
+	
+	@Override
+	public String toString() {
+	    return TAG + '[' + workers.length + " workers]";
+	}
+}
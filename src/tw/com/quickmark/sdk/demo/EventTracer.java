@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records begin and end events of the scan pipeline's callbacks, per thread, into a preallocated
+ * ring, and writes them out as Chrome trace-event JSON to open in chrome://tracing or Perfetto.
+ * Unlike {@link PipelineLatency} it keeps the order of events, so bursts, stalls and overlaps
+ * between threads show. Recording allocates nothing; once the ring is full the oldest events are
+ * overwritten.
+ */
+public final class EventTracer {
+
+	public static final int PREVIEW_FRAME = 0;
+	public static final int AUTO_FOCUS = 1;
+	public static final int DECODE = 2;
+	public static final int HANDLE_MESSAGE = 3;
+	
+	private static final String[] EVENT_NAMES = {
+	    "onPreviewFrame", "onAutoFocus", "DecodeThread.decode", "CaptureActivityHandler.handleMessage"
+	};
+	private static final int DEFAULT_CAPACITY = 4096;
+	
+	private static final int PHASE_BEGIN = 0;
+	private static final int PHASE_END = 1;
+	
+	// The fields of a slot are atomic so a reader can't see them torn, and ordered so that a reader
+	// which finds the same sequence in published before and after reading them knows they belong
+	// to that event.
+	private final int mask;
+	private final AtomicLongArray times;
+	private final AtomicLongArray threadIds;
+	// Event in the low 8 bits, phase in the next 8, argument above
+	private final AtomicLongArray events;
+	// Sequence number + 1 of the event each slot holds, cleared first and written last
+	private final AtomicLongArray published;
+	private final AtomicLong next = new AtomicLong();
+	private volatile boolean enabled;
+	
+	public EventTracer() {
+	    this(DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * @param capacity How many events to keep, rounded up to a power of two.
+	 */
+	public EventTracer(int capacity) {
+	    int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+	    mask = size - 1;
+	    times = new AtomicLongArray(size);
+	    threadIds = new AtomicLongArray(size);
+	    events = new AtomicLongArray(size);
+	    published = new AtomicLongArray(size);
+	}
+	
+	/**
+	 * @param event One of the event constants.
+	 */
+	public void begin(int event) {
+	    if (enabled) {
+	      record(event, PHASE_BEGIN, 0);
+	    }
+	}
+	
+	/**
+	 * @param event One of the event constants.
+	 * @param arg   Shown with the event, e.g. which message a handler got.
+	 */
+	public void begin(int event, int arg) {
+	    if (enabled) {
+	      record(event, PHASE_BEGIN, arg);
+	    }
+	}
+	
+	public void end(int event) {
+	    if (enabled) {
+	      record(event, PHASE_END, 0);
+	    }
+	}
+	
+	private void record(int event, int phase, int arg) {
+	    long sequence = next.getAndIncrement();
+	    int slot = (int) (sequence & mask);
+	    published.set(slot, 0L);
+	    times.lazySet(slot, System.nanoTime());
+	    threadIds.lazySet(slot, Thread.currentThread().getId());
+	    events.lazySet(slot, event | (phase << 8) | ((long) arg << 16));
+	    published.lazySet(slot, sequence + 1);
+	}
+	
+	/**
+	 * Writes the events in the ring as a Chrome trace-event JSON object. Events still being written
+	 * while this runs are left out, and so are ends whose begin was already overwritten.
+	 *
+	 * @return The number of events written.
+	 */
+	public int writeJson(Writer out) throws IOException {
+	    long last = next.get();
+	    long first = Math.max(0L, last - times.length());
+	    StringBuilder line = new StringBuilder(128);
+	    out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+	    int written = 0;
+	    written += writeThreadNames(out);
+	    // Per thread, how deep in begin events we are; ends without a begin are dropped.
+	    Map<Long, int[]> depths = new HashMap<Long, int[]>();
+	    for (long sequence = first; sequence < last; sequence++) {
+	      int slot = (int) (sequence & mask);
+	      if (published.get(slot) != sequence + 1) {
+	        continue;
+	      }
+	      long time = times.get(slot);
+	      long threadId = threadIds.get(slot);
+	      long packed = events.get(slot);
+	      if (published.get(slot) != sequence + 1) {
+	        // Overwritten while being read.
+	        continue;
+	      }
+	      int event = (int) (packed & 0xff);
+	      int phase = (int) ((packed >> 8) & 0xff);
+	      long arg = packed >> 16;
+	      int[] depth = depths.get(threadId);
+	      if (depth == null) {
+	        depth = new int[1];
+	        depths.put(threadId, depth);
+	      }
+	      if (phase == PHASE_END) {
+	        if (depth[0] == 0) {
+	          continue;
+	        }
+	        depth[0]--;
+	      } else {
+	        depth[0]++;
+	      }
+	      
+	      line.setLength(0);
+	      if (written > 0) {
+	        line.append(',');
+	      }
+	      line.append("\n{\"name\":\"").append(EVENT_NAMES[event]).append("\",\"ph\":\"")
+	          .append(phase == PHASE_BEGIN ? 'B' : 'E').append("\",\"pid\":0,\"tid\":").append(threadId)
+	          .append(",\"ts\":").append(time / 1000L).append('.');
+	      long fraction = time % 1000L;
+	      line.append(fraction < 10 ? "00" : fraction < 100 ? "0" : "").append(fraction);
+	      if (phase == PHASE_BEGIN && arg != 0) {
+	        line.append(",\"args\":{\"arg\":").append(arg).append('}');
+	      }
+	      line.append('}');
+	      out.write(line.toString());
+	      written++;
+	    }
+	    out.write("\n]}\n");
+	    out.flush();
+	    return written;
+	}
+	
+	/**
+	 * Names the threads still alive, so the viewer doesn't show bare ids.
+	 */
+	private static int writeThreadNames(Writer out) throws IOException {
+	    int written = 0;
+	    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+	      if (written > 0) {
+	        out.write(',');
+	      }
+	      out.write("\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":0,\"tid\":" + thread.getId() +
+	          ",\"args\":{\"name\":" + Json.quote(thread.getName()) + "}}");
+	      written++;
+	    }
+	    return written;
+	}
+	
+	/**
+	 * Forgets every recorded event.
+	 */
+	public void clear() {
+	    next.set(0L);
+	    for (int i = 0; i < published.length(); i++) {
+	      published.set(i, 0L);
+	    }
+	}
+	
+	/**
+	 * @param enabled True to record events. Off, each call costs one volatile read.
+	 */
+	public void setEnabled(boolean enabled) {
+	    this.enabled = enabled;
+	}
+	
+	public boolean isEnabled() {
+	    return enabled;
+	}
+	
+	/**
+	 * @return How many events were recorded since the last {@link #clear()}, kept or not.
+	 */
+	public long getEventCount() {
+	    return next.get();
+	}
+	
+	public int getCapacity() {
+	    return times.length();
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+/**
+ * Decides when to run autofocus from what the decoder sees, rather than on a fixed timer. Focus
+ * is triggered when the image gets noticeably blurrier than it was right after the last focus,
+ * when several frames in a row which look like they hold a barcode fail to decode, or, as a last
+ * resort, when nothing has decoded for a long while. As long as frames stay sharp and decode it
+ * leaves the lens alone.
+ *
+ * Time is always passed in, in milliseconds on any monotonic clock, so recorded timelines of
+ * sharpness scores and decode outcomes can be replayed without a camera.
+ */
+public final class FocusScheduler {
+
+	/** The frame held nothing barcode-like; says nothing about focus. */
+	public static final int FRAME_EMPTY = 0;
+	/** The frame looked like it held a barcode but didn't decode. */
+	public static final int FRAME_FAILED = 1;
+	/** The frame decoded. */
+	public static final int FRAME_DECODED = 2;
+	
+	private static final long DEFAULT_MIN_FOCUS_INTERVAL_MS = 750L;
+	private static final long DEFAULT_MAX_FOCUS_INTERVAL_MS = 5000L;
+	private static final int DEFAULT_FAILURE_LIMIT = 5;
+	private static final float DEFAULT_SHARPNESS_DROP_RATIO = 0.5f;
+	// Weight of the newest score in the smoothed sharpness.
+	private static final float SMOOTHING = 0.25f;
+	
+	private long minFocusInterval = DEFAULT_MIN_FOCUS_INTERVAL_MS;
+	private long maxFocusInterval = DEFAULT_MAX_FOCUS_INTERVAL_MS;
+	private int failureLimit = DEFAULT_FAILURE_LIMIT;
+	private float sharpnessDropRatio = DEFAULT_SHARPNESS_DROP_RATIO;
+	
+	private boolean focusing;
+	private long lastFocusTime = Long.MIN_VALUE;
+	private long lastDecodeTime = Long.MIN_VALUE;
+	private float smoothedSharpness = -1.0f;
+	private float peakSharpness;
+	private int consecutiveFailures;
+	
+	// Stats
+	private int focusCount;
+	private int blurTriggers;
+	private int failureTriggers;
+	private int timeoutTriggers;
+	
+	/**
+	 * Records what the decoder made of one frame.
+	 *
+	 * @param now The time the frame was looked at.
+	 * @param sharpness The frame's {@link SharpnessEstimator} score, or a negative value if it
+	 *                  wasn't measured.
+	 * @param outcome {@link #FRAME_EMPTY}, {@link #FRAME_FAILED} or {@link #FRAME_DECODED}.
+	 */
+	public synchronized void onFrame(long now, int sharpness, int outcome) {
+	    if (sharpness >= 0 && !focusing) {
+	      smoothedSharpness = smoothedSharpness < 0.0f ? sharpness :
+	          smoothedSharpness + SMOOTHING * (sharpness - smoothedSharpness);
+	      if (smoothedSharpness > peakSharpness) {
+	        peakSharpness = smoothedSharpness;
+	      }
+	    }
+	    if (outcome == FRAME_DECODED) {
+	      consecutiveFailures = 0;
+	      lastDecodeTime = now;
+	    } else if (outcome == FRAME_FAILED) {
+	      consecutiveFailures++;
+	    }
+	}
+	
+	/**
+	 * @return True if autofocus should run now. The caller is expected to start it and call
+	 *         {@link #onFocusStarted} when it does.
+	 */
+	public synchronized boolean shouldFocus(long now) {
+	    if (focusing) {
+	      return false;
+	    }
+	    if (lastFocusTime == Long.MIN_VALUE) {
+	      return true;
+	    }
+	    long sinceFocus = now - lastFocusTime;
+	    if (sinceFocus < minFocusInterval) {
+	      return false;
+	    }
+	    if (smoothedSharpness >= 0.0f && smoothedSharpness < peakSharpness * sharpnessDropRatio) {
+	      blurTriggers++;
+	      return true;
+	    }
+	    if (consecutiveFailures >= failureLimit) {
+	      failureTriggers++;
+	      return true;
+	    }
+	    // A badly defocused code can look empty to the pre-screen, so don't wait forever. Before
+	    // anything has decoded, count from the last focus.
+	    long sinceDecode = lastDecodeTime == Long.MIN_VALUE ? sinceFocus : now - lastDecodeTime;
+	    if (sinceFocus >= maxFocusInterval && sinceDecode >= maxFocusInterval) {
+	      timeoutTriggers++;
+	      return true;
+	    }
+	    return false;
+	}
+	
+	public synchronized void onFocusStarted(long now) {
+	    focusing = true;
+	    lastFocusTime = now;
+	    focusCount++;
+	}
+	
+	/**
+	 * Starts a new reference: sharpness after this focus is compared to the best seen from here on.
+	 */
+	public synchronized void onFocusCompleted(long now, boolean success) {
+	    focusing = false;
+	    lastFocusTime = now;
+	    smoothedSharpness = -1.0f;
+	    peakSharpness = 0.0f;
+	    consecutiveFailures = 0;
+	}
+	
+	/**
+	 * Forgets everything, e.g. when the preview restarts.
+	 */
+	public synchronized void reset() {
+	    focusing = false;
+	    lastFocusTime = Long.MIN_VALUE;
+	    lastDecodeTime = Long.MIN_VALUE;
+	    smoothedSharpness = -1.0f;
+	    peakSharpness = 0.0f;
+	    consecutiveFailures = 0;
+	}
+	
+	/**
+	 * @param minFocusInterval The shortest time between two focus runs, in milliseconds.
+	 */
+	public synchronized void setMinFocusInterval(long minFocusInterval) {
+	    this.minFocusInterval = minFocusInterval;
+	}
+	
+	/**
+	 * @param maxFocusInterval How long to go without a decode before focusing regardless, in
+	 *                         milliseconds.
+	 */
+	public synchronized void setMaxFocusInterval(long maxFocusInterval) {
+	    this.maxFocusInterval = maxFocusInterval;
+	}
+	
+	/**
+	 * @param failureLimit How many failed non-empty frames in a row trigger focus.
+	 */
+	public synchronized void setFailureLimit(int failureLimit) {
+	    this.failureLimit = failureLimit;
+	}
+	
+	/**
+	 * @param sharpnessDropRatio Focus once the smoothed sharpness falls below this share of the
+	 *                           best since the last focus.
+	 */
+	public synchronized void setSharpnessDropRatio(float sharpnessDropRatio) {
+	    this.sharpnessDropRatio = sharpnessDropRatio;
+	}
+	
+	public synchronized int getFocusCount() {
+	    return focusCount;
+	}
+	
+	public synchronized int getBlurTriggerCount() {
+	    return blurTriggers;
+	}
+	
+	public synchronized int getFailureTriggerCount() {
+	    return failureTriggers;
+	}
+	
+	public synchronized int getTimeoutTriggerCount() {
+	    return timeoutTriggers;
+	}
+}
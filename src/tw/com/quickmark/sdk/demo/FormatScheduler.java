@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import tw.com.quickmark.sdk.Result;
+
+/**
+ * Learns which formats turn up and looks only for those on most frames. Any one site tends to
+ * see one or two formats, and the decoder spends less time per frame the fewer it tries. The
+ * formats of the last {@link #WINDOW} codes scanned are remembered; once enough are known, frames
+ * are decoded with just the formats found at least {@link #MIN_FORMAT_HITS} times among them.
+ * A fraction of frames is still decoded with every allowed format, so a format new to the site
+ * is found and, once seen often enough, joins the narrowed mask.
+ *
+ * Only distinct codes are learned from, as a {@link ScanSession} passes them on, so one code held
+ * in view for a hundred frames counts once. Frame counts, decode times and hits are kept for each
+ * mode, to see what narrowing buys. One instance can be shared by several decode threads.
+ */
+public final class FormatScheduler implements ScanSession.Listener {
+
+	/** Decoded with the learned formats. */
+	public static final int MODE_NARROW = 0;
+	/** Decoded with every allowed format. */
+	public static final int MODE_FULL = 1;
+	/** Decoded with the allowed formats of the kind {@link SymbologyClassifier} saw. */
+	public static final int MODE_CLASSIFIED = 2;
+	private static final int MODES = 3;
+	private static final String[] MODE_NAMES = { "narrow", "full", "classified" };
+	
+	// How many recent codes the formats are learned from.
+	static final int WINDOW = 64;
+	// Below this many codes in the window, every frame looks for every format.
+	static final int MIN_WINDOW_HITS = 16;
+	// A format seen fewer times than this in the window is left to the full frames.
+	static final int MIN_FORMAT_HITS = 2;
+	private static final float DEFAULT_FULL_FRACTION = 0.125f;
+	
+	// Learned: format index per recent distinct code, oldest overwritten first
+	private final int[] window = new int[WINDOW];
+	private final int[] formatHits = new int[DecodeFormats.FLAGS.length];
+	private int windowHits;
+	private int windowPosition;
+	private volatile int dominantFormats;
+	
+	private volatile float fullFraction = DEFAULT_FULL_FRACTION;
+	private final AtomicLong selections = new AtomicLong();
+	
+	// Stats per mode
+	private final AtomicLongArray frames = new AtomicLongArray(MODES);
+	private final AtomicLongArray hits = new AtomicLongArray(MODES);
+	private final AtomicLongArray decodeTime = new AtomicLongArray(MODES);
+	
+	/**
+	 * Picks the formats to look for in the next frame.
+	 *
+	 * @param allowed The qmcore format flags the frame may be decoded with; 0 means every one,
+	 *                as it does to the decoder.
+	 * @return allowed, or the part of it which has been turning up.
+	 */
+	public int select(int allowed) {
+	    long n = selections.incrementAndGet();
+	    float fraction = fullFraction;
+	    // Spreads the full frames evenly, whatever the fraction.
+	    if ((long) (n * fraction) != (long) ((n - 1) * fraction)) {
+	      return allowed;
+	    }
+	    int narrowed = dominantFormats & (allowed != 0 ? allowed : DecodeFormats.ALL);
+	    return narrowed != 0 ? narrowed : allowed;
+	}
+	
+	/**
+	 * Counts one decoded frame in the stats; what it found is learned from only once
+	 * {@link #learn} is told it is new.
+	 *
+	 * @param mode {@link #MODE_NARROW} if this scheduler narrowed the formats, else
+	 *             {@link #MODE_CLASSIFIED} if the classifier did, else {@link #MODE_FULL}.
+	 * @param result What the frame decoded to, or null.
+	 * @param nanos How long decoding took.
+	 */
+	public void record(int mode, Result result, long nanos) {
+	    frames.incrementAndGet(mode);
+	    decodeTime.addAndGet(mode, nanos);
+	    if (result != null) {
+	      hits.incrementAndGet(mode);
+	    }
+	}
+	
+	/**
+	 * Learns the format of a code scanned, which must not be a repeat of one still in view.
+	 */
+	public void learn(Result result) {
+	    int index = DecodeFormats.indexOf(DecodeFormats.flagFor(result.getBarcodeFormat()));
+	    if (index >= 0) {
+	      addToWindow(index);
+	    }
+	}
+	
+	/**
+	 * Learns from a code new to the session.
+	 */
+	public void onScan(Result result, long timestamp) {
+	    learn(result);
+	}
+	
+	private synchronized void addToWindow(int index) {
+	    if (windowHits == WINDOW) {
+	      formatHits[window[windowPosition]]--;
+	    } else {
+	      windowHits++;
+	    }
+	    window[windowPosition] = index;
+	    windowPosition = (windowPosition + 1) % WINDOW;
+	    formatHits[index]++;
+	    
+	    int dominant = 0;
+	    if (windowHits >= MIN_WINDOW_HITS) {
+	      for (int i = 0; i < formatHits.length; i++) {
+	        if (formatHits[i] >= MIN_FORMAT_HITS) {
+	          dominant |= DecodeFormats.FLAGS[i];
+	        }
+	      }
+	    }
+	    dominantFormats = dominant;
+	}
+	
+	/**
+	 * @param fullFraction The share of frames decoded with every allowed format, from 0 to 1.
+	 *                     1 never narrows.
+	 */
+	public void setFullFraction(float fullFraction) {
+	    if (fullFraction < 0.0f || fullFraction > 1.0f) {
+	      throw new IllegalArgumentException("Bad fraction: " + fullFraction);
+	    }
+	    this.fullFraction = fullFraction;
+	}
+	
+	public float getFullFraction() {
+	    return fullFraction;
+	}
+	
+	/**
+	 * @return The qmcore format flags narrowed frames look for, or 0 while still learning.
+	 */
+	public int getDominantFormats() {
+	    return dominantFormats;
+	}
+	
+	/**
+	 * Forgets the learned formats, as when moving to another site; the stats are kept.
+	 */
+	public synchronized void forget() {
+	    for (int i = 0; i < formatHits.length; i++) {
+	      formatHits[i] = 0;
+	    }
+	    windowHits = 0;
+	    windowPosition = 0;
+	    dominantFormats = 0;
+	}
+	
+	public long getFrameCount(int mode) {
+	    return frames.get(mode);
+	}
+	
+	public long getHitCount(int mode) {
+	    return hits.get(mode);
+	}
+	
+	/**
+	 * @return The mean decode time of one frame in the mode, in milliseconds.
+	 */
+	public float getAverageFrameMillis(int mode) {
+	    long count = frames.get(mode);
+	    return count == 0 ? 0.0f : decodeTime.get(mode) / (count * 1.0e6f);
+	}
+	
+	/**
+	 * @return How many frames per second one decode thread gets through in the mode.
+	 */
+	public float getFramesPerSecond(int mode) {
+	    long time = decodeTime.get(mode);
+	    return time == 0 ? 0.0f : frames.get(mode) * 1.0e9f / time;
+	}
+	
+	/**
+	 * @return The decode time spent in the mode per code found, in milliseconds, or 0 if none
+	 *         was found.
+	 */
+	public float getMillisPerDecode(int mode) {
+	    long count = hits.get(mode);
+	    return count == 0 ? 0.0f : decodeTime.get(mode) / (count * 1.0e6f);
+	}
+	
+	/**
+	 * @return The learned formats and the stats of every mode, as text.
+	 */
+	public synchronized String dump() {
+	    StringBuilder out = new StringBuilder(256);
+	    out.append("formats");
+	    if (windowHits == 0) {
+	      out.append(" none yet");
+	    } else {
+	      for (int i = 0; i < formatHits.length; i++) {
+	        if (formatHits[i] > 0) {
+	          out.append(' ').append(DecodeFormats.NAMES[i]).append(' ').append(formatHits[i]);
+	        }
+	      }
+	      out.append(" of ").append(windowHits);
+	    }
+	    out.append(", narrowed to 0x")
+	        .append(Integer.toHexString(dominantFormats));
+	    for (int mode = 0; mode < MODES; mode++) {
+	      out.append('\n').append(MODE_NAMES[mode]).append(' ').append(frames.get(mode))
+	          .append(" frames, ").append(hits.get(mode)).append(" hits, ")
+	          .append(String.format("%.2f", getAverageFrameMillis(mode))).append(" ms/frame, ")
+	          .append(String.format("%.1f", getFramesPerSecond(mode))).append(" fps, ")
+	          .append(String.format("%.1f", getMillisPerDecode(mode))).append(" ms/decode");
+	    }
+	    return out.toString();
+	}
+}
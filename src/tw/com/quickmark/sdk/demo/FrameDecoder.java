@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.util.List;
+
+import tw.com.quickmark.sdk.Result;
+
+/**
+ * What happens to one preview frame between a decode thread taking it and a code coming out,
+ * without anything Android, so the capture screen, the scan service, the replay tool and the
+ * latency harness all decode the same way. The crop is the framing rect, narrowed by a
+ * {@link RoiTracker} if one is set; frames the pre-screen or the sharpness check rule out are
+ * skipped; the formats are narrowed by the {@link FormatScheduler} and the
+ * {@link SymbologyClassifier}; and the rest goes to the {@link DecodePyramid}, or to a
+ * {@link TiledDecoder} to find every code in the frame.
+ *
+ * One instance is shared by all decode threads of a pipeline, each bringing its own decoder and
+ * {@link Buffers}. What else a frame feeds, such as autofocus, the frame recorder or the preview
+ * size choice, is up to the {@link Listener}.
+ */
+public final class FrameDecoder {
+
+	/**
+	 * Hears about every frame, on the thread which decoded it.
+	 */
+	public interface Listener {
+	    /**
+	     * @param data The frame's data, valid for the duration of the call.
+	     * @param sharpness The frame's {@link SharpnessEstimator} score, or -1 if the pre-screen
+	     *                  rejected it before it was measured.
+	     * @param outcome One of the {@link FrameRecording} OUTCOME_ constants.
+	     * @param result The code found, or null.
+	     */
+	    void onFrameDecoded(byte[] data, int sharpness, int outcome, Result result);
+	    
+	    /**
+	     * @param pixels How many pixels the decoder went through, over every pyramid level tried.
+	     * @param nanos How long the decode took.
+	     * @param decoded Whether it found a code.
+	     * @param downsampled Whether the code was found at the half resolution level.
+	     */
+	    void onDecodeTimed(int pixels, long nanos, boolean decoded, boolean downsampled);
+	}
+	
+	/**
+	 * Scratch space for one decode thread.
+	 */
+	public static final class Buffers {
+	    final DecodePyramid.Buffers pyramid = new DecodePyramid.Buffers();
+	    final RoiTracker.Profiles profiles = new RoiTracker.Profiles();
+	    final int[] framingRect = new int[4];
+	    final int[] crop = new int[4];
+	}
+	
+	private final FramePrescreen prescreen = new FramePrescreen();
+	private final SharpnessEstimator sharpness = new SharpnessEstimator();
+	private final DecodePyramid pyramid = new DecodePyramid();
+	private final FormatScheduler formatScheduler = new FormatScheduler();
+	private final SymbologyClassifier classifier = new SymbologyClassifier();
+	
+	private volatile DecodeConfig decodeConfig = DecodeConfig.ALL;
+	// left, top, right, bottom; null for the whole frame
+	private volatile int[] framingRect;
+	private volatile RoiTracker roiTracker;
+	private volatile PipelineLatency latency;
+	private volatile Listener listener;
+	
+	public FrameDecoder() {
+	    setLatency(new PipelineLatency());
+	}
+	
+	/**
+	 * Decodes the crop of one frame, unless it holds nothing barcode-like or is too blurred.
+	 *
+	 * @param decoder The calling thread's decoder.
+	 * @param buffers The calling thread's scratch space.
+	 * @return The result, or null.
+	 */
+	public Result decode(PreviewFrame frame, BarcodeDecoder decoder, Buffers buffers) {
+	    PipelineLatency latency = this.latency;
+	    long start = latency.recordSince(PipelineLatency.QUEUE_WAIT, frame.getTimestamp());
+	    byte[] data = frame.getData();
+	    int width = frame.getWidth();
+	    int height = frame.getHeight();
+	    // Look where the last barcode was, if anywhere.
+	    int[] framing = buffers.framingRect;
+	    int[] crop = buffers.crop;
+	    getFramingRect(width, height, framing);
+	    RoiTracker roiTracker = this.roiTracker;
+	    boolean narrowed = false;
+	    if (roiTracker != null) {
+	      narrowed = roiTracker.selectCrop(data, width, framing, crop, frame.getSequence(),
+	          buffers.profiles);
+	    } else {
+	      System.arraycopy(framing, 0, crop, 0, 4);
+	    }
+	    DecodeBufferSource source = new DecodeBufferSource(data, width, height, crop[0], crop[1],
+	        crop[2] - crop[0], crop[3] - crop[1]);
+	    
+	    // Most frames hold no barcode at all; don't pay for the native decoder on those.
+	    int verdict = prescreen.screen(source);
+	    if (verdict == FramePrescreen.REJECT) {
+	      latency.recordSince(PipelineLatency.SCREEN, start);
+	      if (roiTracker != null) {
+	        roiTracker.onMissed(narrowed);
+	      }
+	      report(data, -1, FrameRecording.OUTCOME_SKIPPED, null);
+	      return null;
+	    }
+	    // Nor on frames caught between focus cycles, which tell the listener to focus again.
+	    int score = sharpness.measure(source);
+	    if (!sharpness.isSharp(score)) {
+	      latency.recordSince(PipelineLatency.SCREEN, start);
+	      report(data, score, FrameRecording.OUTCOME_SKIPPED, null);
+	      return null;
+	    }
+	    
+	    // The formats can change while scanning; take them afresh for every frame.
+	    int allowedFormat = decodeConfig.getFormats();
+	    int scheduledFormat = formatScheduler.select(allowedFormat);
+	    // Then look only for the kind of code, linear or matrix, the frame seems to hold.
+	    int symbology = SymbologyClassifier.UNKNOWN;
+	    if (SymbologyClassifier.canNarrow(scheduledFormat)) {
+	      symbology = classifier.classify(source);
+	    }
+	    int decodeFormat = classifier.narrow(scheduledFormat, symbology);
+	    start = latency.recordSince(PipelineLatency.SCREEN, start);
+	    
+	    Result result = pyramid.decode(source, decoder, decodeFormat, buffers.pyramid);
+	    long end = latency.recordSince(result != null ? PipelineLatency.DECODE_HIT :
+	        PipelineLatency.DECODE_MISS, start);
+	    int mode = scheduledFormat != allowedFormat ? FormatScheduler.MODE_NARROW :
+	        decodeFormat != scheduledFormat ? FormatScheduler.MODE_CLASSIFIED : FormatScheduler.MODE_FULL;
+	    formatScheduler.record(mode, result, end - start);
+	    classifier.reportOutcome(symbology, decodeFormat != scheduledFormat, result);
+	    Listener listener = this.listener;
+	    if (listener != null) {
+	      listener.onDecodeTimed(buffers.pyramid.getPixels(), end - start, result != null,
+	          buffers.pyramid.getLevel() == DecodePyramid.LEVEL_HALF);
+	    }
+	    if (result != null && verdict == FramePrescreen.AUDIT) {
+	      prescreen.reportFalseReject();
+	    }
+	    if (roiTracker != null) {
+	      if (result != null) {
+	        roiTracker.onDecoded(crop, narrowed, source, framing);
+	      } else {
+	        roiTracker.onMissed(narrowed);
+	      }
+	    }
+	    report(data, score, result != null ? FrameRecording.OUTCOME_DECODED :
+	        FrameRecording.OUTCOME_FAILED, result);
+	    return result;
+	}
+	
+	/**
+	 * Like {@link #decode}, but looks for every code within the framing rect.
+	 *
+	 * @return The codes found, or null if the frame was skipped.
+	 * @throws InterruptedException If the thread is interrupted while the tiles decode.
+	 */
+	public List<TiledDecoder.Decoded> decodeAll(PreviewFrame frame, TiledDecoder tiledDecoder,
+	    Buffers buffers) throws InterruptedException {
+	    PipelineLatency latency = this.latency;
+	    long start = latency.recordSince(PipelineLatency.QUEUE_WAIT, frame.getTimestamp());
+	    byte[] data = frame.getData();
+	    int[] framing = buffers.framingRect;
+	    getFramingRect(frame.getWidth(), frame.getHeight(), framing);
+	    DecodeBufferSource source = new DecodeBufferSource(data, frame.getWidth(), frame.getHeight(),
+	        framing[0], framing[1], framing[2] - framing[0], framing[3] - framing[1]);
+	    if (prescreen.screen(source) == FramePrescreen.REJECT) {
+	      latency.recordSince(PipelineLatency.SCREEN, start);
+	      report(data, -1, FrameRecording.OUTCOME_SKIPPED, null);
+	      return null;
+	    }
+	    int score = sharpness.measure(source);
+	    start = latency.recordSince(PipelineLatency.SCREEN, start);
+	    if (!sharpness.isSharp(score)) {
+	      report(data, score, FrameRecording.OUTCOME_SKIPPED, null);
+	      return null;
+	    }
+	    // The formats can change while scanning; take them afresh for every frame.
+	    List<TiledDecoder.Decoded> results = tiledDecoder.decode(source, decodeConfig.getFormats());
+	    boolean decoded = results != null && !results.isEmpty();
+	    latency.recordSince(decoded ? PipelineLatency.DECODE_HIT : PipelineLatency.DECODE_MISS, start);
+	    report(data, score, decoded ? FrameRecording.OUTCOME_DECODED : FrameRecording.OUTCOME_FAILED,
+	        decoded ? results.get(0).getResult() : null);
+	    return results;
+	}
+	
+	private void report(byte[] data, int score, int outcome, Result result) {
+	    Listener listener = this.listener;
+	    if (listener != null) {
+	      listener.onFrameDecoded(data, score, outcome, result);
+	    }
+	}
+	
+	/**
+	 * Sets rect to the framing rect, within a frame of the given size.
+	 */
+	private void getFramingRect(int width, int height, int[] rect) {
+	    int[] framing = framingRect;
+	    if (framing == null) {
+	      rect[0] = 0;
+	      rect[1] = 0;
+	      rect[2] = width;
+	      rect[3] = height;
+	    } else {
+	      rect[0] = Math.min(framing[0], width - 1);
+	      rect[1] = Math.min(framing[1], height - 1);
+	      rect[2] = Math.min(framing[2], width);
+	      rect[3] = Math.min(framing[3], height);
+	    }
+	}
+	
+	/**
+	 * Restricts decoding to a rectangle of the frame, from the next frame on.
+	 */
+	public void setFramingRect(int left, int top, int right, int bottom) {
+	    if (left < 0 || top < 0 || right <= left || bottom <= top) {
+	      throw new IllegalArgumentException("Bad framing rect: " + left + ',' + top + ' ' + right +
+	          ',' + bottom);
+	    }
+	    this.framingRect = new int[] { left, top, right, bottom };
+	}
+	
+	/**
+	 * Decodes whole frames from the next frame on.
+	 */
+	public void clearFramingRect() {
+	    this.framingRect = null;
+	}
+	
+	/**
+	 * Changes what to look for, from the next frame on.
+	 */
+	public void setDecodeConfig(DecodeConfig decodeConfig) {
+	    if (decodeConfig == null) {
+	      throw new IllegalArgumentException("No decode config");
+	    }
+	    this.decodeConfig = decodeConfig;
+	}
+	
+	/**
+	 * @return What the decoders look for; read afresh for every frame.
+	 */
+	public DecodeConfig getDecodeConfig() {
+	    return decodeConfig;
+	}
+	
+	/**
+	 * @param roiTracker Narrows the crop around the last code, or null to always decode the
+	 *                   whole framing rect.
+	 */
+	public void setRoiTracker(RoiTracker roiTracker) {
+	    this.roiTracker = roiTracker;
+	}
+	
+	public RoiTracker getRoiTracker() {
+	    return roiTracker;
+	}
+	
+	/**
+	 * @param latency Where the queue wait, screening, crop and decode times go.
+	 */
+	public void setLatency(PipelineLatency latency) {
+	    if (latency == null) {
+	      throw new IllegalArgumentException("No latency to record into");
+	    }
+	    this.latency = latency;
+	    pyramid.setLatency(latency);
+	}
+	
+	public PipelineLatency getLatency() {
+	    return latency;
+	}
+	
+	/**
+	 * @param listener Told about every frame, or null.
+	 */
+	public void setListener(Listener listener) {
+	    this.listener = listener;
+	}
+	
+	public FramePrescreen getPrescreen() {
+	    return prescreen;
+	}
+	
+	public SharpnessEstimator getSharpness() {
+	    return sharpness;
+	}
+	
+	public DecodePyramid getPyramid() {
+	    return pyramid;
+	}
+	
+	public FormatScheduler getFormatScheduler() {
+	    return formatScheduler;
+	}
+	
+	public SymbologyClassifier getClassifier() {
+	    return classifier;
+	}
+}
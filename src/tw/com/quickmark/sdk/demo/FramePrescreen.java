@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cheap look at the crop before the native decoder runs, to skip frames which can't contain a
+ * barcode: flat walls, floors, blank boxes. A few evenly spaced rows and columns are sampled
+ * straight from the camera frame, without copying the crop, and the frame passes if it has
+ * enough gradient energy and at least one line crosses enough dark/light transitions to look
+ * like bars or modules.
+ *
+ * One instance can be shared by several decode threads. To measure false rejects, every
+ * auditInterval-th rejected frame is decoded anyway and the caller reports whether it decoded.
+ */
+public final class FramePrescreen {
+
+	/** The frame looks like it may hold a barcode. */
+	public static final int ACCEPT = 0;
+	/** The frame looks empty; skip the decoder. */
+	public static final int REJECT = 1;
+	/** The frame looks empty, but decode it anyway and report the outcome. */
+	public static final int AUDIT = 2;
+	
+	private static final int DEFAULT_SCANLINES = 8;
+	private static final int DEFAULT_SAMPLE_STEP = 2;
+	private static final int DEFAULT_EDGE_THRESHOLD = 24;
+	private static final int DEFAULT_MIN_TRANSITIONS = 8;
+	private static final int DEFAULT_MIN_MEAN_GRADIENT = 2;
+	private static final int DEFAULT_AUDIT_INTERVAL = 32;
+	
+	// Thresholds, tunable while running
+	private volatile int scanlines = DEFAULT_SCANLINES;
+	private volatile int sampleStep = DEFAULT_SAMPLE_STEP;
+	private volatile int edgeThreshold = DEFAULT_EDGE_THRESHOLD;
+	private volatile int minTransitions = DEFAULT_MIN_TRANSITIONS;
+	private volatile int minMeanGradient = DEFAULT_MIN_MEAN_GRADIENT;
+	private volatile int auditInterval = DEFAULT_AUDIT_INTERVAL;
+	
+	// Stats
+	private final AtomicLong screenedFrames = new AtomicLong();
+	private final AtomicLong rejectedFrames = new AtomicLong();
+	private final AtomicLong auditedFrames = new AtomicLong();
+	private final AtomicLong falseRejects = new AtomicLong();
+	private final AtomicLong screenTime = new AtomicLong();
+	
+	/**
+	 * Judges the crop of one frame.
+	 *
+	 * @return {@link #ACCEPT}, {@link #REJECT} or {@link #AUDIT}.
+	 */
+	public int screen(DecodeBufferSource source) {
+	    long start = System.nanoTime();
+	    byte[] data = source.getData();
+	    int offset = source.getDataOffset();
+	    int stride = source.getRowStride();
+	    int width = source.getWidth();
+	    int height = source.getHeight();
+	    int lines = scanlines;
+	    int step = sampleStep;
+	    int threshold = edgeThreshold;
+	    
+	    long energy = 0;
+	    int samples = 0;
+	    int maxTransitions = 0;
+	    for (int i = 1; i <= lines; i++) {
+	      // One row...
+	      int rowStart = offset + height * i / (lines + 1) * stride;
+	      int transitions = countTransitions(data, rowStart, step, width / step, threshold);
+	      if (transitions > maxTransitions) {
+	        maxTransitions = transitions;
+	      }
+	      // ...and one column, for codes held sideways.
+	      int columnStart = offset + width * i / (lines + 1);
+	      transitions = countTransitions(data, columnStart, step * stride, height / step, threshold);
+	      if (transitions > maxTransitions) {
+	        maxTransitions = transitions;
+	      }
+	      energy += gradientEnergy(data, rowStart, step, width / step);
+	      energy += gradientEnergy(data, columnStart, step * stride, height / step);
+	      samples += width / step + height / step - 2;
+	    }
+	    
+	    boolean accepted = samples > 0 && energy >= (long) minMeanGradient * samples &&
+	        maxTransitions >= minTransitions;
+	    screenTime.addAndGet(System.nanoTime() - start);
+	    screenedFrames.incrementAndGet();
+	    if (accepted) {
+	      return ACCEPT;
+	    }
+	    long rejected = rejectedFrames.incrementAndGet();
+	    int interval = auditInterval;
+	    if (interval > 0 && rejected % interval == 0) {
+	      auditedFrames.incrementAndGet();
+	      return AUDIT;
+	    }
+	    return REJECT;
+	}
+	
+	/**
+	 * Reports that a frame returned as {@link #AUDIT} decoded after all.
+	 */
+	public void reportFalseReject() {
+	    falseRejects.incrementAndGet();
+	}
+	
+	/**
+	 * Counts alternating strong edges along count samples, i.e. roughly the number of bar edges
+	 * the line crosses.
+	 */
+	private static int countTransitions(byte[] data, int start, int increment, int count, int threshold) {
+	    int transitions = 0;
+	    int lastSign = 0;
+	    int previous = data[start] & 0xff;
+	    int index = start;
+	    for (int i = 1; i < count; i++) {
+	      index += increment;
+	      int value = data[index] & 0xff;
+	      int delta = value - previous;
+	      if (delta >= threshold && lastSign <= 0) {
+	        transitions++;
+	        lastSign = 1;
+	      } else if (delta <= -threshold && lastSign >= 0) {
+	        transitions++;
+	        lastSign = -1;
+	      }
+	      previous = value;
+	    }
+	    return transitions;
+	}
+	
+	private static long gradientEnergy(byte[] data, int start, int increment, int count) {
+	    long energy = 0;
+	    int previous = data[start] & 0xff;
+	    int index = start;
+	    for (int i = 1; i < count; i++) {
+	      index += increment;
+	      int value = data[index] & 0xff;
+	      energy += value > previous ? value - previous : previous - value;
+	      previous = value;
+	    }
+	    return energy;
+	}
+	
+	/**
+	 * @param scanlines How many rows, and as many columns, to sample.
+	 */
+	public void setScanlines(int scanlines) {
+	    if (scanlines < 1) {
+	      throw new IllegalArgumentException("Need at least one scanline: " + scanlines);
+	    }
+	    this.scanlines = scanlines;
+	}
+	
+	/**
+	 * @param sampleStep The distance in pixels between two samples along a line.
+	 */
+	public void setSampleStep(int sampleStep) {
+	    if (sampleStep < 1) {
+	      throw new IllegalArgumentException("Sample step must be positive: " + sampleStep);
+	    }
+	    this.sampleStep = sampleStep;
+	}
+	
+	/**
+	 * @param edgeThreshold The luminance difference between neighbouring samples which counts as
+	 *                      an edge.
+	 */
+	public void setEdgeThreshold(int edgeThreshold) {
+	    this.edgeThreshold = edgeThreshold;
+	}
+	
+	/**
+	 * @param minTransitions How many edges the busiest line needs for the frame to pass.
+	 */
+	public void setMinTransitions(int minTransitions) {
+	    this.minTransitions = minTransitions;
+	}
+	
+	/**
+	 * @param minMeanGradient The mean luminance difference between neighbouring samples a frame
+	 *                        needs to pass.
+	 */
+	public void setMinMeanGradient(int minMeanGradient) {
+	    this.minMeanGradient = minMeanGradient;
+	}
+	
+	/**
+	 * @param auditInterval Decode every this many rejected frames anyway, or 0 to never audit.
+	 */
+	public void setAuditInterval(int auditInterval) {
+	    this.auditInterval = auditInterval;
+	}
+	
+	public long getScreenedFrameCount() {
+	    return screenedFrames.get();
+	}
+	
+	public long getRejectedFrameCount() {
+	    return rejectedFrames.get();
+	}
+	
+	/**
+	 * @return The share of screened frames which were rejected.
+	 */
+	public float getRejectionRate() {
+	    long screened = screenedFrames.get();
+	    return screened == 0 ? 0.0f : (float) rejectedFrames.get() / screened;
+	}
+	
+	public long getAuditedFrameCount() {
+	    return auditedFrames.get();
+	}
+	
+	public long getFalseRejectCount() {
+	    return falseRejects.get();
+	}
+	
+	/**
+	 * @return The share of audited rejections which decoded after all, an estimate of how many
+	 *         readable frames are thrown away.
+	 */
+	public float getFalseRejectRate() {
+	    long audited = auditedFrames.get();
+	    return audited == 0 ? 0.0f : (float) falseRejects.get() / audited;
+	}
+	
+	/**
+	 * @return The mean time spent screening one frame, in microseconds.
+	 */
+	public float getAverageScreenMicros() {
+	    long screened = screenedFrames.get();
+	    return screened == 0 ? 0.0f : screenTime.get() / (screened * 1000.0f);
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends preview frames to a memory-mapped {@link FrameRecording}, straight from the preview
+ * callback. The file is sized up front, so recording allocates nothing and never waits on I/O
+ * beyond the copy; once it is full, further frames are counted and dropped. Decoders report the
+ * outcome of a frame by its buffer afterwards.
+ */
+public final class FrameRecorder {
+
+	public static final int DEFAULT_MAX_FRAMES = 1024;
+	public static final int DEFAULT_CAPACITY = 64 * 1024 * 1024;
+	// How many recent frames an outcome can still be reported for
+	private static final int PENDING_OUTCOMES = 8;
+	
+	private final RandomAccessFile file;
+	private final MappedByteBuffer map;
+	private final int maxFrames;
+	private final byte[][] pendingBuffers = new byte[PENDING_OUTCOMES][];
+	private final int[] pendingFrames = new int[PENDING_OUTCOMES];
+	private int frameCount;
+	private int dataEnd;
+	private int droppedFrames;
+	private boolean closed;
+	
+	public FrameRecorder(File file) throws IOException {
+	    this(file, DEFAULT_MAX_FRAMES, DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Creates or overwrites the file.
+	 *
+	 * @param maxFrames How many frames the index holds.
+	 * @param capacity  The size of the file while recording, index included; it is truncated to
+	 *                  what was used on {@link #close()}.
+	 */
+	public FrameRecorder(File file, int maxFrames, int capacity) throws IOException {
+	    int dataStart = FrameRecording.HEADER_SIZE + maxFrames * FrameRecording.ENTRY_SIZE;
+	    if (maxFrames < 1 || capacity <= dataStart) {
+	      throw new IllegalArgumentException("No room for frames: " + maxFrames + " frames in " +
+	          capacity + " bytes");
+	    }
+	    this.maxFrames = maxFrames;
+	    this.file = new RandomAccessFile(file, "rw");
+	    try {
+	      this.file.setLength(0);
+	      this.file.setLength(capacity);
+	      map = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+	    } catch (IOException ioe) {
+	      this.file.close();
+	      throw ioe;
+	    }
+	    map.putInt(0, FrameRecording.MAGIC);
+	    map.putInt(4, FrameRecording.VERSION);
+	    map.putInt(8, maxFrames);
+	    map.putInt(FrameRecording.HEADER_FRAME_COUNT, 0);
+	    map.putLong(FrameRecording.HEADER_DATA_START, dataStart);
+	    dataEnd = dataStart;
+	}
+	
+	/**
+	 * Appends the Y plane of a frame.
+	 *
+	 * @param timestamp When the frame arrived, in {@link System#nanoTime()} units.
+	 * @return The frame's index in the recording, or -1 if the recording is full or closed.
+	 */
+	public synchronized int record(byte[] data, int width, int height, int previewFormat, int left,
+	    int top, int right, int bottom, long timestamp) {
+	    int size = width * height;
+	    if (closed || frameCount == maxFrames || size > map.capacity() - dataEnd || size > data.length) {
+	      droppedFrames++;
+	      return -1;
+	    }
+	    map.position(dataEnd);
+	    map.put(data, 0, size);
+	    
+	    int frame = frameCount;
+	    int entry = FrameRecording.HEADER_SIZE + frame * FrameRecording.ENTRY_SIZE;
+	    map.putLong(entry + FrameRecording.ENTRY_OFFSET, dataEnd);
+	    map.putLong(entry + FrameRecording.ENTRY_TIMESTAMP, timestamp);
+	    map.putInt(entry + FrameRecording.ENTRY_WIDTH, width);
+	    map.putInt(entry + FrameRecording.ENTRY_HEIGHT, height);
+	    map.putInt(entry + FrameRecording.ENTRY_PREVIEW_FORMAT, previewFormat);
+	    map.putShort(entry + FrameRecording.ENTRY_FRAMING_RECT, (short) left);
+	    map.putShort(entry + FrameRecording.ENTRY_FRAMING_RECT + 2, (short) top);
+	    map.putShort(entry + FrameRecording.ENTRY_FRAMING_RECT + 4, (short) right);
+	    map.putShort(entry + FrameRecording.ENTRY_FRAMING_RECT + 6, (short) bottom);
+	    map.putInt(entry + FrameRecording.ENTRY_OUTCOME, FrameRecording.OUTCOME_UNKNOWN);
+	    map.putInt(entry + FrameRecording.ENTRY_DECODED_FORMAT, 0);
+	    dataEnd += size;
+	    frameCount++;
+	    // Last, so a reader of a recording cut short never sees a half written frame.
+	    map.putInt(FrameRecording.HEADER_FRAME_COUNT, frameCount);
+	    
+	    int slot = frame % PENDING_OUTCOMES;
+	    pendingBuffers[slot] = data;
+	    pendingFrames[slot] = frame;
+	    return frame;
+	}
+	
+	/**
+	 * Records how decoding the frame last recorded from this buffer went. Outcomes for buffers not
+	 * among the last few recorded are ignored.
+	 *
+	 * @param outcome       One of the {@link FrameRecording} outcome constants.
+	 * @param decodedFormat The qmcore flag of the format decoded, or 0.
+	 */
+	public synchronized void setOutcome(byte[] data, int outcome, int decodedFormat) {
+	    if (closed) {
+	      return;
+	    }
+	    int newest = -1;
+	    for (int i = 0; i < PENDING_OUTCOMES; i++) {
+	      if (pendingBuffers[i] == data && pendingFrames[i] > newest) {
+	        newest = pendingFrames[i];
+	      }
+	    }
+	    if (newest >= 0) {
+	      int entry = FrameRecording.HEADER_SIZE + newest * FrameRecording.ENTRY_SIZE;
+	      map.putInt(entry + FrameRecording.ENTRY_OUTCOME, outcome);
+	      map.putInt(entry + FrameRecording.ENTRY_DECODED_FORMAT, decodedFormat);
+	    }
+	}
+	
+	/**
+	 * Flushes the recording and cuts the file down to the frames recorded.
+	 */
+	public synchronized void close() throws IOException {
+	    if (closed) {
+	      return;
+	    }
+	    closed = true;
+	    for (int i = 0; i < PENDING_OUTCOMES; i++) {
+	      pendingBuffers[i] = null;
+	    }
+	    try {
+	      map.force();
+	      file.setLength(dataEnd);
+	    } finally {
+	      file.close();
+	    }
+	}
+	
+	public synchronized int getFrameCount() {
+	    return frameCount;
+	}
+	
+	/**
+	 * @return The frames dropped because the recording was full.
+	 */
+	public synchronized int getDroppedFrameCount() {
+	    return droppedFrames;
+	}
+}
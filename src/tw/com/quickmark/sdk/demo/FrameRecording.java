@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file of preview frames written by {@link FrameRecorder}, read through a memory map.
+ *
+ * The file starts with a header and a fixed size index of {@link #ENTRY_SIZE} bytes per frame,
+ * followed by the Y plane of every frame, back to back; chroma is not recorded, as no decoder
+ * looks at it. An index entry holds the frame's offset, arrival time, size, preview format,
+ * framing rect and, once known, the decode outcome. All values are big-endian.
+ */
+public final class FrameRecording {
+
+	/** The frame was not decoded, or the outcome wasn't reported. */
+	public static final int OUTCOME_UNKNOWN = 0;
+	public static final int OUTCOME_DECODED = 1;
+	/** Decoded without a result. */
+	public static final int OUTCOME_FAILED = 2;
+	/** Ruled out by the pre-screen or sharpness check without decoding. */
+	public static final int OUTCOME_SKIPPED = 3;
+	
+	static final int MAGIC = 0x514d4652; // "QMFR"
+	static final int VERSION = 1;
+	
+	// Header: magic, version, index capacity, frame count, data start
+	static final int HEADER_SIZE = 32;
+	static final int HEADER_FRAME_COUNT = 12;
+	static final int HEADER_DATA_START = 16;
+	
+	// Entry: offset, timestamp, width, height, preview format, framing rect as 4 shorts, outcome,
+	// decoded format, reserved
+	static final int ENTRY_SIZE = 48;
+	static final int ENTRY_OFFSET = 0;
+	static final int ENTRY_TIMESTAMP = 8;
+	static final int ENTRY_WIDTH = 16;
+	static final int ENTRY_HEIGHT = 20;
+	static final int ENTRY_PREVIEW_FORMAT = 24;
+	static final int ENTRY_FRAMING_RECT = 28;
+	static final int ENTRY_OUTCOME = 36;
+	static final int ENTRY_DECODED_FORMAT = 40;
+	
+	private final MappedByteBuffer map;
+	private final int frameCount;
+	
+	private FrameRecording(MappedByteBuffer map) throws IOException {
+	    this.map = map;
+	    if (map.capacity() < HEADER_SIZE || map.getInt(0) != MAGIC) {
+	      throw new IOException("Not a frame recording");
+	    }
+	    if (map.getInt(4) != VERSION) {
+	      throw new IOException("Unsupported frame recording version " + map.getInt(4));
+	    }
+	    frameCount = map.getInt(HEADER_FRAME_COUNT);
+	}
+	
+	/**
+	 * Maps a recording read-only. The map stays valid after the file is closed.
+	 */
+	public static FrameRecording open(File file) throws IOException {
+	    RandomAccessFile in = new RandomAccessFile(file, "r");
+	    try {
+	      return new FrameRecording(in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length()));
+	    } finally {
+	      in.close();
+	    }
+	}
+	
+	public int getFrameCount() {
+	    return frameCount;
+	}
+	
+	/**
+	 * @return When the frame arrived, in {@link System#nanoTime()} units of the recording device.
+	 */
+	public long getTimestamp(int frame) {
+	    return map.getLong(entry(frame) + ENTRY_TIMESTAMP);
+	}
+	
+	public int getWidth(int frame) {
+	    return map.getInt(entry(frame) + ENTRY_WIDTH);
+	}
+	
+	public int getHeight(int frame) {
+	    return map.getInt(entry(frame) + ENTRY_HEIGHT);
+	}
+	
+	/**
+	 * @return The camera's preview format, as in {@link android.graphics.PixelFormat}.
+	 */
+	public int getPreviewFormat(int frame) {
+	    return map.getInt(entry(frame) + ENTRY_PREVIEW_FORMAT);
+	}
+	
+	/**
+	 * @param rect Receives left, top, right and bottom of the framing rect in preview coordinates.
+	 */
+	public void getFramingRect(int frame, int[] rect) {
+	    int position = entry(frame) + ENTRY_FRAMING_RECT;
+	    for (int i = 0; i < 4; i++) {
+	      rect[i] = map.getShort(position + i * 2);
+	    }
+	}
+	
+	/**
+	 * @return One of the outcome constants.
+	 */
+	public int getOutcome(int frame) {
+	    return map.getInt(entry(frame) + ENTRY_OUTCOME);
+	}
+	
+	/**
+	 * @return The qmcore flag of the format decoded, or 0.
+	 */
+	public int getDecodedFormat(int frame) {
+	    return map.getInt(entry(frame) + ENTRY_DECODED_FORMAT);
+	}
+	
+	/**
+	 * Copies the frame's Y plane to the start of data, which must hold width * height bytes.
+	 */
+	public synchronized void readFrame(int frame, byte[] data) {
+	    int position = entry(frame);
+	    map.position((int) map.getLong(position + ENTRY_OFFSET));
+	    map.get(data, 0, map.getInt(position + ENTRY_WIDTH) * map.getInt(position + ENTRY_HEIGHT));
+	}
+	
+	/**
+	 * @return The number of frames with the given outcome.
+	 */
+	public int countOutcomes(int outcome) {
+	    int count = 0;
+	    for (int i = 0; i < frameCount; i++) {
+	      if (getOutcome(i) == outcome) {
+	        count++;
+	      }
+	    }
+	    return count;
+	}
+	
+	private int entry(int frame) {
+	    if (frame < 0 || frame >= frameCount) {
+	      throw new IndexOutOfBoundsException("Frame " + frame + " of " + frameCount);
+	    }
+	    return HEADER_SIZE + frame * ENTRY_SIZE;
+	}
+}
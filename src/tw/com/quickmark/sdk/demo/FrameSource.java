@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+/**
+ * Where a decode pipeline gets its frames: the camera's {@link PreviewFrameRing} on a device,
+ * or anything producing {@link PreviewFrame}s on a plain JVM, such as recorded or generated
+ * frames.
+ */
+public interface FrameSource {
+
+	/**
+	 * Waits for the next frame to decode.
+	 */
+	PreviewFrame take() throws InterruptedException;
+	
+	/**
+	 * Hands back a frame from {@link #take()} once the decoder is done with it.
+	 */
+	void recycle(PreviewFrame frame);
+}
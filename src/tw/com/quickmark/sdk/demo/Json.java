@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+/**
+ * What the hand-written JSON output of the tools and tracers needs: quoting strings.
+ */
+final class Json {
+
+	private Json() {
+	}
+	
+	/**
+	 * @return value as a JSON string literal, or null as the literal null.
+	 */
+	static String quote(String value) {
+	    if (value == null) {
+	      return "null";
+	    }
+	    StringBuilder quoted = new StringBuilder(value.length() + 2);
+	    quoted.append('"');
+	    for (int i = 0; i < value.length(); i++) {
+	      char c = value.charAt(i);
+	      switch (c) {
+	        case '"':
+	          quoted.append("\\\"");
+	          break;
+	        case '\\':
+	          quoted.append("\\\\");
+	          break;
+	        case '\n':
+	          quoted.append("\\n");
+	          break;
+	        case '\r':
+	          quoted.append("\\r");
+	          break;
+	        case '\t':
+	          quoted.append("\\t");
+	          break;
+	        default:
+	          if (c < 0x20) {
+	            quoted.append(String.format("\\u%04x", (int) c));
+	          } else {
+	            quoted.append(c);
+	          }
+	      }
+	    }
+	    quoted.append('"');
+	    return quoted.toString();
+	}
+}
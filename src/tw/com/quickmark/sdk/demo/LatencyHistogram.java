@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-bucket latency histogram in the style of HdrHistogram: every power of two is split into
+ * 16 linear buckets, so any recorded value is known to within about 6%, from 1 microsecond up to
+ * about 18 minutes, in 432 counters. Recording is a few arithmetic operations and one atomic
+ * increment, never allocates and is safe from any number of threads.
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT = 29;
+	static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+	private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * @param micros The latency in microseconds; negative values count as 0.
+	 */
+	public void record(long micros) {
+	    long value = micros < 0 ? 0 : micros > MAX_VALUE ? MAX_VALUE : micros;
+	    counts.incrementAndGet(indexOf(value));
+	    count.incrementAndGet();
+	    sum.addAndGet(value);
+	    long currentMax;
+	    while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+	      // Lost a race with another thread raising the max; look again.
+	    }
+	}
+	
+	static int indexOf(long value) {
+	    if (value < SUB_BUCKETS) {
+	      return (int) value;
+	    }
+	    int exponent = 63 - Long.numberOfLeadingZeros(value);
+	    int shift = exponent - SUB_BUCKET_BITS;
+	    return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) +
+	        (int) (value >>> shift) - SUB_BUCKETS;
+	}
+	
+	/**
+	 * @return The largest value which falls into the bucket.
+	 */
+	static long highestValueOf(int index) {
+	    if (index < SUB_BUCKETS) {
+	      return index;
+	    }
+	    int shift = (index >> SUB_BUCKET_BITS) - 1;
+	    long lowest = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+	    return lowest + (1L << shift) - 1;
+	}
+	
+	/**
+	 * @param percentile From 0 to 100.
+	 * @return The latency in microseconds which the given share of values didn't exceed, to
+	 *         within the bucket resolution, or 0 if nothing was recorded.
+	 */
+	public long getPercentile(float percentile) {
+	    long total = count.get();
+	    if (total == 0) {
+	      return 0;
+	    }
+	    long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+	    long seen = 0;
+	    for (int i = 0; i < BUCKETS; i++) {
+	      seen += counts.get(i);
+	      if (seen >= rank) {
+	        return Math.min(highestValueOf(i), max.get());
+	      }
+	    }
+	    return max.get();
+	}
+	
+	public long getCount() {
+	    return count.get();
+	}
+	
+	/**
+	 * @return The sum of all recorded values in microseconds.
+	 */
+	public long getSum() {
+	    return sum.get();
+	}
+	
+	public long getMax() {
+	    return max.get();
+	}
+	
+	public float getMean() {
+	    long total = count.get();
+	    return total == 0 ? 0.0f : (float) sum.get() / total;
+	}
+	
+	/**
+	 * Starts over. Values recorded concurrently may be lost or half counted.
+	 */
+	public void reset() {
+	    for (int i = 0; i < BUCKETS; i++) {
+	      counts.set(i, 0);
+	    }
+	    count.set(0);
+	    sum.set(0);
+	    max.set(0);
+	}
+}
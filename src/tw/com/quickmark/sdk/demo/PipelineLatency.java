@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+/**
+ * Where the milliseconds of a scan go: one {@link LatencyHistogram} per stage of the pipeline,
+ * from the camera handing over a frame to the activity handling the result. Stages record
+ * {@link System#nanoTime()} spans; recording allocates nothing and costs a few tens of
+ * nanoseconds, which {@link #getOverheadRatio()} puts in relation to the decode work measured.
+ */
+public final class PipelineLatency {
+
+	/** Time between two preview frames arriving from the camera. */
+	public static final int FRAME_INTERVAL = 0;
+	/** From a frame arriving to a decoder starting on it. */
+	public static final int QUEUE_WAIT = 1;
+	/** Pre-screen and sharpness check. */
+	public static final int SCREEN = 2;
+	/** Copying the crop, at every pyramid level tried. */
+	public static final int CROP = 3;
+	/** The whole decode of a frame which decoded, crop included. */
+	public static final int DECODE_HIT = 4;
+	/** The whole decode of a frame which didn't. */
+	public static final int DECODE_MISS = 5;
+	/** From a decoder posting a result to the main thread picking it up. */
+	public static final int DISPATCH = 6;
+	/** The activity handling a result. */
+	public static final int HANDLE = 7;
+	
+	private static final String[] STAGE_NAMES = {
+	    "frame_interval", "queue_wait", "screen", "crop", "decode_hit", "decode_miss", "dispatch", "handle"
+	};
+	private static final int CALIBRATION_RECORDS = 20000;
+	
+	private final LatencyHistogram[] stages = new LatencyHistogram[STAGE_NAMES.length];
+	private volatile boolean enabled = true;
+	private volatile float recordCost = -1.0f;
+	
+	public PipelineLatency() {
+	    for (int i = 0; i < stages.length; i++) {
+	      stages[i] = new LatencyHistogram();
+	    }
+	}
+	
+	/**
+	 * @param stage One of the stage constants.
+	 * @param nanos The time the stage took, in {@link System#nanoTime()} units.
+	 */
+	public void record(int stage, long nanos) {
+	    if (enabled) {
+	      stages[stage].record(nanos / 1000L);
+	    }
+	}
+	
+	/**
+	 * Records a span ending now. Spans starting at 0, that is at no known time, are not recorded.
+	 *
+	 * @return Now, in {@link System#nanoTime()} units, to start the next span with.
+	 */
+	public long recordSince(int stage, long start) {
+	    long now = System.nanoTime();
+	    if (start != 0) {
+	      record(stage, now - start);
+	    }
+	    return now;
+	}
+	
+	/**
+	 * Called on the main thread on receiving a result.
+	 *
+	 * @param postedAt When the decoder posted that result, carried with its message.
+	 * @return Now, in {@link System#nanoTime()} units.
+	 */
+	public long recordDispatch(long postedAt) {
+	    return recordSince(DISPATCH, postedAt);
+	}
+	
+	public LatencyHistogram getHistogram(int stage) {
+	    return stages[stage];
+	}
+	
+	public static String getStageName(int stage) {
+	    return STAGE_NAMES[stage];
+	}
+	
+	public static int getStageCount() {
+	    return STAGE_NAMES.length;
+	}
+	
+	/**
+	 * @return The time spent recording as a share of the time spent decoding: every recorded value
+	 *         costs one clock read and one histogram update, timed once on this device.
+	 */
+	public float getOverheadRatio() {
+	    long records = 0;
+	    for (LatencyHistogram stage : stages) {
+	      records += stage.getCount();
+	    }
+	    long decodeMicros = stages[SCREEN].getSum() + stages[DECODE_HIT].getSum() +
+	        stages[DECODE_MISS].getSum();
+	    return decodeMicros == 0 ? 0.0f : records * getRecordCostNanos() / (decodeMicros * 1000.0f);
+	}
+	
+	/**
+	 * @return What one clock read plus one histogram update costs, in nanoseconds.
+	 */
+	public float getRecordCostNanos() {
+	    if (recordCost < 0.0f) {
+	      LatencyHistogram scratch = new LatencyHistogram();
+	      // Once to warm up, once to measure.
+	      for (int pass = 0; pass < 2; pass++) {
+	        long start = System.nanoTime();
+	        long last = start;
+	        for (int i = 0; i < CALIBRATION_RECORDS; i++) {
+	          long now = System.nanoTime();
+	          scratch.record((now - last) / 1000L);
+	          last = now;
+	        }
+	        recordCost = (float) (System.nanoTime() - start) / CALIBRATION_RECORDS;
+	      }
+	    }
+	    return recordCost;
+	}
+	
+	/**
+	 * Appends one line for the stage: count and p50, p95, p99 and max in milliseconds.
+	 */
+	public void formatStage(int stage, StringBuilder out) {
+	    LatencyHistogram histogram = stages[stage];
+	    out.append(STAGE_NAMES[stage]);
+	    for (int i = STAGE_NAMES[stage].length(); i < 15; i++) {
+	      out.append(' ');
+	    }
+	    out.append(' ').append(histogram.getCount());
+	    appendMillis(out.append(" p50 "), histogram.getPercentile(50.0f));
+	    appendMillis(out.append(" p95 "), histogram.getPercentile(95.0f));
+	    appendMillis(out.append(" p99 "), histogram.getPercentile(99.0f));
+	    appendMillis(out.append(" max "), histogram.getMax());
+	}
+	
+	private static void appendMillis(StringBuilder out, long micros) {
+	    out.append(micros / 1000).append('.');
+	    long fraction = micros % 1000 / 10;
+	    if (fraction < 10) {
+	      out.append('0');
+	    }
+	    out.append(fraction);
+	}
+	
+	/**
+	 * @return Every stage and the measured overhead, as text, in milliseconds.
+	 */
+	public String dump() {
+	    StringBuilder out = new StringBuilder(512);
+	    for (int i = 0; i < stages.length; i++) {
+	      formatStage(i, out);
+	      out.append('\n');
+	    }
+	    out.append("overhead ").append(String.format("%.2f", getOverheadRatio() * 100.0f))
+	        .append("% of decode time, ").append(String.format("%.0f", getRecordCostNanos()))
+	        .append(" ns per value");
+	    return out.toString();
+	}
+	
+	/**
+	 * @param enabled False to stop recording; already recorded values are kept.
+	 */
+	public void setEnabled(boolean enabled) {
+	    this.enabled = enabled;
+	}
+	
+	public boolean isEnabled() {
+	    return enabled;
+	}
+	
+	public void reset() {
+	    for (LatencyHistogram stage : stages) {
+	      stage.reset();
+	    }
+	}
+}
@@ -32,6 +32,22 @@ public class PreferencesActivity extends PreferenceActivity
 	public static final String PREFERENCE_1D_EAN = "settings_ean";
 	public static final String PREFERENCE_1D_CODE39 = "settings_code39";
 	public static final String PREFERENCE_1D_CODE128 = "settings_code128";
+	public static final String PREFERENCE_MULTI_CODE = "settings_multicode";
+	public static final String PREFERENCE_CONTINUOUS_SCAN = "settings_continuous";
+	public static final String PREFERENCE_LATENCY_OVERLAY = "settings_latency_overlay";
+	public static final String PREFERENCE_TRACE = "settings_trace";
+	public static final String PREFERENCE_RECORD_FRAMES = "settings_record_frames";
+	public static final String PREFERENCE_SCAN_DISTANCE = "settings_scan_distance";
+	
+	/** The preference which enables each flag in {@link DecodeFormats#FLAGS}, in the same order. */
+	private static final String[] FORMAT_PREFERENCES = {
+		PREFERENCE_QRCODE,
+		PREFERENCE_DATAMATRIX,
+		PREFERENCE_1D_EAN,
+		PREFERENCE_1D_CODE39,
+		PREFERENCE_1D_CODE128,
+	};
+	
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -43,7 +59,33 @@ public class PreferencesActivity extends PreferenceActivity
 	@Override
 	public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
 			String key) {
-		
+		// Scanning goes on with the new formats from its next frame.
+		if (isFormatPreference(key) && CameraManager.get() != null) {
+			CameraManager.get().setDecodeConfig(readDecodeConfig(sharedPreferences));
+		}
+	}
+	
+	/**
+	 * @return The formats enabled in the settings, each on unless turned off.
+	 */
+	public static DecodeConfig readDecodeConfig(SharedPreferences prefs) {
+		int formats = 0;
+		for (int i = 0; i < FORMAT_PREFERENCES.length; i++) {
+			if (prefs.getBoolean(FORMAT_PREFERENCES[i], true))
+				formats |= DecodeFormats.FLAGS[i];
+		}
+		return formats == DecodeFormats.ALL ? DecodeConfig.ALL : new DecodeConfig(formats);
+	}
+	
+	/**
+	 * @return Whether a change to this preference changes {@link #readDecodeConfig}.
+	 */
+	public static boolean isFormatPreference(String key) {
+		for (String preference : FORMAT_PREFERENCES) {
+			if (preference.equals(key))
+				return true;
+		}
+		return false;
 	}
 	
 	
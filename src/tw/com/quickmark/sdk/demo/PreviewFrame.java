@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+/**
+ * One preview frame travelling from the camera callback to a decoder. Instances are bound to a
+ * single pooled buffer and are reused for every frame the camera writes into that buffer.
+ */
+public final class PreviewFrame {
+	private final byte[] data;
+	private int width;
+	private int height;
+	private long sequence;
+	private long timestamp;
+	
+	public PreviewFrame(byte[] data) {
+	    this.data = data;
+	}
+	
+	void setSize(int width, int height) {
+	    this.width = width;
+	    this.height = height;
+	}
+	
+	void setSequence(long sequence) {
+	    this.sequence = sequence;
+	}
+	
+	void setTimestamp(long timestamp) {
+	    this.timestamp = timestamp;
+	}
+	
+	/**
+	 * @return The YUV data of the frame.
+	 */
+	public byte[] getData() {
+	    return data;
+	}
+	
+	/**
+	 * @return The width of the preview frame.
+	 */
+	public int getWidth() {
+	    return width;
+	}
+	
+	/**
+	 * @return The height of the preview frame.
+	 */
+	public int getHeight() {
+	    return height;
+	}
+	
+	/**
+	 * @return The position of the frame in arrival order, as assigned by {@link PreviewFrameRing}
+	 *         or, for requested frames, by {@link CameraManager}.
+	 */
+	public long getSequence() {
+	    return sequence;
+	}
+	
+	/**
+	 * @return When the frame arrived, in {@link System#nanoTime()} units.
+	 */
+	public long getTimestamp() {
+	    return timestamp;
+	}
+}
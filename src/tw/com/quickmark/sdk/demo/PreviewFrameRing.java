@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A small ring of preview frames between the camera callback and the decoders which always keeps
+ * the newest frame. Publishing a frame drops every older one still waiting, and a decoder always
+ * takes the newest, so nobody ever works on a stale frame. Frames which leave the ring without
+ * being decoded go straight back to the {@link Recycler}.
+ *
+ * The camera side never blocks: offering is a handful of atomic operations, and the lock is only
+ * touched when a decoder is actually waiting for a frame.
+ */
+public final class PreviewFrameRing implements FrameSource {
+
+	/**
+	 * Gets back frames which are no longer needed, typically to requeue their buffer.
+	 */
+	public interface Recycler {
+	    void recycle(PreviewFrame frame);
+	}
+	
+	private final AtomicReferenceArray<PreviewFrame> slots;
+	private final int mask;
+	private final Recycler recycler;
+	private final AtomicLong nextSequence = new AtomicLong();
+	private final AtomicInteger waiters = new AtomicInteger();
+	private final Object lock = new Object();
+	
+	// Counters
+	private final AtomicLong offeredFrames = new AtomicLong();
+	private final AtomicLong droppedFrames = new AtomicLong();
+	private final AtomicLong takenFrames = new AtomicLong();
+	private final AtomicLong totalFrameAge = new AtomicLong();
+	private final AtomicLong maxFrameAge = new AtomicLong();
+	
+	/**
+	 * @param capacity The number of slots, rounded up to a power of two.
+	 * @param recycler Receives every frame which is dropped or handed back.
+	 */
+	public PreviewFrameRing(int capacity, Recycler recycler) {
+	    int size = 1;
+	    while (size < capacity) {
+	      size <<= 1;
+	    }
+	    this.slots = new AtomicReferenceArray<PreviewFrame>(size);
+	    this.mask = size - 1;
+	    this.recycler = recycler;
+	}
+	
+	/**
+	 * Publishes a new frame, dropping any older ones nobody has taken yet.
+	 *
+	 * @param frame The frame, which belongs to the ring until it is taken.
+	 */
+	public void offer(PreviewFrame frame) {
+	    long sequence = nextSequence.getAndIncrement();
+	    frame.setSequence(sequence);
+	    frame.setTimestamp(System.nanoTime());
+	    offeredFrames.incrementAndGet();
+	    
+	    PreviewFrame displaced = slots.getAndSet((int) sequence & mask, frame);
+	    if (displaced != null) {
+	      drop(displaced);
+	    }
+	    dropOlderThan(sequence);
+	    
+	    if (waiters.get() > 0) {
+	      synchronized (lock) {
+	        lock.notifyAll();
+	      }
+	    }
+	}
+	
+	/**
+	 * Takes the newest frame, waiting for one to arrive if the ring is empty. The caller must
+	 * hand it back through {@link #recycle} when done.
+	 *
+	 * @return The newest frame.
+	 * @throws InterruptedException If the calling thread was interrupted while waiting.
+	 */
+	public PreviewFrame take() throws InterruptedException {
+	    while (true) {
+	      PreviewFrame frame = poll();
+	      if (frame != null) {
+	        return frame;
+	      }
+	      waiters.incrementAndGet();
+	      try {
+	        synchronized (lock) {
+	          if (isEmpty()) {
+	            lock.wait();
+	          }
+	        }
+	      } finally {
+	        waiters.decrementAndGet();
+	      }
+	    }
+	}
+	
+	/**
+	 * Takes the newest frame without waiting.
+	 *
+	 * @return The newest frame, or null if the ring is empty.
+	 */
+	public PreviewFrame poll() {
+	    while (true) {
+	      int newestIndex = -1;
+	      PreviewFrame newest = null;
+	      for (int i = 0; i <= mask; i++) {
+	        PreviewFrame frame = slots.get(i);
+	        if (frame != null && (newest == null || frame.getSequence() > newest.getSequence())) {
+	          newest = frame;
+	          newestIndex = i;
+	        }
+	      }
+	      if (newest == null) {
+	        return null;
+	      }
+	      if (slots.compareAndSet(newestIndex, newest, null)) {
+	        dropOlderThan(newest.getSequence());
+	        recordAge(System.nanoTime() - newest.getTimestamp());
+	        return newest;
+	      }
+	      // Lost a race with the camera or another decoder; look again.
+	    }
+	}
+	
+	/**
+	 * Hands a taken frame back once it has been decoded.
+	 */
+	public void recycle(PreviewFrame frame) {
+	    recycler.recycle(frame);
+	}
+	
+	/**
+	 * Drops every waiting frame without counting them as dropped, e.g. when capture pauses.
+	 */
+	public void clear() {
+	    for (int i = 0; i <= mask; i++) {
+	      PreviewFrame frame = slots.getAndSet(i, null);
+	      if (frame != null) {
+	        recycler.recycle(frame);
+	      }
+	    }
+	}
+	
+	public boolean isEmpty() {
+	    for (int i = 0; i <= mask; i++) {
+	      if (slots.get(i) != null) {
+	        return false;
+	      }
+	    }
+	    return true;
+	}
+	
+	/**
+	 * @return How many frames were published.
+	 */
+	public long getOfferedFrameCount() {
+	    return offeredFrames.get();
+	}
+	
+	/**
+	 * @return How many frames were replaced by a newer one before any decoder got to them.
+	 */
+	public long getDroppedFrameCount() {
+	    return droppedFrames.get();
+	}
+	
+	/**
+	 * @return How many frames were taken by decoders.
+	 */
+	public long getTakenFrameCount() {
+	    return takenFrames.get();
+	}
+	
+	/**
+	 * @return The mean time between a frame arriving and a decoder taking it, in milliseconds.
+	 */
+	public float getAverageFrameAgeMillis() {
+	    long taken = takenFrames.get();
+	    return taken == 0 ? 0.0f : totalFrameAge.get() / (taken * 1000000.0f);
+	}
+	
+	/**
+	 * @return The longest time between a frame arriving and a decoder taking it, in milliseconds.
+	 */
+	public float getMaxFrameAgeMillis() {
+	    return maxFrameAge.get() / 1000000.0f;
+	}
+	
+	private void dropOlderThan(long sequence) {
+	    for (int i = 0; i <= mask; i++) {
+	      PreviewFrame frame = slots.get(i);
+	      if (frame != null && frame.getSequence() < sequence && slots.compareAndSet(i, frame, null)) {
+	        drop(frame);
+	      }
+	    }
+	}
+	
+	private void drop(PreviewFrame frame) {
+	    droppedFrames.incrementAndGet();
+	    recycler.recycle(frame);
+	}
+	
+	private void recordAge(long age) {
+	    takenFrames.incrementAndGet();
+	    totalFrameAge.addAndGet(age);
+	    long max = maxFrameAge.get();
+	    while (age > max && !maxFrameAge.compareAndSet(max, age)) {
+	      max = maxFrameAge.get();
+	    }
+	}
+}
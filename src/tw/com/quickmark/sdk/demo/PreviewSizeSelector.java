@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+/**
+ * Picks the preview size to scan at by what it buys: enough pixels per barcode module to read the
+ * code at the configured distance, at the lowest decode cost, without stretching the framing rect.
+ * Each candidate is scored by {@link #score} as the reads per second it is expected to allow,
+ * less a little for keeping the CPU busy, so a 1080p preview which reads no better than 800x480 loses
+ * to it. The cost per pixel starts from a guess and follows the decodes timed on this device. Codes
+ * count as smaller than assumed while they read poorly and only ever at full resolution, though
+ * never so small that the current size would be marginal, since it does read them; codes reading
+ * at half resolution, or reading well, count as larger again. {@link #reevaluate} then says
+ * whether another size has become clearly better.
+ *
+ * Plain Java, so the scoring can be checked on a desktop JVM. Safe from any thread.
+ */
+public final class PreviewSizeSelector {
+
+	/** EAN-13 at nominal size; most codes scanned have modules at least this large. */
+	public static final float DEFAULT_MODULE_MM = 0.33f;
+	public static final float DEFAULT_DISTANCE_MM = 100.0f;
+	/** For cameras which don't report their horizontal view angle. */
+	public static final float DEFAULT_VIEW_ANGLE = 55.0f;
+	/** qmcore on a mid-range ARM core, until this device's cost is measured. */
+	public static final float DEFAULT_COST_NANOS_PER_PIXEL = 30.0f;
+	
+	// Below this many pixels per module nothing reads, from this many on everything does.
+	private static final float MIN_PIXELS_PER_MODULE = 1.5f;
+	private static final float GOOD_PIXELS_PER_MODULE = 2.5f;
+	// Codes which read at all have at least this many, as far as shrinking the module size goes.
+	private static final float MARGINAL_PIXELS_PER_MODULE =
+	    (MIN_PIXELS_PER_MODULE + GOOD_PIXELS_PER_MODULE) / 2.0f;
+	private static final float MAX_FRAME_RATE = 30.0f;
+	// How much decoding for a whole frame interval takes off the score.
+	private static final float COST_WEIGHT = 0.25f;
+	private static final float ASPECT_EXPONENT = 2.0f;
+	
+	// Re-evaluation
+	private static final float COST_SMOOTHING = 0.05f;
+	private static final int EVALUATION_FRAMES = 300;
+	private static final float LOW_SUCCESS_RATE = 0.2f;
+	private static final float HIGH_SUCCESS_RATE = 0.6f;
+	private static final float MODULE_SCALE_STEP = 0.8f;
+	private static final float MIN_MODULE_SCALE = 0.25f;
+	private static final float SWITCH_MARGIN = 1.2f;
+	
+	private final int[][] sizes;
+	private final int screenWidth;
+	private final int screenHeight;
+	private final float framingFractionX;
+	private final float framingFractionY;
+	private final float moduleMm;
+	private final float distanceMm;
+	private final float viewAngle;
+	
+	private float costNanosPerPixel = DEFAULT_COST_NANOS_PER_PIXEL;
+	// Codes turn out this much smaller than assumed, judging by how they decode
+	private float moduleScale = 1.0f;
+	private int attempts;
+	private int successes;
+	private int downsampledSuccesses;
+	
+	/**
+	 * @param sizes The preview sizes the camera offers, as {width, height}.
+	 * @param framingWidth The width of the framing rect on the screen.
+	 * @param framingHeight Its height.
+	 * @param viewAngle The camera's horizontal view angle in degrees.
+	 * @param distanceMm How far from the camera codes are expected.
+	 */
+	public PreviewSizeSelector(int[][] sizes, int screenWidth, int screenHeight, int framingWidth,
+	    int framingHeight, float viewAngle, float distanceMm) {
+	    this.sizes = sizes;
+	    this.screenWidth = screenWidth;
+	    this.screenHeight = screenHeight;
+	    this.framingFractionX = (float) framingWidth / screenWidth;
+	    this.framingFractionY = (float) framingHeight / screenHeight;
+	    this.moduleMm = DEFAULT_MODULE_MM;
+	    this.distanceMm = distanceMm;
+	    this.viewAngle = viewAngle;
+	}
+	
+	/**
+	 * @param previewWidth The width of the preview, which the view angle spans.
+	 * @param moduleMm The size of a module.
+	 * @param distanceMm The distance of the code from the camera.
+	 * @param viewAngle The camera's horizontal view angle in degrees.
+	 * @return How many preview pixels a module covers.
+	 */
+	public static float getPixelsPerModule(int previewWidth, float moduleMm, float distanceMm,
+	    float viewAngle) {
+	    double fieldWidthMm = 2.0 * distanceMm * Math.tan(Math.toRadians(viewAngle) / 2.0);
+	    return (float) (moduleMm * previewWidth / fieldWidthMm);
+	}
+	
+	/**
+	 * Scores one preview size. Depends on nothing but its arguments.
+	 *
+	 * @param framingFractionX The share of the screen's width the framing rect takes; what is
+	 *                         decoded is the same share of the preview.
+	 * @param framingFractionY Likewise for the height.
+	 * @param pixelsPerModule What {@link #getPixelsPerModule} says for this preview width.
+	 * @param costNanosPerPixel What decoding costs per pixel of the crop.
+	 * @return Roughly the expected reads per second; higher is better, 0 if codes won't read.
+	 */
+	public static float score(int previewWidth, int previewHeight, int screenWidth, int screenHeight,
+	    float framingFractionX, float framingFractionY, float pixelsPerModule, float costNanosPerPixel) {
+	    float readability = Math.min(1.0f, Math.max(0.0f, (pixelsPerModule - MIN_PIXELS_PER_MODULE) /
+	        (GOOD_PIXELS_PER_MODULE - MIN_PIXELS_PER_MODULE)));
+	    if (readability == 0.0f) {
+	      return 0.0f;
+	    }
+	    
+	    float cropPixels = previewWidth * framingFractionX * previewHeight * framingFractionY;
+	    float decodeMillis = cropPixels * costNanosPerPixel / 1.0e6f;
+	    float frameRate = decodeMillis > 0.0f
+	        ? Math.min(MAX_FRAME_RATE, 1000.0f / decodeMillis) : MAX_FRAME_RATE;
+	    float busy = decodeMillis * MAX_FRAME_RATE / 1000.0f;
+	    
+	    // The framing rect is scaled to the preview on each axis, so a different aspect ratio
+	    // stretches it and what the user lines up isn't quite what is decoded.
+	    float previewAspect = (float) previewWidth / previewHeight;
+	    float screenAspect = (float) screenWidth / screenHeight;
+	    float aspectMatch = (float) Math.pow(Math.min(previewAspect, screenAspect) /
+	        Math.max(previewAspect, screenAspect), ASPECT_EXPONENT);
+	    
+	    return readability * frameRate * aspectMatch / (1.0f + COST_WEIGHT * busy);
+	}
+	
+	/**
+	 * @return The best size as {width, height}, or null if there are none.
+	 */
+	public synchronized int[] select() {
+	    int[] best = null;
+	    float bestScore = -1.0f;
+	    for (int[] size : sizes) {
+	      float score = score(size);
+	      // Ties, which only happen when nothing reads, go to the sharpest.
+	      if (score > bestScore || (score == bestScore && best != null && size[0] > best[0])) {
+	        best = size;
+	        bestScore = score;
+	      }
+	    }
+	    return best;
+	}
+	
+	/**
+	 * @return The score of a size with what is known now.
+	 */
+	public synchronized float score(int[] size) {
+	    float pixelsPerModule = getPixelsPerModule(size[0], moduleMm * moduleScale, distanceMm, viewAngle);
+	    return score(size[0], size[1], screenWidth, screenHeight, framingFractionX, framingFractionY,
+	        pixelsPerModule, costNanosPerPixel);
+	}
+	
+	/**
+	 * Takes note of one decode.
+	 *
+	 * @param pixels How many pixels the decoder went through.
+	 * @param nanos How long it took.
+	 * @param decoded Whether it found a code.
+	 * @param downsampled Whether it found it at half resolution.
+	 * @return True every so many decodes, when it is time to {@link #reevaluate}.
+	 */
+	public synchronized boolean observe(int pixels, long nanos, boolean decoded, boolean downsampled) {
+	    if (pixels > 0 && nanos > 0) {
+	      costNanosPerPixel += COST_SMOOTHING * ((float) nanos / pixels - costNanosPerPixel);
+	    }
+	    attempts++;
+	    if (decoded) {
+	      successes++;
+	      if (downsampled) {
+	        downsampledSuccesses++;
+	      }
+	    }
+	    return attempts >= EVALUATION_FRAMES;
+	}
+	
+	/**
+	 * Updates the assumed module size from the decodes since the last evaluation and scores the
+	 * sizes again with the measured cost.
+	 *
+	 * @param current The preview size in use, as {width, height}.
+	 * @return A size which now scores clearly better than the current one, or null.
+	 */
+	public synchronized int[] reevaluate(int[] current) {
+	    // No decodes at all more likely means no code in view than codes too small to read.
+	    if (successes > 0) {
+	      float successRate = (float) successes / attempts;
+	      if (successRate > HIGH_SUCCESS_RATE || downsampledSuccesses > 0) {
+	        moduleScale = Math.min(1.0f, moduleScale / MODULE_SCALE_STEP);
+	      } else if (successRate < LOW_SUCCESS_RATE) {
+	        moduleScale = shrinkModuleScale(moduleScale, getPixelsPerModule(current[0], moduleMm,
+	            distanceMm, viewAngle));
+	      }
+	    }
+	    attempts = 0;
+	    successes = 0;
+	    downsampledSuccesses = 0;
+	    
+	    int[] best = select();
+	    if (best == null || (best[0] == current[0] && best[1] == current[1]) ||
+	        score(best) <= score(current) * SWITCH_MARGIN) {
+	      return null;
+	    }
+	    return best;
+	}
+	
+	/**
+	 * Takes a step towards smaller codes, but not past where the current size would be marginal
+	 * for them, nor back up if it already is. Depends on nothing but its arguments.
+	 *
+	 * @param moduleScale The share of the assumed module size codes are taken to have now.
+	 * @param pixelsPerModule What {@link #getPixelsPerModule} says at the current size for codes of
+	 *                        the assumed module size.
+	 * @return The new share.
+	 */
+	static float shrinkModuleScale(float moduleScale, float pixelsPerModule) {
+	    float floor = MARGINAL_PIXELS_PER_MODULE / pixelsPerModule;
+	    return Math.max(MIN_MODULE_SCALE,
+	        Math.max(moduleScale * MODULE_SCALE_STEP, Math.min(moduleScale, floor)));
+	}
+	
+	public synchronized float getCostNanosPerPixel() {
+	    return costNanosPerPixel;
+	}
+	
+	/**
+	 * @param costNanosPerPixel A cost measured earlier on this device.
+	 */
+	public synchronized void setCostNanosPerPixel(float costNanosPerPixel) {
+	    if (costNanosPerPixel > 0.0f) {
+	      this.costNanosPerPixel = costNanosPerPixel;
+	    }
+	}
+	
+	public synchronized float getModuleScale() {
+	    return moduleScale;
+	}
+}
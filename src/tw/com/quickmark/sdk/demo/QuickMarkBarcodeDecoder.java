@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import tw.com.quickmark.sdk.Result;
+import tw.com.quickmark.sdk.qmcore;
+
+/**
+ * The QuickMark SDK behind {@link BarcodeDecoder}.
+ */
+public final class QuickMarkBarcodeDecoder implements BarcodeDecoder {
+	
+	// The number of bits used to represent a single luminance value.
+	private static final int BIT_DEPTH = 8;
+	
+	private final qmcore decoder;
+	
+	public QuickMarkBarcodeDecoder(qmcore decoder) {
+	    this.decoder = decoder;
+	}
+	
+	public Result decode(byte[] matrix, int width, int height, int decodeFormat) {
+		/**
+	     *  QuickMarkSDK Decoder
+	     *  Param : 
+	     *  	byte[] imageBuffer    	: The data of the bitmap.
+	     *  	int    imageWidth   	: The width of the bitmap.
+	     *  	int    imageHeight  	: The height of the bitmap.
+	     *  	int    imageBitDepth   	: The number of bits used to represent the color of a single pixel.
+	     *  	int    decodeFormat 	: Scan formats requested in parameters.(all formats if none specified)
+	     *  Output:
+	     *  	String					: result.
+	     */
+	    return decoder.decode(matrix, width, height, BIT_DEPTH, decodeFormat);
+	}
+}
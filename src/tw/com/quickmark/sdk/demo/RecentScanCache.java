@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers recently scanned codes so one held in view isn't reported on every frame. A code
+ * counts as new again once it hasn't been seen for ttl milliseconds; every sighting restarts
+ * that wait, so a code left lying under the camera is reported once. At most maxSize codes are
+ * kept, the least recently seen being forgotten first.
+ *
+ * Time is passed in, in milliseconds on any monotonic clock.
+ */
+public final class RecentScanCache {
+
+	private final int maxSize;
+	private final long ttl;
+	// Key -> time last seen, least recently seen first
+	private final LinkedHashMap<String, Long> lastSeen;
+	
+	public RecentScanCache(int maxSize, long ttl) {
+	    if (maxSize < 1 || ttl < 0) {
+	      throw new IllegalArgumentException("Bad cache size or TTL: " + maxSize + ", " + ttl);
+	    }
+	    this.maxSize = maxSize;
+	    this.ttl = ttl;
+	    this.lastSeen = new LinkedHashMap<String, Long>(maxSize * 4 / 3 + 1, 0.75f, true) {
+	      @Override
+	      protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+	        return size() > RecentScanCache.this.maxSize;
+	      }
+	    };
+	}
+	
+	/**
+	 * Records a sighting of a code.
+	 *
+	 * @return True if the code is new, i.e. not seen within the last ttl milliseconds.
+	 */
+	public synchronized boolean add(String key, long now) {
+	    expire(now);
+	    Long previous = lastSeen.put(key, now);
+	    return previous == null;
+	}
+	
+	public synchronized boolean contains(String key, long now) {
+	    expire(now);
+	    return lastSeen.containsKey(key);
+	}
+	
+	public synchronized int size() {
+	    return lastSeen.size();
+	}
+	
+	public synchronized void clear() {
+	    lastSeen.clear();
+	}
+	
+	/**
+	 * Drops expired codes. They are in order of last sighting, so this stops at the first live one.
+	 */
+	private void expire(long now) {
+	    Iterator<Long> times = lastSeen.values().iterator();
+	    while (times.hasNext()) {
+	      if (now - times.next() < ttl) {
+	        break;
+	      }
+	      times.remove();
+	    }
+	}
+}
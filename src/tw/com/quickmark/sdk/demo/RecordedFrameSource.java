@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a {@link FrameRecording} as a {@link FrameSource}, either as fast as the decoders take
+ * frames, so every frame is decoded and runs are repeatable, or on the recording's own clock.
+ * On the clock, a decoder asking late gets the newest frame due and the ones before it are
+ * dropped, as the camera's {@link PreviewFrameRing} would.
+ *
+ * Frames keep their recorded timestamps and their index in the recording as sequence number.
+ * Once the last frame is taken, {@link #take()} blocks until interrupted.
+ */
+public final class RecordedFrameSource implements FrameSource {
+
+	private final FrameRecording recording;
+	private final float speed;
+	private final int bufferCount;
+	private final BlockingQueue<PreviewFrame> free;
+	private final Object end = new Object();
+	private volatile int next;
+	private int droppedFrames;
+	private long clockStart;
+	private boolean clockStarted;
+	
+	/**
+	 * @param buffers How many frames can be out at once; at least one per decoder.
+	 * @param speed   1 to replay on the recording's clock, 2 for twice as fast and so on, or 0 to
+	 *                hand out frames as fast as they are taken.
+	 */
+	public RecordedFrameSource(FrameRecording recording, int buffers, float speed) {
+	    if (buffers < 1 || speed < 0.0f) {
+	      throw new IllegalArgumentException("Bad replay: " + buffers + " buffers at speed " + speed);
+	    }
+	    this.recording = recording;
+	    this.speed = speed;
+	    this.bufferCount = buffers;
+	    int size = 0;
+	    for (int i = 0; i < recording.getFrameCount(); i++) {
+	      size = Math.max(size, recording.getWidth(i) * recording.getHeight(i) * 3 / 2);
+	    }
+	    free = new ArrayBlockingQueue<PreviewFrame>(buffers);
+	    for (int i = 0; i < buffers; i++) {
+	      byte[] data = new byte[size];
+	      // Neutral chroma, in case anything looks past the recorded Y plane.
+	      Arrays.fill(data, (byte) 128);
+	      free.add(new PreviewFrame(data));
+	    }
+	}
+	
+	public synchronized PreviewFrame take() throws InterruptedException {
+	    int count = recording.getFrameCount();
+	    // Waiting releases the lock, so another decoder may have taken frames meanwhile; look again
+	    // after every wait.
+	    while (next >= count || (speed > 0.0f && !isNextFrameDue(count))) {
+	      if (next >= count) {
+	        wait();
+	      }
+	    }
+	    PreviewFrame frame = free.take();
+	    int index = next;
+	    recording.readFrame(index, frame.getData());
+	    frame.setSize(recording.getWidth(index), recording.getHeight(index));
+	    frame.setSequence(index);
+	    frame.setTimestamp(recording.getTimestamp(index));
+	    next = index + 1;
+	    return frame;
+	}
+	
+	/**
+	 * Skips to the newest frame due if the caller is late, or waits a while for the next one.
+	 * Call with a frame left.
+	 *
+	 * @return True if the next frame is due now; false if it waited, and everything must be
+	 *         checked again.
+	 */
+	private boolean isNextFrameDue(int count) throws InterruptedException {
+	    long now = System.nanoTime();
+	    long first = recording.getTimestamp(0);
+	    if (!clockStarted) {
+	      clockStart = now;
+	      clockStarted = true;
+	    }
+	    while (next + 1 < count && due(next + 1, first) <= now) {
+	      next++;
+	      droppedFrames++;
+	    }
+	    long delay = due(next, first) - now;
+	    if (delay <= 0) {
+	      return true;
+	    }
+	    TimeUnit.NANOSECONDS.timedWait(this, delay);
+	    return false;
+	}
+	
+	private long due(int frame, long first) {
+	    return clockStart + (long) ((recording.getTimestamp(frame) - first) / speed);
+	}
+	
+	public void recycle(PreviewFrame frame) {
+	    free.add(frame);
+	    synchronized (end) {
+	      end.notifyAll();
+	    }
+	}
+	
+	/**
+	 * Waits until every frame was taken and handed back.
+	 */
+	public void awaitEnd() throws InterruptedException {
+	    synchronized (end) {
+	      while (next < recording.getFrameCount() || free.size() < bufferCount) {
+	        end.wait(100L);
+	      }
+	    }
+	}
+	
+	/**
+	 * @return The frames skipped because no decoder was ready when they were due.
+	 */
+	public synchronized int getDroppedFrameCount() {
+	    return droppedFrames;
+	}
+	
+	public FrameRecording getRecording() {
+	    return recording;
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.io.File;
+import java.io.PrintStream;
+
+/**
+ * Replays a {@link FrameRecording} through a {@link ScanPipeline} on a plain JVM, so a session
+ * recorded on a device becomes a repeatable benchmark and regression check.
+ *
+ * Usage: ReplayTool [-threads n] [-decoder class] [-formats mask] [-speed x] [-narrow fullfraction]
+ *        [-classify] [-whole] recording
+ *
+ * By default frames are replayed as fast as the decoders go, every one of them decoded; -speed 1
+ * replays on the recorded clock, dropping frames the decoders are too slow for. Decoding is
+ * restricted to the framing rect of the first frame unless -whole is given. The summary compares
+ * the frames decoded with the outcomes recorded on the device, and the exit status is 1 if fewer
+ * decoded. The decoder class is as for {@link BatchDecodeTool}. With -narrow, a
+ * {@link FormatScheduler} looks only for the formats found so far on all but the given share of
+ * frames, and its stats per mode are printed. With -classify, a {@link SymbologyClassifier}
+ * narrows each frame to linear or matrix formats, and its audit is printed.
+ */
+public final class ReplayTool {
+
+	private static final int ALL_FORMATS = 0;
+	
+	private ReplayTool() {
+	}
+	
+	public static void main(String[] args) throws Exception {
+	    int threads = Runtime.getRuntime().availableProcessors();
+	    Class<? extends BarcodeDecoder> decoderClass = StubBarcodeDecoder.class;
+	    int decodeFormat = ALL_FORMATS;
+	    float speed = 0.0f;
+	    float fullFraction = 1.0f;
+	    boolean classify = false;
+	    boolean whole = false;
+	    File file = null;
+	    for (int i = 0; i < args.length; i++) {
+	      String arg = args[i];
+	      if ("-threads".equals(arg) && i + 1 < args.length) {
+	        threads = Integer.parseInt(args[++i]);
+	      } else if ("-decoder".equals(arg) && i + 1 < args.length) {
+	        decoderClass = Class.forName(args[++i]).asSubclass(BarcodeDecoder.class);
+	      } else if ("-formats".equals(arg) && i + 1 < args.length) {
+	        decodeFormat = Integer.decode(args[++i]);
+	      } else if ("-speed".equals(arg) && i + 1 < args.length) {
+	        speed = Float.parseFloat(args[++i]);
+	      } else if ("-narrow".equals(arg) && i + 1 < args.length) {
+	        fullFraction = Float.parseFloat(args[++i]);
+	      } else if ("-classify".equals(arg)) {
+	        classify = true;
+	      } else if ("-whole".equals(arg)) {
+	        whole = true;
+	      } else if (file == null && !arg.startsWith("-")) {
+	        file = new File(arg);
+	      } else {
+	        usage();
+	        return;
+	      }
+	    }
+	    if (file == null || !file.isFile() || threads < 1 || speed < 0.0f || fullFraction < 0.0f ||
+	        fullFraction > 1.0f) {
+	      usage();
+	      return;
+	    }
+	    
+	    BarcodeDecoder[] decoders = new BarcodeDecoder[threads];
+	    for (int i = 0; i < threads; i++) {
+	      decoders[i] = decoderClass.newInstance();
+	    }
+	    boolean regressed = replay(FrameRecording.open(file), decoders, decodeFormat, speed, whole,
+	        fullFraction, classify, System.out);
+	    System.exit(regressed ? 1 : 0);
+	}
+	
+	private static void usage() {
+	    System.err.println("Usage: ReplayTool [-threads n] [-decoder class] [-formats mask] [-speed x] " +
+	        "[-narrow fullfraction] [-classify] [-whole] recording");
+	}
+	
+	/**
+	 * Replays every frame and writes a summary to log.
+	 *
+	 * @param fullFraction The share of frames decoded with every format; below 1 the others look
+	 *                     only for the formats found so far.
+	 * @param classify Whether to look only for the kind of code each frame seems to hold.
+	 * @return True if fewer frames decoded than on the device.
+	 */
+	static boolean replay(FrameRecording recording, BarcodeDecoder[] decoders, int decodeFormat,
+	    float speed, boolean whole, float fullFraction, boolean classify, PrintStream log)
+	    throws InterruptedException {
+	    RecordedFrameSource source = new RecordedFrameSource(recording, decoders.length + 1, speed);
+	    FrameDecoder frameDecoder = new FrameDecoder();
+	    frameDecoder.setDecodeConfig(new DecodeConfig(decodeFormat));
+	    frameDecoder.setRoiTracker(new RoiTracker());
+	    frameDecoder.getFormatScheduler().setFullFraction(fullFraction);
+	    frameDecoder.getClassifier().setEnabled(classify);
+	    if (!whole && recording.getFrameCount() > 0) {
+	      int[] rect = new int[4];
+	      recording.getFramingRect(0, rect);
+	      frameDecoder.setFramingRect(rect[0], rect[1], rect[2], rect[3]);
+	    }
+	    ScanSession session = new ScanSession();
+	    session.addListener(frameDecoder.getFormatScheduler());
+	    ScanPipeline pipeline = new ScanPipeline(source, decoders, session, frameDecoder);
+	    
+	    long start = System.nanoTime();
+	    pipeline.start();
+	    try {
+	      source.awaitEnd();
+	    } finally {
+	      pipeline.stop();
+	    }
+	    double seconds = (System.nanoTime() - start) / 1.0e9;
+	    
+	    int recorded = recording.countOutcomes(FrameRecording.OUTCOME_DECODED);
+	    long replayed = pipeline.getDecodedFrameCount();
+	    log.println(recording.getFrameCount() + " frames, " + source.getDroppedFrameCount() + " dropped, " +
+	        replayed + " decoded (" + recorded + " on the device), " +
+	        pipeline.getSession().getScanCount() + " codes, " +
+	        String.format("%.1f", pipeline.getFrameCount() / seconds) + " frames/sec, " +
+	        String.format("%.2f", pipeline.getAverageFrameMillis()) + " ms/frame");
+	    if (fullFraction < 1.0f) {
+	      log.println(frameDecoder.getFormatScheduler().dump());
+	    }
+	    if (classify) {
+	      log.println(frameDecoder.getClassifier().dump());
+	    }
+	    return replayed < recorded;
+	}
+}
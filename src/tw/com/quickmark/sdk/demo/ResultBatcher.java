@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import tw.com.quickmark.sdk.Result;
+
+/**
+ * Batches the codes for one client of the scanning service and holds them back while the client
+ * is behind. A batch is ready once it has maxBatchSize codes or its oldest code has waited
+ * maxDelay milliseconds, but it is only handed out while the client has fewer than maxUnacked
+ * batches it hasn't acknowledged yet. Codes pile up meanwhile, up to capacity; beyond that the
+ * oldest are dropped, and the next batch says how many.
+ *
+ * Time is passed in, in milliseconds on any monotonic clock.
+ */
+public final class ResultBatcher {
+
+	/**
+	 * Codes handed out together.
+	 */
+	public static final class Batch {
+	    private final Result[] results;
+	    private final int dropped;
+	    
+	    Batch(Result[] results, int dropped) {
+	      this.results = results;
+	      this.dropped = dropped;
+	    }
+	    
+	    public Result[] getResults() {
+	      return results;
+	    }
+	    
+	    /**
+	     * @return How many codes were dropped since the previous batch because the client was behind.
+	     */
+	    public int getDroppedCount() {
+	      return dropped;
+	    }
+	}
+	
+	private final int maxBatchSize;
+	private final long maxDelay;
+	private final int maxUnacked;
+	
+	// Pending codes and when they arrived, oldest first
+	private final Result[] pending;
+	private final long[] arrivals;
+	private int pendingStart;
+	private int pendingCount;
+	
+	private int unacked;
+	private int droppedSinceBatch;
+	
+	// Stats
+	private long delivered;
+	private long dropped;
+	private long batches;
+	
+	/**
+	 * @param maxBatchSize The most codes in one batch.
+	 * @param maxDelay How long in milliseconds a code may wait for more to join its batch.
+	 * @param maxUnacked How many batches the client may have in hand before it gets no more.
+	 * @param capacity How many codes are held for a client which is behind.
+	 */
+	public ResultBatcher(int maxBatchSize, long maxDelay, int maxUnacked, int capacity) {
+	    if (maxBatchSize < 1 || maxDelay < 0 || maxUnacked < 1 || capacity < maxBatchSize) {
+	      throw new IllegalArgumentException("Bad batching: " + maxBatchSize + ", " + maxDelay + ", " +
+	          maxUnacked + ", " + capacity);
+	    }
+	    this.maxBatchSize = maxBatchSize;
+	    this.maxDelay = maxDelay;
+	    this.maxUnacked = maxUnacked;
+	    this.pending = new Result[capacity];
+	    this.arrivals = new long[capacity];
+	}
+	
+	public synchronized void add(Result result, long now) {
+	    if (pendingCount == pending.length) {
+	      pending[pendingStart] = null;
+	      pendingStart = (pendingStart + 1) % pending.length;
+	      pendingCount--;
+	      droppedSinceBatch++;
+	      dropped++;
+	    }
+	    int index = (pendingStart + pendingCount) % pending.length;
+	    pending[index] = result;
+	    arrivals[index] = now;
+	    pendingCount++;
+	}
+	
+	/**
+	 * @return The next batch if one is ready and the client may have it, otherwise null.
+	 */
+	public synchronized Batch poll(long now) {
+	    if (pendingCount == 0 || unacked >= maxUnacked) {
+	      return null;
+	    }
+	    if (pendingCount < maxBatchSize && now - arrivals[pendingStart] < maxDelay) {
+	      return null;
+	    }
+	    Result[] results = new Result[Math.min(pendingCount, maxBatchSize)];
+	    for (int i = 0; i < results.length; i++) {
+	      results[i] = pending[pendingStart];
+	      pending[pendingStart] = null;
+	      pendingStart = (pendingStart + 1) % pending.length;
+	    }
+	    pendingCount -= results.length;
+	    Batch batch = new Batch(results, droppedSinceBatch);
+	    droppedSinceBatch = 0;
+	    unacked++;
+	    delivered += results.length;
+	    batches++;
+	    return batch;
+	}
+	
+	/**
+	 * Records that the client is done with its oldest batch.
+	 */
+	public synchronized void acknowledge() {
+	    if (unacked > 0) {
+	      unacked--;
+	    }
+	}
+	
+	/**
+	 * @return When the oldest pending code's batch is due, or Long.MAX_VALUE if nothing is pending.
+	 */
+	public synchronized long getNextDeadline() {
+	    return pendingCount == 0 ? Long.MAX_VALUE : arrivals[pendingStart] + maxDelay;
+	}
+	
+	/**
+	 * @return True if the client has as many batches in hand as it may have.
+	 */
+	public synchronized boolean isBehind() {
+	    return unacked >= maxUnacked;
+	}
+	
+	public synchronized int getPendingCount() {
+	    return pendingCount;
+	}
+	
+	public synchronized long getDeliveredCount() {
+	    return delivered;
+	}
+	
+	public synchronized long getDroppedCount() {
+	    return dropped;
+	}
+	
+	public synchronized long getBatchCount() {
+	    return batches;
+	}
+}
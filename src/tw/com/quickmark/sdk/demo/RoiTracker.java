@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.util.Arrays;
+
+/**
+ * Narrows the decode crop to where the last barcode was, since in continuous scanning the next
+ * one usually turns up close by. The decoder doesn't say where in the crop it found a code, so
+ * after a decode the tracker looks for the densest patch of edges in the crop and keeps a margin
+ * around it. Between decodes the region follows the image: row and column luminance profiles of
+ * the framing rect are compared from frame to frame to estimate how far the scene moved. After
+ * maxMisses frames in a row fail to decode within the region, it falls back to the full framing
+ * rect.
+ *
+ * Rectangles are int[4] arrays of left, top, right and bottom in preview coordinates, so this
+ * runs without Android.
+ *
+ * One instance can be shared by several decode threads, each with its own {@link Profiles}.
+ * Frames are profiled outside the lock, and since workers pick up frames out of order, only a
+ * frame newer than any seen before moves the region; older ones just use it as it is.
+ */
+public final class RoiTracker {
+
+	private static final int DEFAULT_MAX_MISSES = 6;
+	// Edge density is measured on a GRID x GRID grid over the crop which decoded.
+	private static final int GRID = 8;
+	// Added around the located code on every side, as a share of its larger dimension.
+	private static final float MARGIN = 0.5f;
+	// Regions are never narrowed below this, in preview pixels.
+	private static final int MIN_REGION_DIMENSION = 120;
+	// Narrowing by less than this share of the framing rect's area isn't worth the risk.
+	private static final float MAX_REGION_AREA_RATIO = 0.75f;
+	private static final int PROJECTION_STEP = 4;
+	// The largest motion between two frames looked for, in preview pixels.
+	private static final int MAX_SHIFT = 32;
+	// Beyond this residual, as a share of the profile's own spread, the motion estimate is a guess.
+	private static final float MAX_RESIDUAL_RATIO = 0.5f;
+	
+	private int maxMisses = DEFAULT_MAX_MISSES;
+	private boolean enabled = true;
+	
+	private final int[] region = new int[4];
+	private boolean tracking;
+	private int misses;
+	
+	// Luminance profiles of the newest frame so far
+	private int[] lastColumns = new int[0];
+	private int[] lastRows = new int[0];
+	private boolean haveProfiles;
+	private long lastSequence = Long.MIN_VALUE;
+	private float residualRatio;
+	private final long[] energy = new long[GRID * GRID];
+	
+	// Stats
+	private long frames;
+	private long narrowedFrames;
+	private long hits;
+	private long missCount;
+	private int fallbacks;
+	private long cropArea;
+	private long framingArea;
+	
+	/**
+	 * Scratch space for the luminance profiles of one frame. Each decode thread keeps its own.
+	 */
+	public static final class Profiles {
+	    int[] columns = new int[0];
+	    int[] rows = new int[0];
+	}
+	
+	/**
+	 * Picks the crop to decode from one frame, and updates the motion estimate with it if the frame
+	 * is the newest yet.
+	 *
+	 * @param data The preview frame; only its Y plane is read.
+	 * @param width The width of the preview frame.
+	 * @param framingRect The full framing rect.
+	 * @param crop Set to the crop to decode.
+	 * @param sequence The frame's position in arrival order, see {@link PreviewFrame#getSequence()}.
+	 * @param profiles The calling thread's scratch space.
+	 * @return True if the crop is narrower than the framing rect.
+	 */
+	public boolean selectCrop(byte[] data, int width, int[] framingRect, int[] crop, long sequence,
+	    Profiles profiles) {
+	    boolean newest;
+	    synchronized (this) {
+	      newest = sequence > lastSequence;
+	      if (newest) {
+	        lastSequence = sequence;
+	      }
+	    }
+	    if (newest) {
+	      profile(data, width, framingRect, profiles);
+	    }
+	    synchronized (this) {
+	      frames++;
+	      // A newer frame may have come in while this one was profiled.
+	      if (newest && sequence == lastSequence) {
+	        followMotion(profiles, framingRect);
+	      }
+	      boolean narrowed = enabled && tracking;
+	      System.arraycopy(narrowed ? region : framingRect, 0, crop, 0, 4);
+	      if (narrowed) {
+	        narrowedFrames++;
+	      }
+	      cropArea += area(crop);
+	      framingArea += area(framingRect);
+	      return narrowed;
+	    }
+	}
+	
+	/**
+	 * Reports that a crop decoded, which moves the region onto the code.
+	 *
+	 * @param crop The crop which decoded, as returned by {@link #selectCrop}.
+	 * @param narrowed What {@link #selectCrop} returned for it.
+	 * @param source The decode buffer built from the crop.
+	 * @param framingRect The full framing rect.
+	 */
+	public synchronized void onDecoded(int[] crop, boolean narrowed, DecodeBufferSource source,
+	    int[] framingRect) {
+	    if (narrowed) {
+	      hits++;
+	    }
+	    misses = 0;
+	    if (enabled) {
+	      locate(crop, source, framingRect);
+	    }
+	}
+	
+	/**
+	 * Reports that a crop held no barcode or didn't decode.
+	 *
+	 * @param narrowed What {@link #selectCrop} returned for the crop.
+	 */
+	public synchronized void onMissed(boolean narrowed) {
+	    if (!narrowed || !tracking) {
+	      return;
+	    }
+	    missCount++;
+	    if (++misses >= maxMisses) {
+	      tracking = false;
+	      misses = 0;
+	      fallbacks++;
+	    }
+	}
+	
+	/**
+	 * Forgets the region and the last frame, e.g. when the preview stops.
+	 */
+	public synchronized void reset() {
+	    tracking = false;
+	    misses = 0;
+	    haveProfiles = false;
+	    lastSequence = Long.MIN_VALUE;
+	}
+	
+	/**
+	 * Sets the region to the bounding box of the grid cells with at least half the edge density of
+	 * the busiest one, plus a margin.
+	 */
+	private void locate(int[] crop, DecodeBufferSource source, int[] framingRect) {
+	    byte[] data = source.getData();
+	    int offset = source.getDataOffset();
+	    int stride = source.getRowStride();
+	    int cellWidth = source.getWidth() / GRID;
+	    int cellHeight = source.getHeight() / GRID;
+	    if (cellWidth < 2 || cellHeight < 2) {
+	      return;
+	    }
+	    long maxEnergy = 0;
+	    for (int cy = 0; cy < GRID; cy++) {
+	      for (int cx = 0; cx < GRID; cx++) {
+	        long e = 0;
+	        for (int y = cy * cellHeight; y < (cy + 1) * cellHeight - 1; y += 2) {
+	          int index = offset + y * stride + cx * cellWidth;
+	          for (int x = 0; x < cellWidth - 1; x += 2) {
+	            int value = data[index + x] & 0xff;
+	            int right = data[index + x + 1] & 0xff;
+	            int below = data[index + x + stride] & 0xff;
+	            e += (value > right ? value - right : right - value) +
+	                (value > below ? value - below : below - value);
+	          }
+	        }
+	        energy[cy * GRID + cx] = e;
+	        if (e > maxEnergy) {
+	          maxEnergy = e;
+	        }
+	      }
+	    }
+	    if (maxEnergy == 0) {
+	      return;
+	    }
+	    int minX = GRID;
+	    int minY = GRID;
+	    int maxX = -1;
+	    int maxY = -1;
+	    for (int i = 0; i < energy.length; i++) {
+	      if (energy[i] * 2 >= maxEnergy) {
+	        int cx = i % GRID;
+	        int cy = i / GRID;
+	        minX = Math.min(minX, cx);
+	        maxX = Math.max(maxX, cx);
+	        minY = Math.min(minY, cy);
+	        maxY = Math.max(maxY, cy);
+	      }
+	    }
+	    int left = crop[0] + minX * cellWidth;
+	    int top = crop[1] + minY * cellHeight;
+	    int right = crop[0] + (maxX + 1) * cellWidth;
+	    int bottom = crop[1] + (maxY + 1) * cellHeight;
+	    int margin = (int) (Math.max(right - left, bottom - top) * MARGIN);
+	    set(region, left - margin, top - margin, right + margin, bottom + margin);
+	    growTo(region, MIN_REGION_DIMENSION, framingRect);
+	    fitInto(region, framingRect);
+	    tracking = area(region) < MAX_REGION_AREA_RATIO * area(framingRect);
+	}
+	
+	/**
+	 * Sums every PROJECTION_STEP-th pixel of the framing rect by column and by row.
+	 */
+	private static void profile(byte[] data, int width, int[] framingRect, Profiles profiles) {
+	    int columnCount = (framingRect[2] - framingRect[0]) / PROJECTION_STEP;
+	    int rowCount = (framingRect[3] - framingRect[1]) / PROJECTION_STEP;
+	    if (profiles.columns.length != columnCount || profiles.rows.length != rowCount) {
+	      profiles.columns = new int[columnCount];
+	      profiles.rows = new int[rowCount];
+	    }
+	    int[] columns = profiles.columns;
+	    int[] rows = profiles.rows;
+	    Arrays.fill(columns, 0);
+	    for (int r = 0; r < rowCount; r++) {
+	      int index = (framingRect[1] + r * PROJECTION_STEP) * width + framingRect[0];
+	      int rowSum = 0;
+	      for (int c = 0; c < columnCount; c++) {
+	        int value = data[index] & 0xff;
+	        columns[c] += value;
+	        rowSum += value;
+	        index += PROJECTION_STEP;
+	      }
+	      rows[r] = rowSum;
+	    }
+	}
+	
+	/**
+	 * When tracking, moves the region by how far the profiles shifted since the last newest frame.
+	 * If they don't line up at any shift within reach, the motion is unknown and the region grows
+	 * by that reach instead.
+	 */
+	private void followMotion(Profiles profiles, int[] framingRect) {
+	    int[] columns = profiles.columns;
+	    int[] rows = profiles.rows;
+	    if (lastColumns.length != columns.length || lastRows.length != rows.length) {
+	      lastColumns = new int[columns.length];
+	      lastRows = new int[rows.length];
+	      haveProfiles = false;
+	    }
+	    if (tracking && haveProfiles) {
+	      int maxSteps = MAX_SHIFT / PROJECTION_STEP;
+	      int dx = -PROJECTION_STEP * estimateShift(columns, lastColumns, maxSteps);
+	      float columnResidual = residualRatio;
+	      int dy = -PROJECTION_STEP * estimateShift(rows, lastRows, maxSteps);
+	      if (columnResidual > MAX_RESIDUAL_RATIO || residualRatio > MAX_RESIDUAL_RATIO) {
+	        set(region, region[0] - MAX_SHIFT, region[1] - MAX_SHIFT, region[2] + MAX_SHIFT,
+	            region[3] + MAX_SHIFT);
+	      } else {
+	        set(region, region[0] + dx, region[1] + dy, region[2] + dx, region[3] + dy);
+	      }
+	      fitInto(region, framingRect);
+	    }
+	    
+	    System.arraycopy(columns, 0, lastColumns, 0, columns.length);
+	    System.arraycopy(rows, 0, lastRows, 0, rows.length);
+	    haveProfiles = true;
+	}
+	
+	/**
+	 * Finds the shift, in profile steps, which best lines the last profile up with the current
+	 * one, ignoring overall brightness changes. Sets {@link #residualRatio} to how well it fits.
+	 */
+	private int estimateShift(int[] current, int[] last, int maxSteps) {
+	    int count = current.length;
+	    long currentMean = 0;
+	    long lastMean = 0;
+	    for (int i = 0; i < count; i++) {
+	      currentMean += current[i];
+	      lastMean += last[i];
+	    }
+	    if (count == 0) {
+	      residualRatio = 0.0f;
+	      return 0;
+	    }
+	    currentMean /= count;
+	    lastMean /= count;
+	    long spread = 0;
+	    for (int i = 0; i < count; i++) {
+	      spread += Math.abs(current[i] - currentMean);
+	    }
+	    
+	    int bestShift = 0;
+	    float bestResidual = Float.MAX_VALUE;
+	    for (int shift = -maxSteps; shift <= maxSteps; shift++) {
+	      int from = Math.max(0, -shift);
+	      int to = Math.min(count, count - shift);
+	      if (to - from < count / 2) {
+	        continue;
+	      }
+	      long sad = 0;
+	      for (int i = from; i < to; i++) {
+	        sad += Math.abs((current[i] - currentMean) - (last[i + shift] - lastMean));
+	      }
+	      float residual = (float) sad / (to - from);
+	      if (residual < bestResidual) {
+	        bestResidual = residual;
+	        bestShift = shift;
+	      }
+	    }
+	    float meanSpread = (float) spread / count;
+	    // A flat profile shows no motion, and fits any shift.
+	    residualRatio = meanSpread == 0.0f ? 0.0f : bestResidual / meanSpread;
+	    return bestShift;
+	}
+	
+	/**
+	 * Grows rect around its center to at least minDimension in each direction, but no larger than
+	 * bounds.
+	 */
+	private static void growTo(int[] rect, int minDimension, int[] bounds) {
+	    int width = Math.min(Math.max(rect[2] - rect[0], minDimension), bounds[2] - bounds[0]);
+	    int height = Math.min(Math.max(rect[3] - rect[1], minDimension), bounds[3] - bounds[1]);
+	    int left = (rect[0] + rect[2] - width) / 2;
+	    int top = (rect[1] + rect[3] - height) / 2;
+	    set(rect, left, top, left + width, top + height);
+	}
+	
+	/**
+	 * Moves rect inside bounds, then clips whatever still sticks out.
+	 */
+	private static void fitInto(int[] rect, int[] bounds) {
+	    int dx = rect[0] < bounds[0] ? bounds[0] - rect[0] : rect[2] > bounds[2] ? bounds[2] - rect[2] : 0;
+	    int dy = rect[1] < bounds[1] ? bounds[1] - rect[1] : rect[3] > bounds[3] ? bounds[3] - rect[3] : 0;
+	    set(rect, Math.max(bounds[0], rect[0] + dx), Math.max(bounds[1], rect[1] + dy),
+	        Math.min(bounds[2], rect[2] + dx), Math.min(bounds[3], rect[3] + dy));
+	}
+	
+	private static void set(int[] rect, int left, int top, int right, int bottom) {
+	    rect[0] = left;
+	    rect[1] = top;
+	    rect[2] = right;
+	    rect[3] = bottom;
+	}
+	
+	private static long area(int[] rect) {
+	    return (long) (rect[2] - rect[0]) * (rect[3] - rect[1]);
+	}
+	
+	/**
+	 * @param enabled False to always decode the full framing rect.
+	 */
+	public synchronized void setEnabled(boolean enabled) {
+	    this.enabled = enabled;
+	}
+	
+	/**
+	 * @param maxMisses How many frames in a row may fail within the region before falling back
+	 *                  to the full framing rect.
+	 */
+	public synchronized void setMaxMisses(int maxMisses) {
+	    if (maxMisses < 1) {
+	      throw new IllegalArgumentException("Need to allow at least one miss: " + maxMisses);
+	    }
+	    this.maxMisses = maxMisses;
+	}
+	
+	public synchronized long getNarrowedFrameCount() {
+	    return narrowedFrames;
+	}
+	
+	/**
+	 * @return The share of frames decoded within a narrowed region, of those that were tried.
+	 */
+	public synchronized float getHitRate() {
+	    long tried = hits + missCount;
+	    return tried == 0 ? 0.0f : (float) hits / tried;
+	}
+	
+	/**
+	 * @return How often the region was given up for the full framing rect.
+	 */
+	public synchronized int getFallbackCount() {
+	    return fallbacks;
+	}
+	
+	/**
+	 * @return The mean crop size in preview pixels.
+	 */
+	public synchronized long getAverageCropArea() {
+	    return frames == 0 ? 0L : cropArea / frames;
+	}
+	
+	/**
+	 * @return The mean crop size as a share of the framing rect, i.e. roughly the share of the
+	 *         decoder's per-pixel work still being done.
+	 */
+	public synchronized float getCropAreaRatio() {
+	    return framingArea == 0 ? 1.0f : (float) cropArea / framingArea;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import tw.com.quickmark.sdk.Result;
+
+/**
+ * The continuous decode loop without anything Android, so it runs the same on a device and on a
+ * plain JVM. Worker threads take frames from a {@link FrameSource}, put each through a
+ * {@link FrameDecoder}, the same one the capture screen decodes with, and report every code to a
+ * {@link ScanSession}, which drops repeats and streams the new ones to its listeners.
+ *
+ * Codes are reported with their frame's timestamp in milliseconds, so a source replaying frames
+ * with their original timestamps gets the same session every time.
+ */
+public final class ScanPipeline {
+
+	private static final String TAG = ScanPipeline.class.getSimpleName();
+	
+	private final FrameSource source;
+	private final BarcodeDecoder[] decoders;
+	private final ScanSession session;
+	private final FrameDecoder frameDecoder;
+	private Thread[] workers;
+	
+	// Stats
+	private final AtomicLong frames = new AtomicLong();
+	private final AtomicLong decodedFrames = new AtomicLong();
+	private final AtomicLong decodeTime = new AtomicLong();
+	
+	/**
+	 * @param decoders One per worker thread; each is only ever used by its thread.
+	 * @param frameDecoder What to do with each frame; may be shared with other pipelines.
+	 */
+	public ScanPipeline(FrameSource source, BarcodeDecoder[] decoders, ScanSession session,
+	    FrameDecoder frameDecoder) {
+	    if (decoders.length < 1) {
+	      throw new IllegalArgumentException("Need at least one decoder");
+	    }
+	    this.source = source;
+	    this.decoders = decoders.clone();
+	    this.session = session;
+	    this.frameDecoder = frameDecoder;
+	}
+	
+	public synchronized void start() {
+	    if (workers != null) {
+	      return;
+	    }
+	    workers = new Thread[decoders.length];
+	    for (int i = 0; i < workers.length; i++) {
+	      final BarcodeDecoder decoder = decoders[i];
+	      workers[i] = new Thread(new Runnable() {
+	        public void run() {
+	          decodeLoop(decoder);
+	        }
+	      }, TAG + '-' + i);
+	      workers[i].start();
+	    }
+	}
+	
+	/**
+	 * Stops the workers and waits for the decodes in progress to finish.
+	 */
+	public synchronized void stop() {
+	    if (workers == null) {
+	      return;
+	    }
+	    for (Thread worker : workers) {
+	      worker.interrupt();
+	    }
+	    for (Thread worker : workers) {
+	      try {
+	        worker.join();
+	      } catch (InterruptedException e) {
+	        Thread.currentThread().interrupt();
+	      }
+	    }
+	    workers = null;
+	}
+	
+	public synchronized boolean isRunning() {
+	    return workers != null;
+	}
+	
+	private void decodeLoop(BarcodeDecoder decoder) {
+	    FrameDecoder.Buffers buffers = new FrameDecoder.Buffers();
+	    try {
+	      while (!Thread.currentThread().isInterrupted()) {
+	        PreviewFrame frame = source.take();
+	        long timestamp = frame.getTimestamp();
+	        Result result;
+	        try {
+	          result = decodeFrame(frame, decoder, buffers);
+	        } finally {
+	          source.recycle(frame);
+	        }
+	        if (result != null) {
+	          session.onDecoded(result, timestamp / 1000000L);
+	        }
+	      }
+	    } catch (InterruptedException e) {
+	      // Stopped.
+	    }
+	}
+	
+	/**
+	 * Decodes one frame and counts it.
+	 *
+	 * @return The result, or null.
+	 */
+	Result decodeFrame(PreviewFrame frame, BarcodeDecoder decoder, FrameDecoder.Buffers buffers) {
+	    long start = System.nanoTime();
+	    Result result = frameDecoder.decode(frame, decoder, buffers);
+	    frames.incrementAndGet();
+	    if (result != null) {
+	      decodedFrames.incrementAndGet();
+	    }
+	    decodeTime.addAndGet(System.nanoTime() - start);
+	    return result;
+	}
+	
+	public ScanSession getSession() {
+	    return session;
+	}
+	
+	public FrameDecoder getFrameDecoder() {
+	    return frameDecoder;
+	}
+	
+	public long getFrameCount() {
+	    return frames.get();
+	}
+	
+	public long getDecodedFrameCount() {
+	    return decodedFrames.get();
+	}
+	
+	/**
+	 * @return The mean time a worker spent on one frame, in milliseconds.
+	 */
+	public float getAverageFrameMillis() {
+	    long count = frames.get();
+	    return count == 0 ? 0.0f : decodeTime.get() / (count * 1.0e6f);
+	}
+	
+	@Override
+	public String toString() {
+	    return TAG + '[' + decoders.length + " workers]";
+	}
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import tw.com.quickmark.sdk.Result;
+import android.app.Activity;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.SurfaceTexture;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * Scans in the background for other apps, so they don't pay for launching the capture screen
+ * and opening the camera on every scan. Clients bind, register a {@link Messenger} with
+ * {@link #MSG_REGISTER_CLIENT}, and get new codes pushed to it in batches as
+ * {@link #MSG_RESULTS}, acknowledging each with {@link #MSG_ACK_BATCH}. A client which stops
+ * acknowledging gets nothing more until it catches up; its codes wait in a bounded
+ * {@link ResultBatcher} meanwhile. {@link ScanServiceClient} does all this for a client.
+ *
+ * The camera runs while any client is registered and stays warm for a while after the last one
+ * leaves; the service starts itself while scanning so unbinding doesn't destroy it before then.
+ * Frames are previewed into an offscreen texture, so this needs Honeycomb or later, and it can't
+ * run while the capture screen has the camera. They are decoded by the camera manager's
+ * {@link FrameDecoder}, the same as on the capture screen. The decoders are loaded off the main
+ * thread when the first client registers, and scanning starts once they are ready.
+ */
+public final class ScanService extends Service {
+
+	private static final String TAG = ScanService.class.getSimpleName();
+	
+	/** The action to bind to the service with. */
+	public static final String ACTION_SCAN = "tw.com.quickmark.sdk.demo.SCAN_SERVICE";
+	
+	// Client to service
+	/** Registers msg.replyTo for results. Scanning starts with the first client. */
+	public static final int MSG_REGISTER_CLIENT = 1;
+	/** Unregisters msg.replyTo. */
+	public static final int MSG_UNREGISTER_CLIENT = 2;
+	/** msg.replyTo is done with its oldest batch and can take another. */
+	public static final int MSG_ACK_BATCH = 3;
+	
+	// Service to client
+	/** A batch of codes, as {@link #KEY_TEXTS}, {@link #KEY_FORMATS} and {@link #KEY_DROPPED}. */
+	public static final int MSG_RESULTS = 101;
+	/** Scanning can't start; arg1 is one of the ERROR_ codes. */
+	public static final int MSG_ERROR = 102;
+	
+	public static final String KEY_TEXTS = "texts";
+	public static final String KEY_FORMATS = "formats";
+	/** How many codes were dropped before this batch because the client was behind. */
+	public static final String KEY_DROPPED = "dropped";
+	
+	public static final int ERROR_UNSUPPORTED = 1;
+	public static final int ERROR_CAMERA = 2;
+	
+	private static final int MSG_FLUSH = 201;
+	private static final int MSG_AUTO_FOCUS = 202;
+	private static final int MSG_STOP_SCANNING = 203;
+	private static final int MSG_DECODERS_LOADED = 204;
+	
+	private static final int MAX_BATCH_SIZE = 16;
+	private static final long MAX_BATCH_DELAY_MS = 50L;
+	private static final int MAX_UNACKED_BATCHES = 2;
+	private static final int CLIENT_CAPACITY = 256;
+	private static final long KEEP_WARM_MS = 30000L;
+	
+	/**
+	 * The QuickMark SDK wants an Activity, but only for its package name and code path, which any
+	 * context wrapper can tell it.
+	 */
+	private static final class DecoderHost extends Activity {
+	    DecoderHost(Context base) {
+	      attachBaseContext(base);
+	    }
+	}
+	
+	private static final class Client {
+	    final Messenger messenger;
+	    final ResultBatcher batcher = new ResultBatcher(MAX_BATCH_SIZE, MAX_BATCH_DELAY_MS,
+	        MAX_UNACKED_BATCHES, CLIENT_CAPACITY);
+	    
+	    Client(Messenger messenger) {
+	      this.messenger = messenger;
+	    }
+	}
+	
+	private final ArrayList<Client> clients = new ArrayList<Client>();
+	private ScanSession session;
+	private BarcodeDecoder[] decoders;
+	private boolean loadingDecoders;
+	private ScanPipeline pipeline;
+	private SurfaceTexture texture;
+	private boolean scanning;
+	
+	private final Handler handler = new Handler() {
+		@Override
+		public void handleMessage(Message msg) {
+			switch (msg.what) {
+				case MSG_REGISTER_CLIENT:
+					register(msg.replyTo);
+					break;
+				case MSG_UNREGISTER_CLIENT:
+					unregister(msg.replyTo);
+					break;
+				case MSG_ACK_BATCH:
+					Client client = findClient(msg.replyTo);
+					if (client != null) {
+						client.batcher.acknowledge();
+						flush();
+					}
+					break;
+				case MSG_FLUSH:
+					flush();
+					break;
+				case MSG_AUTO_FOCUS:
+					if (scanning) {
+						if (CameraManager.get().getFocusScheduler().shouldFocus(SystemClock.uptimeMillis())) {
+							CameraManager.get().requestAutoFocus(this, MSG_AUTO_FOCUS);
+						} else {
+							removeMessages(MSG_AUTO_FOCUS);
+							sendEmptyMessageDelayed(MSG_AUTO_FOCUS, CameraManager.AUTOFOCUS_CHECK_INTERVAL_MS);
+						}
+					}
+					break;
+				case MSG_STOP_SCANNING:
+					stopScanning();
+					stopSelf();
+					break;
+				case MSG_DECODERS_LOADED:
+					onDecodersLoaded((BarcodeDecoder[]) msg.obj);
+					break;
+			}
+		}
+	};
+	private final Messenger messenger = new Messenger(handler);
+	
+	/** New codes arrive on decode threads; hand them to the clients on the main thread. */
+	private final ScanSession.Listener scanListener = new ScanSession.Listener() {
+		public void onScan(final Result result, final long timestamp) {
+			handler.post(new Runnable() {
+				public void run() {
+					long now = SystemClock.uptimeMillis();
+					for (Client client : clients) {
+						client.batcher.add(result, now);
+					}
+					flush();
+				}
+			});
+		}
+	};
+	
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		CameraManager.init(getApplication());
+		session = new ScanSession();
+		session.addListener(scanListener);
+		session.addListener(CameraManager.get().getFormatScheduler());
+	}
+	
+	@Override
+	public IBinder onBind(Intent intent) {
+		return messenger.getBinder();
+	}
+	
+	/**
+	 * Only called from {@link #startScanning}, to outlive the last client until the camera stops.
+	 */
+	@Override
+	public int onStartCommand(Intent intent, int flags, int startId) {
+		return START_NOT_STICKY;
+	}
+	
+	@Override
+	public void onDestroy() {
+		handler.removeMessages(MSG_STOP_SCANNING);
+		stopScanning();
+		super.onDestroy();
+	}
+	
+	private void register(Messenger replyTo) {
+		if (replyTo == null || findClient(replyTo) != null) {
+			return;
+		}
+		clients.add(new Client(replyTo));
+		handler.removeMessages(MSG_STOP_SCANNING);
+		if (!scanning) {
+			int error = startScanning();
+			if (error != 0) {
+				send(clients.get(clients.size() - 1), Message.obtain(null, MSG_ERROR, error, 0));
+			}
+		}
+	}
+	
+	private void unregister(Messenger replyTo) {
+		Client client = findClient(replyTo);
+		if (client != null) {
+			clients.remove(client);
+		}
+		if (clients.isEmpty()) {
+			// Someone is likely to want another scan soon; keep the camera open a little longer.
+			handler.sendEmptyMessageDelayed(MSG_STOP_SCANNING, KEEP_WARM_MS);
+		}
+	}
+	
+	private Client findClient(Messenger replyTo) {
+		for (Client client : clients) {
+			if (client.messenger.equals(replyTo)) {
+				return client;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Opens the camera and starts the decode workers, or, the first time, starts loading the
+	 * decoders and comes back here once they are ready.
+	 *
+	 * @return 0, or the ERROR_ code saying why not.
+	 */
+	private int startScanning() {
+		CameraManager cameraManager = CameraManager.get();
+		FrameSource frameSource = cameraManager.getPreviewFrameRing();
+		if (CameraManager.SDK_INT < Build.VERSION_CODES.HONEYCOMB || frameSource == null) {
+			return ERROR_UNSUPPORTED;
+		}
+		if (decoders == null) {
+			loadDecoders();
+			return 0;
+		}
+		try {
+			texture = new SurfaceTexture(0);
+			cameraManager.openDriver(texture);
+		} catch (IOException ioe) {
+			Log.w(TAG, ioe);
+			releaseCamera();
+			return ERROR_CAMERA;
+		} catch (RuntimeException e) {
+			Log.w(TAG, "Unexpected error initializating camera", e);
+			releaseCamera();
+			return ERROR_CAMERA;
+		}
+		
+		if (pipeline == null) {
+			pipeline = new ScanPipeline(frameSource, decoders, session, cameraManager.getFrameDecoder());
+		}
+		// Settings changed later reach the camera manager through PreferencesActivity.
+		cameraManager.setDecodeConfig(
+				PreferencesActivity.readDecodeConfig(PreferenceManager.getDefaultSharedPreferences(this)));
+		
+		// Every worker holds one buffer, one more waits in the ring and one is being filled.
+		cameraManager.setPreviewBufferCount(DecodeWorkerPool.getDefaultWorkerCount() + 2);
+		cameraManager.startPreview();
+		cameraManager.startContinuousCapture();
+		pipeline.start();
+		scanning = true;
+		startService(new Intent(this, ScanService.class));
+		handler.sendEmptyMessage(MSG_AUTO_FOCUS);
+		Log.d(TAG, "Scanning with " + pipeline);
+		return 0;
+	}
+	
+	/**
+	 * Loads one decoder per worker on a new thread, as the capture screen does, and hands them to
+	 * the main thread as {@link #MSG_DECODERS_LOADED}.
+	 */
+	private void loadDecoders() {
+		if (loadingDecoders) {
+			return;
+		}
+		loadingDecoders = true;
+		final DecoderHost host = new DecoderHost(this);
+		final int count = DecodeWorkerPool.getDefaultWorkerCount();
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				BarcodeDecoder[] loaded = new BarcodeDecoder[count];
+				for (int i = 0; i < count; i++) {
+					loaded[i] = new QuickMarkBarcodeDecoder(ScannerStartup.loadQmcore(host));
+				}
+				handler.obtainMessage(MSG_DECODERS_LOADED, loaded).sendToTarget();
+			}
+		}, TAG + "-decoders");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Starts scanning for the clients which registered while the decoders loaded, if any are left.
+	 */
+	private void onDecodersLoaded(BarcodeDecoder[] loaded) {
+		decoders = loaded;
+		loadingDecoders = false;
+		if (scanning || clients.isEmpty()) {
+			return;
+		}
+		int error = startScanning();
+		if (error != 0) {
+			// Backwards, as a client which went away is dropped.
+			for (int i = clients.size() - 1; i >= 0; i--) {
+				send(clients.get(i), Message.obtain(null, MSG_ERROR, error, 0));
+			}
+		}
+	}
+	
+	private void stopScanning() {
+		if (!scanning) {
+			return;
+		}
+		scanning = false;
+		handler.removeMessages(MSG_AUTO_FOCUS);
+		CameraManager.get().stopPreview();
+		pipeline.stop();
+		releaseCamera();
+		Log.d(TAG, "Stopped after " + session.getScanCount() + " codes, " +
+				session.getDuplicateCount() + " repeats");
+	}
+	
+	private void releaseCamera() {
+		CameraManager.get().closeDriver();
+		if (texture != null) {
+			texture.release();
+			texture = null;
+		}
+	}
+	
+	/**
+	 * Sends every client whatever batch is ready for it, and schedules the next flush for codes
+	 * still waiting for their batch to fill.
+	 */
+	private void flush() {
+		long now = SystemClock.uptimeMillis();
+		long nextDeadline = Long.MAX_VALUE;
+		for (int i = clients.size() - 1; i >= 0; i--) {
+			Client client = clients.get(i);
+			ResultBatcher.Batch batch;
+			while ((batch = client.batcher.poll(now)) != null) {
+				if (!send(client, toMessage(batch))) {
+					break;
+				}
+			}
+			if (!client.batcher.isBehind()) {
+				nextDeadline = Math.min(nextDeadline, client.batcher.getNextDeadline());
+			}
+		}
+		handler.removeMessages(MSG_FLUSH);
+		if (nextDeadline != Long.MAX_VALUE) {
+			handler.sendEmptyMessageDelayed(MSG_FLUSH, Math.max(0L, nextDeadline - now));
+		}
+	}
+	
+	private static Message toMessage(ResultBatcher.Batch batch) {
+		Result[] results = batch.getResults();
+		String[] texts = new String[results.length];
+		String[] formats = new String[results.length];
+		for (int i = 0; i < results.length; i++) {
+			texts[i] = results[i].getText();
+			formats[i] = results[i].getBarcodeFormat().getName();
+		}
+		Bundle data = new Bundle();
+		data.putStringArray(KEY_TEXTS, texts);
+		data.putStringArray(KEY_FORMATS, formats);
+		data.putInt(KEY_DROPPED, batch.getDroppedCount());
+		Message message = Message.obtain(null, MSG_RESULTS);
+		message.setData(data);
+		return message;
+	}
+	
+	/**
+	 * @return False if the client has gone away, in which case it is dropped.
+	 */
+	private boolean send(Client client, Message message) {
+		try {
+			client.messenger.send(message);
+			return true;
+		} catch (RemoteException e) {
+			Log.w(TAG, "Client went away", e);
+			clients.remove(client);
+			if (clients.isEmpty()) {
+				handler.sendEmptyMessageDelayed(MSG_STOP_SCANNING, KEEP_WARM_MS);
+			}
+			return false;
+		}
+	}
+}
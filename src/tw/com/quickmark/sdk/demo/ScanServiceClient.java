@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.util.Log;
+
+/**
+ * The client side of {@link ScanService}, for apps which want a stream of codes. Binds to the
+ * service, registers for results and passes every batch to a {@link Listener} on the main
+ * thread. A batch is acknowledged once the listener returns, so a slow listener holds back
+ * further batches rather than queueing messages without bound.
+ *
+ * Apps outside this package need the tw.com.quickmark.sdk.demo.permission.SCAN permission, which
+ * is only granted to apps signed with the same key.
+ */
+public class ScanServiceClient {
+
+	private static final String TAG = ScanServiceClient.class.getSimpleName();
+	private static final String SERVICE_PACKAGE = "tw.com.quickmark.sdk.demo";
+	
+	/**
+	 * Receives the codes, on the main thread.
+	 */
+	public interface Listener {
+	    /**
+	     * @param texts The codes' texts, oldest first.
+	     * @param formats The codes' format names, matching texts.
+	     * @param dropped How many codes were dropped before these because the listener was behind.
+	     */
+	    void onResults(String[] texts, String[] formats, int dropped);
+	    
+	    /**
+	     * @param error One of the ScanService.ERROR_ codes.
+	     */
+	    void onError(int error);
+	}
+	
+	private final Context context;
+	private final Listener listener;
+	private Messenger service;
+	private boolean bound;
+	
+	private final Handler handler = new Handler() {
+		@Override
+		public void handleMessage(Message msg) {
+			switch (msg.what) {
+				case ScanService.MSG_RESULTS:
+					Bundle data = msg.getData();
+					try {
+						listener.onResults(data.getStringArray(ScanService.KEY_TEXTS),
+								data.getStringArray(ScanService.KEY_FORMATS), data.getInt(ScanService.KEY_DROPPED));
+					} finally {
+						send(ScanService.MSG_ACK_BATCH);
+					}
+					break;
+				case ScanService.MSG_ERROR:
+					listener.onError(msg.arg1);
+					break;
+			}
+		}
+	};
+	private final Messenger messenger = new Messenger(handler);
+	
+	private final ServiceConnection connection = new ServiceConnection() {
+		public void onServiceConnected(ComponentName name, IBinder binder) {
+			service = new Messenger(binder);
+			send(ScanService.MSG_REGISTER_CLIENT);
+		}
+		
+		public void onServiceDisconnected(ComponentName name) {
+			// The service crashed; the system rebinds and onServiceConnected registers again.
+			service = null;
+		}
+	};
+	
+	public ScanServiceClient(Context context, Listener listener) {
+		this.context = context;
+		this.listener = listener;
+	}
+	
+	/**
+	 * Connects to the service, which starts scanning once this client is registered.
+	 *
+	 * @return False if the service can't be found.
+	 */
+	public boolean start() {
+		if (!bound) {
+			Intent intent = new Intent(ScanService.ACTION_SCAN);
+			intent.setPackage(SERVICE_PACKAGE);
+			bound = context.bindService(intent, connection, Context.BIND_AUTO_CREATE);
+		}
+		return bound;
+	}
+	
+	/**
+	 * Stops receiving codes. The service keeps the camera warm for a while for the next client.
+	 */
+	public void stop() {
+		if (bound) {
+			send(ScanService.MSG_UNREGISTER_CLIENT);
+			context.unbindService(connection);
+			bound = false;
+			service = null;
+		}
+	}
+	
+	private void send(int what) {
+		if (service == null) {
+			return;
+		}
+		Message message = Message.obtain(null, what);
+		message.replyTo = messenger;
+		try {
+			service.send(message);
+		} catch (RemoteException e) {
+			Log.w(TAG, "Scan service went away", e);
+		}
+	}
+}
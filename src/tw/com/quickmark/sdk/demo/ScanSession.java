@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import tw.com.quickmark.sdk.Result;
+
+/**
+ * Collects the codes of a continuous scanning session, during which the camera keeps running
+ * and every new code is streamed out as soon as it decodes, instead of ending the scan. Repeats
+ * of a code still in view are dropped by a {@link RecentScanCache}. New codes go to the
+ * registered listeners, on the thread which reported them, and to a bounded queue for consumers
+ * on other threads; when the queue is full the oldest code in it is dropped.
+ *
+ * Time is passed in, in milliseconds on any monotonic clock.
+ */
+public final class ScanSession {
+
+	private static final int DEFAULT_CACHE_SIZE = 64;
+	private static final long DEFAULT_TTL_MS = 10000L;
+	private static final int DEFAULT_QUEUE_CAPACITY = 256;
+	// Scans per minute are measured over the last minute, or less at the start.
+	private static final long RATE_WINDOW_MS = 60000L;
+	private static final int MAX_RATE_SAMPLES = 1024;
+	
+	/**
+	 * Receives every new code of the session.
+	 */
+	public interface Listener {
+	    void onScan(Result result, long timestamp);
+	}
+	
+	private final RecentScanCache recent;
+	private final BlockingQueue<Result> results;
+	private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	
+	// Times of the latest scans, oldest first, for the scan rate
+	private final long[] scanTimes = new long[MAX_RATE_SAMPLES];
+	private int scanTimesStart;
+	private int scanTimesCount;
+	private long startTime = -1L;
+	
+	// Stats
+	private int scans;
+	private int duplicates;
+	private int droppedResults;
+	
+	public ScanSession() {
+	    this(DEFAULT_CACHE_SIZE, DEFAULT_TTL_MS, DEFAULT_QUEUE_CAPACITY);
+	}
+	
+	/**
+	 * @param cacheSize How many recent codes to remember for dropping repeats.
+	 * @param ttl How long in milliseconds a code must be out of view before it counts again.
+	 * @param queueCapacity How many codes the result queue holds.
+	 */
+	public ScanSession(int cacheSize, long ttl, int queueCapacity) {
+	    this.recent = new RecentScanCache(cacheSize, ttl);
+	    this.results = new ArrayBlockingQueue<Result>(queueCapacity);
+	}
+	
+	/**
+	 * Reports a decoded code.
+	 *
+	 * @return True if it is new to the session and was passed on.
+	 */
+	public boolean onDecoded(Result result, long now) {
+	    synchronized (this) {
+	      if (startTime < 0L) {
+	        startTime = now;
+	      }
+	      if (!recent.add(result.getBarcodeFormat().getName() + ':' + result.getText(), now)) {
+	        duplicates++;
+	        return false;
+	      }
+	      scans++;
+	      recordScanTime(now);
+	      while (!results.offer(result)) {
+	        if (results.poll() != null) {
+	          droppedResults++;
+	        }
+	      }
+	    }
+	    for (Listener listener : listeners) {
+	      listener.onScan(result, now);
+	    }
+	    return true;
+	}
+	
+	private void recordScanTime(long now) {
+	    if (scanTimesCount == scanTimes.length) {
+	      scanTimesStart = (scanTimesStart + 1) % scanTimes.length;
+	      scanTimesCount--;
+	    }
+	    scanTimes[(scanTimesStart + scanTimesCount) % scanTimes.length] = now;
+	    scanTimesCount++;
+	}
+	
+	public void addListener(Listener listener) {
+	    listeners.addIfAbsent(listener);
+	}
+	
+	public void removeListener(Listener listener) {
+	    listeners.remove(listener);
+	}
+	
+	/**
+	 * @return The new codes in the order they were scanned, for consumers which poll or block.
+	 */
+	public BlockingQueue<Result> getResults() {
+	    return results;
+	}
+	
+	/**
+	 * Starts over: forgets recent codes, queued results and stats.
+	 */
+	public synchronized void reset() {
+	    recent.clear();
+	    results.clear();
+	    scanTimesStart = 0;
+	    scanTimesCount = 0;
+	    startTime = -1L;
+	    scans = 0;
+	    duplicates = 0;
+	    droppedResults = 0;
+	}
+	
+	/**
+	 * @return New codes scanned in the session.
+	 */
+	public synchronized int getScanCount() {
+	    return scans;
+	}
+	
+	/**
+	 * @return Decodes dropped as repeats of a code still in view.
+	 */
+	public synchronized int getDuplicateCount() {
+	    return duplicates;
+	}
+	
+	/**
+	 * @return Codes dropped from the result queue because nobody took them in time.
+	 */
+	public synchronized int getDroppedResultCount() {
+	    return droppedResults;
+	}
+	
+	/**
+	 * @return The sustained scan rate: new codes per minute over the last minute, or over the
+	 *         whole session if it is younger.
+	 */
+	public synchronized float getScansPerMinute(long now) {
+	    if (startTime < 0L) {
+	      return 0.0f;
+	    }
+	    int count = 0;
+	    for (int i = scanTimesCount - 1; i >= 0; i--) {
+	      if (now - scanTimes[(scanTimesStart + i) % scanTimes.length] > RATE_WINDOW_MS) {
+	        break;
+	      }
+	      count++;
+	    }
+	    long window = Math.min(RATE_WINDOW_MS, now - startTime);
+	    // Don't extrapolate a rate from the first second.
+	    window = Math.max(window, 1000L);
+	    return count * 60000.0f / window;
+	}
+}
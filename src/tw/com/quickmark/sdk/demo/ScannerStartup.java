@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import tw.com.quickmark.sdk.qmcore;
+import android.app.Activity;
+import android.os.Handler;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+/**
+ * Gets the scanner going without blocking the UI thread. qmcore is loaded, which unpacks its
+ * native library, and warmed up with a synthetic frame on one background thread, while the camera
+ * is opened and configured on another; the listener hears back on the main thread once both are
+ * done and the camera has its surface. The phases of the first start are timed from construction,
+ * and every camera open and configuration on its own.
+ *
+ * The decoder is loaded once; the camera is opened again on every resume and must be cancelled
+ * before it is closed, so an open still in flight doesn't outlive the pause. Call everything but
+ * {@link #mark} from the main thread.
+ */
+public final class ScannerStartup {
+
+	private static final String TAG = ScannerStartup.class.getSimpleName();
+	
+	/**
+	 * Receives the outcome, on the main thread.
+	 */
+	public interface Listener {
+	    /** The decoder is loaded and warmed up; check mSdkLoaded before relying on it. */
+	    void onDecoderLoaded(qmcore decoder);
+	    /** The decoder is loaded and the camera is open, configured and attached to its surface. */
+	    void onScannerReady();
+	    void onCameraFailed(Exception e);
+	}
+	
+	// Phases
+	public static final int DECODER_LOADED = 0;
+	public static final int DECODER_WARMED = 1;
+	public static final int CAMERA_OPENED = 2;
+	public static final int CAMERA_CONFIGURED = 3;
+	public static final int SURFACE_READY = 4;
+	public static final int DISPLAY_SET = 5;
+	public static final int SCANNER_READY = 6;
+	public static final int FIRST_DECODE = 7;
+	
+	private static final String[] PHASE_NAMES = {
+	    "decoder loaded", "decoder warmed", "camera opened", "camera configured", "surface ready",
+	    "display set", "scanner ready", "first decode"
+	};
+	
+	// A small frame is enough to get the native decoder's tables set up.
+	private static final int WARM_UP_WIDTH = 320;
+	private static final int WARM_UP_HEIGHT = 240;
+	private static final int WARM_UP_DECODES = 2;
+	
+	private final Activity activity;
+	private final Listener listener;
+	private final Handler mainHandler = new Handler();
+	private final ExecutorService cameraExecutor;
+	private final long start = System.nanoTime();
+	// Nanoseconds from the start plus one, 0 until reached
+	private final AtomicLongArray phases = new AtomicLongArray(PHASE_NAMES.length);
+	
+	// Main thread only
+	private qmcore decoder;
+	private int generation;
+	private boolean cameraReady;
+	private boolean readyReported;
+	// The camera attempt which is still wanted; the executor drops work for any other.
+	private volatile int wantedGeneration;
+	
+	// Camera thread only, read for the dump
+	private int cameraOpens;
+	private volatile String lastCameraOpen;
+	
+	public ScannerStartup(Activity activity, Listener listener) {
+	    this.activity = activity;
+	    this.listener = listener;
+	    this.cameraExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+	      public Thread newThread(Runnable runnable) {
+	        Thread thread = new Thread(runnable, TAG + "-camera");
+	        thread.setDaemon(true);
+	        return thread;
+	      }
+	    });
+	}
+	
+	/**
+	 * Loads qmcore on a new thread and warms it up.
+	 */
+	public void loadDecoder() {
+	    Thread thread = new Thread(new Runnable() {
+	      public void run() {
+	        final qmcore loaded = loadQmcore(activity);
+	        mark(DECODER_LOADED);
+	        if (loaded.mSdkLoaded) {
+	          warmUp(loaded);
+	        }
+	        mark(DECODER_WARMED);
+	        mainHandler.post(new Runnable() {
+	          public void run() {
+	            decoder = loaded;
+	            listener.onDecoderLoaded(loaded);
+	            checkReady();
+	          }
+	        });
+	      }
+	    }, TAG + "-decoder");
+	    thread.setDaemon(true);
+	    thread.start();
+	}
+	
+	/**
+	 * Loads a new qmcore. The SDK unpacks its native library when loading, so every load in the
+	 * process goes through here to not race on that. Takes a while; keep off the main thread.
+	 */
+	static qmcore loadQmcore(Activity host) {
+	    synchronized (qmcore.class) {
+	      return new qmcore(host);
+	    }
+	}
+	
+	/**
+	 * Runs a synthetic frame through the decoder, so the first real frame doesn't pay for the
+	 * native library's first-call setup.
+	 */
+	private static void warmUp(qmcore loaded) {
+	    long warmUpStart = System.nanoTime();
+	    byte[] frame = new SyntheticFrameGenerator(0).generate(qmcore.TWOD_QRCODE, "QuickMark",
+	        WARM_UP_WIDTH, WARM_UP_HEIGHT);
+	    byte[] matrix = new DecodeBufferSource(frame, WARM_UP_WIDTH, WARM_UP_HEIGHT, 0, 0,
+	        WARM_UP_WIDTH, WARM_UP_HEIGHT).getMatrix();
+	    BarcodeDecoder warmUpDecoder = new QuickMarkBarcodeDecoder(loaded);
+	    boolean decoded = false;
+	    for (int i = 0; i < WARM_UP_DECODES; i++) {
+	      decoded |= warmUpDecoder.decode(matrix, WARM_UP_WIDTH, WARM_UP_HEIGHT, DecodeFormats.ALL) != null;
+	    }
+	    Log.i(TAG, "Warmed up the decoder in " + (System.nanoTime() - warmUpStart) / 1000000L + " ms" +
+	        (decoded ? "" : ", without a result"));
+	}
+	
+	/**
+	 * Opens and configures the camera in the background. Call {@link #setSurface} once the
+	 * preview surface exists.
+	 */
+	public void openCamera() {
+	    final int attempt = ++generation;
+	    wantedGeneration = attempt;
+	    cameraReady = false;
+	    readyReported = false;
+	    cameraExecutor.execute(new Runnable() {
+	      public void run() {
+	        CameraManager cameraManager = CameraManager.get();
+	        try {
+	          // Under the camera manager's lock, so a cancel followed by closeDriver either waits
+	          // for this step or makes it skip.
+	          long openStart = System.nanoTime();
+	          synchronized (cameraManager) {
+	            if (attempt != wantedGeneration) {
+	              return;
+	            }
+	            cameraManager.openCamera();
+	          }
+	          mark(CAMERA_OPENED);
+	          long configureStart = System.nanoTime();
+	          synchronized (cameraManager) {
+	            if (attempt != wantedGeneration) {
+	              return;
+	            }
+	            cameraManager.configureCamera();
+	          }
+	          mark(CAMERA_CONFIGURED);
+	          long end = System.nanoTime();
+	          lastCameraOpen = (cameraOpens++ == 0 ? "cold" : "warm") + " camera open: " +
+	              (configureStart - openStart) / 1000000L + " ms, configured in " +
+	              (end - configureStart) / 1000000L + " ms" +
+	              (cameraManager.isCameraProfileUsed() ? " from the saved profile" : "");
+	          Log.i(TAG, lastCameraOpen);
+	        } catch (IOException ioe) {
+	          reportFailure(attempt, ioe);
+	        } catch (RuntimeException e) {
+	          reportFailure(attempt, e);
+	        }
+	      }
+	    });
+	}
+	
+	/**
+	 * Attaches the camera being opened to its preview surface, after it is configured.
+	 */
+	public void setSurface(final SurfaceHolder holder) {
+	    mark(SURFACE_READY);
+	    final int attempt = generation;
+	    cameraExecutor.execute(new Runnable() {
+	      public void run() {
+	        CameraManager cameraManager = CameraManager.get();
+	        try {
+	          synchronized (cameraManager) {
+	            if (attempt != wantedGeneration) {
+	              return;
+	            }
+	            cameraManager.setPreviewDisplay(holder);
+	          }
+	          mark(DISPLAY_SET);
+	          mainHandler.post(new Runnable() {
+	            public void run() {
+	              if (attempt == generation) {
+	                cameraReady = true;
+	                checkReady();
+	              }
+	            }
+	          });
+	        } catch (IOException ioe) {
+	          reportFailure(attempt, ioe);
+	        } catch (RuntimeException e) {
+	          reportFailure(attempt, e);
+	        }
+	      }
+	    });
+	}
+	
+	/**
+	 * Creates a frame recorder on a new thread, since sizing and mapping its file takes a while, and
+	 * starts recording with it unless the camera opened last was cancelled meanwhile. Call after
+	 * {@link #openCamera}.
+	 */
+	public void startRecording(final File file) {
+	    final int attempt = generation;
+	    Thread thread = new Thread(new Runnable() {
+	      public void run() {
+	        FrameRecorder recorder;
+	        try {
+	          recorder = new FrameRecorder(file);
+	        } catch (IOException ioe) {
+	          Log.w(TAG, "Can't record frames to " + file, ioe);
+	          return;
+	        }
+	        CameraManager cameraManager = CameraManager.get();
+	        // Under the camera manager's lock, so a cancel followed by stopRecording either stops
+	        // this recorder or makes it close right away.
+	        synchronized (cameraManager) {
+	          if (attempt == wantedGeneration) {
+	            cameraManager.startRecording(recorder);
+	            return;
+	          }
+	        }
+	        try {
+	          recorder.close();
+	        } catch (IOException ioe) {
+	          Log.w(TAG, ioe);
+	        }
+	      }
+	    }, TAG + "-recorder");
+	    thread.setDaemon(true);
+	    thread.start();
+	}
+	
+	/**
+	 * Drops the camera attempt in flight, if any. Call before closing the camera driver.
+	 */
+	public void cancelCamera() {
+	    wantedGeneration = ++generation;
+	    cameraReady = false;
+	}
+	
+	/**
+	 * Stops the camera thread for good.
+	 */
+	public void shutdown() {
+	    cancelCamera();
+	    cameraExecutor.shutdown();
+	}
+	
+	private void reportFailure(final int attempt, final Exception e) {
+	    mainHandler.post(new Runnable() {
+	      public void run() {
+	        if (attempt == generation) {
+	          listener.onCameraFailed(e);
+	        }
+	      }
+	    });
+	}
+	
+	private void checkReady() {
+	    if (decoder != null && cameraReady && !readyReported) {
+	      readyReported = true;
+	      listener.onScannerReady();
+	      if (mark(SCANNER_READY)) {
+	        Log.i(TAG, "Startup:\n" + dump());
+	      }
+	    }
+	}
+	
+	/**
+	 * Records that a phase was reached, unless it was before. Safe from any thread.
+	 *
+	 * @return True if this was the first time.
+	 */
+	public boolean mark(int phase) {
+	    return phases.compareAndSet(phase, 0, System.nanoTime() - start + 1);
+	}
+	
+	/**
+	 * @return Milliseconds from the start to the first time the phase was reached, or -1.
+	 */
+	public long getPhaseMillis(int phase) {
+	    long time = phases.get(phase);
+	    return time == 0 ? -1 : (time - 1) / 1000000L;
+	}
+	
+	/**
+	 * @return The phases reached so far with their times, one per line, and the last camera open.
+	 */
+	public String dump() {
+	    StringBuilder out = new StringBuilder(256);
+	    for (int i = 0; i < PHASE_NAMES.length; i++) {
+	      long millis = getPhaseMillis(i);
+	      if (millis >= 0) {
+	        if (out.length() > 0) {
+	          out.append('\n');
+	        }
+	        out.append(PHASE_NAMES[i]).append(": ").append(millis).append(" ms");
+	      }
+	    }
+	    String cameraOpen = lastCameraOpen;
+	    if (cameraOpen != null) {
+	      out.append('\n').append(cameraOpen);
+	    }
+	    return out.toString();
+	}
+}
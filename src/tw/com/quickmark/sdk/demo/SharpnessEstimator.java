@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Estimates how sharp a crop is as the variance of the Laplacian over a subsampled grid, read in
+ * place from the camera frame. Blurred frames have little high frequency content and hence a low
+ * variance; frames below the threshold will not decode and are skipped.
+ *
+ * The latest score is kept for other stages, e.g. to decide when to focus. One instance can be
+ * shared by several decode threads; it never allocates.
+ */
+public final class SharpnessEstimator {
+
+	private static final int DEFAULT_SAMPLE_STEP = 4;
+	private static final int DEFAULT_MIN_SHARPNESS = 60;
+	
+	private volatile int sampleStep = DEFAULT_SAMPLE_STEP;
+	private volatile int minSharpness = DEFAULT_MIN_SHARPNESS;
+	private volatile int lastScore = -1;
+	
+	// Stats
+	private final AtomicLong measuredFrames = new AtomicLong();
+	private final AtomicLong blurredFrames = new AtomicLong();
+	private final AtomicLong totalScore = new AtomicLong();
+	private final AtomicLong measureTime = new AtomicLong();
+	
+	/**
+	 * Scores the crop of one frame and remembers the score as the latest one.
+	 *
+	 * @return The variance of the Laplacian; higher is sharper.
+	 */
+	public int measure(DecodeBufferSource source) {
+	    long start = System.nanoTime();
+	    byte[] data = source.getData();
+	    int stride = source.getRowStride();
+	    int width = source.getWidth();
+	    int height = source.getHeight();
+	    int step = sampleStep;
+	    
+	    long sum = 0;
+	    long sumOfSquares = 0;
+	    int samples = 0;
+	    // Stay one pixel inside the crop so every sample has all four neighbours.
+	    for (int y = 1; y < height - 1; y += step) {
+	      int index = source.getDataOffset() + y * stride + 1;
+	      for (int x = 1; x < width - 1; x += step, index += step) {
+	        int laplacian = 4 * (data[index] & 0xff) - (data[index - 1] & 0xff) -
+	            (data[index + 1] & 0xff) - (data[index - stride] & 0xff) - (data[index + stride] & 0xff);
+	        sum += laplacian;
+	        sumOfSquares += laplacian * laplacian;
+	        samples++;
+	      }
+	    }
+	    
+	    int score = 0;
+	    if (samples > 0) {
+	      long mean = sum / samples;
+	      score = (int) Math.min(Integer.MAX_VALUE, sumOfSquares / samples - mean * mean);
+	    }
+	    lastScore = score;
+	    measuredFrames.incrementAndGet();
+	    totalScore.addAndGet(score);
+	    measureTime.addAndGet(System.nanoTime() - start);
+	    return score;
+	}
+	
+	/**
+	 * @return True if a frame with this score is worth decoding. Counts the frames which aren't.
+	 */
+	public boolean isSharp(int score) {
+	    if (score >= minSharpness) {
+	      return true;
+	    }
+	    blurredFrames.incrementAndGet();
+	    return false;
+	}
+	
+	/**
+	 * @return The score of the most recently measured frame, or -1 if none was measured yet.
+	 */
+	public int getLastScore() {
+	    return lastScore;
+	}
+	
+	/**
+	 * @param sampleStep The distance in pixels between two sampled points, in both directions.
+	 */
+	public void setSampleStep(int sampleStep) {
+	    if (sampleStep < 1) {
+	      throw new IllegalArgumentException("Sample step must be positive: " + sampleStep);
+	    }
+	    this.sampleStep = sampleStep;
+	}
+	
+	/**
+	 * @param minSharpness The lowest score which is still worth decoding.
+	 */
+	public void setMinSharpness(int minSharpness) {
+	    this.minSharpness = minSharpness;
+	}
+	
+	public int getMinSharpness() {
+	    return minSharpness;
+	}
+	
+	public long getMeasuredFrameCount() {
+	    return measuredFrames.get();
+	}
+	
+	public long getBlurredFrameCount() {
+	    return blurredFrames.get();
+	}
+	
+	public float getAverageScore() {
+	    long measured = measuredFrames.get();
+	    return measured == 0 ? 0.0f : (float) totalScore.get() / measured;
+	}
+	
+	/**
+	 * @return The mean time spent scoring one frame, in microseconds.
+	 */
+	public float getAverageMeasureMicros() {
+	    long measured = measuredFrames.get();
+	    return measured == 0 ? 0.0f : measureTime.get() / (measured * 1000.0f);
+	}
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import tw.com.quickmark.sdk.Result;
+
+/**
+ * Never finds anything. Stands in for the native decoder where it can't be loaded, e.g. on a
+ * desktop JVM, so the Java side of the pipeline can still be exercised and timed.
+ */
+public final class StubBarcodeDecoder implements BarcodeDecoder {
+	
+	public Result decode(byte[] matrix, int width, int height, int decodeFormat) {
+	    return null;
+	}
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import tw.com.quickmark.sdk.Result;
+
+/**
+ * Guesses whether the crop holds a linear (1D) or a matrix (2D) code before the native decoder
+ * runs, so it only has to try the formats of that kind. Evenly spaced rows and columns are
+ * sampled straight from the camera frame, like {@link FramePrescreen} does, and each line is
+ * binarized around the midpoint of its own range, with some hysteresis so noise and edges
+ * running along the line don't count. Lines without enough contrast are left out:
+ * <ul>
+ * <li>Bars cross many rows but hardly any column, or the other way round, so lines in one
+ * direction have several times the transitions of lines in the other; and a line a few pixels
+ * on crosses the same bars, just shifted when they are tilted: linear.</li>
+ * <li>About as many transitions in both directions, or runs in the 1:1:3:1:1 ratio of a QR
+ * finder pattern along both a row and a column without the transitions recurring on the
+ * parallel lines: matrix.</li>
+ * <li>Anything else is unknown and decoded with every format.</li>
+ * </ul>
+ *
+ * To measure how often the guess is wrong, every auditInterval-th classified frame is decoded
+ * with every format anyway and the caller reports what it found. One instance can be shared by
+ * several decode threads.
+ */
+public final class SymbologyClassifier {
+
+	public static final int UNKNOWN = 0;
+	public static final int LINEAR = 1;
+	public static final int MATRIX = 2;
+	private static final int CLASSES = 3;
+	private static final String[] CLASS_NAMES = { "unknown", "linear", "matrix" };
+	
+	private static final int DEFAULT_SCANLINES = 16;
+	// Lines with less contrast than this, max minus min, cross nothing.
+	private static final int MIN_CONTRAST = 48;
+	// A pixel only changes colour an eighth of the contrast beyond the midpoint.
+	private static final int HYSTERESIS_SHIFT = 3;
+	// Lines crossing fewer edges than this only graze the code, or cross an edge in the scene.
+	private static final int MIN_LINE_TRANSITIONS = 3;
+	// The busier direction needs this many transitions per line to say anything.
+	private static final int MIN_TRANSITIONS = 8;
+	// Linear when the busier direction has this many times the transitions of the other.
+	private static final float LINEAR_RATIO = 3.0f;
+	// Each busy line is compared with the parallel line this many pixels on, shifted by up to as
+	// many pixels either way, which covers bars at any angle in one direction or the other.
+	private static final int PARALLEL_OFFSET = 12;
+	// Linear also when at least this share of the transitions recur on the parallel lines.
+	private static final float LINEAR_PARALLEL = 0.8f;
+	// Matrix when the quieter direction has at least this share of the busier one's transitions,
+	private static final float MATRIX_RATIO = 0.7f;
+	// or this share with finder patterns, as long as few transitions recur on the parallel lines:
+	// the bars of a tilted linear code mimic finder patterns too.
+	private static final float FINDER_MATRIX_RATIO = 0.5f;
+	private static final float FINDER_MATRIX_PARALLEL = 0.5f;
+	private static final int DEFAULT_AUDIT_INTERVAL = 32;
+	private static final int NO_CONTRAST = Integer.MIN_VALUE;
+	
+	private volatile boolean enabled = true;
+	private volatile int scanlines = DEFAULT_SCANLINES;
+	private volatile int auditInterval = DEFAULT_AUDIT_INTERVAL;
+	
+	// Stats
+	private final AtomicLongArray classified = new AtomicLongArray(CLASSES);
+	private final AtomicLong classifyTime = new AtomicLong();
+	private final AtomicLong narrowedFrames = new AtomicLong();
+	private final AtomicLong audits = new AtomicLong();
+	private final AtomicLong auditedDecodes = new AtomicLong();
+	private final AtomicLong misclassified = new AtomicLong();
+	
+	/**
+	 * Per thread scratch space.
+	 */
+	private static final class Scratch {
+	    final int[] stats = new int[8];
+	    final int[] runs = new int[5];
+	    int[] positions = new int[0];
+	    int[] parallelPositions = new int[0];
+	    boolean[] marks = new boolean[0];
+	    
+	    void ensureCapacity(int length) {
+	      if (positions.length < length) {
+	        positions = new int[length];
+	        parallelPositions = new int[length];
+	        marks = new boolean[length];
+	      }
+	    }
+	}
+	
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+	    @Override
+	    protected Scratch initialValue() {
+	      return new Scratch();
+	    }
+	};
+	
+	/**
+	 * Judges the crop of one frame.
+	 *
+	 * @return {@link #LINEAR}, {@link #MATRIX} or {@link #UNKNOWN}.
+	 */
+	public int classify(DecodeBufferSource source) {
+	    if (!enabled) {
+	      return UNKNOWN;
+	    }
+	    long start = System.nanoTime();
+	    byte[] data = source.getData();
+	    int offset = source.getDataOffset();
+	    int stride = source.getRowStride();
+	    int width = source.getWidth();
+	    int height = source.getHeight();
+	    int lines = scanlines;
+	    
+	    Scratch scratch = this.scratch.get();
+	    scratch.ensureCapacity(Math.max(width, height));
+	    // Transitions, lines with contrast and lines crossing a finder pattern, for rows and columns,
+	    // then the transitions compared with a parallel line and how many of them recurred there
+	    int[] stats = scratch.stats;
+	    for (int i = 0; i < stats.length; i++) {
+	      stats[i] = 0;
+	    }
+	    for (int i = 1; i <= lines; i++) {
+	      int y = height * i / (lines + 1);
+	      addLine(data, offset + y * stride, 1, width,
+	          y + PARALLEL_OFFSET < height ? PARALLEL_OFFSET * stride : 0, scratch, 0);
+	      int x = width * i / (lines + 1);
+	      addLine(data, offset + x, stride, height,
+	          x + PARALLEL_OFFSET < width ? PARALLEL_OFFSET : 0, scratch, 3);
+	    }
+	    
+	    int symbology = classify(stats[1] == 0 ? 0.0f : (float) stats[0] / stats[1],
+	        stats[4] == 0 ? 0.0f : (float) stats[3] / stats[4],
+	        stats[6] == 0 ? -1.0f : (float) stats[7] / stats[6], stats[2] > 0 && stats[5] > 0);
+	    classifyTime.addAndGet(System.nanoTime() - start);
+	    classified.incrementAndGet(symbology);
+	    return symbology;
+	}
+	
+	/**
+	 * The decision itself.
+	 *
+	 * @param rows The mean transitions per row with contrast.
+	 * @param columns The mean transitions per column with contrast.
+	 * @param parallel The share of transitions which recurred on the parallel lines, or -1 if no
+	 *                 line was busy enough to compare.
+	 * @param finders Whether finder patterns were seen in both directions.
+	 */
+	static int classify(float rows, float columns, float parallel, boolean finders) {
+	    float busier = Math.max(rows, columns);
+	    float quieter = Math.min(rows, columns);
+	    if (busier < MIN_TRANSITIONS) {
+	      return UNKNOWN;
+	    }
+	    if (quieter * LINEAR_RATIO <= busier || parallel >= LINEAR_PARALLEL) {
+	      return LINEAR;
+	    }
+	    if (quieter >= busier * MATRIX_RATIO || finders && parallel <= FINDER_MATRIX_PARALLEL &&
+	        quieter >= busier * FINDER_MATRIX_RATIO) {
+	      return MATRIX;
+	    }
+	    return UNKNOWN;
+	}
+	
+	/**
+	 * @return Whether the formats include both kinds, so classifying the frame could narrow them.
+	 */
+	public static boolean canNarrow(int decodeFormat) {
+	    return decodeFormat == 0 ||
+	        (decodeFormat & DecodeFormats.LINEAR) != 0 && (decodeFormat & DecodeFormats.MATRIX) != 0;
+	}
+	
+	/**
+	 * Narrows the formats to the kind of code the frame seems to hold.
+	 *
+	 * @param decodeFormat The qmcore format flags allowed; 0 means every one, as it does to the
+	 *                     decoder.
+	 * @return The allowed formats of the kind, or decodeFormat itself when the kind is unknown,
+	 *         none of its formats are allowed, or the frame is audited.
+	 */
+	public int narrow(int decodeFormat, int symbology) {
+	    if (symbology == UNKNOWN) {
+	      return decodeFormat;
+	    }
+	    int narrowed = (decodeFormat != 0 ? decodeFormat : DecodeFormats.ALL) &
+	        (symbology == LINEAR ? DecodeFormats.LINEAR : DecodeFormats.MATRIX);
+	    if (narrowed == 0) {
+	      return decodeFormat;
+	    }
+	    int interval = auditInterval;
+	    if (interval > 0 && narrowedFrames.incrementAndGet() % interval == 0) {
+	      audits.incrementAndGet();
+	      return decodeFormat;
+	    }
+	    return narrowed;
+	}
+	
+	/**
+	 * Reports what a frame decoded to.
+	 *
+	 * @param symbology What {@link #classify} said about the frame.
+	 * @param narrowed Whether {@link #narrow} narrowed its formats; a frame classified but not
+	 *                 narrowed was audited.
+	 * @param result What the frame decoded to, or null.
+	 */
+	public void reportOutcome(int symbology, boolean narrowed, Result result) {
+	    if (symbology == UNKNOWN || narrowed || result == null) {
+	      return;
+	    }
+	    auditedDecodes.incrementAndGet();
+	    int flag = DecodeFormats.flagFor(result.getBarcodeFormat());
+	    if (flag != 0 && classOf(flag) != symbology) {
+	      misclassified.incrementAndGet();
+	    }
+	}
+	
+	/**
+	 * @return {@link #LINEAR} or {@link #MATRIX} for a single qmcore format flag.
+	 */
+	public static int classOf(int flag) {
+	    return (flag & DecodeFormats.MATRIX) != 0 ? MATRIX : LINEAR;
+	}
+	
+	public static String getClassName(int symbology) {
+	    return CLASS_NAMES[symbology];
+	}
+	
+	/**
+	 * Scans one line into the stats, and if it is busy, compares it with its parallel line.
+	 *
+	 * @param parallelOffset From the line to its parallel line, in the data, or 0 for none.
+	 * @param base Where the line's direction starts in the stats.
+	 */
+	private static void addLine(byte[] data, int start, int increment, int count, int parallelOffset,
+	    Scratch scratch, int base) {
+	    int[] stats = scratch.stats;
+	    int transitions = scanLine(data, start, increment, count, scratch.runs, scratch.positions);
+	    if (transitions == NO_CONTRAST) {
+	      return;
+	    }
+	    if (transitions < 0) {
+	      transitions = -transitions - 1;
+	      stats[base + 2]++;
+	    }
+	    if (transitions < MIN_LINE_TRANSITIONS) {
+	      return;
+	    }
+	    stats[base] += transitions;
+	    stats[base + 1]++;
+	    
+	    if (parallelOffset == 0 || transitions < MIN_TRANSITIONS) {
+	      return;
+	    }
+	    int parallelTransitions = scanLine(data, start + parallelOffset, increment, count, scratch.runs,
+	        scratch.parallelPositions);
+	    if (parallelTransitions == NO_CONTRAST) {
+	      parallelTransitions = 0;
+	    } else if (parallelTransitions < 0) {
+	      parallelTransitions = -parallelTransitions - 1;
+	    }
+	    stats[6] += transitions;
+	    stats[7] += countRecurring(scratch.positions, transitions, scratch.parallelPositions,
+	        parallelTransitions, count, scratch.marks);
+	}
+	
+	/**
+	 * @return How many of the transitions recur on the parallel line, within a pixel, at the
+	 *         shift which matches the most of them.
+	 */
+	private static int countRecurring(int[] positions, int transitions, int[] parallelPositions,
+	    int parallelTransitions, int length, boolean[] marks) {
+	    for (int i = 0; i < parallelTransitions; i++) {
+	      marks[parallelPositions[i]] = true;
+	    }
+	    int best = 0;
+	    for (int shift = -PARALLEL_OFFSET; shift <= PARALLEL_OFFSET; shift++) {
+	      int recurring = 0;
+	      for (int i = 0; i < transitions; i++) {
+	        int position = positions[i] + shift;
+	        if (position > 0 && position < length - 1 &&
+	            (marks[position] || marks[position - 1] || marks[position + 1])) {
+	          recurring++;
+	        }
+	      }
+	      if (recurring > best) {
+	        best = recurring;
+	      }
+	    }
+	    for (int i = 0; i < parallelTransitions; i++) {
+	      marks[parallelPositions[i]] = false;
+	    }
+	    return best;
+	}
+	
+	/**
+	 * Binarizes one line around the midpoint of its range and counts its transitions.
+	 *
+	 * @param runs Scratch space for the last five run lengths.
+	 * @param positions Receives where along the line each transition is.
+	 * @return The transition count, -1 minus it if the line crosses a finder pattern, or
+	 *         {@link #NO_CONTRAST}.
+	 */
+	private static int scanLine(byte[] data, int start, int increment, int count, int[] runs,
+	    int[] positions) {
+	    int min = 255;
+	    int max = 0;
+	    int index = start;
+	    for (int i = 0; i < count; i++) {
+	      int value = data[index] & 0xff;
+	      if (value < min) {
+	        min = value;
+	      }
+	      if (value > max) {
+	        max = value;
+	      }
+	      index += increment;
+	    }
+	    if (max - min < MIN_CONTRAST) {
+	      return NO_CONTRAST;
+	    }
+	    int threshold = (min + max) >> 1;
+	    int margin = (max - min) >> HYSTERESIS_SHIFT;
+	    
+	    int transitions = 0;
+	    boolean finder = false;
+	    boolean dark = (data[start] & 0xff) < threshold;
+	    int run = 1;
+	    int completedRuns = 0;
+	    index = start;
+	    for (int i = 1; i < count; i++) {
+	      index += increment;
+	      int value = data[index] & 0xff;
+	      // Stays dark until clearly light, and the other way round.
+	      boolean pixelDark = value < (dark ? threshold + margin : threshold - margin);
+	      if (pixelDark == dark) {
+	        run++;
+	        continue;
+	      }
+	      positions[transitions++] = i;
+	      runs[0] = runs[1];
+	      runs[1] = runs[2];
+	      runs[2] = runs[3];
+	      runs[3] = runs[4];
+	      runs[4] = run;
+	      completedRuns++;
+	      // The run just ended was dark, so runs hold dark, light, dark, light, dark.
+	      if (dark && completedRuns >= 5 && !finder) {
+	        finder = isFinderPattern(runs);
+	      }
+	      dark = pixelDark;
+	      run = 1;
+	    }
+	    return finder ? -transitions - 1 : transitions;
+	}
+	
+	/**
+	 * @return Whether the runs are in the 1:1:3:1:1 ratio of a QR finder pattern, give or take
+	 *         half a module each.
+	 */
+	static boolean isFinderPattern(int[] runs) {
+	    int total = 0;
+	    for (int run : runs) {
+	      if (run == 0) {
+	        return false;
+	      }
+	      total += run;
+	    }
+	    if (total < 7) {
+	      return false;
+	    }
+	    float module = total / 7.0f;
+	    float variance = module / 2.0f;
+	    return Math.abs(module - runs[0]) < variance &&
+	        Math.abs(module - runs[1]) < variance &&
+	        Math.abs(3.0f * module - runs[2]) < 3.0f * variance &&
+	        Math.abs(module - runs[3]) < variance &&
+	        Math.abs(module - runs[4]) < variance;
+	}
+	
+	/**
+	 * @param enabled False to classify every frame as unknown, and so never narrow.
+	 */
+	public void setEnabled(boolean enabled) {
+	    this.enabled = enabled;
+	}
+	
+	/**
+	 * @param scanlines How many rows, and as many columns, to sample.
+	 */
+	public void setScanlines(int scanlines) {
+	    if (scanlines < 1) {
+	      throw new IllegalArgumentException("Need at least one scanline: " + scanlines);
+	    }
+	    this.scanlines = scanlines;
+	}
+	
+	/**
+	 * @param auditInterval Decode every this many narrowed frames with every format anyway, or 0
+	 *                      to never audit.
+	 */
+	public void setAuditInterval(int auditInterval) {
+	    this.auditInterval = auditInterval;
+	}
+	
+	/**
+	 * @return How many frames were classified as the given kind.
+	 */
+	public long getClassifiedCount(int symbology) {
+	    return classified.get(symbology);
+	}
+	
+	public long getAuditedDecodeCount() {
+	    return auditedDecodes.get();
+	}
+	
+	public long getMisclassifiedCount() {
+	    return misclassified.get();
+	}
+	
+	/**
+	 * @return The share of audited frames which decoded to the other kind of code than guessed.
+	 */
+	public float getMisclassificationRate() {
+	    long decoded = auditedDecodes.get();
+	    return decoded == 0 ? 0.0f : (float) misclassified.get() / decoded;
+	}
+	
+	/**
+	 * @return The mean time spent classifying one frame, in microseconds.
+	 */
+	public float getAverageClassifyMicros() {
+	    long count = classified.get(UNKNOWN) + classified.get(LINEAR) + classified.get(MATRIX);
+	    return count == 0 ? 0.0f : classifyTime.get() / (count * 1000.0f);
+	}
+	
+	/**
+	 * @return The classes, the audit outcome and the time taken, as text.
+	 */
+	public String dump() {
+	    StringBuilder out = new StringBuilder(128);
+	    for (int i = 0; i < CLASSES; i++) {
+	      out.append(i == 0 ? "" : ", ").append(CLASS_NAMES[i]).append(' ').append(classified.get(i));
+	    }
+	    out.append("\naudited ").append(audits.get()).append(", ").append(auditedDecodes.get())
+	        .append(" decoded, ").append(misclassified.get()).append(" misclassified, ")
+	        .append(String.format("%.1f", getAverageClassifyMicros())).append(" us/frame");
+	    return out.toString();
+	}
+}
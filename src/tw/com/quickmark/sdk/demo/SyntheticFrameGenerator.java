@@ -0,0 +1,495 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import tw.com.quickmark.sdk.qmcore;
+
+/**
+ * Draws barcodes from {@link BarcodeEncoder} into NV21 (YCbCr_420_SP) preview frames, the way a
+ * camera might see them: scaled, rotated, in perspective, blurred, noisy, under glare and at low
+ * contrast. Everything random comes from the seed, so the same seed gives the same frames, to
+ * benchmark and accuracy-test the decode path headlessly.
+ *
+ * As a tool it writes a directory of frames for {@link BatchDecodeTool}, or a recording for
+ * {@link ReplayTool}:
+ *
+ * Usage: SyntheticFrameGenerator [-count n] [-size WxH] [-formats mask] [-seed s] [-module px]
+ *        [-rotation deg] [-perspective f] [-blur px] [-noise levels] [-glare f] [-contrast f]
+ *        [-recording] target
+ *
+ * The formats cycle from frame to frame. Rotation, perspective, blur, noise and glare are maxima,
+ * each frame drawing its own value up to them; -contrast is the lowest contrast drawn. Each frame's
+ * sidecar properties hold the text and format encoded and the values drawn.
+ */
+public final class SyntheticFrameGenerator {
+
+	/** Preview sizes CameraConfigurationManager ends up with on common HVGA, WVGA and HD screens. */
+	public static final int[][] PREVIEW_SIZES = { {480, 320}, {640, 480}, {800, 480}, {1280, 720} };
+	
+	// android.graphics.PixelFormat.YCbCr_420_SP, without depending on Android
+	private static final int PREVIEW_FORMAT_NV21 = 17;
+	private static final int MID_LEVEL = 128;
+	private static final int FULL_SWING = 100;
+	// How tall 1D codes are drawn, relative to their width
+	private static final float LINEAR_ASPECT = 0.4f;
+	private static final String TEXT_ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+	
+	private final Random random;
+	private float moduleSize = 4.0f;
+	private float rotation;
+	private float perspective;
+	private float blur;
+	private float noise;
+	private float glare;
+	private float contrast = 1.0f;
+	private int[] luminance;
+	private int[] scratch;
+	
+	public SyntheticFrameGenerator(long seed) {
+	    random = new Random(seed);
+	}
+	
+	public static void main(String[] args) throws IOException {
+	    int count = 100;
+	    int width = 640;
+	    int height = 480;
+	    int formats = DecodeFormats.ALL;
+	    long seed = 1;
+	    float moduleSize = 4.0f;
+	    float maxRotation = 0.0f;
+	    float maxPerspective = 0.0f;
+	    float maxBlur = 0.0f;
+	    float maxNoise = 0.0f;
+	    float maxGlare = 0.0f;
+	    float minContrast = 1.0f;
+	    boolean recording = false;
+	    File target = null;
+	    for (int i = 0; i < args.length; i++) {
+	      String arg = args[i];
+	      boolean hasValue = i + 1 < args.length;
+	      if ("-count".equals(arg) && hasValue) {
+	        count = Integer.parseInt(args[++i]);
+	      } else if ("-size".equals(arg) && hasValue) {
+	        String[] size = args[++i].split("x");
+	        width = Integer.parseInt(size[0]);
+	        height = Integer.parseInt(size[1]);
+	      } else if ("-formats".equals(arg) && hasValue) {
+	        formats = Integer.decode(args[++i]);
+	      } else if ("-seed".equals(arg) && hasValue) {
+	        seed = Long.parseLong(args[++i]);
+	      } else if ("-module".equals(arg) && hasValue) {
+	        moduleSize = Float.parseFloat(args[++i]);
+	      } else if ("-rotation".equals(arg) && hasValue) {
+	        maxRotation = Float.parseFloat(args[++i]);
+	      } else if ("-perspective".equals(arg) && hasValue) {
+	        maxPerspective = Float.parseFloat(args[++i]);
+	      } else if ("-blur".equals(arg) && hasValue) {
+	        maxBlur = Float.parseFloat(args[++i]);
+	      } else if ("-noise".equals(arg) && hasValue) {
+	        maxNoise = Float.parseFloat(args[++i]);
+	      } else if ("-glare".equals(arg) && hasValue) {
+	        maxGlare = Float.parseFloat(args[++i]);
+	      } else if ("-contrast".equals(arg) && hasValue) {
+	        minContrast = Float.parseFloat(args[++i]);
+	      } else if ("-recording".equals(arg)) {
+	        recording = true;
+	      } else if (target == null && !arg.startsWith("-")) {
+	        target = new File(arg);
+	      } else {
+	        target = null;
+	        break;
+	      }
+	    }
+	    int[] flags = new int[DecodeFormats.FLAGS.length];
+	    int formatCount = 0;
+	    for (int flag : DecodeFormats.FLAGS) {
+	      if ((formats & flag) != 0) {
+	        flags[formatCount++] = flag;
+	      }
+	    }
+	    if (target == null || count < 1 || formatCount == 0 || width < 1 || height < 1) {
+	      System.err.println("Usage: SyntheticFrameGenerator [-count n] [-size WxH] [-formats mask] " +
+	          "[-seed s] [-module px] [-rotation deg] [-perspective f] [-blur px] [-noise levels] " +
+	          "[-glare f] [-contrast f] [-recording] target");
+	      return;
+	    }
+	    
+	    SyntheticFrameGenerator generator = new SyntheticFrameGenerator(seed);
+	    Random random = generator.getRandom();
+	    FrameRecorder recorder = null;
+	    if (recording) {
+	      recorder = new FrameRecorder(target, count, FrameRecording.HEADER_SIZE +
+	          count * (FrameRecording.ENTRY_SIZE + width * height));
+	    } else if (!target.isDirectory() && !target.mkdirs()) {
+	      throw new IOException("Can't create " + target);
+	    }
+	    byte[] frame = null;
+	    try {
+	      for (int i = 0; i < count; i++) {
+	        int format = flags[i % formatCount];
+	        String text = generator.randomText(format);
+	        boolean[][] modules = BarcodeEncoder.encode(format, text);
+	        // Shrink what wouldn't fit
+	        float columns = modules[0].length;
+	        float rows = modules.length == 1 ? columns * LINEAR_ASPECT : modules.length;
+	        generator.setModuleSize(Math.min(moduleSize, Math.min(width / columns, height / rows)));
+	        generator.setRotation((random.nextFloat() * 2 - 1) * maxRotation);
+	        generator.setPerspective(random.nextFloat() * maxPerspective);
+	        generator.setBlur(random.nextFloat() * maxBlur);
+	        generator.setNoise(random.nextFloat() * maxNoise);
+	        generator.setGlare(random.nextFloat() * maxGlare);
+	        generator.setContrast(minContrast + (1.0f - minContrast) * random.nextFloat());
+	        frame = generator.render(modules, width, height, frame);
+	        
+	        if (recorder != null) {
+	          // 30 frames a second
+	          recorder.record(frame, width, height, PREVIEW_FORMAT_NV21, 0, 0, width, height, i * 33333333L);
+	        } else {
+	          String name = String.format("frame-%05d", i);
+	          OutputStream out = new FileOutputStream(new File(target, name + ".nv21"));
+	          try {
+	            out.write(frame);
+	          } finally {
+	            out.close();
+	          }
+	          Properties metadata = generator.describe();
+	          metadata.setProperty("width", String.valueOf(width));
+	          metadata.setProperty("height", String.valueOf(height));
+	          metadata.setProperty("format", String.valueOf(format));
+	          metadata.setProperty("text", text);
+	          Writer writer = new OutputStreamWriter(new FileOutputStream(new File(target, name + ".properties")),
+	              "ISO-8859-1");
+	          try {
+	            metadata.store(writer, null);
+	          } finally {
+	            writer.close();
+	          }
+	        }
+	      }
+	    } finally {
+	      if (recorder != null) {
+	        recorder.close();
+	      }
+	    }
+	}
+	
+	/**
+	 * Renders text in the given format, centered.
+	 *
+	 * @param format A single qmcore format flag.
+	 * @return A new NV21 frame.
+	 */
+	public byte[] generate(int format, String text, int width, int height) {
+	    return render(BarcodeEncoder.encode(format, text), width, height, null);
+	}
+	
+	/**
+	 * Renders a module pattern, quiet zone included, centered in the frame with the current
+	 * settings. A single row pattern is drawn as a 1D code, with bars.
+	 *
+	 * @param frame An NV21 buffer of at least width * height * 3 / 2 bytes to draw into, or null
+	 *              for a new one.
+	 * @return The frame.
+	 */
+	public byte[] render(boolean[][] modules, int width, int height, byte[] frame) {
+	    int pixels = width * height;
+	    if (frame == null || frame.length < pixels * 3 / 2) {
+	      frame = new byte[pixels * 3 / 2];
+	    }
+	    if (luminance == null || luminance.length < pixels) {
+	      luminance = new int[pixels];
+	      scratch = new int[pixels];
+	    }
+	    int rows = modules.length;
+	    int columns = modules[0].length;
+	    float symbolWidth = columns * moduleSize;
+	    float symbolHeight = rows == 1 ? symbolWidth * LINEAR_ASPECT : rows * moduleSize;
+	    
+	    // The symbol's corners: keystoned by the perspective, rotated, then centered
+	    float[] corners = {
+	        -symbolWidth / 2 * (1.0f - perspective), -symbolHeight / 2,
+	        symbolWidth / 2 * (1.0f - perspective), -symbolHeight / 2,
+	        symbolWidth / 2, symbolHeight / 2,
+	        -symbolWidth / 2, symbolHeight / 2
+	    };
+	    double angle = Math.toRadians(rotation);
+	    float cos = (float) Math.cos(angle);
+	    float sin = (float) Math.sin(angle);
+	    for (int i = 0; i < 8; i += 2) {
+	      float x = corners[i];
+	      float y = corners[i + 1];
+	      corners[i] = x * cos - y * sin + width / 2.0f;
+	      corners[i + 1] = x * sin + y * cos + height / 2.0f;
+	    }
+	    float[] toSymbol = invert(squareToQuad(corners));
+	    
+	    int light = MID_LEVEL + Math.round(FULL_SWING * contrast);
+	    int dark = MID_LEVEL - Math.round(FULL_SWING * contrast);
+	    int background = (light + dark) / 2;
+	    float[] point = new float[2];
+	    for (int y = 0; y < height; y++) {
+	      for (int x = 0; x < width; x++) {
+	        // 2x2 samples per pixel, for smooth edges
+	        int darkSamples = 0;
+	        int outside = 0;
+	        for (int sample = 0; sample < 4; sample++) {
+	          transform(toSymbol, x + 0.25f + (sample & 1) * 0.5f, y + 0.25f + (sample >> 1) * 0.5f, point);
+	          float u = point[0];
+	          float v = point[1];
+	          if (u < 0.0f || u >= 1.0f || v < 0.0f || v >= 1.0f) {
+	            outside++;
+	          } else if (modules[Math.min((int) (v * rows), rows - 1)][Math.min((int) (u * columns), columns - 1)]) {
+	            darkSamples++;
+	          }
+	        }
+	        luminance[y * width + x] = (darkSamples * dark + outside * background +
+	            (4 - darkSamples - outside) * light) / 4;
+	      }
+	    }
+	    
+	    if (blur > 0.0f) {
+	      blur(width, height);
+	    }
+	    if (glare > 0.0f) {
+	      addGlare(width, height, corners);
+	    }
+	    for (int i = 0; i < pixels; i++) {
+	      int value = luminance[i];
+	      if (noise > 0.0f) {
+	        value += Math.round(random.nextGaussian() * noise);
+	      }
+	      frame[i] = (byte) Math.max(0, Math.min(255, value));
+	    }
+	    Arrays.fill(frame, pixels, pixels * 3 / 2, (byte) MID_LEVEL);
+	    return frame;
+	}
+	
+	/**
+	 * A Gaussian blur of the current blur radius, as three box blurs of similar variance.
+	 */
+	private void blur(int width, int height) {
+	    // Three passes of a box of radius r have a variance of r(r + 1)
+	    int radius = Math.round((float) ((Math.sqrt(1.0 + 4.0 * blur * blur) - 1.0) / 2.0));
+	    if (radius < 1) {
+	      radius = 1;
+	    }
+	    for (int pass = 0; pass < 3; pass++) {
+	      boxBlur(luminance, scratch, height, width, radius, 1, width);
+	      boxBlur(scratch, luminance, width, height, radius, width, 1);
+	    }
+	}
+	
+	/**
+	 * Blurs along lines of the image; step is the distance between neighbours along a line and
+	 * lineStep the distance between lines. Edges are extended.
+	 */
+	private static void boxBlur(int[] in, int[] out, int lines, int length, int radius, int step,
+	    int lineStep) {
+	    int window = radius * 2 + 1;
+	    for (int line = 0; line < lines; line++) {
+	      int start = line * lineStep;
+	      int last = start + (length - 1) * step;
+	      int sum = 0;
+	      for (int i = -radius; i <= radius; i++) {
+	        sum += in[start + Math.max(0, Math.min(length - 1, i)) * step];
+	      }
+	      for (int i = 0; i < length; i++) {
+	        out[start + i * step] = sum / window;
+	        int leaving = start + Math.max(0, i - radius) * step;
+	        int entering = Math.min(last, start + (i + radius + 1) * step);
+	        sum += in[entering] - in[leaving];
+	      }
+	    }
+	}
+	
+	/**
+	 * Brightens a round spot somewhere over the symbol.
+	 */
+	private void addGlare(int width, int height, float[] corners) {
+	    float centerX = corners[0] + (corners[4] - corners[0]) * random.nextFloat();
+	    float centerY = corners[1] + (corners[5] - corners[1]) * random.nextFloat();
+	    float spread = Math.max(Math.abs(corners[4] - corners[0]), Math.abs(corners[5] - corners[1])) / 4;
+	    float strength = glare * 255.0f;
+	    for (int y = 0; y < height; y++) {
+	      float dy = y - centerY;
+	      for (int x = 0; x < width; x++) {
+	        float dx = x - centerX;
+	        float falloff = (dx * dx + dy * dy) / (2 * spread * spread);
+	        if (falloff < 9.0f) {
+	          luminance[y * width + x] += Math.round(strength * Math.exp(-falloff));
+	        }
+	      }
+	    }
+	}
+	
+	/**
+	 * @return The homography taking the unit square's corners, clockwise from (0,0), to the
+	 *         quadrilateral's, as the coefficients a11, a21, a31, a12, a22, a32, a13, a23, a33.
+	 */
+	static float[] squareToQuad(float[] quad) {
+	    float x0 = quad[0], y0 = quad[1], x1 = quad[2], y1 = quad[3];
+	    float x2 = quad[4], y2 = quad[5], x3 = quad[6], y3 = quad[7];
+	    float dx3 = x0 - x1 + x2 - x3;
+	    float dy3 = y0 - y1 + y2 - y3;
+	    if (dx3 == 0.0f && dy3 == 0.0f) {
+	      return new float[] { x1 - x0, x2 - x1, x0, y1 - y0, y2 - y1, y0, 0.0f, 0.0f, 1.0f };
+	    }
+	    float dx1 = x1 - x2;
+	    float dx2 = x3 - x2;
+	    float dy1 = y1 - y2;
+	    float dy2 = y3 - y2;
+	    float denominator = dx1 * dy2 - dx2 * dy1;
+	    float a13 = (dx3 * dy2 - dx2 * dy3) / denominator;
+	    float a23 = (dx1 * dy3 - dx3 * dy1) / denominator;
+	    return new float[] {
+	        x1 - x0 + a13 * x1, x3 - x0 + a23 * x3, x0,
+	        y1 - y0 + a13 * y1, y3 - y0 + a23 * y3, y0,
+	        a13, a23, 1.0f
+	    };
+	}
+	
+	/**
+	 * @return The inverse homography, up to scale, from the adjoint.
+	 */
+	static float[] invert(float[] m) {
+	    float a11 = m[0], a21 = m[1], a31 = m[2], a12 = m[3], a22 = m[4], a32 = m[5];
+	    float a13 = m[6], a23 = m[7], a33 = m[8];
+	    return new float[] {
+	        a22 * a33 - a23 * a32, a23 * a31 - a21 * a33, a21 * a32 - a22 * a31,
+	        a13 * a32 - a12 * a33, a11 * a33 - a13 * a31, a12 * a31 - a11 * a32,
+	        a12 * a23 - a13 * a22, a13 * a21 - a11 * a23, a11 * a22 - a12 * a21
+	    };
+	}
+	
+	static void transform(float[] m, float x, float y, float[] out) {
+	    float denominator = m[6] * x + m[7] * y + m[8];
+	    out[0] = (m[0] * x + m[1] * y + m[2]) / denominator;
+	    out[1] = (m[3] * x + m[4] * y + m[5]) / denominator;
+	}
+	
+	/**
+	 * @return Random content the format can hold, from the generator's seed.
+	 */
+	public String randomText(int format) {
+	    StringBuilder text = new StringBuilder();
+	    switch (format) {
+	      case qmcore.ONED_EAN:
+	        for (int i = 0; i < 12; i++) {
+	          text.append((char) ('0' + random.nextInt(10)));
+	        }
+	        text.append(BarcodeEncoder.getEanCheckDigit(text.toString()));
+	        return text.toString();
+	      case qmcore.ONED_CODE39:
+	        appendRandom(text, TEXT_ALPHABET, 4 + random.nextInt(9));
+	        return text.toString();
+	      case qmcore.ONED_CODE128:
+	        for (int i = 4 + random.nextInt(13); i > 0; i--) {
+	          text.append((char) (' ' + 1 + random.nextInt(94)));
+	        }
+	        return text.toString();
+	      default:
+	        appendRandom(text, TEXT_ALPHABET + "abcdefghijklmnopqrstuvwxyz", 8 + random.nextInt(33));
+	        return text.toString();
+	    }
+	}
+	
+	private void appendRandom(StringBuilder text, String alphabet, int length) {
+	    for (int i = 0; i < length; i++) {
+	      text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+	    }
+	}
+	
+	/**
+	 * @param moduleSize Pixels per module, the narrowest bar for 1D codes.
+	 */
+	public void setModuleSize(float moduleSize) {
+	    this.moduleSize = moduleSize;
+	}
+	
+	/**
+	 * @param rotation Degrees clockwise.
+	 */
+	public void setRotation(float rotation) {
+	    this.rotation = rotation;
+	}
+	
+	/**
+	 * @param perspective How much shorter the top edge is than the bottom one, from 0 to below 1.
+	 */
+	public void setPerspective(float perspective) {
+	    this.perspective = perspective;
+	}
+	
+	/**
+	 * @param blur The standard deviation of the blur, in pixels.
+	 */
+	public void setBlur(float blur) {
+	    this.blur = blur;
+	}
+	
+	/**
+	 * @param noise The standard deviation of the sensor noise, in gray levels.
+	 */
+	public void setNoise(float noise) {
+	    this.noise = noise;
+	}
+	
+	/**
+	 * @param glare The brightness added at the center of the glare spot, from 0 to 1 of full white.
+	 */
+	public void setGlare(float glare) {
+	    this.glare = glare;
+	}
+	
+	/**
+	 * @param contrast The difference between dark and light modules, from 0 to 1 of full.
+	 */
+	public void setContrast(float contrast) {
+	    this.contrast = contrast;
+	}
+	
+	/**
+	 * @return The current settings, as properties.
+	 */
+	public Properties describe() {
+	    Properties settings = new Properties();
+	    settings.setProperty("moduleSize", String.valueOf(moduleSize));
+	    settings.setProperty("rotation", String.valueOf(rotation));
+	    settings.setProperty("perspective", String.valueOf(perspective));
+	    settings.setProperty("blur", String.valueOf(blur));
+	    settings.setProperty("noise", String.valueOf(noise));
+	    settings.setProperty("glare", String.valueOf(glare));
+	    settings.setProperty("contrast", String.valueOf(contrast));
+	    return settings;
+	}
+	
+	public Random getRandom() {
+	    return random;
+	}
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Above applies only to code derived from the ZXing project.
+ */
+ 
+package tw.com.quickmark.sdk.demo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tw.com.quickmark.sdk.Result;
+
+/**
+ * Finds several barcodes in one frame. The decoder returns a single result per call, so the crop
+ * is split into a grid of overlapping tiles which are decoded in parallel, together with the
+ * whole crop for codes larger than a tile. Results with the same text and format from
+ * overlapping tiles are the same code and reported once, at the smallest tile which held it.
+ *
+ * Any code no larger than the overlap between neighbouring tiles lies wholly within at least one
+ * of them. Each thread of the pool has its own decoder and crop buffer.
+ */
+public final class TiledDecoder {
+
+	private static final String TAG = TiledDecoder.class.getSimpleName();
+	
+	private static final int DEFAULT_COLUMNS = 3;
+	private static final int DEFAULT_ROWS = 2;
+	private static final float DEFAULT_OVERLAP = 0.3f;
+	
+	/**
+	 * Creates the decoder for each thread of the pool.
+	 */
+	public interface DecoderFactory {
+	    BarcodeDecoder newDecoder();
+	}
+	
+	/**
+	 * A result and the area of the frame it was found in.
+	 */
+	public static final class Decoded {
+	    private final Result result;
+	    private final int left;
+	    private final int top;
+	    private final int right;
+	    private final int bottom;
+	    
+	    Decoded(Result result, int left, int top, int right, int bottom) {
+	      this.result = result;
+	      this.left = left;
+	      this.top = top;
+	      this.right = right;
+	      this.bottom = bottom;
+	    }
+	    
+	    public Result getResult() {
+	      return result;
+	    }
+	    
+	    public int getLeft() {
+	      return left;
+	    }
+	    
+	    public int getTop() {
+	      return top;
+	    }
+	    
+	    public int getRight() {
+	      return right;
+	    }
+	    
+	    public int getBottom() {
+	      return bottom;
+	    }
+	    
+	    boolean overlaps(Decoded other) {
+	      return left < other.right && other.left < right && top < other.bottom && other.top < bottom;
+	    }
+	    
+	    boolean isSameCode(Decoded other) {
+	      return result.getText().equals(other.result.getText()) &&
+	          result.getBarcodeFormat() == other.result.getBarcodeFormat() && overlaps(other);
+	    }
+	    
+	    long getArea() {
+	      return (long) (right - left) * (bottom - top);
+	    }
+	}
+	
+	private final ExecutorService executor;
+	private final int threads;
+	private final ThreadLocal<BarcodeDecoder> decoders;
+	private final ThreadLocal<byte[]> matrixBuffers = new ThreadLocal<byte[]>();
+	
+	private volatile int columns = DEFAULT_COLUMNS;
+	private volatile int rows = DEFAULT_ROWS;
+	private volatile float overlap = DEFAULT_OVERLAP;
+	
+	// Stats
+	private final AtomicLong frames = new AtomicLong();
+	private final AtomicLong codes = new AtomicLong();
+	private final AtomicLong tileDecodes = new AtomicLong();
+	private final AtomicLong duplicates = new AtomicLong();
+	private final AtomicLong decodeTime = new AtomicLong();
+	
+	/**
+	 * @param threads The number of tiles decoded at once.
+	 * @param factory Creates one decoder per thread, on that thread.
+	 */
+	public TiledDecoder(int threads, final DecoderFactory factory) {
+	    if (threads < 1) {
+	      throw new IllegalArgumentException("Need at least one thread: " + threads);
+	    }
+	    this.threads = threads;
+	    this.decoders = new ThreadLocal<BarcodeDecoder>() {
+	      @Override
+	      protected BarcodeDecoder initialValue() {
+	        return factory.newDecoder();
+	      }
+	    };
+	    this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+	      private final AtomicInteger count = new AtomicInteger();
+	      public Thread newThread(Runnable runnable) {
+	        Thread thread = new Thread(runnable, TAG + '-' + count.incrementAndGet());
+	        thread.setDaemon(true);
+	        return thread;
+	      }
+	    });
+	}
+	
+	/**
+	 * Decodes every tile of the crop and the crop as a whole, and waits for all of them.
+	 *
+	 * @return The distinct codes found, in reading order of the tiles, with positions in the
+	 *         coordinates of the underlying image. Empty if nothing decoded.
+	 */
+	public List<Decoded> decode(DecodeBufferSource source, final int decodeFormat)
+	    throws InterruptedException {
+	    long start = System.nanoTime();
+	    List<Callable<Decoded>> tasks = new ArrayList<Callable<Decoded>>();
+	    int columnCount = columns;
+	    int rowCount = rows;
+	    float share = overlap;
+	    int tileWidth = getTileSize(source.getWidth(), columnCount, share);
+	    int tileHeight = getTileSize(source.getHeight(), rowCount, share);
+	    for (int row = 0; row < rowCount; row++) {
+	      int top = getTileStart(source.getHeight(), tileHeight, rowCount, row);
+	      for (int column = 0; column < columnCount; column++) {
+	        int left = getTileStart(source.getWidth(), tileWidth, columnCount, column);
+	        tasks.add(newTask(source.crop(left, top, tileWidth, tileHeight), decodeFormat));
+	      }
+	    }
+	    if (tasks.size() > 1) {
+	      tasks.add(newTask(source, decodeFormat));
+	    }
+	    
+	    List<Decoded> results = new ArrayList<Decoded>();
+	    for (Future<Decoded> future : executor.invokeAll(tasks)) {
+	      Decoded decoded;
+	      try {
+	        decoded = future.get();
+	      } catch (ExecutionException e) {
+	        Throwable cause = e.getCause();
+	        if (cause instanceof RuntimeException) {
+	          throw (RuntimeException) cause;
+	        }
+	        throw new IllegalStateException(cause);
+	      }
+	      if (decoded != null) {
+	        merge(results, decoded);
+	      }
+	    }
+	    
+	    tileDecodes.addAndGet(tasks.size());
+	    codes.addAndGet(results.size());
+	    frames.incrementAndGet();
+	    decodeTime.addAndGet(System.nanoTime() - start);
+	    return results;
+	}
+	
+	private Callable<Decoded> newTask(final DecodeBufferSource tile, final int decodeFormat) {
+	    return new Callable<Decoded>() {
+	      public Decoded call() {
+	        byte[] matrix = tile.getMatrix(matrixBuffers.get());
+	        if (tile.isCropped()) {
+	          matrixBuffers.set(matrix);
+	        }
+	        Result result = decoders.get().decode(matrix, tile.getWidth(), tile.getHeight(), decodeFormat);
+	        return result == null ? null : new Decoded(result, tile.getLeft(), tile.getTop(),
+	            tile.getLeft() + tile.getWidth(), tile.getTop() + tile.getHeight());
+	      }
+	    };
+	}
+	
+	/**
+	 * Adds decoded to results unless it is already there, keeping the tighter position.
+	 */
+	private void merge(List<Decoded> results, Decoded decoded) {
+	    for (int i = 0; i < results.size(); i++) {
+	      Decoded known = results.get(i);
+	      if (known.isSameCode(decoded)) {
+	        if (decoded.getArea() < known.getArea()) {
+	          results.set(i, decoded);
+	        }
+	        duplicates.incrementAndGet();
+	        return;
+	      }
+	    }
+	    results.add(decoded);
+	}
+	
+	/**
+	 * @return The size of count tiles which cover length, neighbours sharing overlap of their size.
+	 */
+	static int getTileSize(int length, int count, float overlap) {
+	    if (count <= 1) {
+	      return length;
+	    }
+	    return Math.min(length, (int) Math.ceil(length / (count - (count - 1) * overlap)));
+	}
+	
+	static int getTileStart(int length, int tileSize, int count, int index) {
+	    return count <= 1 ? 0 : (length - tileSize) * index / (count - 1);
+	}
+	
+	/**
+	 * Sets the tile grid. 1 x 1 decodes the crop as a whole only.
+	 *
+	 * @param overlap The share of a tile it has in common with its neighbour, from 0 to below 1.
+	 */
+	public void setGrid(int columns, int rows, float overlap) {
+	    if (columns < 1 || rows < 1 || overlap < 0.0f || overlap >= 1.0f) {
+	      throw new IllegalArgumentException("Bad tile grid: " + columns + 'x' + rows + ", overlap " + overlap);
+	    }
+	    this.columns = columns;
+	    this.rows = rows;
+	    this.overlap = overlap;
+	}
+	
+	public int getThreadCount() {
+	    return threads;
+	}
+	
+	/**
+	 * Stops the pool; frames being decoded are abandoned.
+	 */
+	public void shutdown() {
+	    executor.shutdownNow();
+	}
+	
+	public long getFrameCount() {
+	    return frames.get();
+	}
+	
+	public long getCodeCount() {
+	    return codes.get();
+	}
+	
+	/**
+	 * @return How many tile results were dropped as the same code found in a neighbouring tile.
+	 */
+	public long getDuplicateCount() {
+	    return duplicates.get();
+	}
+	
+	/**
+	 * @return The mean number of distinct codes found per frame.
+	 */
+	public float getAverageCodesPerFrame() {
+	    long count = frames.get();
+	    return count == 0 ? 0.0f : (float) codes.get() / count;
+	}
+	
+	/**
+	 * @return The mean number of decoder calls per frame, the whole crop included.
+	 */
+	public float getAverageTilesPerFrame() {
+	    long count = frames.get();
+	    return count == 0 ? 0.0f : (float) tileDecodes.get() / count;
+	}
+	
+	/**
+	 * @return Distinct codes found per second spent decoding.
+	 */
+	public float getCodesPerSecond() {
+	    long time = decodeTime.get();
+	    return time == 0 ? 0.0f : codes.get() * 1.0e9f / time;
+	}
+	
+	/**
+	 * @return The mean time to decode a frame, all tiles included, in milliseconds.
+	 */
+	public float getAverageFrameMillis() {
+	    long count = frames.get();
+	    return count == 0 ? 0.0f : decodeTime.get() / (count * 1.0e6f);
+	}
+	
+	@Override
+	public String toString() {
+	    return TAG + '[' + columns + 'x' + rows + " tiles, " + threads + " threads]";
+	}
+}
@@ -30,12 +30,17 @@ import android.view.View;
 public class ViewfinderView extends View {
 	private static final int[] SCANNER_ALPHA = {0, 64, 128, 192, 255, 192, 128, 64};
 	private static final long ANIMATION_DELAY = 100L;
+	private static final long LATENCY_REFRESH_DELAY = 500L;
+	private static final float LATENCY_TEXT_SIZE = 14.0f;
 	
 	private final Paint paint;
 	private final int maskColor;
 	private final int frameColor;
 	private final int laserColor;
+	private final int latencyTextColor;
+	private final StringBuilder latencyLine = new StringBuilder(64);
 	private int scannerAlpha;
+	private boolean latencyOverlay;
 	
 	// This constructor is used when the class is built from an XML resource.
 	public ViewfinderView(Context context, AttributeSet attrs) {
@@ -47,6 +52,7 @@ public class ViewfinderView extends View {
 	    maskColor = resources.getColor(R.color.viewfinder_mask);
 	    frameColor = resources.getColor(R.color.viewfinder_frame);
 	    laserColor = resources.getColor(R.color.viewfinder_laser);
+	    latencyTextColor = resources.getColor(R.color.viewfinder_latency_text);
 	    scannerAlpha = 0;
 	}
 
@@ -85,9 +91,43 @@ public class ViewfinderView extends View {
 	    // Request another update at the animation interval, but only repaint the laser line,
 	    // not the entire viewfinder mask.
 //	    postInvalidateDelayed(ANIMATION_DELAY, frame.left, frame.top, frame.right, frame.bottom);
+
+	    if (latencyOverlay) {
+	      drawLatencies(canvas, frame);
+	      postInvalidateDelayed(LATENCY_REFRESH_DELAY);
+	    }
+	}
+	
+	/**
+	 * Draws one line per pipeline stage above the framing rect, or below it if there's no room.
+	 */
+	private void drawLatencies(Canvas canvas, Rect frame) {
+	    PipelineLatency latency = CameraManager.get().getPipelineLatency();
+	    int stages = PipelineLatency.getStageCount();
+	    float lineHeight = LATENCY_TEXT_SIZE * 1.25f;
+	    float y = frame.top - stages * lineHeight;
+	    if (y < lineHeight) {
+	      y = frame.bottom + lineHeight * 2;
+	    }
+	    paint.setColor(latencyTextColor);
+	    paint.setTextSize(LATENCY_TEXT_SIZE);
+	    for (int i = 0; i < stages; i++) {
+	      latencyLine.setLength(0);
+	      latency.formatStage(i, latencyLine);
+	      canvas.drawText(latencyLine.toString(), frame.left, y, paint);
+	      y += lineHeight;
+	    }
 	}
 	
 	public void drawViewfinder() {
 	    invalidate();
 	}
+	
+	/**
+	 * @param latencyOverlay True to show per-stage latencies, refreshed twice a second.
+	 */
+	public void setLatencyOverlay(boolean latencyOverlay) {
+	    this.latencyOverlay = latencyOverlay;
+	    invalidate();
+	}
 }